@@ -41,6 +41,7 @@ import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.PersistableBundle;
+import android.os.UserHandle;
 import android.provider.Settings;
 import android.telecom.PhoneAccount;
 import android.telecom.TelecomManager;
@@ -49,6 +50,7 @@ import android.telephony.PhoneNumberUtils;
 import android.telephony.ServiceState;
 import android.telephony.SubscriptionManager;
 import android.telephony.TelephonyManager;
+import android.telephony.emergency.EmergencyNumber;
 import android.text.Editable;
 import android.text.InputType;
 import android.text.Spannable;
@@ -73,11 +75,13 @@ import android.widget.TextView;
 import com.android.phone.common.dialpad.DialpadKeyButton;
 import com.android.phone.common.util.ViewUtil;
 import com.android.phone.common.widget.ResizingTextEditText;
+import com.android.services.telephony.domainselection.TelephonyDomainSelectionService;
 import com.android.telephony.Rlog;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 /**
  * EmergencyDialer is a special dialer that is used ONLY for dialing emergency calls.
@@ -219,6 +223,8 @@ public class EmergencyDialer extends Activity implements View.OnClickListener,
     private boolean mSupportsDarkText;
 
     private boolean mIsWfcEmergencyCallingWarningEnabled;
+    // The emergency numbers used to detect the prefix of an emergency number being typed.
+    private final List<String> mEmergencyNumbers = new ArrayList<>();
     private float mDefaultDigitsTextSize;
 
     private int mEntryType;
@@ -252,6 +258,7 @@ public class EmergencyDialer extends Activity implements View.OnClickListener,
 
         updateDialAndDeleteButtonStateEnabledAttr();
         updateTtsSpans();
+        maybePrewarmForEmergencyNumberPrefix(input.toString());
     }
 
     @Override
@@ -662,6 +669,8 @@ public class EmergencyDialer extends Activity implements View.OnClickListener,
         }
 
         updateDialAndDeleteButtonStateEnabledAttr();
+        updateEmergencyNumbers();
+        prewarmEmergencyCall();
     }
 
     @Override
@@ -682,6 +691,50 @@ public class EmergencyDialer extends Activity implements View.OnClickListener,
         }
     }
 
+    private void updateEmergencyNumbers() {
+        mEmergencyNumbers.clear();
+        Map<Integer, List<EmergencyNumber>> emergencyNumberList;
+        try {
+            emergencyNumberList = getSystemService(TelephonyManager.class)
+                    .getEmergencyNumberList();
+        } catch (IllegalStateException ise) {
+            return;
+        }
+        for (List<EmergencyNumber> numbers : emergencyNumberList.values()) {
+            for (EmergencyNumber number : numbers) {
+                mEmergencyNumbers.add(number.getNumber());
+            }
+        }
+    }
+
+    /**
+     * Prepares for the emergency call when the digits typed so far are the prefix of an
+     * emergency number.
+     */
+    private void maybePrewarmForEmergencyNumberPrefix(String digits) {
+        if (TextUtils.isEmpty(digits)) return;
+        for (String number : mEmergencyNumbers) {
+            if (number.startsWith(digits)) {
+                prewarmEmergencyCall();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Asks the domain selection service to prepare for an emergency call, so the call can be
+     * placed faster if it is dialed.
+     */
+    private void prewarmEmergencyCall() {
+        // PhoneGlobals is not available when we run as a secondary user.
+        if (UserHandle.myUserId() != UserHandle.USER_SYSTEM) return;
+        TelephonyDomainSelectionService service =
+                PhoneGlobals.getInstance().mDomainSelectionService;
+        if (service != null) {
+            service.prewarmEmergencyCall();
+        }
+    }
+
     /**
      * Sets theme based on gradient colors
      *
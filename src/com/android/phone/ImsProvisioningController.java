@@ -62,6 +62,7 @@ import android.telephony.ims.feature.RcsFeature.RcsImsCapabilities;
 import android.telephony.ims.stub.ImsConfigImplBase;
 import android.telephony.ims.stub.ImsRegistrationImplBase;
 import android.util.SparseArray;
+import android.util.SparseIntArray;
 
 import com.android.ims.FeatureConnector;
 import com.android.ims.ImsConfig;
@@ -73,8 +74,13 @@ import com.android.internal.telephony.PhoneConfigurationManager;
 import com.android.internal.telephony.util.HandlerExecutor;
 import com.android.telephony.Rlog;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 
 /**
@@ -92,6 +98,7 @@ public class ImsProvisioningController {
     @VisibleForTesting
     protected static final int EVENT_MULTI_SIM_CONFIGURATION_CHANGE = 3;
     private static final int EVENT_PROVISIONING_VALUE_CHANGED = 4;
+    private static final int EVENT_PROVISIONING_CAPABILITIES_CHANGED = 5;
 
     // Provisioning Keys that are handled via AOSP cache and not sent to the ImsService
     private static final int[] LOCAL_IMS_CONFIG_KEYS = {
@@ -199,9 +206,72 @@ public class ImsProvisioningController {
     private final SparseArray<ProvisioningCallbackManager> mProvisioningCallbackManagersSlotMap =
             new SparseArray<>();
     private final ImsProvisioningLoader mImsProvisioningLoader;
+    // The provisioning required matrix of each subId, cleared when the carrier config or the
+    // subscriptions change.
+    private final ConcurrentHashMap<Integer, ProvisioningRequiredMatrix>
+            mProvisioningRequiredMatrices = new ConcurrentHashMap<>();
+
+    private final CarrierConfigManager.CarrierConfigChangeListener mCarrierConfigChangeListener =
+            (slotIndex, subId, carrierId, specificCarrierId) -> {
+                log("carrier config changed for subId " + subId);
+                mProvisioningRequiredMatrices.remove(subId);
+            };
 
     private int mNumSlot;
 
+    /**
+     * Whether provisioning is required for each capability and radio tech of a subscription.
+     * This is computed from the carrier config once, when it is first needed after the carrier
+     * config changes, so that queries during call setup do not read the carrier config.
+     */
+    private static final class ProvisioningRequiredMatrix {
+        // The techs that require provisioning, indexed by capability.
+        private final SparseArray<BitSet> mMmTelRequiredTechs = new SparseArray<>();
+        private final SparseArray<BitSet> mRcsRequiredTechs = new SparseArray<>();
+        // Set if KEY_CARRIER_RCS_PROVISIONING_REQUIRED_BOOL is set, all RCS capabilities and
+        // techs require provisioning.
+        private boolean mIsRcsRequiredForAll;
+
+        void setRequiredTechs(boolean isMmTel, int capability, @Nullable int[] techs) {
+            if (techs == null) return;
+            BitSet required = getRequiredTechs(isMmTel, capability);
+            for (int tech : techs) {
+                if (tech >= 0) required.set(tech);
+            }
+        }
+
+        void setRequiredForAllTechs(boolean isMmTel, int capability) {
+            getRequiredTechs(isMmTel, capability).set(REGISTRATION_TECH_NONE + 1,
+                    REGISTRATION_TECH_MAX);
+        }
+
+        void setRcsRequiredForAll() {
+            mIsRcsRequiredForAll = true;
+        }
+
+        boolean isRequired(boolean isMmTel, int capability, int tech) {
+            if (!isMmTel && mIsRcsRequiredForAll) return true;
+            BitSet required = (isMmTel ? mMmTelRequiredTechs : mRcsRequiredTechs).get(capability);
+            return required != null && required.get(tech);
+        }
+
+        private BitSet getRequiredTechs(boolean isMmTel, int capability) {
+            SparseArray<BitSet> techs = isMmTel ? mMmTelRequiredTechs : mRcsRequiredTechs;
+            BitSet required = techs.get(capability);
+            if (required == null) {
+                required = new BitSet();
+                techs.put(capability, required);
+            }
+            return required;
+        }
+
+        @Override
+        public String toString() {
+            return "{mmtel=" + mMmTelRequiredTechs + ", rcs=" + mRcsRequiredTechs
+                    + ", rcsRequiredForAll=" + mIsRcsRequiredForAll + "}";
+        }
+    }
+
     /**
      * This class contains the provisioning status to notify changes.
      * {{@link MmTelCapabilities.MmTelCapability} for MMTel services}
@@ -244,6 +314,16 @@ public class ImsProvisioningController {
                                 "can not find callback manager message" + msg.what);
                     }
                     break;
+                case EVENT_PROVISIONING_CAPABILITIES_CHANGED:
+                    try {
+                        mProvisioningCallbackManagersSlotMap.get(msg.arg1)
+                                .notifyProvisioningCapabilitiesChanged(
+                                        (List<FeatureProvisioningData>) msg.obj);
+                    } catch (NullPointerException e) {
+                        logw(LOG_PREFIX, msg.arg1,
+                                "can not find callback manager message" + msg.what);
+                    }
+                    break;
                 case EVENT_MULTI_SIM_CONFIGURATION_CHANGE:
                     int activeModemCount = (int) ((AsyncResult) msg.obj).result;
                     onMultiSimConfigChanged(activeModemCount);
@@ -326,43 +406,63 @@ public class ImsProvisioningController {
         }
 
         public void notifyProvisioningCapabilityChanged(FeatureProvisioningData data) {
+            notifyProvisioningCapabilitiesChanged(Collections.singletonList(data));
+        }
+
+        /**
+         * Notify all of the changes to each registered callback in a single broadcast.
+         */
+        public void notifyProvisioningCapabilitiesChanged(List<FeatureProvisioningData> changes) {
             int size = mIFeatureProvisioningCallbackList.beginBroadcast();
             for (int index = 0; index < size; index++) {
-                try {
-                    IFeatureProvisioningCallback imsFeatureProvisioningCallback =
-                            mIFeatureProvisioningCallbackList.getBroadcastItem(index);
-
-                    // MMTEL
-                    if (data.mIsMmTel
-                            && Arrays.stream(LOCAL_MMTEL_CAPABILITY)
-                            .anyMatch(value -> value == data.mCapability)) {
-                        imsFeatureProvisioningCallback.onFeatureProvisioningChanged(
-                                data.mCapability, data.mTech, data.mProvisioned);
-                        logi(LOG_PREFIX, mSlotId, "notifyProvisioningCapabilityChanged : "
-                                + "onFeatureProvisioningChanged"
-                                + " capability " + data.mCapability
-                                + " tech "  + data.mTech
-                                + " isProvisioned " + data.mProvisioned);
-                    } else if (data.mCapability == CAPABILITY_TYPE_PRESENCE_UCE) {
-                        imsFeatureProvisioningCallback.onRcsFeatureProvisioningChanged(
-                                data.mCapability, data.mTech, data.mProvisioned);
-                        logi(LOG_PREFIX, mSlotId, "notifyProvisioningCapabilityChanged : "
-                                + "onRcsFeatureProvisioningChanged"
-                                + " capability " + data.mCapability
-                                + " tech "  + data.mTech
-                                + " isProvisioned " + data.mProvisioned);
-                    } else {
-                        loge(LOG_PREFIX, mSlotId, "notifyProvisioningCapabilityChanged : "
-                                + "unknown capability "
-                                + data.mCapability);
+                IFeatureProvisioningCallback imsFeatureProvisioningCallback =
+                        mIFeatureProvisioningCallbackList.getBroadcastItem(index);
+                for (FeatureProvisioningData data : changes) {
+                    if (!notifyProvisioningCapabilityChanged(
+                            imsFeatureProvisioningCallback, index, data)) {
+                        // The callback is dead, skip its remaining changes.
+                        break;
                     }
-                } catch (RemoteException e) {
-                    loge(LOG_PREFIX, mSlotId,
-                            "notifyProvisioningChanged: callback #" + index + " failed");
                 }
             }
             mIFeatureProvisioningCallbackList.finishBroadcast();
         }
+
+        private boolean notifyProvisioningCapabilityChanged(
+                IFeatureProvisioningCallback imsFeatureProvisioningCallback, int index,
+                FeatureProvisioningData data) {
+            try {
+                // MMTEL
+                if (data.mIsMmTel
+                        && Arrays.stream(LOCAL_MMTEL_CAPABILITY)
+                        .anyMatch(value -> value == data.mCapability)) {
+                    imsFeatureProvisioningCallback.onFeatureProvisioningChanged(
+                            data.mCapability, data.mTech, data.mProvisioned);
+                    logi(LOG_PREFIX, mSlotId, "notifyProvisioningCapabilityChanged : "
+                            + "onFeatureProvisioningChanged"
+                            + " capability " + data.mCapability
+                            + " tech "  + data.mTech
+                            + " isProvisioned " + data.mProvisioned);
+                } else if (data.mCapability == CAPABILITY_TYPE_PRESENCE_UCE) {
+                    imsFeatureProvisioningCallback.onRcsFeatureProvisioningChanged(
+                            data.mCapability, data.mTech, data.mProvisioned);
+                    logi(LOG_PREFIX, mSlotId, "notifyProvisioningCapabilityChanged : "
+                            + "onRcsFeatureProvisioningChanged"
+                            + " capability " + data.mCapability
+                            + " tech "  + data.mTech
+                            + " isProvisioned " + data.mProvisioned);
+                } else {
+                    loge(LOG_PREFIX, mSlotId, "notifyProvisioningCapabilityChanged : "
+                            + "unknown capability "
+                            + data.mCapability);
+                }
+            } catch (RemoteException e) {
+                loge(LOG_PREFIX, mSlotId,
+                        "notifyProvisioningChanged: callback #" + index + " failed");
+                return false;
+            }
+            return true;
+        }
     }
 
     private final class MmTelFeatureListener implements FeatureConnector.Listener<ImsManager> {
@@ -841,6 +941,12 @@ public class ImsProvisioningController {
         mTelephonyRegistryManager.addOnSubscriptionsChangedListener(
                 mSubChangedListener, mSubChangedListener.getHandlerExecutor());
         mImsProvisioningLoader = imsProvisioningLoader;
+        if (mCarrierConfigManager != null) {
+            mCarrierConfigManager.registerCarrierConfigChangeListener(new HandlerExecutor(mHandler),
+                    mCarrierConfigChangeListener);
+        } else {
+            loge("Adding CarrierConfigChangeListener failed");
+        }
 
         PhoneConfigurationManager.registerForMultiSimConfigChange(mHandler,
                 EVENT_MULTI_SIM_CONFIGURATION_CHANGE, null);
@@ -904,6 +1010,11 @@ public class ImsProvisioningController {
         mHandler.getLooper().quit();
 
         mTelephonyRegistryManager.removeOnSubscriptionsChangedListener(mSubChangedListener);
+        if (mCarrierConfigManager != null) {
+            mCarrierConfigManager.unregisterCarrierConfigChangeListener(
+                    mCarrierConfigChangeListener);
+        }
+        mProvisioningRequiredMatrices.clear();
 
         for (int i = 0; i < mMmTelFeatureListenersSlotMap.size(); i++) {
             mMmTelFeatureListenersSlotMap.get(i).destroy();
@@ -1017,26 +1128,8 @@ public class ImsProvisioningController {
             throw new IllegalArgumentException("Registration technology '" + tech + "' is invalid");
         }
 
-        // check new carrier config first KEY_MMTEL_REQUIRES_PROVISIONING_BUNDLE
-        boolean retVal = isProvisioningRequired(subId, capability, tech, /*isMmTel*/true);
-
-        // if that returns false, check deprecated carrier config
-        // KEY_CARRIER_VOLTE_PROVISIONING_REQUIRED_BOOL, KEY_CARRIER_UT_PROVISIONING_REQUIRED_BOOL
-        if (!retVal && (capability == CAPABILITY_TYPE_VOICE
-                || capability == CAPABILITY_TYPE_VIDEO
-                || capability == CAPABILITY_TYPE_UT)) {
-            String key = CarrierConfigManager.KEY_CARRIER_VOLTE_PROVISIONING_REQUIRED_BOOL;
-            if (capability == CAPABILITY_TYPE_UT) {
-                key = CarrierConfigManager.KEY_CARRIER_UT_PROVISIONING_REQUIRED_BOOL;
-            }
-
-            PersistableBundle imsCarrierConfigs = mCarrierConfigManager.getConfigForSubId(subId);
-            if (imsCarrierConfigs != null) {
-                retVal = imsCarrierConfigs.getBoolean(key);
-            } else {
-                retVal = CarrierConfigManager.getDefaultConfig().getBoolean(key);
-            }
-        }
+        boolean retVal = getProvisioningRequiredMatrix(subId)
+                .isRequired(/*isMmTel*/true, capability, tech);
 
         log("isImsProvisioningRequiredForCapability capability " + capability
                 + " tech " + tech + " return value " + retVal);
@@ -1067,21 +1160,8 @@ public class ImsProvisioningController {
             throw new IllegalArgumentException("Registration technology '" + tech + "' is invalid");
         }
 
-        // check new carrier config first KEY_RCS_REQUIRES_PROVISIONING_BUNDLE
-        boolean retVal = isProvisioningRequired(subId, capability, tech, /*isMmTel*/false);
-
-        // if that returns false, check deprecated carrier config
-        // KEY_CARRIER_RCS_PROVISIONING_REQUIRED_BOOL
-        if (!retVal) {
-            PersistableBundle imsCarrierConfigs = mCarrierConfigManager.getConfigForSubId(subId);
-            if (imsCarrierConfigs != null) {
-                retVal = imsCarrierConfigs.getBoolean(
-                        CarrierConfigManager.KEY_CARRIER_RCS_PROVISIONING_REQUIRED_BOOL);
-            } else {
-                retVal = CarrierConfigManager.getDefaultConfig().getBoolean(
-                        CarrierConfigManager.KEY_CARRIER_RCS_PROVISIONING_REQUIRED_BOOL);
-            }
-        }
+        boolean retVal = getProvisioningRequiredMatrix(subId)
+                .isRequired(/*isMmTel*/false, capability, tech);
 
         log("isRcsProvisioningRequiredForCapability capability " + capability
                 + " tech " + tech + " return value " + retVal);
@@ -1235,6 +1315,72 @@ public class ImsProvisioningController {
         }
     }
 
+    /**
+     * set the provisioning status of several MmTel and RCS capabilities at once.
+     * <p>
+     * The statuses are persisted with a single write, each ImsService provisioning key affected
+     * by the changes is set once and registered callbacks are notified of all of the changes in
+     * one broadcast. Statuses of capabilities that do not require provisioning are ignored.
+     */
+    @VisibleForTesting
+    public void setProvisioningStatusForCapabilities(int subId,
+            List<ImsProvisioningLoader.ProvisioningStatus> statuses) {
+        List<ImsProvisioningLoader.ProvisioningStatus> required = new ArrayList<>(statuses.size());
+        for (ImsProvisioningLoader.ProvisioningStatus status : statuses) {
+            boolean isRequired = status.mImsFeature == FEATURE_MMTEL
+                    ? isImsProvisioningRequiredForCapability(subId, status.mCapability,
+                            status.mTech)
+                    : isRcsProvisioningRequiredForCapability(subId, status.mCapability,
+                            status.mTech);
+            if (isRequired) {
+                required.add(status);
+            } else {
+                log("setProvisioningStatusForCapabilities : not required " + status);
+            }
+        }
+        if (required.isEmpty()) return;
+
+        // write all of the statuses using ImsProvisioningLoader
+        List<ImsProvisioningLoader.ProvisioningStatus> changed =
+                setAndNotifyProvisioningValues(subId, required);
+        if (changed.isEmpty()) {
+            log("setProvisioningStatusForCapabilities : status not changed");
+            return;
+        }
+
+        int slotId = getSlotId(subId);
+        // key to value for the MmTel ImsService, the last change to a key wins
+        SparseIntArray mmTelValues = new SparseIntArray();
+        int eabValue = INVALID_VALUE;
+        for (ImsProvisioningLoader.ProvisioningStatus status : changed) {
+            if (status.mImsFeature == FEATURE_MMTEL) {
+                int key = getKeyFromCapability(status.mCapability, status.mTech);
+                if (key != INVALID_VALUE) {
+                    mmTelValues.put(key, getIntValue(status.mIsProvisioned));
+                }
+            } else {
+                eabValue = getIntValue(status.mIsProvisioned);
+            }
+        }
+
+        try {
+            MmTelFeatureListener mmTelListener = mMmTelFeatureListenersSlotMap.get(slotId);
+            for (int i = 0; i < mmTelValues.size(); i++) {
+                mmTelListener.setProvisioningValue(mmTelValues.keyAt(i), mmTelValues.valueAt(i));
+            }
+            if (eabValue != INVALID_VALUE) {
+                // see setRcsProvisioningStatusForCapability
+                RcsFeatureListener rcsListener = mRcsFeatureListenersSlotMap.get(slotId);
+                if (rcsListener.isConnectionReady()) {
+                    rcsListener.setProvisioningValue(KEY_EAB_PROVISIONING_STATUS, eabValue);
+                }
+                mmTelListener.setProvisioningValue(KEY_EAB_PROVISIONING_STATUS, eabValue);
+            }
+        } catch (NullPointerException e) {
+            loge("can not access FeatureListener for slot " + slotId);
+        }
+    }
+
     /**
      * set RCS provisioning status in specific key and value
      * @param key integer key, defined as one of
@@ -1372,54 +1518,72 @@ public class ImsProvisioningController {
         return mHandler;
     }
 
-    private boolean isProvisioningRequired(int subId, int capability, int tech, boolean isMmTel) {
-        int[] techArray;
-        techArray = getTechsFromCarrierConfig(subId, capability, isMmTel);
-        if (techArray == null) {
-            logw("isProvisioningRequired : getTechsFromCarrierConfig failed");
-            // not exist in CarrierConfig that means provisioning is not required
-            return false;
+    /**
+     * @return The provisioning required matrix of the subscription, building it from the carrier
+     * config if it has not been built since the carrier config last changed.
+     */
+    private ProvisioningRequiredMatrix getProvisioningRequiredMatrix(int subId) {
+        return mProvisioningRequiredMatrices.computeIfAbsent(subId,
+                this::buildProvisioningRequiredMatrix);
+    }
+
+    private ProvisioningRequiredMatrix buildProvisioningRequiredMatrix(int subId) {
+        PersistableBundle imsCarrierConfigs = mCarrierConfigManager.getConfigForSubId(subId);
+        if (imsCarrierConfigs == null) {
+            log("buildProvisioningRequiredMatrix : imsCarrierConfigs null");
         }
+        // The deprecated carrier configs are read from the default config when the carrier config
+        // is not available.
+        PersistableBundle deprecatedConfigs = imsCarrierConfigs != null
+                ? imsCarrierConfigs : CarrierConfigManager.getDefaultConfig();
 
-        // compare with carrier config
-        if (Arrays.stream(techArray).anyMatch(keyValue -> keyValue == tech)) {
-            // existing same tech means provisioning required
-            return true;
+        ProvisioningRequiredMatrix matrix = new ProvisioningRequiredMatrix();
+        for (Map.Entry<Integer, String> e : KEYS_MMTEL_CAPABILITY.entrySet()) {
+            int capability = e.getKey();
+            // check new carrier config first KEY_MMTEL_REQUIRES_PROVISIONING_BUNDLE
+            matrix.setRequiredTechs(/*isMmTel*/true, capability, getTechsFromCarrierConfig(
+                    imsCarrierConfigs, Ims.KEY_MMTEL_REQUIRES_PROVISIONING_BUNDLE, e.getValue()));
+        }
+        for (Map.Entry<Integer, String> e : KEYS_RCS_CAPABILITY.entrySet()) {
+            int capability = e.getKey();
+            // check new carrier config first KEY_RCS_REQUIRES_PROVISIONING_BUNDLE
+            matrix.setRequiredTechs(/*isMmTel*/false, capability, getTechsFromCarrierConfig(
+                    imsCarrierConfigs, Ims.KEY_RCS_REQUIRES_PROVISIONING_BUNDLE, e.getValue()));
         }
 
-        log("isProvisioningRequired : not matched capability " + capability + " tech " + tech);
-        return false;
+        // then check deprecated carrier config
+        // KEY_CARRIER_VOLTE_PROVISIONING_REQUIRED_BOOL, KEY_CARRIER_UT_PROVISIONING_REQUIRED_BOOL
+        if (deprecatedConfigs.getBoolean(
+                CarrierConfigManager.KEY_CARRIER_VOLTE_PROVISIONING_REQUIRED_BOOL)) {
+            matrix.setRequiredForAllTechs(/*isMmTel*/true, CAPABILITY_TYPE_VOICE);
+            matrix.setRequiredForAllTechs(/*isMmTel*/true, CAPABILITY_TYPE_VIDEO);
+        }
+        if (deprecatedConfigs.getBoolean(
+                CarrierConfigManager.KEY_CARRIER_UT_PROVISIONING_REQUIRED_BOOL)) {
+            matrix.setRequiredForAllTechs(/*isMmTel*/true, CAPABILITY_TYPE_UT);
+        }
+        // KEY_CARRIER_RCS_PROVISIONING_REQUIRED_BOOL
+        if (deprecatedConfigs.getBoolean(
+                CarrierConfigManager.KEY_CARRIER_RCS_PROVISIONING_REQUIRED_BOOL)) {
+            matrix.setRcsRequiredForAll();
+        }
+        log("buildProvisioningRequiredMatrix : subId " + subId + " " + matrix);
+        return matrix;
     }
 
-    private int[] getTechsFromCarrierConfig(int subId, int capability, boolean isMmTel) {
-        String featureKey;
-        String capabilityKey;
-        if (isMmTel) {
-            featureKey = CarrierConfigManager.Ims.KEY_MMTEL_REQUIRES_PROVISIONING_BUNDLE;
-            capabilityKey = KEYS_MMTEL_CAPABILITY.get(capability);
-        } else {
-            featureKey = CarrierConfigManager.Ims.KEY_RCS_REQUIRES_PROVISIONING_BUNDLE;
-            capabilityKey = KEYS_RCS_CAPABILITY.get(capability);
+    private @Nullable int[] getTechsFromCarrierConfig(@Nullable PersistableBundle imsCarrierConfigs,
+            String featureKey, String capabilityKey) {
+        if (imsCarrierConfigs == null) {
+            return null;
         }
 
-        if (capabilityKey != null) {
-            PersistableBundle imsCarrierConfigs = mCarrierConfigManager.getConfigForSubId(subId);
-            if (imsCarrierConfigs == null) {
-                log("getTechsFromCarrierConfig : imsCarrierConfigs null");
-                return null;
-            }
-
-            PersistableBundle provisioningBundle =
-                    imsCarrierConfigs.getPersistableBundle(featureKey);
-            if (provisioningBundle == null) {
-                log("getTechsFromCarrierConfig : provisioningBundle null");
-                return null;
-            }
-
-            return provisioningBundle.getIntArray(capabilityKey);
+        PersistableBundle provisioningBundle = imsCarrierConfigs.getPersistableBundle(featureKey);
+        if (provisioningBundle == null) {
+            log("getTechsFromCarrierConfig : provisioningBundle null");
+            return null;
         }
 
-        return null;
+        return provisioningBundle.getIntArray(capabilityKey);
     }
 
     private int getValueFromImsService(int subId, int capability, int tech) {
@@ -1474,6 +1638,7 @@ public class ImsProvisioningController {
     }
 
     private void onSubscriptionsChanged() {
+        mProvisioningRequiredMatrices.clear();
         for (int index = 0; index < mMmTelFeatureListenersSlotMap.size(); index++) {
             MmTelFeatureListener m = mMmTelFeatureListenersSlotMap.get(index);
             m.setSubId(getSubId(index));
@@ -1621,13 +1786,38 @@ public class ImsProvisioningController {
 
     private boolean setAndNotifyRcsProvisioningValueForAllTech(int subId, int capability,
             boolean isProvisioned) {
-        boolean isChanged = false;
-
+        List<ImsProvisioningLoader.ProvisioningStatus> statuses =
+                new ArrayList<>(LOCAL_RADIO_TECHS.length);
         for (int tech : LOCAL_RADIO_TECHS) {
-            isChanged |= setAndNotifyRcsProvisioningValue(subId, capability, tech, isProvisioned);
+            statuses.add(new ImsProvisioningLoader.ProvisioningStatus(FEATURE_RCS, capability,
+                    tech, isProvisioned));
         }
 
-        return isChanged;
+        return !setAndNotifyProvisioningValues(subId, statuses).isEmpty();
+    }
+
+    /**
+     * Write the statuses with a single storage write and notify all of the changes in one
+     * broadcast.
+     * @return The statuses that were changed.
+     */
+    private List<ImsProvisioningLoader.ProvisioningStatus> setAndNotifyProvisioningValues(
+            int subId, List<ImsProvisioningLoader.ProvisioningStatus> statuses) {
+        List<ImsProvisioningLoader.ProvisioningStatus> changed =
+                mImsProvisioningLoader.setProvisioningStatuses(subId, statuses);
+        if (changed == null || changed.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<FeatureProvisioningData> notifications = new ArrayList<>(changed.size());
+        for (ImsProvisioningLoader.ProvisioningStatus status : changed) {
+            notifications.add(new FeatureProvisioningData(status.mCapability, status.mTech,
+                    status.mIsProvisioned, /*isMmTel*/status.mImsFeature == FEATURE_MMTEL));
+        }
+        mHandler.sendMessage(mHandler.obtainMessage(EVENT_PROVISIONING_CAPABILITIES_CHANGED,
+                getSlotId(subId), 0, notifications));
+
+        return changed;
     }
 
     protected boolean isValidSubId(int subId) {
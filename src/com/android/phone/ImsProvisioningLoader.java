@@ -34,6 +34,8 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Provides a function to set/get Ims feature provisioning status in storage.
@@ -53,6 +55,30 @@ public class ImsProvisioningLoader {
     private static final String PROVISIONING_FILE_NAME_PREF = "imsprovisioningstatus_";
     private static final String PREF_PROVISION_IMS_MMTEL_PREFIX = "provision_ims_mmtel_";
 
+    /**
+     * A provisioning status to store with {@link #setProvisioningStatuses}.
+     */
+    public static final class ProvisioningStatus {
+        public final @ImsFeature.FeatureType int mImsFeature;
+        public final int mCapability;
+        public final @ImsRegistrationImplBase.ImsRegistrationTech int mTech;
+        public final boolean mIsProvisioned;
+
+        public ProvisioningStatus(@ImsFeature.FeatureType int imsFeature, int capability,
+                @ImsRegistrationImplBase.ImsRegistrationTech int tech, boolean isProvisioned) {
+            mImsFeature = imsFeature;
+            mCapability = capability;
+            mTech = tech;
+            mIsProvisioned = isProvisioned;
+        }
+
+        @Override
+        public String toString() {
+            return "{feature=" + mImsFeature + ", capa=" + mCapability + ", tech=" + mTech
+                    + ", provisioned=" + mIsProvisioned + "}";
+        }
+    }
+
     private Context mContext;
     private SharedPreferences mTelephonySharedPreferences;
     // key : sub Id, value : read from sub Id's xml and it's in-memory cache
@@ -86,6 +112,35 @@ public class ImsProvisioningLoader {
                 isProvisioned);
     }
 
+    /**
+     * Set several Ims feature provisioned statuses in storage, writing the storage only once.
+     * @return The statuses that were changed.
+     */
+    public List<ProvisioningStatus> setProvisioningStatuses(int subId,
+            List<ProvisioningStatus> statuses) {
+        initCache(subId);
+        List<ProvisioningStatus> changed = new ArrayList<>();
+        synchronized (mLock) {
+            PersistableBundle subIdBundle = mSubIdBundleArray.get(subId, null);
+            for (ProvisioningStatus status : statuses) {
+                int preValue = getImsProvisioningStatus(subId, status.mImsFeature, status.mTech,
+                        status.mCapability);
+                int newValue = status.mIsProvisioned ? STATUS_PROVISIONED
+                        : STATUS_NOT_PROVISIONED;
+                if (preValue == newValue) continue;
+                setProvisioningStatusToSubIdBundle(status.mImsFeature, status.mTech,
+                        status.mCapability, subIdBundle, newValue);
+                changed.add(status);
+            }
+            if (!changed.isEmpty()) {
+                saveSubIdBundleToXml(subId, subIdBundle);
+            }
+        }
+        logd("setProvisioningStatuses: " + changed.size() + " of " + statuses.size()
+                + " changed");
+        return changed;
+    }
+
     private boolean isFileExist(int subId) {
         File file = new File(mContext.getFilesDir(), getFileName(subId));
         return file.exists();
@@ -59,6 +59,7 @@ import com.android.services.telephony.rcs.SipTransportController;
 import com.android.services.telephony.rcs.TelephonyRcsService;
 import com.android.services.telephony.rcs.UceControllerManager;
 
+import java.io.PrintWriter;
 import java.util.List;
 import java.util.Set;
 
@@ -465,6 +466,27 @@ public class ImsRcsController extends IImsRcsController.Stub {
         }
     }
 
+    /**
+     * Print the SIP transport metrics for the subscription.
+     * @param reset {@code true} if the metrics should be reset once they have been printed.
+     * @return {@code true} if the metrics were printed, {@code false} if SIP transport is not
+     * available for the subscription.
+     */
+    // Used for SHELL command only right now.
+    public boolean dumpSipTransportMetricsShell(int subId, PrintWriter pw, boolean reset)
+            throws ImsException {
+        try {
+            SipTransportController transport = getRcsFeatureController(subId, true).getFeature(
+                    SipTransportController.class);
+            if (transport == null) {
+                return false;
+            }
+            return transport.dumpMetrics(subId, pw, reset);
+        } catch (ServiceSpecificException e) {
+            throw new ImsException(e.getMessage(), e.errorCode);
+        }
+    }
+
     /**
      * Set the timeout for contact capabilities request.
      */
@@ -43,6 +43,8 @@ import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Looper;
 import android.os.Message;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.telephony.CarrierConfigManager;
 import android.telephony.SubscriptionManager;
 import android.telephony.TelephonyRegistryManager;
@@ -65,11 +67,16 @@ import com.android.internal.util.IndentingPrintWriter;
 import com.android.services.telephony.rcs.RcsFeatureController;
 import com.android.telephony.Rlog;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.NoSuchElementException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Implementation of the controller managing {@link ImsStateCallback}s
@@ -78,6 +85,12 @@ public class ImsStateCallbackController {
     private static final String TAG = "ImsStateCallbackController";
     private static final boolean VDBG = false;
     private static final int LOG_SIZE = 50;
+    // The maximum number of threads used to deliver callbacks to clients.
+    private static final int MAX_FANOUT_THREADS = 4;
+    private static final long FANOUT_THREAD_KEEP_ALIVE_MS = 10000;
+    // The maximum number of undelivered callbacks of a client. When a client falls this far
+    // behind, its undelivered state changes are replaced with the latest state.
+    private static final int MAX_PENDING_DELIVERIES = 32;
 
     /**
      * Create a FeatureConnector for this class to use to connect to an ImsManager.
@@ -144,16 +157,18 @@ public class ImsStateCallbackController {
     private final SparseArray<MmTelFeatureListener> mMmTelFeatureListeners = new SparseArray<>();
     private final SparseArray<RcsFeatureListener> mRcsFeatureListeners = new SparseArray<>();
 
-    // Container to store ImsManager instance by subId
-    private final ConcurrentHashMap<Integer, ImsManager> mSubIdToImsManagerCache =
-            new ConcurrentHashMap<>();
+    // Container to store the ImsManager instance of each slot with a connected MmTelFeature
+    private final ImsManagerCache mImsManagerCache = new ImsManagerCache();
 
     private final SubscriptionManager mSubscriptionManager;
     private final TelephonyRegistryManager mTelephonyRegistryManager;
     private MmTelFeatureConnectorFactory mMmTelFeatureFactory;
     private RcsFeatureConnectorFactory mRcsFeatureFactory;
 
-    private HashMap<IBinder, CallbackWrapper> mWrappers = new HashMap<>();
+    private final ConcurrentHashMap<IBinder, CallbackWrapper> mWrappers =
+            new ConcurrentHashMap<>();
+    // Delivers callbacks to clients off of the handler.
+    private final Executor mFanoutExecutor;
 
     private final Object mDumpLock = new Object();
 
@@ -291,12 +306,10 @@ public class ImsStateCallbackController {
             if (mSubId == subId) return;
             logd(mLogPrefix + "setSubId changed subId=" + subId);
 
-            // subId changed from valid to invalid
-            if (subId == SubscriptionManager.INVALID_SUBSCRIPTION_ID) {
-                if (VDBG) logv(mLogPrefix + "setSubId remove ImsManager " + mSubId);
-                // remove ImsManager reference associated with subId
-                mSubIdToImsManagerCache.remove(mSubId);
-            }
+            // subId changed, either removed or swapped to another subscription
+            if (VDBG) logv(mLogPrefix + "setSubId remove ImsManager " + mSubId);
+            // remove ImsManager reference associated with the previous subId
+            mImsManagerCache.evictIfSubChanged(mSlotId, subId);
 
             mSubId = subId;
         }
@@ -305,6 +318,7 @@ public class ImsStateCallbackController {
             if (VDBG) logv(mLogPrefix + "destroy");
             mConnector.disconnect();
             mConnector = null;
+            mImsManagerCache.evictSlot(mSlotId);
         }
 
         @Override
@@ -317,7 +331,7 @@ public class ImsStateCallbackController {
             // store ImsManager reference associated with subId
             if (manager != null) {
                 if (VDBG) logv(mLogPrefix + "connectionReady add ImsManager " + subId);
-                mSubIdToImsManagerCache.put(subId, manager);
+                mImsManagerCache.put(mSlotId, subId, manager);
             }
 
             mState = STATE_READY;
@@ -335,7 +349,7 @@ public class ImsStateCallbackController {
 
             // remove ImsManager reference associated with subId
             if (VDBG) logv(mLogPrefix + "connectionUnavailable remove ImsManager " + mSubId);
-            mSubIdToImsManagerCache.remove(mSubId);
+            mImsManagerCache.evictSlot(mSlotId);
 
             connectionUnavailableInternal(reason);
         }
@@ -623,15 +637,50 @@ public class ImsStateCallbackController {
     }
 
     /**
-     * A wrapper class for the callback registered
+     * A wrapper class for the callback registered.
+     * <p>
+     * Callbacks are delivered on the fan-out executor instead of the handler, so that a slow
+     * client does not delay the delivery to other clients or the handling of other events.
+     * Deliveries to the same client are serialized and keep their order. A client that does not
+     * keep up skips the intermediate states it has not received yet, but always receives the
+     * latest one.
      */
-    private static class CallbackWrapper {
+    private class CallbackWrapper implements IBinder.DeathRecipient {
+        /** A callback waiting to be delivered to the client. */
+        private final class Delivery implements Runnable {
+            private final Runnable mDelivery;
+            // Whether this delivers a state that is superseded by any later state.
+            private final boolean mIsStateChange;
+            private final long mEnqueueTimeMs = SystemClock.elapsedRealtime();
+
+            Delivery(Runnable delivery, boolean isStateChange) {
+                mDelivery = delivery;
+                mIsStateChange = isStateChange;
+            }
+
+            @Override
+            public void run() {
+                mDelivery.run();
+                recordLatency(SystemClock.elapsedRealtime() - mEnqueueTimeMs);
+            }
+        }
+
         private final int mSubId;
         private final int mRequiredFeature;
         private final IImsStateCallback mCallback;
         private final IBinder mBinder;
         private final String mCallingPackage;
-        private int mLastReason = NOT_INITIALIZED;
+        private volatile int mLastReason = NOT_INITIALIZED;
+
+        // Guarded by mPendingDeliveries
+        private final ArrayDeque<Delivery> mPendingDeliveries = new ArrayDeque<>();
+        private boolean mIsDelivering;
+        private boolean mIsDead;
+        // Guarded by mPendingDeliveries
+        private int mDeliveryCount;
+        private int mSkippedCount;
+        private long mLastDeliveryLatencyMs;
+        private long mMaxDeliveryLatencyMs;
 
         CallbackWrapper(int subId, int feature, IImsStateCallback callback,
                 String callingPackage) {
@@ -643,10 +692,37 @@ public class ImsStateCallbackController {
         }
 
         /**
-         * @return false when accessing callback binder throws an Exception.
-         * That means the callback binder is not valid any longer.
-         * The death of remote process can cause this.
-         * This instance shall be removed from the list.
+         * Link to the death of the client so that the callback is removed as soon as the client
+         * dies, instead of when the next delivery fails.
+         * @return false if the client is already dead.
+         */
+        boolean linkToDeath() {
+            try {
+                mBinder.linkToDeath(this, 0);
+            } catch (RemoteException e) {
+                loge("CallbackWrapper linkToDeath failed, pkg=" + mCallingPackage);
+                return false;
+            }
+            return true;
+        }
+
+        void unlinkToDeath() {
+            try {
+                mBinder.unlinkToDeath(this, 0);
+            } catch (NoSuchElementException e) {
+                // ignored, not linked or already dead.
+            }
+        }
+
+        @Override
+        public void binderDied() {
+            logd("CallbackWrapper binderDied subId=" + mSubId + ", pkg=" + mCallingPackage);
+            onDeliveryFailed();
+        }
+
+        /**
+         * @return false when the callback is not valid any longer. The death of remote process
+         * can cause this. This instance shall be removed from the list.
          */
         boolean notifyState(int subId, int feature, int state, int reason) {
             if (VDBG) {
@@ -656,37 +732,164 @@ public class ImsStateCallbackController {
                         + ", reason=" + imsStateReasonToString(reason));
             }
 
+            return deliver(() -> {
+                try {
+                    if (state == STATE_READY) {
+                        mCallback.onAvailable();
+                    } else {
+                        mCallback.onUnavailable(reason);
+                    }
+                    mLastReason = reason;
+                } catch (Exception e) {
+                    loge("CallbackWrapper notifyState e=" + e);
+                    onDeliveryFailed();
+                }
+            }, /*isStateChange*/ true);
+        }
+
+        void notifyInactive() {
+            logd("CallbackWrapper notifyInactive subId=" + mSubId);
+
+            unlinkToDeath();
+            deliver(() -> {
+                try {
+                    mCallback.onUnavailable(REASON_SUBSCRIPTION_INACTIVE);
+                } catch (Exception e) {
+                    // ignored
+                }
+            }, /*isStateChange*/ false);
+        }
+
+        private boolean deliver(Runnable delivery, boolean isStateChange) {
+            synchronized (mPendingDeliveries) {
+                if (mIsDead) return false;
+                if (isStateChange && mPendingDeliveries.size() >= MAX_PENDING_DELIVERIES) {
+                    // The client is not keeping up. The new state supersedes the undelivered
+                    // ones, so drop those instead of the client.
+                    int size = mPendingDeliveries.size();
+                    mPendingDeliveries.removeIf(d -> d.mIsStateChange);
+                    mSkippedCount += size - mPendingDeliveries.size();
+                    loge("CallbackWrapper not keeping up with callbacks, skipped "
+                            + (size - mPendingDeliveries.size()) + " states, pkg="
+                            + mCallingPackage);
+                }
+                mPendingDeliveries.add(new Delivery(delivery, isStateChange));
+                if (mIsDelivering) return true;
+                mIsDelivering = true;
+            }
             try {
-                if (state == STATE_READY) {
-                    mCallback.onAvailable();
-                } else {
-                    mCallback.onUnavailable(reason);
+                mFanoutExecutor.execute(this::drainDeliveries);
+            } catch (RejectedExecutionException e) {
+                loge("CallbackWrapper delivery rejected, pkg=" + mCallingPackage);
+                synchronized (mPendingDeliveries) {
+                    mIsDelivering = false;
+                    mPendingDeliveries.clear();
                 }
-                mLastReason = reason;
-            } catch (Exception e) {
-                loge("CallbackWrapper notifyState e=" + e);
                 return false;
             }
-
             return true;
         }
 
-        void notifyInactive() {
-            logd("CallbackWrapper notifyInactive subId=" + mSubId);
+        private void drainDeliveries() {
+            while (true) {
+                Delivery next;
+                synchronized (mPendingDeliveries) {
+                    next = mPendingDeliveries.poll();
+                    if (next == null) {
+                        mIsDelivering = false;
+                        return;
+                    }
+                }
+                next.run();
+            }
+        }
 
-            try {
-                mCallback.onUnavailable(REASON_SUBSCRIPTION_INACTIVE);
-            } catch (Exception e) {
-                // ignored
+        private void recordLatency(long latencyMs) {
+            synchronized (mPendingDeliveries) {
+                mDeliveryCount++;
+                mLastDeliveryLatencyMs = latencyMs;
+                mMaxDeliveryLatencyMs = Math.max(mMaxDeliveryLatencyMs, latencyMs);
             }
         }
 
+        private void onDeliveryFailed() {
+            synchronized (mPendingDeliveries) {
+                if (mIsDead) return;
+                mIsDead = true;
+                mPendingDeliveries.clear();
+            }
+            mHandler.post(() -> {
+                synchronized (mDumpLock) {
+                    // The client may have registered again with the same binder.
+                    if (mWrappers.remove(mBinder, this)) {
+                        logd("CallbackWrapper removed, pkg=" + mCallingPackage);
+                    }
+                }
+            });
+        }
+
         void dump(IndentingPrintWriter pw) {
-            pw.println("CallbackWrapper={subId=" + mSubId
-                    + ", feature=" + ImsFeature.FEATURE_LOG_MAP.get(mRequiredFeature)
-                    + ", reason=" + imsStateReasonToString(mLastReason)
-                    + ", pkg=" + mCallingPackage
-                    + "}");
+            synchronized (mPendingDeliveries) {
+                pw.println("CallbackWrapper={subId=" + mSubId
+                        + ", feature=" + ImsFeature.FEATURE_LOG_MAP.get(mRequiredFeature)
+                        + ", reason=" + imsStateReasonToString(mLastReason)
+                        + ", pkg=" + mCallingPackage
+                        + ", deliveries=" + mDeliveryCount
+                        + ", skipped=" + mSkippedCount
+                        + ", pending=" + mPendingDeliveries.size()
+                        + ", lastLatencyMs=" + mLastDeliveryLatencyMs
+                        + ", maxLatencyMs=" + mMaxDeliveryLatencyMs
+                        + "}");
+            }
+        }
+    }
+
+    /**
+     * Caches the ImsManager of each slot while its MmTelFeature is connected.
+     * <p>
+     * Entries are keyed by slot, so the cache is bounded by the number of slots and a
+     * subscription change on a slot, such as an eSIM profile swap, evicts the entry of the
+     * previous subscription. Lookups by subId only scan one entry per slot.
+     */
+    private static final class ImsManagerCache {
+        private static final class Entry {
+            final int mSubId;
+            final ImsManager mManager;
+
+            Entry(int subId, ImsManager manager) {
+                mSubId = subId;
+                mManager = manager;
+            }
+        }
+
+        private final ConcurrentHashMap<Integer, Entry> mEntries = new ConcurrentHashMap<>();
+
+        void put(int slotId, int subId, ImsManager manager) {
+            mEntries.put(slotId, new Entry(subId, manager));
+        }
+
+        ImsManager get(int subId) {
+            if (!SubscriptionManager.isValidSubscriptionId(subId)) return null;
+            for (Entry e : mEntries.values()) {
+                if (e.mSubId == subId) return e.mManager;
+            }
+            return null;
+        }
+
+        void evictSlot(int slotId) {
+            mEntries.remove(slotId);
+        }
+
+        /**
+         * Evict the entry of the slot if it does not belong to the subscription provided.
+         */
+        void evictIfSubChanged(int slotId, int subId) {
+            mEntries.computeIfPresent(slotId, (k, e) -> e.mSubId == subId ? e : null);
+        }
+
+        void dump(IndentingPrintWriter pw) {
+            mEntries.forEach((slotId, e) -> pw.println("slotId=" + slotId
+                    + ", subId=" + e.mSubId));
         }
     }
 
@@ -720,9 +923,13 @@ public class ImsStateCallbackController {
 
                 HandlerThread handlerThread = new HandlerThread(TAG);
                 handlerThread.start();
+                ThreadPoolExecutor fanoutExecutor = new ThreadPoolExecutor(MAX_FANOUT_THREADS,
+                        MAX_FANOUT_THREADS, FANOUT_THREAD_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+                        new LinkedBlockingQueue<>());
+                fanoutExecutor.allowCoreThreadTimeOut(true);
                 sInstance = new ImsStateCallbackController(app, handlerThread.getLooper(), numSlots,
                         ImsManager::getConnector, RcsFeatureManager::getConnector,
-                        ImsResolver.getInstance());
+                        ImsResolver.getInstance(), fanoutExecutor);
             }
         }
         return sInstance;
@@ -732,7 +939,16 @@ public class ImsStateCallbackController {
     public ImsStateCallbackController(PhoneGlobals app, Looper looper, int numSlots,
             MmTelFeatureConnectorFactory mmTelFactory, RcsFeatureConnectorFactory rcsFactory,
             ImsResolver imsResolver) {
+        // Deliver callbacks synchronously on the handler.
+        this(app, looper, numSlots, mmTelFactory, rcsFactory, imsResolver, Runnable::run);
+    }
+
+    @VisibleForTesting
+    public ImsStateCallbackController(PhoneGlobals app, Looper looper, int numSlots,
+            MmTelFeatureConnectorFactory mmTelFactory, RcsFeatureConnectorFactory rcsFactory,
+            ImsResolver imsResolver, Executor fanoutExecutor) {
         mApp = app;
+        mFanoutExecutor = fanoutExecutor;
         mHandler = new MyHandler(looper);
         mImsResolver = imsResolver;
         mSubscriptionManager = mApp.getSystemService(SubscriptionManager.class);
@@ -864,14 +1080,16 @@ public class ImsStateCallbackController {
         // The validity of the subId is checked PhoneInterfaceManager#registerImsStateCallback.
         // So, register the wrapper here before trying to notifyState.
         // TODO: implement the recovery for this case, notifying the current reson, in onSubChanged
-        mWrappers.put(wrapper.mBinder, wrapper);
+        if (!wrapper.linkToDeath()) return;
+        CallbackWrapper old = mWrappers.put(wrapper.mBinder, wrapper);
+        if (old != null) old.unlinkToDeath();
 
         if (wrapper.mRequiredFeature == FEATURE_MMTEL) {
             for (int i = 0; i < mMmTelFeatureListeners.size(); i++) {
                 if (wrapper.mSubId == getSubId(i)) {
                     MmTelFeatureListener l = mMmTelFeatureListeners.valueAt(i);
                     if (!l.notifyState(wrapper)) {
-                        mWrappers.remove(wrapper.mBinder);
+                        removeCallback(wrapper);
                     }
                     break;
                 }
@@ -881,7 +1099,7 @@ public class ImsStateCallbackController {
                 if (wrapper.mSubId == getSubId(i)) {
                     RcsFeatureListener l = mRcsFeatureListeners.valueAt(i);
                     if (!l.notifyState(wrapper)) {
-                        mWrappers.remove(wrapper.mBinder);
+                        removeCallback(wrapper);
                     }
                     break;
                 }
@@ -893,7 +1111,14 @@ public class ImsStateCallbackController {
 
     private void onUnregisterCallback(IImsStateCallback cb) {
         if (cb == null) return;
-        mWrappers.remove(cb.asBinder());
+        CallbackWrapper wrapper = mWrappers.remove(cb.asBinder());
+        if (wrapper != null) wrapper.unlinkToDeath();
+    }
+
+    private void removeCallback(CallbackWrapper wrapper) {
+        if (mWrappers.remove(wrapper.mBinder, wrapper)) {
+            wrapper.unlinkToDeath();
+        }
     }
 
     private void onCarrierConfigChanged(int slotId) {
@@ -1011,7 +1236,7 @@ public class ImsStateCallbackController {
     public ImsManager getImsManager(int subId) {
         if (VDBG) logv("getImsManager subId = " + subId);
 
-        return mSubIdToImsManagerCache.get(subId);
+        return mImsManagerCache.get(subId);
     }
 
     private void removeInactiveCallbacks(
@@ -1193,6 +1418,10 @@ public class ImsStateCallbackController {
             pw.increaseIndent();
             mWrappers.values().forEach(wrapper -> wrapper.dump(pw));
             pw.decreaseIndent();
+            pw.println("ImsManagerCache:");
+            pw.increaseIndent();
+            mImsManagerCache.dump(pw);
+            pw.decreaseIndent();
             pw.println("MmTelFeatureListeners:");
             pw.increaseIndent();
             for (int i = 0; i < mNumSlots; i++) {
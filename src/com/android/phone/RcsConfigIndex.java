@@ -0,0 +1,166 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.annotation.Nullable;
+import android.telephony.ims.RcsConfig;
+import android.util.Xml;
+
+import com.android.telephony.Rlog;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * An indexed representation of an RCS provisioning config XML document.
+ * <p>
+ * Every parm in the document is indexed by its path, for example
+ * "APPLICATION[0]/SERVICES[0]/ChatAuth[0]", so two configs can be compared for effective changes
+ * regardless of formatting, and the parms that changed between two configs can be listed.
+ * <p>
+ * If the config can not be parsed, it is only compared by its raw bytes.
+ */
+public final class RcsConfigIndex {
+    private static final String TAG = "RcsConfigIndex";
+
+    private static final String TAG_CHARACTERISTIC = "characteristic";
+    private static final String TAG_PARM = "parm";
+    private static final String ATTR_TYPE = "type";
+    private static final String ATTR_NAME = "name";
+    private static final String ATTR_VALUE = "value";
+
+    private final byte[] mData;
+    // Null if the config could not be parsed.
+    private final @Nullable Map<String, String> mValues;
+
+    private RcsConfigIndex(byte[] data, @Nullable Map<String, String> values) {
+        mData = data;
+        mValues = values;
+    }
+
+    /**
+     * Decompress if needed and index the config.
+     * @param config The config as received, may be gzip compressed.
+     * @param isCompressed Whether the config is gzip compressed.
+     * @return The indexed config, or null if config is null or could not be decompressed.
+     */
+    public static @Nullable RcsConfigIndex create(@Nullable byte[] config, boolean isCompressed) {
+        if (config == null) return null;
+        byte[] data = isCompressed ? RcsConfig.decompressGzip(config) : config;
+        if (data == null) return null;
+        return new RcsConfigIndex(data, parse(data));
+    }
+
+    /**
+     * @return The uncompressed config. The returned array is shared and must not be modified.
+     */
+    public byte[] getData() {
+        return mData;
+    }
+
+    /**
+     * @return true if the other config contains the same parm values as this config.
+     */
+    public boolean isEffectivelyEqual(@Nullable RcsConfigIndex other) {
+        if (other == null) return false;
+        if (mValues != null && other.mValues != null) {
+            return mValues.equals(other.mValues);
+        }
+        return Arrays.equals(mData, other.mData);
+    }
+
+    /**
+     * @return The paths of the parms that were added, removed or changed compared to the other
+     * config, or an empty set if either config could not be parsed.
+     */
+    public Set<String> getChangedParms(@Nullable RcsConfigIndex other) {
+        if (mValues == null || other == null || other.mValues == null) {
+            return Collections.emptySet();
+        }
+        Set<String> changed = new TreeSet<>();
+        for (Map.Entry<String, String> e : mValues.entrySet()) {
+            if (!Objects.equals(e.getValue(), other.mValues.get(e.getKey()))) {
+                changed.add(e.getKey());
+            }
+        }
+        for (String key : other.mValues.keySet()) {
+            if (!mValues.containsKey(key)) changed.add(key);
+        }
+        return changed;
+    }
+
+    private static @Nullable Map<String, String> parse(byte[] data) {
+        Map<String, String> values = new TreeMap<>();
+        // The path of each open characteristic and the number of children of each type or name
+        // seen so far, used to index siblings with the same type or name.
+        Deque<String> path = new ArrayDeque<>();
+        Deque<Map<String, Integer>> childCounts = new ArrayDeque<>();
+        childCounts.push(new HashMap<>());
+        try {
+            XmlPullParser parser = Xml.newPullParser();
+            parser.setInput(new ByteArrayInputStream(data), null);
+            int event = parser.getEventType();
+            while (event != XmlPullParser.END_DOCUMENT) {
+                if (event == XmlPullParser.START_TAG) {
+                    String tag = parser.getName();
+                    if (TAG_CHARACTERISTIC.equalsIgnoreCase(tag)) {
+                        String segment = nextSegment(childCounts.peek(),
+                                parser.getAttributeValue(null, ATTR_TYPE));
+                        path.push(path.isEmpty() ? segment : path.peek() + "/" + segment);
+                        childCounts.push(new HashMap<>());
+                    } else if (TAG_PARM.equalsIgnoreCase(tag)) {
+                        String segment = nextSegment(childCounts.peek(),
+                                parser.getAttributeValue(null, ATTR_NAME));
+                        values.put(path.isEmpty() ? segment : path.peek() + "/" + segment,
+                                parser.getAttributeValue(null, ATTR_VALUE));
+                    }
+                } else if (event == XmlPullParser.END_TAG
+                        && TAG_CHARACTERISTIC.equalsIgnoreCase(parser.getName())
+                        && !path.isEmpty()) {
+                    path.pop();
+                    childCounts.pop();
+                }
+                event = parser.next();
+            }
+        } catch (XmlPullParserException | IOException e) {
+            Rlog.w(TAG, "parse failed, comparing raw config: " + e);
+            return null;
+        }
+        // Nothing was indexed, so this is not a config we understand.
+        return values.isEmpty() ? null : values;
+    }
+
+    private static String nextSegment(Map<String, Integer> counts, @Nullable String name) {
+        String key = name == null ? "" : name;
+        int index = counts.getOrDefault(key, 0);
+        counts.put(key, index + 1);
+        return key + "[" + index + "]";
+    }
+}
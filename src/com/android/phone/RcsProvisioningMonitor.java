@@ -57,7 +57,6 @@ import com.android.internal.telephony.util.HandlerExecutor;
 import com.android.internal.util.CollectionUtils;
 import com.android.telephony.Rlog;
 
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -90,6 +89,15 @@ public class RcsProvisioningMonitor {
     // Cache the RCS provsioning info and related sub id
     private final ConcurrentHashMap<Integer, RcsProvisioningInfo> mRcsProvisioningInfos =
             new ConcurrentHashMap<>();
+    // Immutable view of each RcsProvisioningInfo for readers on other threads, replaced on the
+    // handler whenever the info changes.
+    private final ConcurrentHashMap<Integer, ProvisioningSnapshot> mProvisioningSnapshots =
+            new ConcurrentHashMap<>();
+    // The latest config waiting to be stored for each sub, accessed on the handler and the
+    // config writer.
+    private final ConcurrentHashMap<Integer, PendingConfigWrite> mPendingConfigWrites =
+            new ConcurrentHashMap<>();
+    private final Executor mConfigWriter;
     private Boolean mDeviceSingleRegistrationEnabledOverride;
     private final HashMap<Integer, Boolean> mCarrierSingleRegistrationEnabledOverride =
             new HashMap<>();
@@ -211,10 +219,38 @@ public class RcsProvisioningMonitor {
         }
     }
 
+    /**
+     * An immutable snapshot of the provisioning state of a subscription.
+     */
+    private static final class ProvisioningSnapshot {
+        final int mSingleRegistrationCapability;
+        final byte[] mConfig;
+
+        ProvisioningSnapshot(int singleRegistrationCapability, byte[] config) {
+            mSingleRegistrationCapability = singleRegistrationCapability;
+            mConfig = config;
+        }
+    }
+
+    /**
+     * A config waiting to be stored in the database by the config writer.
+     */
+    private static final class PendingConfigWrite {
+        final byte[] mConfig;
+        final boolean mIsCompressed;
+
+        PendingConfigWrite(byte[] config, boolean isCompressed) {
+            mConfig = config;
+            mIsCompressed = isCompressed;
+        }
+    }
+
     private final class RcsProvisioningInfo {
         private int mSubId;
         private volatile int mSingleRegistrationCapability;
         private volatile byte[] mConfig;
+        // Indexed form of mConfig, used to detect effective changes to the config.
+        private RcsConfigIndex mConfigIndex;
         private ArraySet<IRcsConfigCallback> mRcsConfigCallbacks;
         private IImsConfig mIImsConfig;
         private boolean mHasReconfigRequest;
@@ -222,6 +258,7 @@ public class RcsProvisioningMonitor {
         RcsProvisioningInfo(int subId, int singleRegistrationCapability, byte[] config) {
             mSubId = subId;
             mSingleRegistrationCapability = singleRegistrationCapability;
+            mConfigIndex = RcsConfigIndex.create(config, false);
             mConfig = config;
             mRcsConfigCallbacks = new ArraySet<>();
             registerRcsFeatureListener(this);
@@ -234,6 +271,7 @@ public class RcsProvisioningMonitor {
         void setSingleRegistrationCapability(int singleRegistrationCapability) {
             if (mSingleRegistrationCapability != singleRegistrationCapability) {
                 mSingleRegistrationCapability = singleRegistrationCapability;
+                publishSnapshot(this);
                 notifyDma();
 
                 // update whether single registration supported.
@@ -256,14 +294,32 @@ public class RcsProvisioningMonitor {
         }
 
         void setConfig(byte[] config) {
-            if (!Arrays.equals(mConfig, config)) {
-                mConfig = config;
-                if (mConfig != null) {
-                    notifyRcsAutoConfigurationReceived();
-                } else {
-                    notifyRcsAutoConfigurationRemoved();
-                }
+            setConfig(RcsConfigIndex.create(config, false));
+        }
+
+        /**
+         * Set the new config and notify the ImsService if the config has effectively changed.
+         * @return true if the config has changed, false if the new config contains the same
+         * values as the existing config.
+         */
+        boolean setConfig(RcsConfigIndex config) {
+            if (config == null ? mConfigIndex == null : config.isEffectivelyEqual(mConfigIndex)) {
+                logv("setConfig: config for sub:" + mSubId + " is unchanged");
+                return false;
+            }
+            if (config != null && mConfigIndex != null) {
+                logv("setConfig: parms changed for sub:" + mSubId + ": "
+                        + config.getChangedParms(mConfigIndex));
             }
+            mConfigIndex = config;
+            mConfig = config != null ? config.getData() : null;
+            publishSnapshot(this);
+            if (mConfig != null) {
+                notifyRcsAutoConfigurationReceived();
+            } else {
+                notifyRcsAutoConfigurationRemoved();
+            }
+            return true;
         }
 
         byte[] getConfig() {
@@ -482,7 +538,16 @@ public class RcsProvisioningMonitor {
     @VisibleForTesting
     public RcsProvisioningMonitor(PhoneGlobals app, Looper looper, RoleManagerAdapter roleManager,
             FeatureConnectorFactory<RcsFeatureManager> factory, RcsStats rcsStats) {
+        // Store configs synchronously on the handler.
+        this(app, looper, roleManager, factory, rcsStats, Runnable::run);
+    }
+
+    @VisibleForTesting
+    RcsProvisioningMonitor(PhoneGlobals app, Looper looper,
+            RoleManagerAdapter roleManager, FeatureConnectorFactory<RcsFeatureManager> factory,
+            RcsStats rcsStats, Executor configWriter) {
         mPhone = app;
+        mConfigWriter = configWriter;
         mHandler = new MyHandler(looper);
         mCarrierConfigManager = mPhone.getSystemService(CarrierConfigManager.class);
         mSubscriptionManager = mPhone.getSystemService(SubscriptionManager.class);
@@ -504,9 +569,14 @@ public class RcsProvisioningMonitor {
             logd("RcsProvisioningMonitor created.");
             HandlerThread handlerThread = new HandlerThread(TAG);
             handlerThread.start();
+            // Database writes are done on a separate thread so that they do not delay the
+            // handling of other events.
+            HandlerThread writerThread = new HandlerThread(TAG + "Writer");
+            writerThread.start();
             sInstance = new RcsProvisioningMonitor(app, handlerThread.getLooper(),
                     new RoleManagerAdapterImpl(app), RcsFeatureManager::getConnector,
-                    RcsStats.getInstance());
+                    RcsStats.getInstance(),
+                    new HandlerExecutor(new Handler(writerThread.getLooper())));
         }
         return sInstance;
     }
@@ -541,6 +611,7 @@ public class RcsProvisioningMonitor {
         mRcsFeatureListeners.clear();
         mRcsProvisioningInfos.forEach((k, v)->v.destroy());
         mRcsProvisioningInfos.clear();
+        mProvisioningSnapshots.clear();
         mCarrierSingleRegistrationEnabledOverride.clear();
     }
 
@@ -572,19 +643,17 @@ public class RcsProvisioningMonitor {
      */
     @VisibleForTesting
     public byte[] getConfig(int subId) {
-        if (mRcsProvisioningInfos.containsKey(subId)) {
-            return mRcsProvisioningInfos.get(subId).getConfig();
-        }
-        return null;
+        ProvisioningSnapshot snapshot = mProvisioningSnapshots.get(subId);
+        return snapshot != null ? snapshot.mConfig : null;
     }
 
     /**
      * Returns whether Rcs Volte single registration is enabled for the sub.
      */
     public Boolean isRcsVolteSingleRegistrationEnabled(int subId) {
-        if (mRcsProvisioningInfos.containsKey(subId)) {
-            return mRcsProvisioningInfos.get(subId).getSingleRegistrationCapability()
-                    == ProvisioningManager.STATUS_CAPABLE;
+        ProvisioningSnapshot snapshot = mProvisioningSnapshots.get(subId);
+        if (snapshot != null) {
+            return snapshot.mSingleRegistrationCapability == ProvisioningManager.STATUS_CAPABLE;
         }
         return null;
     }
@@ -664,7 +733,7 @@ public class RcsProvisioningMonitor {
      * Overrides the carrier config whether single registration is enabled
      */
     public boolean overrideCarrierSingleRegistrationEnabled(int subId, Boolean enabled) {
-        if (!mRcsProvisioningInfos.containsKey(subId)) {
+        if (!mProvisioningSnapshots.containsKey(subId)) {
             return false;
         }
         mHandler.sendMessage(mHandler.obtainMessage(
@@ -688,8 +757,8 @@ public class RcsProvisioningMonitor {
      * Returns the device config whether single registration is enabled
      */
     public boolean getDeviceSingleRegistrationEnabled() {
-        for (RcsProvisioningInfo info : mRcsProvisioningInfos.values()) {
-            return (info.getSingleRegistrationCapability()
+        for (ProvisioningSnapshot snapshot : mProvisioningSnapshots.values()) {
+            return (snapshot.mSingleRegistrationCapability
                     & ProvisioningManager.STATUS_DEVICE_NOT_CAPABLE) == 0;
         }
         return false;
@@ -699,8 +768,9 @@ public class RcsProvisioningMonitor {
      * Returns the carrier config whether single registration is enabled
      */
     public boolean getCarrierSingleRegistrationEnabled(int subId) {
-        if (mRcsProvisioningInfos.containsKey(subId)) {
-            return (mRcsProvisioningInfos.get(subId).getSingleRegistrationCapability()
+        ProvisioningSnapshot snapshot = mProvisioningSnapshots.get(subId);
+        if (snapshot != null) {
+            return (snapshot.mSingleRegistrationCapability
                     & ProvisioningManager.STATUS_CARRIER_NOT_CAPABLE) == 0;
         }
         return false;
@@ -741,16 +811,43 @@ public class RcsProvisioningMonitor {
         }
     }
 
+    /**
+     * Replaces the snapshot read by other threads with the current state of the info, if the
+     * info is still active.
+     */
+    private void publishSnapshot(RcsProvisioningInfo info) {
+        int subId = info.getSubId();
+        if (mRcsProvisioningInfos.get(subId) == info) {
+            mProvisioningSnapshots.put(subId, new ProvisioningSnapshot(
+                    info.getSingleRegistrationCapability(), info.getConfig()));
+        }
+    }
+
     private void updateConfigForSub(int subId, byte[] config, boolean isCompressed) {
         logv("updateConfigForSub, subId:" + subId + ", mTestModeEnabled:" + mTestModeEnabled);
         if (!mTestModeEnabled) {
-            RcsConfig.updateConfigForSub(mPhone, subId, config, isCompressed);
+            PendingConfigWrite write = new PendingConfigWrite(config, isCompressed);
+            mPendingConfigWrites.put(subId, write);
+            mConfigWriter.execute(() -> {
+                // Skip the write if a newer config has been queued, it will be stored instead.
+                if (mPendingConfigWrites.get(subId) == write) {
+                    RcsConfig.updateConfigForSub(mPhone, subId, write.mConfig,
+                            write.mIsCompressed);
+                    mPendingConfigWrites.remove(subId, write);
+                }
+            });
         }
     }
 
     private byte[] loadConfigForSub(int subId) {
         logv("loadConfigForSub, subId:" + subId + ", mTestModeEnabled:" + mTestModeEnabled);
         if (!mTestModeEnabled) {
+            // The database may not contain a config that is still waiting to be stored.
+            PendingConfigWrite write = mPendingConfigWrites.get(subId);
+            if (write != null) {
+                return write.mIsCompressed && write.mConfig != null
+                        ? RcsConfig.decompressGzip(write.mConfig) : write.mConfig;
+            }
             return RcsConfig.loadRcsConfigForSub(mPhone, subId, false);
         }
         return null;
@@ -813,13 +910,17 @@ public class RcsProvisioningMonitor {
                 byte[] data = loadConfigForSub(i);
                 int capability = getSingleRegistrationCapableValue(i);
                 logv("new info is created for sub : " + i + ", single registration capability :"
-                        + capability + ", rcs config : " + Arrays.toString(data));
-                mRcsProvisioningInfos.put(i, new RcsProvisioningInfo(i, capability, data));
+                        + capability + ", rcs config length : "
+                        + (data == null ? "null" : data.length));
+                RcsProvisioningInfo info = new RcsProvisioningInfo(i, capability, data);
+                mRcsProvisioningInfos.put(i, info);
+                publishSnapshot(info);
             }
         }
 
         subsToBeDeactivated.forEach(i -> {
             RcsProvisioningInfo info = mRcsProvisioningInfos.remove(i);
+            mProvisioningSnapshots.remove(i);
             if (info != null) {
                 info.destroy();
             }
@@ -827,15 +928,19 @@ public class RcsProvisioningMonitor {
     }
 
     private void onConfigReceived(int subId, byte[] config, boolean isCompressed) {
-        logv("onConfigReceived, subId:" + subId + ", config:"
-                + Arrays.toString(config) + ", isCompressed:" + isCompressed);
+        logv("onConfigReceived, subId:" + subId + ", config length:"
+                + (config == null ? "null" : config.length) + ", isCompressed:" + isCompressed);
         RcsProvisioningInfo info = mRcsProvisioningInfos.get(subId);
         if (info == null) {
             logd("sub[" + subId + "] has been removed");
             return;
         }
-        info.setConfig(isCompressed ? RcsConfig.decompressGzip(config) : config);
-        updateConfigForSub(subId, config, isCompressed);
+        if (info.setConfig(RcsConfigIndex.create(config, isCompressed))) {
+            updateConfigForSub(subId, config, isCompressed);
+        } else {
+            // The stored config already contains the same values, no need to rewrite it.
+            logv("onConfigReceived, config is unchanged for sub:" + subId);
+        }
 
         // Supporting ACS means config data comes from ACS
         // store RCS metrics - received provisioning event
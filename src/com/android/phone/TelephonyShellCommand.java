@@ -60,6 +60,7 @@ import com.android.modules.utils.BasicShellCommandHandler;
 import com.android.phone.callcomposer.CallComposerPictureManager;
 import com.android.phone.euicc.EuiccUiDispatcherActivity;
 import com.android.phone.utils.CarrierAllowListInfo;
+import com.android.services.telephony.domainselection.TelephonyDomainSelectionService;
 
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -119,6 +120,7 @@ public class TelephonyShellCommand extends BasicShellCommandHandler {
     // This is handy for testing scenarios where CEP data does not exist on a network which does
     // support CEP data.
     private static final String IMS_CEP = "conference-event-package";
+    private static final String IMS_SIP_TRANSPORT_METRICS = "sip-transport-metrics";
 
     private static final String NUMBER_VERIFICATION_OVERRIDE_PACKAGE = "override-package";
     private static final String NUMBER_VERIFICATION_FAKE_CALL = "fake-call";
@@ -172,6 +174,9 @@ public class TelephonyShellCommand extends BasicShellCommandHandler {
     private static final String RADIO_SET_MODEM_SERVICE = "set-modem-service";
     private static final String RADIO_GET_MODEM_SERVICE = "get-modem-service";
 
+    private static final String DOMAIN_SELECTION_SUBCOMMAND = "domainselection";
+    private static final String DOMAIN_SELECTION_METRICS = "metrics";
+
     // Check if a package has carrier privileges on any SIM, regardless of subId/phoneId.
     private static final String HAS_CARRIER_PRIVILEGES_COMMAND = "has-carrier-privileges";
 
@@ -368,6 +373,8 @@ public class TelephonyShellCommand extends BasicShellCommandHandler {
                 return handleGetSimSlotsMapping();
             case RADIO_SUBCOMMAND:
                 return handleRadioCommand();
+            case DOMAIN_SELECTION_SUBCOMMAND:
+                return handleDomainSelectionCommand();
             case CARRIER_RESTRICTION_STATUS_TEST:
                 return handleCarrierRestrictionStatusCommand();
             case SET_CARRIER_SERVICE_PACKAGE_OVERRIDE:
@@ -424,6 +431,8 @@ public class TelephonyShellCommand extends BasicShellCommandHandler {
         pw.println("    Set the Allowed Network Types.");
         pw.println("  radio");
         pw.println("    Radio Commands.");
+        pw.println("  domainselection");
+        pw.println("    Domain Selection Commands.");
         onHelpIms();
         onHelpUce();
         onHelpEmergencyNumber();
@@ -436,6 +445,7 @@ public class TelephonyShellCommand extends BasicShellCommandHandler {
         onHelpDisableOrEnablePhysicalSubscription();
         onHelpAllowedNetworkTypes();
         onHelpRadio();
+        onHelpDomainSelection();
         onHelpImei();
         onHelpSatellite();
     }
@@ -509,6 +519,13 @@ public class TelephonyShellCommand extends BasicShellCommandHandler {
         pw.println("    slot if none is specified.");
         pw.println("  ims conference-event-package [enable/disable]");
         pw.println("    enables or disables handling or network conference event package data.");
+        pw.println("  ims sip-transport-metrics [-s SLOT_ID] [-r]");
+        pw.println("    Prints the RCS SIP transport message counters, validation rejects, ack");
+        pw.println("    round trip times and dialog counts for the subscription, both in total");
+        pw.println("    and per SipDelegate. Options are:");
+        pw.println("      -s: The SIM slot ID to print the metrics for. If no option");
+        pw.println("          is specified, it will choose the default voice SIM slot.");
+        pw.println("      -r: Reset the metrics after they have been printed.");
     }
 
     private void onHelpUce() {
@@ -766,6 +783,17 @@ public class TelephonyShellCommand extends BasicShellCommandHandler {
         pw.println("    the result would be 'unknown'.");
     }
 
+    private void onHelpDomainSelection() {
+        PrintWriter pw = getOutPrintWriter();
+        pw.println("Domain Selection Commands:");
+        pw.println("  domainselection metrics [-r]");
+        pw.println("    Prints the metrics of the domain selections per type of domain selector:");
+        pw.println("    the selected domains, the time to select a domain, the number of scans,");
+        pw.println("    the reselections, and the terminations by cause.");
+        pw.println("    Options are:");
+        pw.println("      -r: Clears the metrics after printing them.");
+    }
+
     private void onHelpSatellite() {
         PrintWriter pw = getOutPrintWriter();
         pw.println("Satellite Commands:");
@@ -828,6 +856,9 @@ public class TelephonyShellCommand extends BasicShellCommandHandler {
             case IMS_CEP: {
                 return handleCepChange();
             }
+            case IMS_SIP_TRANSPORT_METRICS: {
+                return handleSipTransportMetricsCommand();
+            }
         }
 
         return -1;
@@ -1569,6 +1600,53 @@ public class TelephonyShellCommand extends BasicShellCommandHandler {
         return 0;
     }
 
+    private int handleSipTransportMetricsCommand() {
+        if (!checkShellUid()) {
+            return -1;
+        }
+        int slotId = getDefaultSlot();
+        boolean reset = false;
+        String opt;
+        while ((opt = getNextOption()) != null) {
+            switch (opt) {
+                case "-s": {
+                    try {
+                        slotId = Integer.parseInt(getNextArgRequired());
+                    } catch (NumberFormatException e) {
+                        getErrPrintWriter().println(
+                                "ims sip-transport-metrics requires an integer as a SLOT_ID.");
+                        return -1;
+                    }
+                    break;
+                }
+                case "-r": {
+                    reset = true;
+                    break;
+                }
+            }
+        }
+        int subId = SubscriptionManager.getSubscriptionId(slotId);
+        if (subId == SubscriptionManager.INVALID_SUBSCRIPTION_ID) {
+            return -1;
+        }
+        ImsRcsController rcsController = PhoneGlobals.getInstance().imsRcsController;
+        if (rcsController == null) {
+            getErrPrintWriter().println("RCS is not supported on this device");
+            return -1;
+        }
+        try {
+            if (!rcsController.dumpSipTransportMetricsShell(subId, getOutPrintWriter(), reset)) {
+                getErrPrintWriter().println("SIP transport is not available for subId " + subId);
+                return -1;
+            }
+        } catch (ImsException e) {
+            Log.w(LOG_TAG, "ims sip-transport-metrics -s " + subId + ", error " + e.getMessage());
+            getErrPrintWriter().println("Exception: " + e.getMessage());
+            return -1;
+        }
+        return 0;
+    }
+
     private int getDefaultSlot() {
         int slotId = SubscriptionManager.getDefaultVoicePhoneId();
         if (slotId <= SubscriptionManager.INVALID_SIM_SLOT_INDEX
@@ -3181,6 +3259,45 @@ public class TelephonyShellCommand extends BasicShellCommandHandler {
         return -1;
     }
 
+    private int handleDomainSelectionCommand() {
+        String arg = getNextArg();
+        if (arg == null) {
+            onHelpDomainSelection();
+            return 0;
+        }
+
+        switch (arg) {
+            case DOMAIN_SELECTION_METRICS:
+                return handleDomainSelectionMetricsCommand();
+        }
+
+        return -1;
+    }
+
+    private int handleDomainSelectionMetricsCommand() {
+        if (!checkShellUid()) {
+            return -1;
+        }
+        boolean reset = false;
+        String opt;
+        while ((opt = getNextOption()) != null) {
+            switch (opt) {
+                case "-r": {
+                    reset = true;
+                    break;
+                }
+            }
+        }
+        TelephonyDomainSelectionService service =
+                PhoneGlobals.getInstance().mDomainSelectionService;
+        if (service == null) {
+            getErrPrintWriter().println("Domain selection is not supported on this device");
+            return -1;
+        }
+        service.dumpMetricsShell(getOutPrintWriter(), reset);
+        return 0;
+    }
+
     private int handleSetSatelliteServicePackageNameCommand() {
         PrintWriter errPw = getErrPrintWriter();
         String serviceName = null;
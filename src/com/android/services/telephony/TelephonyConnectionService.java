@@ -99,6 +99,7 @@ import com.android.phone.PhoneGlobals;
 import com.android.phone.R;
 import com.android.phone.callcomposer.CallComposerPictureManager;
 import com.android.phone.settings.SuppServicesUiUtil;
+import com.android.services.telephony.domainselection.EmergencyCallTimeline;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
@@ -252,6 +253,8 @@ public class TelephonyConnectionService extends ConnectionService {
     private EmergencyCallDomainSelectionConnection mEmergencyCallDomainSelectionConnection;
     private TelephonyConnection mEmergencyConnection;
     private String mEmergencyCallId = null;
+    private final EmergencyCallTimeline mEmergencyCallTimeline =
+            EmergencyCallTimeline.getInstance();
     private Executor mDomainSelectionMainExecutor;
     private ImsManager mImsManager = null;
     private DomainSelectionConnection mDomainSelectionConnection;
@@ -1441,12 +1444,20 @@ public class TelephonyConnectionService extends ConnectionService {
 
             if (isEmergencyNumber) {
                 mIsEmergencyCallPending = true;
+                mEmergencyCallTimeline.record(resultConnection.getTelecomCallId(),
+                        EmergencyCallTimeline.EVENT_DIAL);
+                mEmergencyCallTimeline.record(resultConnection.getTelecomCallId(),
+                        EmergencyCallTimeline.EVENT_RADIO_ON_WAIT);
             }
             int timeoutToOnTimeoutCallback = mDomainSelectionResolver.isDomainSelectionSupported()
                     ? TIMEOUT_TO_DYNAMIC_ROUTING_MS : 0;
             mRadioOnHelper.triggerRadioOnAndListen(new RadioOnStateListener.Callback() {
                 @Override
                 public void onComplete(RadioOnStateListener listener, boolean isRadioReady) {
+                    if (isEmergencyNumber) {
+                        mEmergencyCallTimeline.record(resultConnection.getTelecomCallId(),
+                                EmergencyCallTimeline.EVENT_RADIO_ON, "ready=" + isRadioReady);
+                    }
                     handleOnComplete(isRadioReady, isEmergencyNumber, resultConnection, request,
                             numberToDial, resultHandle, originalPhoneType, phone);
                 }
@@ -3099,10 +3110,14 @@ public class TelephonyConnectionService extends ConnectionService {
             }
 
             mEmergencyCallId = resultConnection.getTelecomCallId();
+            mEmergencyCallTimeline.record(mEmergencyCallId, EmergencyCallTimeline.EVENT_DIAL,
+                    "phoneId=" + phone.getPhoneId() + ", radioOff=" + needToTurnOnRadio);
             CompletableFuture<Integer> future = mEmergencyStateTracker.startEmergencyCall(
                     phone, mEmergencyCallId, isTestEmergencyNumber);
             future.thenAccept((result) -> {
                 Log.d(this, "startEmergencyCall-complete result=" + result);
+                mEmergencyCallTimeline.record(resultConnection.getTelecomCallId(),
+                        EmergencyCallTimeline.EVENT_EMERGENCY_MODE_READY, "result=" + result);
                 if (mEmergencyCallId == null) {
                     Log.i(this, "startEmergencyCall-complete dialing canceled");
                     return;
@@ -3176,6 +3191,8 @@ public class TelephonyConnectionService extends ConnectionService {
                         phone.getPhoneId(), phone.getSubId(), needToTurnOnRadio,
                         request.getTelecomCallId(), number, 0, null, regResult);
 
+        mEmergencyCallTimeline.record(request.getTelecomCallId(),
+                EmergencyCallTimeline.EVENT_SELECTION_REQUESTED);
         CompletableFuture<Integer> future =
                 mEmergencyCallDomainSelectionConnection.createEmergencyConnection(
                         attr, mEmergencyDomainSelectionConnectionCallback);
@@ -3185,6 +3202,8 @@ public class TelephonyConnectionService extends ConnectionService {
                 Log.i(this, "createEmergencyConnection-complete dialing canceled");
                 return;
             }
+            mEmergencyCallTimeline.record(request.getTelecomCallId(),
+                    EmergencyCallTimeline.EVENT_DIALED, "domain=" + result);
             Bundle extras = request.getExtras();
             extras.putInt(PhoneConstants.EXTRA_DIAL_DOMAIN, result);
             placeOutgoingConnection(request, resultConnection, phone);
@@ -3203,6 +3222,8 @@ public class TelephonyConnectionService extends ConnectionService {
                         Log.i(this, "dialCsEmergencyCall dialing canceled");
                         return;
                     }
+                    mEmergencyCallTimeline.record(request.getTelecomCallId(),
+                            EmergencyCallTimeline.EVENT_DIALED, "domain=CS");
                     placeOutgoingConnection(request, resultConnection, phone);
                 });
     }
@@ -3470,10 +3491,14 @@ public class TelephonyConnectionService extends ConnectionService {
         }
 
         mEmergencyCallId = c.getTelecomCallId();
+        mEmergencyCallTimeline.record(mEmergencyCallId, EmergencyCallTimeline.EVENT_REDIAL,
+                "phoneId=" + phone.getPhoneId());
         CompletableFuture<Integer> future = mEmergencyStateTracker.startEmergencyCall(
                 phone, mEmergencyCallId, isTestEmergencyNumber);
         future.thenAccept((result) -> {
             Log.d(this, "onEmergencyRedial-complete result=" + result);
+            mEmergencyCallTimeline.record(c.getTelecomCallId(),
+                    EmergencyCallTimeline.EVENT_EMERGENCY_MODE_READY, "result=" + result);
             if (mEmergencyCallId == null) {
                 Log.i(this, "onEmergencyRedial-complete dialing canceled");
                 return;
@@ -3505,12 +3530,16 @@ public class TelephonyConnectionService extends ConnectionService {
                                 c.getAddress().getSchemeSpecificPart(),
                                 0, null, mEmergencyStateTracker.getEmergencyRegResult());
 
+                mEmergencyCallTimeline.record(c.getTelecomCallId(),
+                        EmergencyCallTimeline.EVENT_SELECTION_REQUESTED);
                 CompletableFuture<Integer> domainFuture =
                         mEmergencyCallDomainSelectionConnection.createEmergencyConnection(
                                 attr, mEmergencyDomainSelectionConnectionCallback);
                 domainFuture.thenAcceptAsync((domain) -> {
                     Log.d(this, "onEmergencyRedial-createEmergencyConnection-complete domain="
                             + domain);
+                    mEmergencyCallTimeline.record(c.getTelecomCallId(),
+                            EmergencyCallTimeline.EVENT_DIALED, "domain=" + domain);
                     recreateEmergencyConnection(c, phone, domain);
                     mIsEmergencyCallPending = false;
                 }, mDomainSelectionMainExecutor);
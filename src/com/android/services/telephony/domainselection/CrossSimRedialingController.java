@@ -40,8 +40,6 @@ import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.Phone;
 import com.android.internal.telephony.PhoneFactory;
 
-import java.util.ArrayList;
-
 /** Controls the cross stack redialing. */
 public class CrossSimRedialingController extends Handler {
     private static final String TAG = "CrossSimRedialingCtrl";
@@ -67,8 +65,10 @@ public class CrossSimRedialingController extends Handler {
 
     private static final LocalLog sLocalLog = new LocalLog(LOG_SIZE);
 
-    private final ArrayList<Integer> mStackSelectionHistory = new ArrayList<>();
-    private final ArrayList<Integer> mPermanentRejectedSlots = new ArrayList<>();
+    /** The bit mask of the slots that have been tried for the current call. */
+    private int mStackSelectionHistory;
+    /** The bit mask of the slots that permanently rejected the current call. */
+    private int mPermanentRejectedSlots;
     private final TelephonyManager mTelephonyManager;
 
     private EmergencyNumberHelper mEmergencyNumberHelper = new EmergencyNumberHelper() {
@@ -149,8 +149,8 @@ public class CrossSimRedialingController extends Handler {
         if (!TextUtils.equals(mCallId, callId)) {
             logi("startTimer callId changed");
             mCallId = callId;
-            mStackSelectionHistory.clear();
-            mPermanentRejectedSlots.clear();
+            mStackSelectionHistory = 0;
+            mPermanentRejectedSlots = 0;
         }
         mSelector = selector;
         mSlotId = selector.getSlotId();
@@ -160,9 +160,9 @@ public class CrossSimRedialingController extends Handler {
 
         updateCarrierConfiguration(context);
 
-        boolean firstAttempt = !mStackSelectionHistory.contains(mSlotId);
+        boolean firstAttempt = (mStackSelectionHistory & (1 << mSlotId)) == 0;
         logi("startTimer slot=" + mSlotId + ", firstAttempt=" + firstAttempt);
-        mStackSelectionHistory.add(mSlotId);
+        mStackSelectionHistory |= (1 << mSlotId);
 
         if (firstAttempt && mQuickCrossStackTimer > REDIAL_TIMER_DISABLED && !roaming) {
             if (inService || !mStartQuickCrossStackTimerWhenInService) {
@@ -193,7 +193,7 @@ public class CrossSimRedialingController extends Handler {
     public void notifyCallFailure(@PreciseDisconnectCauses int cause) {
         logi("notifyCallFailure cause=" + cause);
         if (cause == EMERGENCY_PERM_FAILURE) {
-            mPermanentRejectedSlots.add(mSlotId);
+            mPermanentRejectedSlots |= (1 << mSlotId);
         }
     }
 
@@ -231,7 +231,7 @@ public class CrossSimRedialingController extends Handler {
         for (int i = 0; i < mModemCount; i++) {
             if (i == mSlotId) continue;
 
-            if (mPermanentRejectedSlots.contains(i)) {
+            if ((mPermanentRejectedSlots & (1 << i)) != 0) {
                 logi("isThereOtherSlot index=" + i + ", permanent rejected");
                 continue;
             }
@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony.domainselection;
+
+import android.annotation.NonNull;
+import android.os.SystemClock;
+import android.telephony.DisconnectCause;
+import android.telephony.NetworkRegistrationInfo;
+import android.util.ArrayMap;
+import android.util.IndentingPrintWriter;
+import android.util.SparseIntArray;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+/**
+ * Aggregates the outcomes of the domain selections per type of domain selector, so the effect of
+ * a carrier configuration change can be compared with the numbers collected before it.
+ * <p>
+ * The metrics are included in dumpsys and can be printed and reset with the
+ * {@code domainselection metrics} shell command.
+ */
+public class DomainSelectionMetrics {
+    /** The upper bounds of the buckets of the time to select a domain, in milliseconds. */
+    @VisibleForTesting
+    public static final long[] LATENCY_BUCKETS_MS =
+            {100, 250, 500, 1000, 2000, 5000, 10000, 30000};
+    /** The upper bounds of the buckets of the number of network scans per domain selection. */
+    @VisibleForTesting
+    public static final long[] SCAN_COUNT_BUCKETS = {0, 1, 2, 3, 5};
+
+    /** Used to inject the current time for testing. */
+    @VisibleForTesting
+    public interface ClockProxy {
+        /** @return The elapsed realtime in milliseconds. */
+        long elapsedRealtime();
+    }
+
+    /**
+     * Counts values in buckets with fixed upper bounds. The last bucket counts the values greater
+     * than all the bounds.
+     */
+    @VisibleForTesting
+    public static final class Histogram {
+        private final long[] mBounds;
+        private final int[] mCounts;
+        private int mCount;
+        private long mSum;
+        private long mMax;
+
+        Histogram(@NonNull long[] bounds) {
+            mBounds = bounds;
+            mCounts = new int[bounds.length + 1];
+        }
+
+        void add(long value) {
+            int i = 0;
+            while (i < mBounds.length && value > mBounds[i]) i++;
+            mCounts[i]++;
+            mCount++;
+            mSum += value;
+            mMax = Math.max(mMax, value);
+        }
+
+        /** Returns the number of values added. */
+        public int getCount() {
+            return mCount;
+        }
+
+        /** Returns the number of values in the bucket of the specified index. */
+        public int getBucketCount(int index) {
+            return mCounts[index];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("count=").append(mCount);
+            if (mCount == 0) return sb.toString();
+            sb.append(", avg=").append(mSum / mCount).append(", max=").append(mMax).append(", [");
+            for (int i = 0; i < mCounts.length; i++) {
+                if (i > 0) sb.append(", ");
+                sb.append((i < mBounds.length) ? "<=" + mBounds[i] : ">" + mBounds[i - 1])
+                        .append(":").append(mCounts[i]);
+            }
+            return sb.append("]").toString();
+        }
+    }
+
+    /** The metrics of a type of domain selector. */
+    @VisibleForTesting
+    public static final class TypeMetrics {
+        public int mSelections;
+        public int mReselections;
+        public int mWlanSelected;
+        public int mWwanPsSelected;
+        public int mWwanCsSelected;
+        /** Map of DisconnectCause -> the number of terminations. */
+        public final SparseIntArray mTerminations = new SparseIntArray();
+        public final Histogram mLatency = new Histogram(LATENCY_BUCKETS_MS);
+        public final Histogram mScanCount = new Histogram(SCAN_COUNT_BUCKETS);
+    }
+
+    /**
+     * Records the events of a domain selection from its request until it's finished.
+     * The time to select a domain is measured from the request or the last reselection request
+     * to the first selection reported after it.
+     */
+    public final class Session {
+        private final String mType;
+        private long mRequestTimeMs = -1;
+        private int mScanCount;
+        private boolean mFinished;
+
+        private Session(@NonNull String type) {
+            mType = type;
+        }
+
+        /**
+         * Called when the domain selection is requested.
+         *
+         * @param reselect {@code true} if the domain selection is requested again after the
+         *                 call using the previously selected domain failed.
+         */
+        public void onRequested(boolean reselect) {
+            synchronized (mTypes) {
+                if (mFinished) return;
+                TypeMetrics metrics = getTypeMetrics(mType);
+                if (reselect) {
+                    metrics.mReselections++;
+                } else {
+                    metrics.mSelections++;
+                }
+                mRequestTimeMs = mClock.elapsedRealtime();
+            }
+        }
+
+        /** Called when an emergency network scan is requested. */
+        public void onScanRequested() {
+            synchronized (mTypes) {
+                mScanCount++;
+            }
+        }
+
+        /** Called when WLAN is selected. */
+        public void onWlanSelected() {
+            synchronized (mTypes) {
+                if (!onSelected()) return;
+                getTypeMetrics(mType).mWlanSelected++;
+            }
+        }
+
+        /**
+         * Called when a domain of WWAN is selected.
+         *
+         * @param domain The selected domain.
+         */
+        public void onWwanSelected(@NetworkRegistrationInfo.Domain int domain) {
+            synchronized (mTypes) {
+                if (!onSelected()) return;
+                TypeMetrics metrics = getTypeMetrics(mType);
+                if (domain == NetworkRegistrationInfo.DOMAIN_PS) {
+                    metrics.mWwanPsSelected++;
+                } else {
+                    metrics.mWwanCsSelected++;
+                }
+            }
+        }
+
+        /**
+         * Called when the domain selection is terminated. The session is finished.
+         *
+         * @param cause The {@link DisconnectCause} of the termination.
+         */
+        public void onTerminated(int cause) {
+            synchronized (mTypes) {
+                if (mFinished) return;
+                SparseIntArray terminations = getTypeMetrics(mType).mTerminations;
+                terminations.put(cause, terminations.get(cause) + 1);
+                onFinished();
+            }
+        }
+
+        /** Called when the domain selection is finished. */
+        public void onFinished() {
+            synchronized (mTypes) {
+                if (mFinished) return;
+                mFinished = true;
+                getTypeMetrics(mType).mScanCount.add(mScanCount);
+            }
+        }
+
+        /** Returns {@code true} if the selection responds to a pending request. */
+        private boolean onSelected() {
+            if (mFinished || mRequestTimeMs < 0) return false;
+            getTypeMetrics(mType).mLatency.add(mClock.elapsedRealtime() - mRequestTimeMs);
+            mRequestTimeMs = -1;
+            return true;
+        }
+    }
+
+    private final ClockProxy mClock;
+    // Map of the type of domain selector -> its metrics, guarded by mTypes.
+    private final ArrayMap<String, TypeMetrics> mTypes = new ArrayMap<>();
+    private long mStartTimeMs;
+
+    public DomainSelectionMetrics() {
+        this(SystemClock::elapsedRealtime);
+    }
+
+    @VisibleForTesting
+    public DomainSelectionMetrics(@NonNull ClockProxy clock) {
+        mClock = clock;
+        mStartTimeMs = clock.elapsedRealtime();
+    }
+
+    /**
+     * Starts recording a new domain selection.
+     *
+     * @param type The type of the domain selector, such as "CALLING" or "EMERGENCY_SMS".
+     * @return The session to record the events of the domain selection.
+     */
+    public @NonNull Session startSession(@NonNull String type) {
+        return new Session(type);
+    }
+
+    /** Returns the metrics of the specified type of domain selector. */
+    @VisibleForTesting
+    public @NonNull TypeMetrics getTypeMetrics(@NonNull String type) {
+        synchronized (mTypes) {
+            TypeMetrics metrics = mTypes.get(type);
+            if (metrics == null) {
+                metrics = new TypeMetrics();
+                mTypes.put(type, metrics);
+            }
+            return metrics;
+        }
+    }
+
+    /** Clears all the metrics collected so far. */
+    public void reset() {
+        synchronized (mTypes) {
+            mTypes.clear();
+            mStartTimeMs = mClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * Dumps this instance into a readable format for dumpsys usage.
+     */
+    public void dump(@NonNull IndentingPrintWriter ipw) {
+        ipw.println("DomainSelectionMetrics:");
+        ipw.increaseIndent();
+        synchronized (mTypes) {
+            ipw.println("Collected for " + (mClock.elapsedRealtime() - mStartTimeMs) + "ms");
+            for (int i = 0; i < mTypes.size(); i++) {
+                TypeMetrics metrics = mTypes.valueAt(i);
+                ipw.println(mTypes.keyAt(i) + ":");
+                ipw.increaseIndent();
+                ipw.println("selections=" + metrics.mSelections
+                        + ", reselections=" + metrics.mReselections);
+                ipw.println("WLAN=" + metrics.mWlanSelected
+                        + ", WWAN/PS=" + metrics.mWwanPsSelected
+                        + ", WWAN/CS=" + metrics.mWwanCsSelected);
+                ipw.println("Latency(ms): " + metrics.mLatency);
+                ipw.println("Scans per selection: " + metrics.mScanCount);
+                StringBuilder sb = new StringBuilder("Terminations: ");
+                for (int j = 0; j < metrics.mTerminations.size(); j++) {
+                    if (j > 0) sb.append(", ");
+                    sb.append(DisconnectCause.toString(metrics.mTerminations.keyAt(j)))
+                            .append("=").append(metrics.mTerminations.valueAt(j));
+                }
+                ipw.println(sb.toString());
+                ipw.decreaseIndent();
+            }
+        }
+        ipw.decreaseIndent();
+    }
+}
@@ -17,11 +17,13 @@
 package com.android.services.telephony.domainselection;
 
 import android.annotation.NonNull;
+import android.annotation.Nullable;
 import android.content.Context;
 import android.os.Handler;
 import android.os.Looper;
 import android.telephony.DomainSelectionService.SelectionAttributes;
 import android.telephony.DomainSelector;
+import android.telephony.NetworkRegistrationInfo;
 import android.telephony.TransportSelectorCallback;
 import android.telephony.WwanSelectorCallback;
 import android.util.IndentingPrintWriter;
@@ -61,6 +63,10 @@ public abstract class DomainSelectorBase extends Handler implements DomainSelect
     private final int mSubId;
     private final DestroyListener mDestroyListener;
     private final String mLogTag;
+    private boolean mPooled;
+    private DomainSelectionMetrics mMetrics;
+    private String mMetricsType;
+    private DomainSelectionMetrics.Session mMetricsSession;
 
     public DomainSelectorBase(Context context, int slotId, int subId, @NonNull Looper looper,
             @NonNull ImsStateTracker imsStateTracker, @NonNull DestroyListener destroyListener,
@@ -82,6 +88,99 @@ public abstract class DomainSelectorBase extends Handler implements DomainSelect
      */
     public abstract void selectDomain(SelectionAttributes attr, TransportSelectorCallback callback);
 
+    /**
+     * Sets whether this domain selector is kept after {@link DomainSelector#finishSelection} to
+     * be reused for the next domain selection of the same slot and subscription.
+     * A pooled domain selector keeps its listeners registered to {@link ImsStateTracker}
+     * until it is destroyed.
+     */
+    public void setPooled(boolean pooled) {
+        mPooled = pooled;
+    }
+
+    /**
+     * Returns {@code true} if this domain selector is kept for reuse after the domain selection
+     * is finished.
+     */
+    public boolean isPooled() {
+        return mPooled;
+    }
+
+    /**
+     * Sets the metrics where the outcomes of the domain selections of this domain selector are
+     * recorded.
+     *
+     * @param metrics The metrics, or {@code null} not to record the outcomes.
+     * @param type The type of this domain selector used to aggregate the outcomes.
+     */
+    public void setMetrics(@Nullable DomainSelectionMetrics metrics, @NonNull String type) {
+        mMetrics = metrics;
+        mMetricsType = type;
+    }
+
+    /**
+     * Records that the domain selection is requested.
+     *
+     * @param reselect {@code true} if the domain selection is requested again after the call
+     *                 using the previously selected domain failed.
+     */
+    protected void recordSelectionRequested(boolean reselect) {
+        if (mMetrics == null) return;
+        if (!reselect || mMetricsSession == null) {
+            if (mMetricsSession != null) mMetricsSession.onFinished();
+            mMetricsSession = mMetrics.startSession(mMetricsType);
+        }
+        mMetricsSession.onRequested(reselect);
+    }
+
+    /** Records that an emergency network scan is requested. */
+    protected void recordScanRequested() {
+        if (mMetricsSession != null) mMetricsSession.onScanRequested();
+    }
+
+    /** Records that WLAN is selected. */
+    protected void recordWlanSelected() {
+        if (mMetricsSession != null) mMetricsSession.onWlanSelected();
+    }
+
+    /** Records that the specified domain of WWAN is selected. */
+    protected void recordWwanSelected(@NetworkRegistrationInfo.Domain int domain) {
+        if (mMetricsSession != null) mMetricsSession.onWwanSelected(domain);
+    }
+
+    /** Records that the domain selection is terminated with the specified cause. */
+    protected void recordSelectionTerminated(int cause) {
+        if (mMetricsSession == null) return;
+        mMetricsSession.onTerminated(cause);
+        mMetricsSession = null;
+    }
+
+    /** Records that the domain selection is finished. */
+    protected void recordSelectionFinished() {
+        if (mMetricsSession == null) return;
+        mMetricsSession.onFinished();
+        mMetricsSession = null;
+    }
+
+    /**
+     * Returns {@code true} if the previous domain selection has been finished and this domain
+     * selector can be reset for a new domain selection.
+     */
+    protected boolean isIdle() {
+        return false;
+    }
+
+    /**
+     * Resets this idle domain selector for a new domain selection.
+     * The states received from {@link ImsStateTracker} are kept.
+     */
+    protected void reset() {
+        removeCallbacksAndMessages(null);
+        mSelectionAttributes = null;
+        mTransportSelectorCallback = null;
+        mWwanSelectorCallback = null;
+    }
+
     /**
      * Destroys this domain selector.
      */
@@ -122,6 +221,7 @@ public abstract class DomainSelectorBase extends Handler implements DomainSelect
         ipw.increaseIndent();
         ipw.println("SlotId: " + getSlotId());
         ipw.println("SubId: " + getSubId());
+        ipw.println("Pooled: " + isPooled());
         mEventLog.dump(ipw);
         ipw.decreaseIndent();
     }
@@ -16,7 +16,6 @@
 
 package com.android.services.telephony.domainselection;
 
-import static android.telephony.AccessNetworkConstants.AccessNetworkType.CDMA2000;
 import static android.telephony.AccessNetworkConstants.AccessNetworkType.EUTRAN;
 import static android.telephony.AccessNetworkConstants.AccessNetworkType.NGRAN;
 import static android.telephony.AccessNetworkConstants.AccessNetworkType.UNKNOWN;
@@ -28,27 +27,9 @@ import static android.telephony.BarringInfo.BARRING_SERVICE_TYPE_EMERGENCY;
 import static android.telephony.CarrierConfigManager.ImsEmergency.DOMAIN_CS;
 import static android.telephony.CarrierConfigManager.ImsEmergency.DOMAIN_PS_3GPP;
 import static android.telephony.CarrierConfigManager.ImsEmergency.DOMAIN_PS_NON_3GPP;
-import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_CALL_SETUP_TIMER_ON_CURRENT_NETWORK_SEC_INT;
-import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_CDMA_PREFERRED_NUMBERS_STRING_ARRAY;
-import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_DOMAIN_PREFERENCE_INT_ARRAY;
-import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_DOMAIN_PREFERENCE_ROAMING_INT_ARRAY;
-import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_LTE_PREFERRED_AFTER_NR_FAILED_BOOL;
-import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_NETWORK_SCAN_TYPE_INT;
-import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_OVER_CS_ROAMING_SUPPORTED_ACCESS_NETWORK_TYPES_INT_ARRAY;
-import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_OVER_CS_SUPPORTED_ACCESS_NETWORK_TYPES_INT_ARRAY;
-import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_OVER_IMS_ROAMING_SUPPORTED_3GPP_NETWORK_TYPES_INT_ARRAY;
-import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_OVER_IMS_SUPPORTED_3GPP_NETWORK_TYPES_INT_ARRAY;
-import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_REQUIRES_IMS_REGISTRATION_BOOL;
-import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_REQUIRES_VOLTE_ENABLED_BOOL;
-import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_SCAN_TIMER_SEC_INT;
-import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_VOWIFI_REQUIRES_CONDITION_INT;
-import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_MAXIMUM_CELLULAR_SEARCH_TIMER_SEC_INT;
-import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_MAXIMUM_NUMBER_OF_EMERGENCY_TRIES_OVER_VOWIFI_INT;
-import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_PREFER_IMS_EMERGENCY_WHEN_VOICE_CALLS_ON_CS_BOOL;
 import static android.telephony.CarrierConfigManager.ImsEmergency.SCAN_TYPE_FULL_SERVICE_FOLLOWED_BY_LIMITED_SERVICE;
 import static android.telephony.CarrierConfigManager.ImsEmergency.VOWIFI_REQUIRES_SETTING_ENABLED;
 import static android.telephony.CarrierConfigManager.ImsEmergency.VOWIFI_REQUIRES_VALID_EID;
-import static android.telephony.CarrierConfigManager.ImsWfc.KEY_EMERGENCY_CALL_OVER_EMERGENCY_PDN_BOOL;
 import static android.telephony.NetworkRegistrationInfo.REGISTRATION_STATE_HOME;
 import static android.telephony.NetworkRegistrationInfo.REGISTRATION_STATE_ROAMING;
 import static android.telephony.PreciseDisconnectCause.EMERGENCY_PERM_FAILURE;
@@ -63,7 +44,6 @@ import android.net.NetworkRequest;
 import android.os.CancellationSignal;
 import android.os.Looper;
 import android.os.Message;
-import android.os.PersistableBundle;
 import android.os.PowerManager;
 import android.os.SystemProperties;
 import android.telephony.AccessNetworkConstants.AccessNetworkType;
@@ -85,13 +65,13 @@ import android.telephony.ims.ImsManager;
 import android.telephony.ims.ImsMmTelManager;
 import android.telephony.ims.ImsReasonInfo;
 import android.telephony.ims.ProvisioningManager;
+import android.telephony.ims.feature.MmTelFeature.MmTelCapabilities;
 import android.text.TextUtils;
 import android.util.LocalLog;
 
 import com.android.internal.annotations.VisibleForTesting;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -171,26 +151,12 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
 
     private CancellationSignal mCancelSignal;
 
-    private @RadioAccessNetworkType int[] mImsRatsConfig;
-    private @RadioAccessNetworkType int[] mCsRatsConfig;
-    private @RadioAccessNetworkType int[] mImsRoamRatsConfig;
-    private @RadioAccessNetworkType int[] mCsRoamRatsConfig;
-    private @CarrierConfigManager.ImsEmergency.EmergencyDomain int[] mDomainPreference;
-    private @CarrierConfigManager.ImsEmergency.EmergencyDomain int[] mDomainPreferenceRoam;
-    private List<String> mCdmaPreferredNumbers;
-    private boolean mPreferImsWhenCallsOnCs;
-    private int mVoWifiRequiresCondition;
+    // The carrier configuration of the subscription, set when the domain selection starts.
+    private EmergencyCallPolicy mPolicy;
+    // The state the current event is evaluated against, null until it is used by the event.
+    private Readiness mReadiness;
     private boolean mIsMonitoringConnectivity;
     private boolean mWiFiAvailable;
-    private int mScanTimeout;
-    private int mMaxCellularTimeout;
-    private int mMaxNumOfVoWifiTries;
-    private boolean mVoWifiOverEmergencyPdn;
-    private @CarrierConfigManager.ImsEmergency.EmergencyScanType int mPreferredNetworkScanType;
-    private int mCallSetupTimerOnCurrentRat;
-    private boolean mRequiresImsRegistration;
-    private boolean mRequiresVoLteEnabled;
-    private boolean mLtePreferredAfterNrFailure;
     private boolean mTryCsWhenPsFails;
     private boolean mTryEpsFallback;
     private int mModemCount;
@@ -199,6 +165,8 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
     private boolean mDestroyed = false;
     /** Indicates whether emergency network scan is requested. */
     private boolean mIsScanRequested = false;
+    /** Indicates whether the first emergency network scan of this call has been requested. */
+    private boolean mFirstScanRequested = false;
     /** Indicates whether selected domain has been notified. */
     private boolean mDomainSelected = false;
     /** Indicates whether the cross sim redialing timer has expired. */
@@ -214,16 +182,45 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
 
     private final PowerManager.WakeLock mPartialWakeLock;
     private final CrossSimRedialingController mCrossSimRedialingController;
+    // Null if the carrier configuration is loaded whenever the domain selection starts.
+    private final EmergencyCallPolicyCache mPolicyCache;
+    private final EmergencyCallTimeline mTimeline;
+    // Null if the first scan shall not be ordered by a recent scan result.
+    private final EmergencyScanResultCache mScanResultCache;
+    /** Indicates whether the readiness of the IMS state has been recorded in the timeline. */
+    private boolean mImsStateReadyRecorded = false;
 
     /** Constructor. */
     public EmergencyCallDomainSelector(Context context, int slotId, int subId,
             @NonNull Looper looper, @NonNull ImsStateTracker imsStateTracker,
             @NonNull DestroyListener destroyListener,
             @NonNull CrossSimRedialingController csrController) {
+        this(context, slotId, subId, looper, imsStateTracker, destroyListener, csrController,
+                null, EmergencyCallTimeline.getInstance(), null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param policyCache The cache of the policies decoded from the carrier configuration, or
+     *        {@code null} to load the carrier configuration whenever the domain selection starts.
+     * @param timeline The timeline where the progress of the domain selection is recorded.
+     * @param scanResultCache The cache of the recent scan results used to order the first scan,
+     *        or {@code null} to use the configured order only.
+     */
+    public EmergencyCallDomainSelector(Context context, int slotId, int subId,
+            @NonNull Looper looper, @NonNull ImsStateTracker imsStateTracker,
+            @NonNull DestroyListener destroyListener,
+            @NonNull CrossSimRedialingController csrController,
+            EmergencyCallPolicyCache policyCache, @NonNull EmergencyCallTimeline timeline,
+            EmergencyScanResultCache scanResultCache) {
         super(context, slotId, subId, looper, imsStateTracker, destroyListener, TAG);
+        mPolicyCache = policyCache;
+        mTimeline = timeline;
+        mScanResultCache = scanResultCache;
 
-        mImsStateTracker.addBarringInfoListener(this);
-        mImsStateTracker.addImsStateListener(this);
+        mImsStateTracker.addBarringInfoListener(this, ImsStateTracker.BARRING_CHANGE_EMERGENCY);
+        mImsStateTracker.addImsStateListener(this, MmTelCapabilities.CAPABILITY_TYPE_VOICE);
 
         PowerManager pm = context.getSystemService(PowerManager.class);
         mPartialWakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
@@ -235,6 +232,7 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
     @Override
     public void handleMessage(Message msg) {
         if (mDestroyed) return;
+        invalidateReadiness();
 
         switch(msg.what) {
             case MSG_START_DOMAIN_SELECTION:
@@ -266,6 +264,8 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
      */
     private void handleScanResult(EmergencyRegResult result) {
         logi("handleScanResult result=" + result);
+        recordTimeline(EmergencyCallTimeline.EVENT_SCAN_RESULT,
+                accessNetworkTypeToString(result.getAccessNetwork()));
 
         if (mLastTransportType == TRANSPORT_TYPE_WLAN) {
             logi("handleScanResult timer expired, WLAN has been selected, ignore stale result");
@@ -279,13 +279,16 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
         }
 
         if (result.getAccessNetwork() == UNKNOWN) {
-            if ((mPreferredNetworkScanType == SCAN_TYPE_FULL_SERVICE_FOLLOWED_BY_LIMITED_SERVICE)
+            if ((mPolicy.mPreferredNetworkScanType
+                    == SCAN_TYPE_FULL_SERVICE_FOLLOWED_BY_LIMITED_SERVICE)
                       && (mScanType == DomainSelectionService.SCAN_TYPE_FULL_SERVICE)) {
                 mScanType = DomainSelectionService.SCAN_TYPE_LIMITED_SERVICE;
+                recordScanRequested();
                 mWwanSelectorCallback.onRequestEmergencyNetworkScan(
                         mLastPreferredNetworks, mScanType, mCancelSignal,
                         (regResult) -> {
                             logi("requestScan-onComplete");
+                            cacheScanResult(regResult);
                             sendMessage(obtainMessage(MSG_NETWORK_SCAN_RESULT, regResult));
                         });
             } else {
@@ -338,6 +341,12 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
 
     private void reselectDomain() {
         logi("reselectDomain tryCsWhenPsFails=" + mTryCsWhenPsFails);
+        invalidateReadiness();
+        // The attempt has failed, the network it was based on shall be scanned again.
+        removeCachedScanResult();
+        recordSelectionRequested(true);
+        recordTimeline(EmergencyCallTimeline.EVENT_REDIAL,
+                "csCause=" + mSelectionAttributes.getCsDisconnectCause());
 
         int cause = mSelectionAttributes.getCsDisconnectCause();
         mCrossSimRedialingController.notifyCallFailure(cause);
@@ -396,6 +405,7 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
 
     private void reselectDomainInternal() {
         post(() -> {
+            invalidateReadiness();
             requestScan(true, false, true);
             mDomainSelected = false;
         });
@@ -404,6 +414,7 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
     @Override
     public void finishSelection() {
         logi("finishSelection");
+        recordSelectionFinished();
         destroy();
     }
 
@@ -412,6 +423,7 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
         if (mDestroyed) return;
 
         mBarringInfoReceived = true;
+        invalidateReadiness();
         BarringInfo.BarringServiceInfo serviceInfo =
                 barringInfo.getBarringServiceInfo(BARRING_SERVICE_TYPE_EMERGENCY);
         mIsEmergencyBarred = serviceInfo.isBarred();
@@ -423,6 +435,7 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
     @Override
     public void selectDomain(SelectionAttributes attr, TransportSelectorCallback cb) {
         logi("selectDomain attr=" + attr);
+        recordSelectionRequested(false);
         mTransportSelectorCallback = cb;
         mSelectionAttributes = attr;
         mIsTestEmergencyNumber = isTestEmergencyNumber(attr.getNumber());
@@ -435,6 +448,7 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
 
     private void startDomainSelection() {
         logi("startDomainSelection modemCount=" + mModemCount);
+        recordTimeline(EmergencyCallTimeline.EVENT_SELECTION_STARTED, null);
         updateCarrierConfiguration();
         mDomainSelectionRequested = true;
         startCrossStackTimer();
@@ -457,6 +471,7 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
     public void onImsRegistrationStateChanged() {
         mImsRegStateReceived = true;
         mImsRegistered = mImsStateTracker.isImsRegistered();
+        invalidateReadiness();
         logi("onImsRegistrationStateChanged " + mImsRegistered);
         selectDomain();
     }
@@ -465,6 +480,7 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
     public void onImsMmTelCapabilitiesChanged() {
         mMmTelCapabilitiesReceived = true;
         mIsVoiceCapable = mImsStateTracker.isImsVoiceCapable();
+        invalidateReadiness();
         logi("onImsMmTelCapabilitiesChanged " + mIsVoiceCapable);
         selectDomain();
     }
@@ -473,88 +489,12 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
      * Caches the configuration.
      */
     private void updateCarrierConfiguration() {
-        CarrierConfigManager configMgr = mContext.getSystemService(CarrierConfigManager.class);
-        PersistableBundle b = configMgr.getConfigForSubId(getSubId());
-        if (b == null) {
-            b = CarrierConfigManager.getDefaultConfig();
-        }
-
-        mImsRatsConfig =
-                b.getIntArray(KEY_EMERGENCY_OVER_IMS_SUPPORTED_3GPP_NETWORK_TYPES_INT_ARRAY);
-        mImsRoamRatsConfig = b.getIntArray(
-                KEY_EMERGENCY_OVER_IMS_ROAMING_SUPPORTED_3GPP_NETWORK_TYPES_INT_ARRAY);
-        if (!SubscriptionManager.isValidSubscriptionId(getSubId())) {
-            // Default configuration includes only EUTRAN . In case of no SIM, add NGRAN.
-            mImsRatsConfig = new int[] { EUTRAN, NGRAN };
-            mImsRoamRatsConfig = new int[] { EUTRAN, NGRAN };
-        }
-
-        mCsRatsConfig =
-                b.getIntArray(KEY_EMERGENCY_OVER_CS_SUPPORTED_ACCESS_NETWORK_TYPES_INT_ARRAY);
-        mCsRoamRatsConfig = b.getIntArray(
-                KEY_EMERGENCY_OVER_CS_ROAMING_SUPPORTED_ACCESS_NETWORK_TYPES_INT_ARRAY);
-        mDomainPreference = b.getIntArray(KEY_EMERGENCY_DOMAIN_PREFERENCE_INT_ARRAY);
-        mDomainPreferenceRoam = b.getIntArray(KEY_EMERGENCY_DOMAIN_PREFERENCE_ROAMING_INT_ARRAY);
-        mPreferImsWhenCallsOnCs = b.getBoolean(
-                KEY_PREFER_IMS_EMERGENCY_WHEN_VOICE_CALLS_ON_CS_BOOL);
-        mVoWifiRequiresCondition = b.getInt(KEY_EMERGENCY_VOWIFI_REQUIRES_CONDITION_INT);
-        mScanTimeout = b.getInt(KEY_EMERGENCY_SCAN_TIMER_SEC_INT) * 1000;
-        mMaxCellularTimeout = b.getInt(KEY_MAXIMUM_CELLULAR_SEARCH_TIMER_SEC_INT) * 1000;
-        mMaxNumOfVoWifiTries = b.getInt(KEY_MAXIMUM_NUMBER_OF_EMERGENCY_TRIES_OVER_VOWIFI_INT);
-        mVoWifiOverEmergencyPdn = b.getBoolean(KEY_EMERGENCY_CALL_OVER_EMERGENCY_PDN_BOOL);
-        mPreferredNetworkScanType = b.getInt(KEY_EMERGENCY_NETWORK_SCAN_TYPE_INT);
-        mCallSetupTimerOnCurrentRat = b.getInt(
-                KEY_EMERGENCY_CALL_SETUP_TIMER_ON_CURRENT_NETWORK_SEC_INT) * 1000;
-        mRequiresImsRegistration = b.getBoolean(KEY_EMERGENCY_REQUIRES_IMS_REGISTRATION_BOOL);
-        mRequiresVoLteEnabled = b.getBoolean(KEY_EMERGENCY_REQUIRES_VOLTE_ENABLED_BOOL);
-        mLtePreferredAfterNrFailure = b.getBoolean(
-                KEY_EMERGENCY_LTE_PREFERRED_AFTER_NR_FAILED_BOOL);
-        String[] numbers = b.getStringArray(KEY_EMERGENCY_CDMA_PREFERRED_NUMBERS_STRING_ARRAY);
-
-        if (mImsRatsConfig == null) mImsRatsConfig = new int[0];
-        if (mCsRatsConfig == null) mCsRatsConfig = new int[0];
-        if (mImsRoamRatsConfig == null) mImsRoamRatsConfig = new int[0];
-        if (mCsRoamRatsConfig == null) mCsRoamRatsConfig = new int[0];
-        if (mDomainPreference == null) mDomainPreference = new int[0];
-        if (mDomainPreferenceRoam == null) mDomainPreferenceRoam = new int[0];
-        if (numbers == null) numbers = new String[0];
-
-        logi("updateCarrierConfiguration "
-                + "imsRats=" + arrayToString(mImsRatsConfig,
-                        EmergencyCallDomainSelector::accessNetworkTypeToString)
-                + ", csRats=" + arrayToString(mCsRatsConfig,
-                        EmergencyCallDomainSelector::accessNetworkTypeToString)
-                + ", imsRoamRats=" + arrayToString(mImsRoamRatsConfig,
-                        EmergencyCallDomainSelector::accessNetworkTypeToString)
-                + ", csRoamRats=" + arrayToString(mCsRoamRatsConfig,
-                        EmergencyCallDomainSelector::accessNetworkTypeToString)
-                + ", domainPref=" + arrayToString(mDomainPreference,
-                        EmergencyCallDomainSelector::domainPreferenceToString)
-                + ", domainPrefRoam=" + arrayToString(mDomainPreferenceRoam,
-                        EmergencyCallDomainSelector::domainPreferenceToString)
-                + ", preferImsOnCs=" + mPreferImsWhenCallsOnCs
-                + ", voWifiRequiresCondition=" + mVoWifiRequiresCondition
-                + ", scanTimeout=" + mScanTimeout
-                + ", maxCellularTimeout=" + mMaxCellularTimeout
-                + ", maxNumOfVoWifiTries=" + mMaxNumOfVoWifiTries
-                + ", voWifiOverEmergencyPdn=" + mVoWifiOverEmergencyPdn
-                + ", preferredScanType=" + carrierConfigNetworkScanTypeToString(
-                        mPreferredNetworkScanType)
-                + ", callSetupTimer=" + mCallSetupTimerOnCurrentRat
-                + ", requiresImsReg=" + mRequiresImsRegistration
-                + ", requiresVoLteEnabled=" + mRequiresVoLteEnabled
-                + ", ltePreferredAfterNr=" + mLtePreferredAfterNrFailure
-                + ", cdmaPreferredNumbers=" + arrayToString(numbers));
-
-        mCdmaPreferredNumbers = Arrays.asList(numbers);
-
-        if ((mPreferredNetworkScanType == CarrierConfigManager.ImsEmergency.SCAN_TYPE_FULL_SERVICE)
-                || (mPreferredNetworkScanType
-                        == SCAN_TYPE_FULL_SERVICE_FOLLOWED_BY_LIMITED_SERVICE)) {
-            mScanType = DomainSelectionService.SCAN_TYPE_FULL_SERVICE;
-        } else {
-            mScanType = DomainSelectionService.SCAN_TYPE_NO_PREFERENCE;
-        }
+        mPolicy = (mPolicyCache != null)
+                ? mPolicyCache.getPolicy(getSubId())
+                : EmergencyCallPolicy.load(mContext, getSubId());
+        logi("updateCarrierConfiguration " + mPolicy);
+        invalidateReadiness();
+        mScanType = mPolicy.mInitialScanType;
     }
 
     private void selectDomain() {
@@ -573,6 +513,12 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
             return;
         }
 
+        if (!mImsStateReadyRecorded) {
+            mImsStateReadyRecorded = true;
+            recordTimeline(EmergencyCallTimeline.EVENT_IMS_STATE_READY,
+                    "registered=" + mImsRegistered + ", voiceCapable=" + mIsVoiceCapable);
+        }
+
         if (!allowEmergencyCalls(mSelectionAttributes.getEmergencyRegResult())) {
             // Detected the country and found that emergency calls are not allowed with this slot.
             terminateSelectionPermanentlyForSlot();
@@ -597,8 +543,11 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
             return;
         }
 
-        boolean csInService = isCsInService();
-        boolean psInService = isPsInService();
+        invalidateReadiness();
+        Readiness readiness = getReadiness();
+        boolean csInService = readiness.mCsInService;
+        boolean psInService = readiness.mPsInService;
+        boolean imsRegisteredWithVoice = isImsRegisteredWithVoiceCapability();
 
         if (!csInService && !psInService) {
             mPsNetworkType = getSelectablePsNetworkType(false);
@@ -624,7 +573,7 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
         logi("selectDomain CS={" + csInService + ", " + accessNetworkTypeToString(mCsNetworkType)
                 + "}, PS={" + psInService + ", " + accessNetworkTypeToString(mPsNetworkType) + "}");
         if (csAvailable && psAvailable) {
-            if (mPreferImsWhenCallsOnCs || isImsRegisteredWithVoiceCapability()) {
+            if (mPolicy.mPreferImsWhenCallsOnCs || imsRegisteredWithVoice) {
                 mTryCsWhenPsFails = true;
                 onWwanNetworkTypeSelected(mPsNetworkType);
             } else if (isDeactivatedSim()) {
@@ -635,7 +584,7 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
             }
         } else if (psAvailable) {
             mTryEpsFallback = (mPsNetworkType == NGRAN) && isEpsFallbackAvailable();
-            if (!mRequiresImsRegistration || isImsRegisteredWithVoiceCapability()) {
+            if (!mPolicy.mRequiresImsRegistration || imsRegisteredWithVoice) {
                 onWwanNetworkTypeSelected(mPsNetworkType);
             } else if (isDeactivatedSim()) {
                 // Deactivated SIM but PS is in service and supports emergency calls.
@@ -650,7 +599,7 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
             onWwanNetworkTypeSelected(mCsNetworkType);
         } else {
             // PS is in service but not supports emergency calls.
-            if (mRequiresImsRegistration && !isImsRegisteredWithVoiceCapability()) {
+            if (mPolicy.mRequiresImsRegistration && !imsRegisteredWithVoice) {
                 // Carrier configuration requires IMS registration for emergency services over PS,
                 // but not registered. Try CS emergency call.
                 requestScan(true, true);
@@ -700,26 +649,47 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
         mTryEpsFallback = false;
 
         if (isInRoaming()
-                && (mPreferredNetworkScanType == DomainSelectionService.SCAN_TYPE_FULL_SERVICE)) {
+                && (mPolicy.mPreferredNetworkScanType
+                        == DomainSelectionService.SCAN_TYPE_FULL_SERVICE)) {
             // FULL_SERVICE only preference is available only when not in roaming.
             mScanType = DomainSelectionService.SCAN_TYPE_NO_PREFERENCE;
         }
 
+        EmergencyRegResult cachedResult = mFirstScanRequested ? null : takeCachedScanResult();
+        mFirstScanRequested = true;
+        if (cachedResult != null) {
+            // A scan has found a network recently and the modem is still on the same access
+            // network, scan it first. The scan itself is never skipped, since only the modem
+            // can tell whether the network is still usable for an emergency call.
+            int accessNetwork = cachedResult.getAccessNetwork();
+            logi("requestScan prefer cached " + accessNetworkTypeToString(accessNetwork));
+            mLastPreferredNetworks = new ArrayList<>(mLastPreferredNetworks);
+            mLastPreferredNetworks.remove(Integer.valueOf(accessNetwork));
+            mLastPreferredNetworks.add(0, accessNetwork);
+        }
+
         mIsScanRequested = true;
+        recordTimeline(EmergencyCallTimeline.EVENT_SCAN_REQUESTED,
+                arrayToString(mLastPreferredNetworks.stream().mapToInt(Integer::intValue)
+                        .toArray(), EmergencyCallDomainSelector::accessNetworkTypeToString)
+                + ", scanType=" + mScanType);
+        recordScanRequested();
         mWwanSelectorCallback.onRequestEmergencyNetworkScan(
                 mLastPreferredNetworks, mScanType, mCancelSignal,
                 (result) -> {
                     logi("requestScan-onComplete");
+                    cacheScanResult(result);
                     sendMessage(obtainMessage(MSG_NETWORK_SCAN_RESULT, result));
                 });
 
         if (startVoWifiTimer && SubscriptionManager.isValidSubscriptionId(getSubId())) {
             if (isEmcOverWifiSupported()
-                    && mScanTimeout > 0 && mVoWifiTrialCount < mMaxNumOfVoWifiTries) {
+                    && mPolicy.mScanTimeout > 0
+                    && mVoWifiTrialCount < mPolicy.mMaxNumOfVoWifiTries) {
                 logi("requestScan start scan timer");
                 // remove any pending timers.
                 removeMessages(MSG_NETWORK_SCAN_TIMEOUT);
-                sendEmptyMessageDelayed(MSG_NETWORK_SCAN_TIMEOUT, mScanTimeout);
+                sendEmptyMessageDelayed(MSG_NETWORK_SCAN_TIMEOUT, mPolicy.mScanTimeout);
                 registerForConnectivityChanges();
             }
         }
@@ -728,6 +698,32 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
         }
     }
 
+    /**
+     * Returns the recent scan result of this slot if it found one of the preferred networks and
+     * the current registration of the modem is still on the same access network.
+     */
+    private EmergencyRegResult takeCachedScanResult() {
+        if (mScanResultCache == null) return null;
+        EmergencyRegResult result = mScanResultCache.take(getSlotId());
+        if (result == null || !mLastPreferredNetworks.contains(result.getAccessNetwork())) {
+            return null;
+        }
+        EmergencyRegResult current = getReadiness().mRegResult;
+        if (current == null || current.getAccessNetwork() != result.getAccessNetwork()) {
+            logi("takeCachedScanResult access network changed, current=" + current);
+            return null;
+        }
+        return result;
+    }
+
+    private void cacheScanResult(EmergencyRegResult result) {
+        if (mScanResultCache != null) mScanResultCache.put(getSlotId(), result);
+    }
+
+    private void removeCachedScanResult() {
+        if (mScanResultCache != null) mScanResultCache.remove(getSlotId());
+    }
+
     /**
      * Gets the list of preferred network type for the new scan request.
      *
@@ -740,7 +736,7 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
     @VisibleForTesting
     public @RadioAccessNetworkType List<Integer> getNextPreferredNetworks(boolean csPreferred,
             boolean tryEpsFallback, boolean lastScanFailed) {
-        if (mRequiresVoLteEnabled && !isAdvancedCallingSettingEnabled()) {
+        if (mPolicy.mRequiresVoLteEnabled && !isAdvancedCallingSettingEnabled()) {
             // Emergency call over IMS is not supported.
             logi("getNextPreferredNetworks VoLte setting is not enabled.");
             return generatePreferredNetworks(getCsNetworkTypeConfiguration());
@@ -784,9 +780,9 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
                 preferredNetworks.add(NGRAN);
             }
         } else if (csPreferred || mLastNetworkType == EUTRAN || mLastNetworkType == NGRAN) {
-            if (!csPreferred && mLastNetworkType == NGRAN && mLtePreferredAfterNrFailure) {
+            if (!csPreferred && mLastNetworkType == NGRAN && mPolicy.mLtePreferredAfterNrFailure) {
                 // LTE is preferred after dialing over NR failed.
-                List<Integer> imsRats = getImsNetworkTypeConfiguration();
+                List<Integer> imsRats = new ArrayList<>(getImsNetworkTypeConfiguration());
                 imsRats.remove(Integer.valueOf(NGRAN));
                 preferredNetworks = generatePreferredNetworks(imsRats,
                         getCsNetworkTypeConfiguration());
@@ -840,7 +836,8 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
 
     private void handleMaxCellularTimeout() {
         logi("handleMaxCellularTimeout");
-        if (mVoWifiTrialCount >= mMaxNumOfVoWifiTries) {
+        recordTimeline(EmergencyCallTimeline.EVENT_MAX_CELLULAR_TIMEOUT, null);
+        if (mVoWifiTrialCount >= mPolicy.mMaxNumOfVoWifiTries) {
             logi("handleMaxCellularTimeout already tried maximum");
             return;
         }
@@ -860,20 +857,21 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
 
     private void handleNetworkScanTimeout() {
         logi("handleNetworkScanTimeout");
+        recordTimeline(EmergencyCallTimeline.EVENT_SCAN_TIMEOUT, null);
         maybeDialOverWlan();
     }
 
     private boolean maybeDialOverWlan() {
-        logi("maybeDialOverWlan overEmergencyPdn=" + mVoWifiOverEmergencyPdn
+        logi("maybeDialOverWlan overEmergencyPdn=" + mPolicy.mVoWifiOverEmergencyPdn
                 + ", wifiAvailable=" + mWiFiAvailable);
         boolean available = mWiFiAvailable;
-        if (mVoWifiOverEmergencyPdn) {
+        if (mPolicy.mVoWifiOverEmergencyPdn) {
             // SOS APN
             if (!available && isImsRegisteredOverCrossSim()) {
                 available = true;
             }
             if (available) {
-                switch (mVoWifiRequiresCondition) {
+                switch (mPolicy.mVoWifiRequiresCondition) {
                     case VOWIFI_REQUIRES_SETTING_ENABLED:
                         available = isWifiCallingSettingEnabled();
                         break;
@@ -902,23 +900,20 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
     }
 
     /**
-     * Determines whether CS is in service.
+     * Determines whether the given domain is in service.
      *
-     * @return {@code true} if CS is in service.
+     * @param regResult The registration result.
+     * @param domain {@link NetworkRegistrationInfo#DOMAIN_CS} or
+     *        {@link NetworkRegistrationInfo#DOMAIN_PS}.
+     * @return {@code true} if the domain is in service.
      */
-    private boolean isCsInService() {
-        EmergencyRegResult regResult = mSelectionAttributes.getEmergencyRegResult();
+    private static boolean isInService(EmergencyRegResult regResult,
+            @NetworkRegistrationInfo.Domain int domain) {
         if (regResult == null) return false;
 
         int regState = regResult.getRegState();
-        int domain = regResult.getDomain();
-
-        if ((regState == REGISTRATION_STATE_HOME || regState == REGISTRATION_STATE_ROAMING)
-                && ((domain & NetworkRegistrationInfo.DOMAIN_CS) > 0)) {
-            return true;
-        }
-
-        return false;
+        return (regState == REGISTRATION_STATE_HOME || regState == REGISTRATION_STATE_ROAMING)
+                && ((regResult.getDomain() & domain) > 0);
     }
 
     /**
@@ -927,7 +922,7 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
      * @return The network type of the CS network.
      */
     private @RadioAccessNetworkType int getSelectableCsNetworkType() {
-        EmergencyRegResult regResult = mSelectionAttributes.getEmergencyRegResult();
+        EmergencyRegResult regResult = getReadiness().mRegResult;
         logi("getSelectableCsNetworkType regResult=" + regResult);
         if (regResult == null) return UNKNOWN;
 
@@ -946,26 +941,6 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
         return UNKNOWN;
     }
 
-    /**
-     * Determines whether PS is in service.
-     *
-     * @return {@code true} if PS is in service.
-     */
-    private boolean isPsInService() {
-        EmergencyRegResult regResult = mSelectionAttributes.getEmergencyRegResult();
-        if (regResult == null) return false;
-
-        int regState = regResult.getRegState();
-        int domain = regResult.getDomain();
-
-        if ((regState == REGISTRATION_STATE_HOME || regState == REGISTRATION_STATE_ROAMING)
-                && ((domain & NetworkRegistrationInfo.DOMAIN_PS) > 0)) {
-            return true;
-        }
-
-        return false;
-    }
-
     /**
      * Determines the network type supporting emergency services over packet-switched(PS) network.
      *
@@ -973,10 +948,10 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
      * @return The network type if the network supports emergency services over PS network.
      */
     private @RadioAccessNetworkType int getSelectablePsNetworkType(boolean inService) {
-        EmergencyRegResult regResult = mSelectionAttributes.getEmergencyRegResult();
+        EmergencyRegResult regResult = getReadiness().mRegResult;
         logi("getSelectablePsNetworkType regResult=" + regResult);
         if (regResult == null) return UNKNOWN;
-        if (mRequiresVoLteEnabled && !isAdvancedCallingSettingEnabled()) {
+        if (mPolicy.mRequiresVoLteEnabled && !isAdvancedCallingSettingEnabled()) {
             // Emergency call over IMS is not supported.
             logi("getSelectablePsNetworkType VoLte setting is not enabled.");
             return UNKNOWN;
@@ -1003,7 +978,7 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
     }
 
     private boolean isEpsFallbackAvailable() {
-        EmergencyRegResult regResult = mSelectionAttributes.getEmergencyRegResult();
+        EmergencyRegResult regResult = getReadiness().mRegResult;
         if (regResult == null) return false;
 
         List<Integer> ratList = getImsNetworkTypeConfiguration();
@@ -1019,6 +994,10 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
      * @return {@code true} if the SIM is a deactivated one.
      */
     private boolean isDeactivatedSim() {
+        return getReadiness().isDeactivatedSim();
+    }
+
+    private boolean queryDeactivatedSim() {
         if (SubscriptionManager.isValidSubscriptionId(getSubId())) {
             TelephonyManager tm = mContext.getSystemService(TelephonyManager.class);
             tm = tm.createForSubscriptionId(getSubId());
@@ -1069,6 +1048,10 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
     }
 
     private boolean isAdvancedCallingSettingEnabled() {
+        return getReadiness().isAdvancedCallingSettingEnabled();
+    }
+
+    private boolean queryAdvancedCallingSettingEnabled() {
         try {
             if (SubscriptionManager.isValidSubscriptionId(getSubId())) {
                 ImsManager imsMngr = mContext.getSystemService(ImsManager.class);
@@ -1119,66 +1102,36 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
     }
 
     private @NonNull List<Integer> getImsNetworkTypeConfiguration() {
-        int[] rats = mImsRatsConfig;
-        if (isInRoaming()) rats = mImsRoamRatsConfig;
-
-        List<Integer> ratList = new ArrayList<Integer>();
-        for (int i = 0; i < rats.length; i++) {
-            ratList.add(rats[i]);
-        }
-        return ratList;
+        return getReadiness().mImsRats;
     }
 
     private @NonNull List<Integer> getCsNetworkTypeConfiguration() {
-        int[] rats = mCsRatsConfig;
-        if (isInRoaming()) rats = mCsRoamRatsConfig;
-
-        List<Integer> ratList = new ArrayList<Integer>();
-        for (int i = 0; i < rats.length; i++) {
-            ratList.add(rats[i]);
-        }
-
-        if (!mCdmaPreferredNumbers.isEmpty()) {
-            if (mCdmaPreferredNumbers.contains(mSelectionAttributes.getNumber())) {
-                // The number will be dialed over CDMA.
-                ratList.clear();
-                ratList.add(new Integer(CDMA2000));
-            } else {
-                // The number will be dialed over UTRAN or GERAN.
-                ratList.remove(new Integer(CDMA2000));
-            }
-        }
-
-        return ratList;
+        return getReadiness().mCsRats;
     }
 
     private @NonNull List<Integer> getDomainPreference() {
-        int[] domains = mDomainPreference;
-        if (isInRoaming()) domains = mDomainPreferenceRoam;
-
-        List<Integer> domainList = new ArrayList<Integer>();
-        for (int i = 0; i < domains.length; i++) {
-            domainList.add(domains[i]);
-        }
-        return domainList;
+        return getReadiness().mDomainPreference;
     }
 
     private boolean isInRoaming() {
-        if (!SubscriptionManager.isValidSubscriptionId(getSubId())) return false;
+        return getReadiness().mRoaming;
+    }
 
-        TelephonyManager tm = mContext.getSystemService(TelephonyManager.class);
-        tm = tm.createForSubscriptionId(getSubId());
-        String netIso = tm.getNetworkCountryIso();
+    private boolean queryInRoaming(EmergencyRegResult regResult) {
+        if (!SubscriptionManager.isValidSubscriptionId(getSubId())) return false;
 
-        EmergencyRegResult regResult = mSelectionAttributes.getEmergencyRegResult();
+        String netIso = null;
         if (regResult != null) {
             if (regResult.getRegState() == REGISTRATION_STATE_HOME) return false;
             if (regResult.getRegState() == REGISTRATION_STATE_ROAMING) return true;
 
-            String iso = regResult.getIso();
-            if (!TextUtils.isEmpty(iso)) netIso = iso;
+            netIso = regResult.getIso();
         }
 
+        TelephonyManager tm = mContext.getSystemService(TelephonyManager.class);
+        tm = tm.createForSubscriptionId(getSubId());
+        if (TextUtils.isEmpty(netIso)) netIso = tm.getNetworkCountryIso();
+
         String simIso = tm.getSimCountryIso();
         logi("isInRoaming simIso=" + simIso + ", netIso=" + netIso);
 
@@ -1240,7 +1193,9 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
         mDomainSelected = true;
         mLastTransportType = TRANSPORT_TYPE_WLAN;
         mVoWifiTrialCount++;
-        mTransportSelectorCallback.onWlanSelected(mVoWifiOverEmergencyPdn);
+        recordTimeline(EmergencyCallTimeline.EVENT_WLAN_SELECTED, null);
+        recordWlanSelected();
+        mTransportSelectorCallback.onWlanSelected(mPolicy.mVoWifiOverEmergencyPdn);
         mWwanSelectorCallback = null;
         removeMessages(MSG_NETWORK_SCAN_TIMEOUT);
         removeMessages(MSG_MAX_CELLULAR_TIMEOUT);
@@ -1254,6 +1209,7 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
         }
 
         mLastTransportType = TRANSPORT_TYPE_WWAN;
+        recordTimeline(EmergencyCallTimeline.EVENT_WWAN_SELECTED, null);
         mTransportSelectorCallback.onWwanSelected((callback) -> {
             mWwanSelectorCallback = callback;
             runnable.run();
@@ -1273,6 +1229,10 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
         if (accessNetworkType == EUTRAN || accessNetworkType == NGRAN) {
             domain = NetworkRegistrationInfo.DOMAIN_PS;
         }
+        recordTimeline(EmergencyCallTimeline.EVENT_DOMAIN_SELECTED,
+                ((domain == NetworkRegistrationInfo.DOMAIN_PS) ? "PS" : "CS") + " on "
+                + accessNetworkTypeToString(accessNetworkType));
+        recordWwanSelected(domain);
         mWwanSelectorCallback.onDomainSelected(domain,
                 (domain == NetworkRegistrationInfo.DOMAIN_PS));
     }
@@ -1314,12 +1274,12 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
     /** Starts the max cellular timer. */
     private void startMaxCellularTimer() {
         logd("startMaxCellularTimer tried=" + mVoWifiTrialCount
-                + ", max=" + mMaxNumOfVoWifiTries);
+                + ", max=" + mPolicy.mMaxNumOfVoWifiTries);
         if (isEmcOverWifiSupported()
-                && (mMaxCellularTimeout > 0)
-                && (mVoWifiTrialCount < mMaxNumOfVoWifiTries)) {
+                && (mPolicy.mMaxCellularTimeout > 0)
+                && (mVoWifiTrialCount < mPolicy.mMaxNumOfVoWifiTries)) {
             logi("startMaxCellularTimer start timer");
-            sendEmptyMessageDelayed(MSG_MAX_CELLULAR_TIMEOUT, mMaxCellularTimeout);
+            sendEmptyMessageDelayed(MSG_MAX_CELLULAR_TIMEOUT, mPolicy.mMaxCellularTimeout);
             registerForConnectivityChanges();
         }
     }
@@ -1358,9 +1318,12 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
     }
 
     private void terminateSelection(boolean permanent) {
-        mTransportSelectorCallback.onSelectionTerminated(permanent
+        int cause = permanent
                 ? DisconnectCause.EMERGENCY_PERM_FAILURE
-                : DisconnectCause.EMERGENCY_TEMP_FAILURE);
+                : DisconnectCause.EMERGENCY_TEMP_FAILURE;
+        recordSelectionTerminated(cause);
+        removeCachedScanResult();
+        mTransportSelectorCallback.onSelectionTerminated(cause);
 
         if (mIsScanRequested && mCancelSignal != null) {
             mCancelSignal.cancel();
@@ -1394,6 +1357,7 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
     /** Notifies that the cross stack redilaing timer has been expired. */
     public void notifyCrossStackTimerExpired() {
         logi("notifyCrossStackTimerExpired");
+        recordTimeline(EmergencyCallTimeline.EVENT_CROSS_STACK_TIMER_EXPIRED, null);
 
         mCrossStackTimerExpired = true;
         if (mDomainSelected) {
@@ -1403,36 +1367,80 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
         terminateSelectionForCrossSimRedialing(false);
     }
 
-    private static String arrayToString(int[] intArray, IntFunction<String> func) {
-        int length = intArray.length;
-        StringBuilder sb = new StringBuilder("{");
-        if (length > 0) {
-            int i = 0;
-            sb.append(func.apply(intArray[i++]));
-            while (i < length) {
-                sb.append(", ").append(func.apply(intArray[i++]));
+    /**
+     * The state the domain selection is evaluated against. It is computed once per event, so
+     * evaluating the policy does not query the same state from the system services repeatedly.
+     * The values that need a system service call but are only used on some paths are queried on
+     * first use and kept for the rest of the event.
+     */
+    private final class Readiness {
+        final EmergencyRegResult mRegResult;
+        final boolean mRoaming;
+        final boolean mCsInService;
+        final boolean mPsInService;
+        final @RadioAccessNetworkType List<Integer> mImsRats;
+        final @RadioAccessNetworkType List<Integer> mCsRats;
+        final List<Integer> mDomainPreference;
+        private Boolean mAdvancedCallingSettingEnabled;
+        private Boolean mDeactivatedSim;
+
+        Readiness() {
+            mRegResult = mSelectionAttributes.getEmergencyRegResult();
+            mRoaming = queryInRoaming(mRegResult);
+            mCsInService = isInService(mRegResult, NetworkRegistrationInfo.DOMAIN_CS);
+            mPsInService = isInService(mRegResult, NetworkRegistrationInfo.DOMAIN_PS);
+            mImsRats = mPolicy.getImsNetworkTypes(mRoaming);
+            mCsRats = mPolicy.getCsNetworkTypes(mRoaming, mSelectionAttributes.getNumber());
+            mDomainPreference = mPolicy.getDomainPreference(mRoaming);
+        }
+
+        boolean isAdvancedCallingSettingEnabled() {
+            if (mAdvancedCallingSettingEnabled == null) {
+                mAdvancedCallingSettingEnabled = queryAdvancedCallingSettingEnabled();
             }
+            return mAdvancedCallingSettingEnabled;
         }
-        sb.append("}");
-        return sb.toString();
+
+        boolean isDeactivatedSim() {
+            if (mDeactivatedSim == null) {
+                mDeactivatedSim = queryDeactivatedSim();
+            }
+            return mDeactivatedSim;
+        }
+    }
+
+    private @NonNull Readiness getReadiness() {
+        if (mReadiness == null) {
+            mReadiness = new Readiness();
+        }
+        return mReadiness;
+    }
+
+    /** Discards the state evaluated by the previous event. */
+    private void invalidateReadiness() {
+        mReadiness = null;
     }
 
-    private static String arrayToString(String[] stringArray) {
-        StringBuilder sb;
-        int length = stringArray.length;
-        sb = new StringBuilder("{");
+    private void recordTimeline(@EmergencyCallTimeline.Event int event, String detail) {
+        if (mSelectionAttributes == null) return;
+        mTimeline.record(mSelectionAttributes.getCallId(), event, detail);
+    }
+
+    static String arrayToString(int[] intArray, IntFunction<String> func) {
+        int length = intArray.length;
+        StringBuilder sb = new StringBuilder("{");
         if (length > 0) {
             int i = 0;
-            sb.append(stringArray[i++]);
+            sb.append(func.apply(intArray[i++]));
             while (i < length) {
-                sb.append(", ").append(stringArray[i++]);
+                sb.append(", ").append(func.apply(intArray[i++]));
             }
         }
         sb.append("}");
         return sb.toString();
     }
 
-    private static String domainPreferenceToString(
+    static String domainPreferenceToString(
             @CarrierConfigManager.ImsEmergency.EmergencyDomain int domain) {
         switch (domain) {
             case DOMAIN_CS: return "CS";
@@ -1442,7 +1450,7 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
         }
     }
 
-    private static String carrierConfigNetworkScanTypeToString(
+    static String carrierConfigNetworkScanTypeToString(
             @CarrierConfigManager.ImsEmergency.EmergencyScanType int scanType) {
         switch (scanType) {
             case CarrierConfigManager.ImsEmergency.SCAN_TYPE_NO_PREFERENCE: return "NO_PREF";
@@ -1452,7 +1460,7 @@ public class EmergencyCallDomainSelector extends DomainSelectorBase
         }
     }
 
-    private static String accessNetworkTypeToString(
+    static String accessNetworkTypeToString(
             @RadioAccessNetworkType int accessNetworkType) {
         switch (accessNetworkType) {
             case AccessNetworkType.UNKNOWN: return "UNKNOWN";
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony.domainselection;
+
+import static android.telephony.AccessNetworkConstants.AccessNetworkType.CDMA2000;
+import static android.telephony.AccessNetworkConstants.AccessNetworkType.EUTRAN;
+import static android.telephony.AccessNetworkConstants.AccessNetworkType.NGRAN;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_CALL_SETUP_TIMER_ON_CURRENT_NETWORK_SEC_INT;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_CDMA_PREFERRED_NUMBERS_STRING_ARRAY;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_DOMAIN_PREFERENCE_INT_ARRAY;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_DOMAIN_PREFERENCE_ROAMING_INT_ARRAY;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_LTE_PREFERRED_AFTER_NR_FAILED_BOOL;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_NETWORK_SCAN_TYPE_INT;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_OVER_CS_ROAMING_SUPPORTED_ACCESS_NETWORK_TYPES_INT_ARRAY;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_OVER_CS_SUPPORTED_ACCESS_NETWORK_TYPES_INT_ARRAY;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_OVER_IMS_ROAMING_SUPPORTED_3GPP_NETWORK_TYPES_INT_ARRAY;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_OVER_IMS_SUPPORTED_3GPP_NETWORK_TYPES_INT_ARRAY;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_REQUIRES_IMS_REGISTRATION_BOOL;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_REQUIRES_VOLTE_ENABLED_BOOL;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_SCAN_TIMER_SEC_INT;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_VOWIFI_REQUIRES_CONDITION_INT;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_MAXIMUM_CELLULAR_SEARCH_TIMER_SEC_INT;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_MAXIMUM_NUMBER_OF_EMERGENCY_TRIES_OVER_VOWIFI_INT;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_PREFER_IMS_EMERGENCY_WHEN_VOICE_CALLS_ON_CS_BOOL;
+import static android.telephony.CarrierConfigManager.ImsEmergency.SCAN_TYPE_FULL_SERVICE_FOLLOWED_BY_LIMITED_SERVICE;
+import static android.telephony.CarrierConfigManager.ImsWfc.KEY_EMERGENCY_CALL_OVER_EMERGENCY_PDN_BOOL;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.content.Context;
+import android.os.PersistableBundle;
+import android.telephony.AccessNetworkConstants.RadioAccessNetworkType;
+import android.telephony.CarrierConfigManager;
+import android.telephony.DomainSelectionService;
+import android.telephony.SubscriptionManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The emergency call domain selection policy of a subscription, decoded from its carrier config.
+ * <p>
+ * The policy is immutable, so it can be shared by every {@link EmergencyCallDomainSelector}
+ * created for the subscription until the carrier config changes. The preferred network lists are
+ * built once here, so a selection does not need to build them from the carrier config arrays.
+ */
+public final class EmergencyCallPolicy {
+    final int mSubId;
+
+    final @RadioAccessNetworkType int[] mImsRatsConfig;
+    final @RadioAccessNetworkType int[] mCsRatsConfig;
+    final @RadioAccessNetworkType int[] mImsRoamRatsConfig;
+    final @RadioAccessNetworkType int[] mCsRoamRatsConfig;
+    final @CarrierConfigManager.ImsEmergency.EmergencyDomain int[] mDomainPreference;
+    final @CarrierConfigManager.ImsEmergency.EmergencyDomain int[] mDomainPreferenceRoam;
+    final List<String> mCdmaPreferredNumbers;
+    final boolean mPreferImsWhenCallsOnCs;
+    final int mVoWifiRequiresCondition;
+    final int mScanTimeout;
+    final int mMaxCellularTimeout;
+    final int mMaxNumOfVoWifiTries;
+    final boolean mVoWifiOverEmergencyPdn;
+    final @CarrierConfigManager.ImsEmergency.EmergencyScanType int mPreferredNetworkScanType;
+    final int mCallSetupTimerOnCurrentRat;
+    final boolean mRequiresImsRegistration;
+    final boolean mRequiresVoLteEnabled;
+    final boolean mLtePreferredAfterNrFailure;
+    // The scan type of the first emergency network scan.
+    final @DomainSelectionService.EmergencyScanType int mInitialScanType;
+
+    // Unmodifiable lists built from the arrays above.
+    private final List<Integer> mImsRats;
+    private final List<Integer> mImsRoamRats;
+    private final List<Integer> mCsRats;
+    private final List<Integer> mCsRoamRats;
+    private final List<Integer> mCsRatsWithoutCdma;
+    private final List<Integer> mCsRoamRatsWithoutCdma;
+    private final List<Integer> mDomainPreferenceList;
+    private final List<Integer> mDomainPreferenceRoamList;
+
+    private static final List<Integer> CDMA_ONLY = Collections.singletonList(CDMA2000);
+
+    /**
+     * Loads the carrier config of the subscription and decodes the policy from it.
+     */
+    public static @NonNull EmergencyCallPolicy load(@NonNull Context context, int subId) {
+        CarrierConfigManager configMgr = context.getSystemService(CarrierConfigManager.class);
+        PersistableBundle b = (configMgr != null) ? configMgr.getConfigForSubId(subId) : null;
+        return new EmergencyCallPolicy(subId, b);
+    }
+
+    /**
+     * @param subId The subscription the carrier config belongs to.
+     * @param b The carrier config, or {@code null} to use the default carrier config.
+     */
+    public EmergencyCallPolicy(int subId, @Nullable PersistableBundle b) {
+        if (b == null) {
+            b = CarrierConfigManager.getDefaultConfig();
+        }
+        mSubId = subId;
+
+        int[] imsRats = b.getIntArray(
+                KEY_EMERGENCY_OVER_IMS_SUPPORTED_3GPP_NETWORK_TYPES_INT_ARRAY);
+        int[] imsRoamRats = b.getIntArray(
+                KEY_EMERGENCY_OVER_IMS_ROAMING_SUPPORTED_3GPP_NETWORK_TYPES_INT_ARRAY);
+        if (!SubscriptionManager.isValidSubscriptionId(subId)) {
+            // Default configuration includes only EUTRAN . In case of no SIM, add NGRAN.
+            imsRats = new int[] { EUTRAN, NGRAN };
+            imsRoamRats = new int[] { EUTRAN, NGRAN };
+        }
+        mImsRatsConfig = nonNull(imsRats);
+        mImsRoamRatsConfig = nonNull(imsRoamRats);
+        mCsRatsConfig = nonNull(
+                b.getIntArray(KEY_EMERGENCY_OVER_CS_SUPPORTED_ACCESS_NETWORK_TYPES_INT_ARRAY));
+        mCsRoamRatsConfig = nonNull(b.getIntArray(
+                KEY_EMERGENCY_OVER_CS_ROAMING_SUPPORTED_ACCESS_NETWORK_TYPES_INT_ARRAY));
+        mDomainPreference = nonNull(b.getIntArray(KEY_EMERGENCY_DOMAIN_PREFERENCE_INT_ARRAY));
+        mDomainPreferenceRoam = nonNull(
+                b.getIntArray(KEY_EMERGENCY_DOMAIN_PREFERENCE_ROAMING_INT_ARRAY));
+        mPreferImsWhenCallsOnCs = b.getBoolean(
+                KEY_PREFER_IMS_EMERGENCY_WHEN_VOICE_CALLS_ON_CS_BOOL);
+        mVoWifiRequiresCondition = b.getInt(KEY_EMERGENCY_VOWIFI_REQUIRES_CONDITION_INT);
+        mScanTimeout = b.getInt(KEY_EMERGENCY_SCAN_TIMER_SEC_INT) * 1000;
+        mMaxCellularTimeout = b.getInt(KEY_MAXIMUM_CELLULAR_SEARCH_TIMER_SEC_INT) * 1000;
+        mMaxNumOfVoWifiTries = b.getInt(KEY_MAXIMUM_NUMBER_OF_EMERGENCY_TRIES_OVER_VOWIFI_INT);
+        mVoWifiOverEmergencyPdn = b.getBoolean(KEY_EMERGENCY_CALL_OVER_EMERGENCY_PDN_BOOL);
+        mPreferredNetworkScanType = b.getInt(KEY_EMERGENCY_NETWORK_SCAN_TYPE_INT);
+        mCallSetupTimerOnCurrentRat = b.getInt(
+                KEY_EMERGENCY_CALL_SETUP_TIMER_ON_CURRENT_NETWORK_SEC_INT) * 1000;
+        mRequiresImsRegistration = b.getBoolean(KEY_EMERGENCY_REQUIRES_IMS_REGISTRATION_BOOL);
+        mRequiresVoLteEnabled = b.getBoolean(KEY_EMERGENCY_REQUIRES_VOLTE_ENABLED_BOOL);
+        mLtePreferredAfterNrFailure = b.getBoolean(
+                KEY_EMERGENCY_LTE_PREFERRED_AFTER_NR_FAILED_BOOL);
+        String[] numbers = b.getStringArray(KEY_EMERGENCY_CDMA_PREFERRED_NUMBERS_STRING_ARRAY);
+        mCdmaPreferredNumbers = (numbers == null)
+                ? Collections.emptyList() : Collections.unmodifiableList(Arrays.asList(numbers));
+
+        if ((mPreferredNetworkScanType == CarrierConfigManager.ImsEmergency.SCAN_TYPE_FULL_SERVICE)
+                || (mPreferredNetworkScanType
+                        == SCAN_TYPE_FULL_SERVICE_FOLLOWED_BY_LIMITED_SERVICE)) {
+            mInitialScanType = DomainSelectionService.SCAN_TYPE_FULL_SERVICE;
+        } else {
+            mInitialScanType = DomainSelectionService.SCAN_TYPE_NO_PREFERENCE;
+        }
+
+        mImsRats = toList(mImsRatsConfig);
+        mImsRoamRats = toList(mImsRoamRatsConfig);
+        mCsRats = toList(mCsRatsConfig);
+        mCsRoamRats = toList(mCsRoamRatsConfig);
+        mCsRatsWithoutCdma = withoutCdma(mCsRatsConfig);
+        mCsRoamRatsWithoutCdma = withoutCdma(mCsRoamRatsConfig);
+        mDomainPreferenceList = toList(mDomainPreference);
+        mDomainPreferenceRoamList = toList(mDomainPreferenceRoam);
+    }
+
+    /**
+     * @return The unmodifiable list of the access networks supporting emergency calls over IMS.
+     */
+    public @NonNull List<Integer> getImsNetworkTypes(boolean roaming) {
+        return roaming ? mImsRoamRats : mImsRats;
+    }
+
+    /**
+     * @param number The emergency number being dialed.
+     * @return The unmodifiable list of the access networks supporting emergency calls over CS
+     *         for the number.
+     */
+    public @NonNull List<Integer> getCsNetworkTypes(boolean roaming, @Nullable String number) {
+        if (mCdmaPreferredNumbers.isEmpty()) {
+            return roaming ? mCsRoamRats : mCsRats;
+        }
+        if (mCdmaPreferredNumbers.contains(number)) {
+            // The number will be dialed over CDMA.
+            return CDMA_ONLY;
+        }
+        // The number will be dialed over UTRAN or GERAN.
+        return roaming ? mCsRoamRatsWithoutCdma : mCsRatsWithoutCdma;
+    }
+
+    /**
+     * @return The unmodifiable list of the emergency domains in the order of preference.
+     */
+    public @NonNull List<Integer> getDomainPreference(boolean roaming) {
+        return roaming ? mDomainPreferenceRoamList : mDomainPreferenceList;
+    }
+
+    private static int[] nonNull(@Nullable int[] array) {
+        return (array == null) ? new int[0] : array;
+    }
+
+    private static List<Integer> toList(int[] array) {
+        List<Integer> list = new ArrayList<>(array.length);
+        for (int value : array) {
+            list.add(value);
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    private static List<Integer> withoutCdma(int[] rats) {
+        List<Integer> list = new ArrayList<>(rats.length);
+        for (int rat : rats) {
+            if (rat != CDMA2000) list.add(rat);
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    @Override
+    public String toString() {
+        return "imsRats=" + EmergencyCallDomainSelector.arrayToString(mImsRatsConfig,
+                        EmergencyCallDomainSelector::accessNetworkTypeToString)
+                + ", csRats=" + EmergencyCallDomainSelector.arrayToString(mCsRatsConfig,
+                        EmergencyCallDomainSelector::accessNetworkTypeToString)
+                + ", imsRoamRats=" + EmergencyCallDomainSelector.arrayToString(mImsRoamRatsConfig,
+                        EmergencyCallDomainSelector::accessNetworkTypeToString)
+                + ", csRoamRats=" + EmergencyCallDomainSelector.arrayToString(mCsRoamRatsConfig,
+                        EmergencyCallDomainSelector::accessNetworkTypeToString)
+                + ", domainPref=" + EmergencyCallDomainSelector.arrayToString(mDomainPreference,
+                        EmergencyCallDomainSelector::domainPreferenceToString)
+                + ", domainPrefRoam=" + EmergencyCallDomainSelector.arrayToString(
+                        mDomainPreferenceRoam,
+                        EmergencyCallDomainSelector::domainPreferenceToString)
+                + ", preferImsOnCs=" + mPreferImsWhenCallsOnCs
+                + ", voWifiRequiresCondition=" + mVoWifiRequiresCondition
+                + ", scanTimeout=" + mScanTimeout
+                + ", maxCellularTimeout=" + mMaxCellularTimeout
+                + ", maxNumOfVoWifiTries=" + mMaxNumOfVoWifiTries
+                + ", voWifiOverEmergencyPdn=" + mVoWifiOverEmergencyPdn
+                + ", preferredScanType="
+                + EmergencyCallDomainSelector.carrierConfigNetworkScanTypeToString(
+                        mPreferredNetworkScanType)
+                + ", callSetupTimer=" + mCallSetupTimerOnCurrentRat
+                + ", requiresImsReg=" + mRequiresImsRegistration
+                + ", requiresVoLteEnabled=" + mRequiresVoLteEnabled
+                + ", ltePreferredAfterNr=" + mLtePreferredAfterNrFailure
+                + ", cdmaPreferredNumbers=" + mCdmaPreferredNumbers;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony.domainselection;
+
+import android.annotation.NonNull;
+import android.content.Context;
+import android.telephony.CarrierConfigManager;
+import android.telephony.SubscriptionManager;
+import android.util.IndentingPrintWriter;
+import android.util.LocalLog;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Caches the {@link EmergencyCallPolicy} of each subscription.
+ * <p>
+ * The policy of a subscription is decoded again when its carrier config changes, so an emergency
+ * call does not need to load and decode the carrier config before the domain selection starts.
+ */
+public class EmergencyCallPolicyCache {
+    private static final String TAG = "EmergencyCallPolicyCache";
+    private static final int LOG_SIZE = 20;
+
+    private final Context mContext;
+    private final LocalLog mEventLog = new LocalLog(LOG_SIZE);
+    // Guarded by mPolicies
+    private final SparseArray<EmergencyCallPolicy> mPolicies = new SparseArray<>(2);
+
+    private final CarrierConfigManager.CarrierConfigChangeListener mCarrierConfigChangeListener =
+            (slotIndex, subId, carrierId, specificCarrierId) -> onCarrierConfigChanged(subId);
+
+    public EmergencyCallPolicyCache(@NonNull Context context, @NonNull Executor executor) {
+        mContext = context;
+
+        CarrierConfigManager configMgr = mContext.getSystemService(CarrierConfigManager.class);
+        if (configMgr != null) {
+            configMgr.registerCarrierConfigChangeListener(executor, mCarrierConfigChangeListener);
+        } else {
+            loge("Adding CarrierConfigChangeListener failed");
+        }
+    }
+
+    /**
+     * Returns the policy of the subscription, loading it if it has not been loaded yet.
+     *
+     * @param subId The subscription ID.
+     * @return The policy decoded from the current carrier config of the subscription.
+     */
+    public @NonNull EmergencyCallPolicy getPolicy(int subId) {
+        synchronized (mPolicies) {
+            EmergencyCallPolicy policy = mPolicies.get(subId);
+            if (policy != null) return policy;
+        }
+        EmergencyCallPolicy policy = EmergencyCallPolicy.load(mContext, subId);
+        synchronized (mPolicies) {
+            // Keep the policy if it was reloaded on a carrier config change in the meantime.
+            EmergencyCallPolicy current = mPolicies.get(subId);
+            if (current != null) return current;
+            mPolicies.put(subId, policy);
+        }
+        logi("getPolicy loaded subId=" + subId);
+        return policy;
+    }
+
+    /**
+     * Reloads the policy of the subscription whose carrier config has changed.
+     */
+    @VisibleForTesting
+    public void onCarrierConfigChanged(int subId) {
+        if (!SubscriptionManager.isValidSubscriptionId(subId)) {
+            // The subscription of a slot has been removed. The policies of the removed
+            // subscriptions will not be used again, and the policy for no subscription is only
+            // decoded from the default carrier config, which does not change.
+            synchronized (mPolicies) {
+                EmergencyCallPolicy noSubPolicy =
+                        mPolicies.get(SubscriptionManager.INVALID_SUBSCRIPTION_ID);
+                mPolicies.clear();
+                if (noSubPolicy != null) {
+                    mPolicies.put(SubscriptionManager.INVALID_SUBSCRIPTION_ID, noSubPolicy);
+                }
+            }
+            logi("onCarrierConfigChanged cleared");
+            return;
+        }
+        EmergencyCallPolicy policy = EmergencyCallPolicy.load(mContext, subId);
+        synchronized (mPolicies) {
+            mPolicies.put(subId, policy);
+        }
+        logi("onCarrierConfigChanged reloaded subId=" + subId);
+    }
+
+    /** Destroys this instance. */
+    public void destroy() {
+        CarrierConfigManager configMgr = mContext.getSystemService(CarrierConfigManager.class);
+        if (configMgr != null) {
+            configMgr.unregisterCarrierConfigChangeListener(mCarrierConfigChangeListener);
+        }
+        synchronized (mPolicies) {
+            mPolicies.clear();
+        }
+    }
+
+    /**
+     * Dumps this instance into a readable format for dumpsys usage.
+     */
+    public void dump(@NonNull IndentingPrintWriter ipw) {
+        ipw.println("EmergencyCallPolicyCache:");
+        ipw.increaseIndent();
+        synchronized (mPolicies) {
+            for (int i = 0; i < mPolicies.size(); ++i) {
+                ipw.println("subId=" + mPolicies.keyAt(i) + ": " + mPolicies.valueAt(i));
+            }
+        }
+        ipw.println("Event Log:");
+        ipw.increaseIndent();
+        mEventLog.dump(ipw);
+        ipw.decreaseIndent();
+        ipw.decreaseIndent();
+    }
+
+    private void logi(String s) {
+        Log.i(TAG, s);
+        mEventLog.log(s);
+    }
+
+    private void loge(String s) {
+        Log.e(TAG, s);
+        mEventLog.log(s);
+    }
+}
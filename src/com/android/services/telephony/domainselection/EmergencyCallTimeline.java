@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony.domainselection;
+
+import android.annotation.IntDef;
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.IndentingPrintWriter;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Records the timeline of recent emergency calls, from the dial request to the selection of the
+ * domain of each attempt, to audit where the time to the first emergency attempt is spent.
+ * <p>
+ * Event times are taken from {@link SystemClock#elapsedRealtime()}, which is monotonic. The
+ * timelines of the last {@link #MAX_CALLS} calls are kept and included in dumpsys with the time
+ * of each event since the dial request and since the previous event.
+ */
+public class EmergencyCallTimeline {
+    private static final String TAG = "EmergencyCallTimeline";
+
+    /** The number of calls whose timeline is kept. */
+    @VisibleForTesting
+    public static final int MAX_CALLS = 10;
+    /** The number of events kept per call. */
+    @VisibleForTesting
+    public static final int MAX_EVENTS_PER_CALL = 64;
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef(prefix = "EVENT_", value = {
+            EVENT_DIAL,
+            EVENT_RADIO_ON_WAIT,
+            EVENT_RADIO_ON,
+            EVENT_EMERGENCY_MODE_READY,
+            EVENT_SELECTION_REQUESTED,
+            EVENT_SELECTION_STARTED,
+            EVENT_IMS_STATE_READY,
+            EVENT_SCAN_REQUESTED,
+            EVENT_SCAN_RESULT,
+            EVENT_SCAN_TIMEOUT,
+            EVENT_WWAN_SELECTED,
+            EVENT_WLAN_SELECTED,
+            EVENT_DOMAIN_SELECTED,
+            EVENT_CROSS_STACK_TIMER_EXPIRED,
+            EVENT_MAX_CELLULAR_TIMEOUT,
+            EVENT_REDIAL,
+            EVENT_DIALED,
+    })
+    public @interface Event {}
+
+    /** The emergency call has been requested. */
+    public static final int EVENT_DIAL = 0;
+    /** Started waiting for the radio to be turned on. */
+    public static final int EVENT_RADIO_ON_WAIT = 1;
+    /** The radio is on and ready for the call, or waiting has timed out. */
+    public static final int EVENT_RADIO_ON = 2;
+    /** The emergency mode has been set, including turning on the radio if needed. */
+    public static final int EVENT_EMERGENCY_MODE_READY = 3;
+    /** The domain selection has been requested. */
+    public static final int EVENT_SELECTION_REQUESTED = 4;
+    /** The domain selector has started the selection. */
+    public static final int EVENT_SELECTION_STARTED = 5;
+    /** The barring info, IMS registration state and MMTEL capabilities have been received. */
+    public static final int EVENT_IMS_STATE_READY = 6;
+    /** An emergency network scan has been requested. */
+    public static final int EVENT_SCAN_REQUESTED = 7;
+    /** The result of an emergency network scan has been received. */
+    public static final int EVENT_SCAN_RESULT = 8;
+    /** The timer waiting for the scan result before trying Wi-Fi has expired. */
+    public static final int EVENT_SCAN_TIMEOUT = 9;
+    /** WWAN has been selected. */
+    public static final int EVENT_WWAN_SELECTED = 10;
+    /** WLAN has been selected. */
+    public static final int EVENT_WLAN_SELECTED = 11;
+    /** The domain of the WWAN attempt has been selected. */
+    public static final int EVENT_DOMAIN_SELECTED = 12;
+    /** The cross stack redialing timer has expired. */
+    public static final int EVENT_CROSS_STACK_TIMER_EXPIRED = 13;
+    /** The maximum cellular search timer has expired. */
+    public static final int EVENT_MAX_CELLULAR_TIMEOUT = 14;
+    /** An attempt has failed and the domain selection has been requested again. */
+    public static final int EVENT_REDIAL = 15;
+    /** The call has been dialed on the selected domain. */
+    public static final int EVENT_DIALED = 16;
+
+    /**
+     * Used to inject the current time for testing.
+     */
+    @VisibleForTesting
+    public interface Clock {
+        /** @return The elapsed realtime in milliseconds. */
+        long elapsedRealtime();
+        /** @return The wall clock time in milliseconds. */
+        long currentTimeMillis();
+    }
+
+    private static final class Entry {
+        final @Event int mEvent;
+        final long mTimeMs;
+        final @Nullable String mDetail;
+
+        Entry(@Event int event, long timeMs, @Nullable String detail) {
+            mEvent = event;
+            mTimeMs = timeMs;
+            mDetail = detail;
+        }
+    }
+
+    private static final class CallTimeline {
+        final String mCallId;
+        final long mStartTimeMs;
+        final long mStartWallTimeMs;
+        final List<Entry> mEntries = new ArrayList<>();
+        int mDroppedEntries = 0;
+
+        CallTimeline(String callId, long startTimeMs, long startWallTimeMs) {
+            mCallId = callId;
+            mStartTimeMs = startTimeMs;
+            mStartWallTimeMs = startWallTimeMs;
+        }
+    }
+
+    private static EmergencyCallTimeline sInstance;
+
+    private final Clock mClock;
+    // Guarded by mCalls, the most recent call last.
+    private final ArrayDeque<CallTimeline> mCalls = new ArrayDeque<>(MAX_CALLS);
+
+    /** @return The instance shared by the components handling emergency calls. */
+    public static synchronized EmergencyCallTimeline getInstance() {
+        if (sInstance == null) {
+            sInstance = new EmergencyCallTimeline(new Clock() {
+                @Override
+                public long elapsedRealtime() {
+                    return SystemClock.elapsedRealtime();
+                }
+
+                @Override
+                public long currentTimeMillis() {
+                    return System.currentTimeMillis();
+                }
+            });
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    public EmergencyCallTimeline(@NonNull Clock clock) {
+        mClock = clock;
+    }
+
+    /**
+     * Records an event of the emergency call.
+     *
+     * @param callId The Telecom call ID of the emergency call.
+     * @param event The event.
+     */
+    public void record(@Nullable String callId, @Event int event) {
+        record(callId, event, null);
+    }
+
+    /**
+     * Records an event of the emergency call. {@link #EVENT_DIAL} starts a new timeline for the
+     * call, other events are added to the timeline of the call if it is one of the recent calls.
+     *
+     * @param callId The Telecom call ID of the emergency call.
+     * @param event The event.
+     * @param detail Additional information about the event, or {@code null}.
+     */
+    public void record(@Nullable String callId, @Event int event, @Nullable String detail) {
+        if (TextUtils.isEmpty(callId)) return;
+        long nowMs = mClock.elapsedRealtime();
+        synchronized (mCalls) {
+            CallTimeline timeline = (event == EVENT_DIAL) ? null : findCall(callId);
+            if (timeline == null) {
+                if (event != EVENT_DIAL) {
+                    // The dial request was not recorded, start the timeline from this event.
+                    Log.w(TAG, "record " + eventToString(event) + " for unknown call " + callId);
+                }
+                if (mCalls.size() >= MAX_CALLS) mCalls.removeFirst();
+                timeline = new CallTimeline(callId, nowMs, mClock.currentTimeMillis());
+                mCalls.addLast(timeline);
+            }
+            if (timeline.mEntries.size() >= MAX_EVENTS_PER_CALL) {
+                timeline.mDroppedEntries++;
+                return;
+            }
+            timeline.mEntries.add(new Entry(event, nowMs, detail));
+        }
+    }
+
+    /**
+     * @return The time in milliseconds from the dial request of the call to the first
+     *         occurrence of the event, or -1 if either has not been recorded.
+     */
+    @VisibleForTesting
+    public long getTimeSinceDial(@NonNull String callId, @Event int event) {
+        synchronized (mCalls) {
+            CallTimeline timeline = findCall(callId);
+            if (timeline == null) return -1;
+            for (Entry entry : timeline.mEntries) {
+                if (entry.mEvent == event) return entry.mTimeMs - timeline.mStartTimeMs;
+            }
+            return -1;
+        }
+    }
+
+    private @Nullable CallTimeline findCall(String callId) {
+        Iterator<CallTimeline> it = mCalls.descendingIterator();
+        while (it.hasNext()) {
+            CallTimeline timeline = it.next();
+            if (TextUtils.equals(timeline.mCallId, callId)) return timeline;
+        }
+        return null;
+    }
+
+    /**
+     * Dumps the timelines of the recent calls into a readable format for dumpsys usage.
+     */
+    public void dump(@NonNull IndentingPrintWriter ipw) {
+        SimpleDateFormat format = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+        ipw.println("EmergencyCallTimeline:");
+        ipw.increaseIndent();
+        synchronized (mCalls) {
+            for (CallTimeline timeline : mCalls) {
+                ipw.println("callId=" + timeline.mCallId + ", start="
+                        + format.format(new Date(timeline.mStartWallTimeMs)));
+                ipw.increaseIndent();
+                long prevTimeMs = timeline.mStartTimeMs;
+                for (Entry entry : timeline.mEntries) {
+                    // The time since the dial request and the duration of the phase ending with
+                    // this event.
+                    ipw.println("+" + (entry.mTimeMs - timeline.mStartTimeMs) + "ms"
+                            + " (" + (entry.mTimeMs - prevTimeMs) + "ms) "
+                            + eventToString(entry.mEvent)
+                            + (entry.mDetail != null ? " " + entry.mDetail : ""));
+                    prevTimeMs = entry.mTimeMs;
+                }
+                if (timeline.mDroppedEntries > 0) {
+                    ipw.println(timeline.mDroppedEntries + " events dropped");
+                }
+                ipw.decreaseIndent();
+            }
+        }
+        ipw.decreaseIndent();
+    }
+
+    private static String eventToString(@Event int event) {
+        switch (event) {
+            case EVENT_DIAL: return "DIAL";
+            case EVENT_RADIO_ON_WAIT: return "RADIO_ON_WAIT";
+            case EVENT_RADIO_ON: return "RADIO_ON";
+            case EVENT_EMERGENCY_MODE_READY: return "EMERGENCY_MODE_READY";
+            case EVENT_SELECTION_REQUESTED: return "SELECTION_REQUESTED";
+            case EVENT_SELECTION_STARTED: return "SELECTION_STARTED";
+            case EVENT_IMS_STATE_READY: return "IMS_STATE_READY";
+            case EVENT_SCAN_REQUESTED: return "SCAN_REQUESTED";
+            case EVENT_SCAN_RESULT: return "SCAN_RESULT";
+            case EVENT_SCAN_TIMEOUT: return "SCAN_TIMEOUT";
+            case EVENT_WWAN_SELECTED: return "WWAN_SELECTED";
+            case EVENT_WLAN_SELECTED: return "WLAN_SELECTED";
+            case EVENT_DOMAIN_SELECTED: return "DOMAIN_SELECTED";
+            case EVENT_CROSS_STACK_TIMER_EXPIRED: return "CROSS_STACK_TIMER_EXPIRED";
+            case EVENT_MAX_CELLULAR_TIMEOUT: return "MAX_CELLULAR_TIMEOUT";
+            case EVENT_REDIAL: return "REDIAL";
+            case EVENT_DIALED: return "DIALED";
+            default: return Integer.toString(event);
+        }
+    }
+}
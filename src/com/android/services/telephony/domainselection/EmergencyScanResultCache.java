@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony.domainselection;
+
+import static android.telephony.AccessNetworkConstants.AccessNetworkType.UNKNOWN;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.os.SystemClock;
+import android.telephony.EmergencyRegResult;
+import android.util.IndentingPrintWriter;
+import android.util.LocalLog;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+/**
+ * Caches the last successful emergency network scan result of each slot, so the first scan of
+ * the next emergency call placed shortly after can start with the access network that was found.
+ * <p>
+ * A cached result is only used once and only within {@link #DEFAULT_FRESHNESS_MS} after the
+ * scan completed. If an attempt on the slot fails, its result is removed so that neither the
+ * redial nor the next emergency call uses it.
+ */
+public class EmergencyScanResultCache {
+    private static final String TAG = "EmergencyScanResultCache";
+    private static final int LOG_SIZE = 20;
+
+    /** The maximum age of a scan result that can be used to order a new scan. */
+    public static final long DEFAULT_FRESHNESS_MS = 30000;
+
+    /** Used to inject the current time for testing. */
+    @VisibleForTesting
+    public interface ClockProxy {
+        /** @return The elapsed realtime in milliseconds. */
+        long elapsedRealtime();
+    }
+
+    private static final class Entry {
+        final EmergencyRegResult mResult;
+        final long mTimeMs;
+
+        Entry(EmergencyRegResult result, long timeMs) {
+            mResult = result;
+            mTimeMs = timeMs;
+        }
+    }
+
+    private final ClockProxy mClock;
+    private final long mFreshnessMs;
+    private final LocalLog mEventLog = new LocalLog(LOG_SIZE);
+    // Map of slotId -> the last scan result, guarded by mEntries.
+    private final SparseArray<Entry> mEntries = new SparseArray<>(2);
+
+    public EmergencyScanResultCache() {
+        this(SystemClock::elapsedRealtime, DEFAULT_FRESHNESS_MS);
+    }
+
+    @VisibleForTesting
+    public EmergencyScanResultCache(@NonNull ClockProxy clock, long freshnessMs) {
+        mClock = clock;
+        mFreshnessMs = freshnessMs;
+    }
+
+    /**
+     * Stores the result of an emergency network scan.
+     *
+     * @param slotId The slot where the scan has been performed.
+     * @param result The scan result.
+     */
+    public void put(int slotId, @NonNull EmergencyRegResult result) {
+        if (result.getAccessNetwork() == UNKNOWN) return;
+        synchronized (mEntries) {
+            mEntries.put(slotId, new Entry(result, mClock.elapsedRealtime()));
+        }
+        logi("put slotId=" + slotId + ", result=" + result);
+    }
+
+    /**
+     * Removes and returns the scan result of the slot if it is still fresh.
+     *
+     * @param slotId The slot index.
+     * @return The scan result, or {@code null} if there is no fresh scan result.
+     */
+    public @Nullable EmergencyRegResult take(int slotId) {
+        Entry entry;
+        synchronized (mEntries) {
+            entry = mEntries.get(slotId);
+            mEntries.remove(slotId);
+        }
+        if (entry == null) return null;
+        long ageMs = mClock.elapsedRealtime() - entry.mTimeMs;
+        if (ageMs > mFreshnessMs) {
+            logi("take slotId=" + slotId + " expired, age=" + ageMs + "ms");
+            return null;
+        }
+        logi("take slotId=" + slotId + ", age=" + ageMs + "ms");
+        return entry.mResult;
+    }
+
+    /**
+     * Removes the scan result of the slot.
+     *
+     * @param slotId The slot index.
+     */
+    public void remove(int slotId) {
+        boolean removed;
+        synchronized (mEntries) {
+            removed = mEntries.indexOfKey(slotId) >= 0;
+            mEntries.remove(slotId);
+        }
+        if (removed) logi("remove slotId=" + slotId);
+    }
+
+    /** Removes all the cached scan results. */
+    public void clear() {
+        synchronized (mEntries) {
+            mEntries.clear();
+        }
+    }
+
+    /**
+     * Dumps this instance into a readable format for dumpsys usage.
+     */
+    public void dump(@NonNull IndentingPrintWriter ipw) {
+        ipw.println("EmergencyScanResultCache:");
+        ipw.increaseIndent();
+        long nowMs = mClock.elapsedRealtime();
+        synchronized (mEntries) {
+            for (int i = 0; i < mEntries.size(); ++i) {
+                Entry entry = mEntries.valueAt(i);
+                ipw.println("slotId=" + mEntries.keyAt(i) + ", age=" + (nowMs - entry.mTimeMs)
+                        + "ms: " + entry.mResult);
+            }
+        }
+        ipw.println("Event Log:");
+        ipw.increaseIndent();
+        mEventLog.dump(ipw);
+        ipw.decreaseIndent();
+        ipw.decreaseIndent();
+    }
+
+    private void logi(String s) {
+        Log.i(TAG, s);
+        mEventLog.log(s);
+    }
+}
@@ -53,8 +53,10 @@ public class EmergencySmsDomainSelector extends SmsDomainSelector implements
         super(context, slotId, subId, looper, imsStateTracker, listener,
                 "DomainSelector-EmergencySMS");
 
-        mImsStateTracker.addServiceStateListener(this);
-        mImsStateTracker.addBarringInfoListener(this);
+        // Only the WWAN registrations and the emergency barring are used for the selection.
+        mImsStateTracker.addServiceStateListener(this,
+                ImsStateTracker.SERVICE_STATE_CHANGE_WWAN_REGISTRATION);
+        mImsStateTracker.addBarringInfoListener(this, ImsStateTracker.BARRING_CHANGE_EMERGENCY);
     }
 
     @Override
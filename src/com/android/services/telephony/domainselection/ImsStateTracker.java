@@ -16,13 +16,18 @@
 
 package com.android.services.telephony.domainselection;
 
+import android.annotation.IntDef;
 import android.annotation.NonNull;
+import android.annotation.Nullable;
 import android.content.Context;
 import android.os.Handler;
 import android.os.Looper;
+import android.telephony.AccessNetworkConstants;
 import android.telephony.AccessNetworkConstants.AccessNetworkType;
 import android.telephony.AccessNetworkConstants.RadioAccessNetworkType;
 import android.telephony.BarringInfo;
+import android.telephony.DataSpecificRegistrationInfo;
+import android.telephony.NetworkRegistrationInfo;
 import android.telephony.ServiceState;
 import android.telephony.SubscriptionManager;
 import android.telephony.ims.ImsException;
@@ -35,7 +40,7 @@ import android.telephony.ims.ImsStateCallback.DisconnectedReason;
 import android.telephony.ims.RegistrationManager;
 import android.telephony.ims.feature.MmTelFeature.MmTelCapabilities;
 import android.telephony.ims.stub.ImsRegistrationImplBase;
-import android.util.ArraySet;
+import android.util.ArrayMap;
 import android.util.IndentingPrintWriter;
 import android.util.LocalLog;
 import android.util.Log;
@@ -44,16 +49,61 @@ import com.android.internal.annotations.Keep;
 import com.android.internal.annotations.VisibleForTesting;
 
 import java.io.PrintWriter;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
 import java.util.Objects;
-import java.util.Set;
 
 /**
  * A class for tracking the IMS related information like IMS registration state, MMTEL capabilities.
  * And, it also tracks the {@link ServiceState} and {@link BarringInfo} to identify the current
  * network state to which the device is attached.
+ * <p>
+ * Listeners are only notified when the information they are interested in has changed. Each
+ * listener can specify the aspects of the information it uses when it is added; by default it is
+ * notified of every change, but never of an update that is identical to the previous one.
  */
 @Keep
 public class ImsStateTracker {
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef(flag = true, prefix = "SERVICE_STATE_CHANGE_", value = {
+            SERVICE_STATE_CHANGE_STATE,
+            SERVICE_STATE_CHANGE_WWAN_REGISTRATION,
+            SERVICE_STATE_CHANGE_OTHER,
+    })
+    public @interface ServiceStateChange {}
+
+    /** The voice or data service state, see {@link ServiceState#getState()}. */
+    public static final int SERVICE_STATE_CHANGE_STATE = 1 << 0;
+    /**
+     * The access network technology, registration state, emergency support or VoPS support of
+     * the WWAN network registrations for the CS and PS domains.
+     */
+    public static final int SERVICE_STATE_CHANGE_WWAN_REGISTRATION = 1 << 1;
+    /** Any other information of the {@link ServiceState}, for example the roaming state. */
+    public static final int SERVICE_STATE_CHANGE_OTHER = 1 << 2;
+    /** Any change of the {@link ServiceState}. */
+    public static final int SERVICE_STATE_CHANGE_ALL = SERVICE_STATE_CHANGE_STATE
+            | SERVICE_STATE_CHANGE_WWAN_REGISTRATION | SERVICE_STATE_CHANGE_OTHER;
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef(flag = true, prefix = "BARRING_CHANGE_", value = {
+            BARRING_CHANGE_EMERGENCY,
+            BARRING_CHANGE_OTHER,
+    })
+    public @interface BarringChange {}
+
+    /** The barring of {@link BarringInfo#BARRING_SERVICE_TYPE_EMERGENCY}. */
+    public static final int BARRING_CHANGE_EMERGENCY = 1 << 0;
+    /** The barring of any other service type. */
+    public static final int BARRING_CHANGE_OTHER = 1 << 1;
+    /** Any change of the {@link BarringInfo}. */
+    public static final int BARRING_CHANGE_ALL = BARRING_CHANGE_EMERGENCY | BARRING_CHANGE_OTHER;
+
+    /** Any change of the MMTEL capabilities. */
+    public static final int MMTEL_CAPABILITIES_ALL = MmTelCapabilities.CAPABILITY_TYPE_VOICE
+            | MmTelCapabilities.CAPABILITY_TYPE_VIDEO | MmTelCapabilities.CAPABILITY_TYPE_UT
+            | MmTelCapabilities.CAPABILITY_TYPE_SMS;
+
     /**
      * A listener used to be notified of the {@link ServiceState} change.
      */
@@ -111,16 +161,21 @@ public class ImsStateTracker {
     private final Handler mHandler;
     private int mSubId = SubscriptionManager.INVALID_SUBSCRIPTION_ID;
 
-    /** For tracking the ServiceState and its related listeners. */
+    /** For tracking the ServiceState and its related listeners with their interests. */
     private ServiceState mServiceState;
-    private final Set<ServiceStateListener> mServiceStateListeners = new ArraySet<>(2);
+    private final ArrayMap<ServiceStateListener, Integer> mServiceStateListeners =
+            new ArrayMap<>(2);
 
-    /** For tracking the BarringInfo and its related listeners. */
+    /** For tracking the BarringInfo and its related listeners with their interests. */
     private BarringInfo mBarringInfo;
-    private final Set<BarringInfoListener> mBarringInfoListeners = new ArraySet<>(2);
+    private final ArrayMap<BarringInfoListener, Integer> mBarringInfoListeners =
+            new ArrayMap<>(2);
 
-    /** For tracking IMS states and callbacks. */
-    private final Set<ImsStateListener> mImsStateListeners = new ArraySet<>(5);
+    /**
+     * For tracking IMS states and callbacks.
+     * The listeners are mapped to the MMTEL capabilities they are interested in.
+     */
+    private final ArrayMap<ImsStateListener, Integer> mImsStateListeners = new ArrayMap<>(5);
     private ImsMmTelManager mMmTelManager;
     private ImsStateCallback mImsStateCallback;
     private RegistrationManager.RegistrationCallback mImsRegistrationCallback;
@@ -136,11 +191,18 @@ public class ImsStateTracker {
     private final Runnable mMmTelFeatureUnavailableRunnable = new Runnable() {
         @Override
         public void run() {
-            setImsStateAsUnavailable();
-            notifyImsMmTelFeatureAvailableChanged();
+            setAndNotifyImsStateAsUnavailable();
         }
     };
 
+    /** The number of updates not notified to any listener, for dumpsys. */
+    private int mSuppressedServiceStateUpdates;
+    private int mSuppressedBarringInfoUpdates;
+    private int mSuppressedImsStateUpdates;
+
+    /** Incremented whenever any of the states tracked by this instance changes. */
+    private int mStateVersion;
+
     public ImsStateTracker(@NonNull Context context, int slotId, @NonNull Looper looper) {
         mContext = context;
         mSlotId = slotId;
@@ -169,6 +231,24 @@ public class ImsStateTracker {
         return mSubId;
     }
 
+    /**
+     * Returns the version of the states tracked by this instance. The version is incremented
+     * whenever the IMS states, the {@link ServiceState} or the {@link BarringInfo} change,
+     * so a decision made from these states remains valid while the version is the same.
+     */
+    public int getStateVersion() {
+        return mStateVersion;
+    }
+
+    /**
+     * Returns {@code true} if updates of the IMS states from the IMS service are queued to this
+     * tracker and not processed yet, so the current states and {@link #getStateVersion()} may
+     * be about to change.
+     */
+    public boolean hasPendingStateUpdates() {
+        return mHandler.hasMessagesOrCallbacks();
+    }
+
     /**
      * Returns the Handler instance of this tracker.
      */
@@ -212,21 +292,43 @@ public class ImsStateTracker {
      * @param serviceState The {@link ServiceState} to be updated.
      */
     public void updateServiceState(ServiceState serviceState) {
+        final int changes = getServiceStateChanges(mServiceState, serviceState);
         mServiceState = serviceState;
+        if (changes != 0) mStateVersion++;
 
-        for (ServiceStateListener listener : mServiceStateListeners) {
-            listener.onServiceStateUpdated(serviceState);
+        boolean notified = false;
+        for (int i = 0; i < mServiceStateListeners.size(); i++) {
+            if ((mServiceStateListeners.valueAt(i) & changes) != 0) {
+                mServiceStateListeners.keyAt(i).onServiceStateUpdated(serviceState);
+                notified = true;
+            }
         }
+        if (!notified) mSuppressedServiceStateUpdates++;
     }
 
     /**
-     * Adds a listener to be notified of the {@link ServiceState} change.
+     * Adds a listener to be notified of any {@link ServiceState} change.
      * The newly added listener is notified if the current {@link ServiceState} is present.
      *
      * @param listener The listener to be added.
      */
     public void addServiceStateListener(@NonNull ServiceStateListener listener) {
-        mServiceStateListeners.add(listener);
+        addServiceStateListener(listener, SERVICE_STATE_CHANGE_ALL);
+    }
+
+    /**
+     * Adds a listener to be notified of the {@link ServiceState} change.
+     * The newly added listener is notified if the current {@link ServiceState} is present.
+     * After that, the listener is only notified when the specified information changes, so the
+     * last {@link ServiceState} the listener received is only valid for that information.
+     *
+     * @param listener The listener to be added.
+     * @param interest The information the listener uses, a combination of
+     *                 {@code SERVICE_STATE_CHANGE_*} values.
+     */
+    public void addServiceStateListener(@NonNull ServiceStateListener listener,
+            @ServiceStateChange int interest) {
+        mServiceStateListeners.put(listener, interest);
 
         final ServiceState serviceState = mServiceState;
         if (serviceState != null) {
@@ -251,7 +353,7 @@ public class ImsStateTracker {
      */
     private void notifyServiceStateUpdated(ServiceStateListener listener,
             ServiceState serviceState) {
-        if (!mServiceStateListeners.contains(listener)) {
+        if (!mServiceStateListeners.containsKey(listener)) {
             return;
         }
         listener.onServiceStateUpdated(serviceState);
@@ -265,21 +367,43 @@ public class ImsStateTracker {
      * @param barringInfo The {@link BarringInfo} to be updated.
      */
     public void updateBarringInfo(BarringInfo barringInfo) {
+        final int changes = getBarringInfoChanges(mBarringInfo, barringInfo);
         mBarringInfo = barringInfo;
+        if (changes != 0) mStateVersion++;
 
-        for (BarringInfoListener listener : mBarringInfoListeners) {
-            listener.onBarringInfoUpdated(barringInfo);
+        boolean notified = false;
+        for (int i = 0; i < mBarringInfoListeners.size(); i++) {
+            if ((mBarringInfoListeners.valueAt(i) & changes) != 0) {
+                mBarringInfoListeners.keyAt(i).onBarringInfoUpdated(barringInfo);
+                notified = true;
+            }
         }
+        if (!notified) mSuppressedBarringInfoUpdates++;
     }
 
     /**
-     * Adds a listener to be notified of the {@link BarringInfo} change.
+     * Adds a listener to be notified of any {@link BarringInfo} change.
      * The newly added listener is notified if the current {@link BarringInfo} is present.
      *
      * @param listener The listener to be added.
      */
     public void addBarringInfoListener(@NonNull BarringInfoListener listener) {
-        mBarringInfoListeners.add(listener);
+        addBarringInfoListener(listener, BARRING_CHANGE_ALL);
+    }
+
+    /**
+     * Adds a listener to be notified of the {@link BarringInfo} change.
+     * The newly added listener is notified if the current {@link BarringInfo} is present.
+     * After that, the listener is only notified when the barring of the specified service types
+     * changes.
+     *
+     * @param listener The listener to be added.
+     * @param interest The barring the listener uses, a combination of {@code BARRING_CHANGE_*}
+     *                 values.
+     */
+    public void addBarringInfoListener(@NonNull BarringInfoListener listener,
+            @BarringChange int interest) {
+        mBarringInfoListeners.put(listener, interest);
 
         final BarringInfo barringInfo = mBarringInfo;
         if (barringInfo != null) {
@@ -303,7 +427,7 @@ public class ImsStateTracker {
      * @param barringInfo The {@link BarringInfo} to be reported.
      */
     private void notifyBarringInfoUpdated(BarringInfoListener listener, BarringInfo barringInfo) {
-        if (!mBarringInfoListeners.contains(listener)) {
+        if (!mBarringInfoListeners.containsKey(listener)) {
             return;
         }
         listener.onBarringInfoUpdated(barringInfo);
@@ -317,7 +441,22 @@ public class ImsStateTracker {
      * @param listener The listener to be added.
      */
     public void addImsStateListener(@NonNull ImsStateListener listener) {
-        mImsStateListeners.add(listener);
+        addImsStateListener(listener, MMTEL_CAPABILITIES_ALL);
+    }
+
+    /**
+     * Adds a listener to be notified of the IMS state change.
+     * If each state was already received from the IMS service, the newly added listener
+     * is notified once. After that, {@link ImsStateListener#onImsMmTelCapabilitiesChanged()} is
+     * only called when one of the specified capabilities changes.
+     *
+     * @param listener The listener to be added.
+     * @param capabilityInterest The MMTEL capabilities the listener uses, a combination of
+     *                           {@code MmTelCapabilities.CAPABILITY_TYPE_*} values.
+     */
+    public void addImsStateListener(@NonNull ImsStateListener listener,
+            int capabilityInterest) {
+        mImsStateListeners.put(listener, capabilityInterest);
         mHandler.post(() -> notifyImsStateChangeIfValid(listener));
     }
 
@@ -416,55 +555,100 @@ public class ImsStateTracker {
         mImsAccessNetworkType = AccessNetworkType.UNKNOWN;
         mImsRegisteredOverCrossSim = null;
         mMmTelCapabilities = null;
+        mStateVersion++;
     }
 
     /**
      * Sets the IMS states to unavailable to notify the readiness of the IMS state
      * when the subscription is not valid.
+     *
+     * @return {@code true} if any of the IMS states has changed.
      */
-    private void setImsStateAsUnavailable() {
+    private boolean setImsStateAsUnavailable() {
         logd("setImsStateAsUnavailable");
-        setMmTelFeatureAvailable(false);
-        setImsRegistered(false);
-        setImsAccessNetworkType(AccessNetworkType.UNKNOWN);
-        setImsRegisteredOverCrossSim(false);
-        setMmTelCapabilities(new MmTelCapabilities());
+        // Use non-short-circuit operators so that all states are updated.
+        return setMmTelFeatureAvailable(false)
+                | setImsRegistered(false)
+                | setImsAccessNetworkType(AccessNetworkType.UNKNOWN)
+                | setImsRegisteredOverCrossSim(false)
+                | (setMmTelCapabilities(new MmTelCapabilities()) != 0);
     }
 
-    private void setMmTelFeatureAvailable(boolean available) {
+    /**
+     * Sets the IMS states to unavailable and notifies the listeners of the changes.
+     */
+    private void setAndNotifyImsStateAsUnavailable() {
+        final int capabilityChanges = setMmTelCapabilities(new MmTelCapabilities());
+        final boolean changed = setImsStateAsUnavailable();
+        if (changed) {
+            notifyImsMmTelFeatureAvailableChanged();
+        }
+        // Notified separately, a listener may not have received any capabilities yet.
+        if (capabilityChanges != 0) {
+            notifyImsMmTelCapabilitiesChanged(capabilityChanges);
+        }
+        if (!changed && capabilityChanges == 0) {
+            mSuppressedImsStateUpdates++;
+        }
+    }
+
+    private boolean setMmTelFeatureAvailable(boolean available) {
         if (!Objects.equals(mMmTelFeatureAvailable, Boolean.valueOf(available))) {
             logi("setMmTelFeatureAvailable: " + mMmTelFeatureAvailable + " >> " + available);
             mMmTelFeatureAvailable = Boolean.valueOf(available);
+            mStateVersion++;
+            return true;
         }
+        return false;
     }
 
-    private void setImsRegistered(boolean registered) {
+    private boolean setImsRegistered(boolean registered) {
         if (!Objects.equals(mImsRegistered, Boolean.valueOf(registered))) {
             logi("setImsRegistered: " + mImsRegistered + " >> " + registered);
             mImsRegistered = Boolean.valueOf(registered);
+            mStateVersion++;
+            return true;
         }
+        return false;
     }
 
-    private void setImsAccessNetworkType(int accessNetworkType) {
+    private boolean setImsAccessNetworkType(int accessNetworkType) {
         if (mImsAccessNetworkType != accessNetworkType) {
             logi("setImsAccessNetworkType: " + accessNetworkTypeToString(mImsAccessNetworkType)
                     + " >> " + accessNetworkTypeToString(accessNetworkType));
             mImsAccessNetworkType = accessNetworkType;
+            mStateVersion++;
+            return true;
         }
+        return false;
     }
 
-    private void setMmTelCapabilities(@NonNull MmTelCapabilities capabilities) {
+    /**
+     * Updates the MMTEL capabilities.
+     *
+     * @return The capabilities that have changed, or {@link #MMTEL_CAPABILITIES_ALL} if the
+     *         capabilities were not received before.
+     */
+    private int setMmTelCapabilities(@NonNull MmTelCapabilities capabilities) {
         if (!Objects.equals(mMmTelCapabilities, capabilities)) {
             logi("MMTEL capabilities: " + mMmTelCapabilities + " >> " + capabilities);
+            final int changes = (mMmTelCapabilities == null) ? MMTEL_CAPABILITIES_ALL
+                    : getCapabilityMask(mMmTelCapabilities) ^ getCapabilityMask(capabilities);
             mMmTelCapabilities = capabilities;
+            mStateVersion++;
+            return changes;
         }
+        return 0;
     }
 
-    private void setImsRegisteredOverCrossSim(boolean crossSim) {
+    private boolean setImsRegisteredOverCrossSim(boolean crossSim) {
         if (!Objects.equals(mImsRegisteredOverCrossSim, Boolean.valueOf(crossSim))) {
             logi("setImsRegisteredOverCrossSim: " + mImsRegisteredOverCrossSim + " >> " + crossSim);
             mImsRegisteredOverCrossSim = Boolean.valueOf(crossSim);
+            mStateVersion++;
+            return true;
         }
+        return false;
     }
 
     /**
@@ -473,7 +657,7 @@ public class ImsStateTracker {
      * @param listener The {@link ImsStateListener} to be notified.
      */
     private void notifyImsStateChangeIfValid(@NonNull ImsStateListener listener) {
-        if (!mImsStateListeners.contains(listener)) {
+        if (!mImsStateListeners.containsKey(listener)) {
             return;
         }
 
@@ -494,8 +678,8 @@ public class ImsStateTracker {
      * Notifies the application that MMTEL feature connection state is changed.
      */
     private void notifyImsMmTelFeatureAvailableChanged() {
-        for (ImsStateListener l : mImsStateListeners) {
-            l.onImsMmTelFeatureAvailableChanged();
+        for (int i = 0; i < mImsStateListeners.size(); i++) {
+            mImsStateListeners.keyAt(i).onImsMmTelFeatureAvailableChanged();
         }
     }
 
@@ -504,18 +688,22 @@ public class ImsStateTracker {
      */
     private void notifyImsRegistrationStateChanged() {
         logi("ImsState: " + imsStateToString());
-        for (ImsStateListener l : mImsStateListeners) {
-            l.onImsRegistrationStateChanged();
+        for (int i = 0; i < mImsStateListeners.size(); i++) {
+            mImsStateListeners.keyAt(i).onImsRegistrationStateChanged();
         }
     }
 
     /**
      * Notifies the application that MMTEL capabilities is changed.
+     *
+     * @param changes The capabilities that have changed.
      */
-    private void notifyImsMmTelCapabilitiesChanged() {
+    private void notifyImsMmTelCapabilitiesChanged(int changes) {
         logi("ImsState: " + imsStateToString());
-        for (ImsStateListener l : mImsStateListeners) {
-            l.onImsMmTelCapabilitiesChanged();
+        for (int i = 0; i < mImsStateListeners.size(); i++) {
+            if ((mImsStateListeners.valueAt(i) & changes) != 0) {
+                mImsStateListeners.keyAt(i).onImsMmTelCapabilitiesChanged();
+            }
         }
     }
 
@@ -525,10 +713,14 @@ public class ImsStateTracker {
     private void onMmTelFeatureAvailable() {
         logd("onMmTelFeatureAvailable");
         mHandler.removeCallbacks(mMmTelFeatureUnavailableRunnable);
-        setMmTelFeatureAvailable(true);
+        final boolean changed = setMmTelFeatureAvailable(true);
         registerImsRegistrationCallback();
         registerMmTelCapabilityCallback();
-        notifyImsMmTelFeatureAvailableChanged();
+        if (changed) {
+            notifyImsMmTelFeatureAvailableChanged();
+        } else {
+            mSuppressedImsStateUpdates++;
+        }
     }
 
     /**
@@ -548,8 +740,7 @@ public class ImsStateTracker {
         } else if (reason == ImsStateCallback.REASON_UNKNOWN_PERMANENT_ERROR
                 || reason == ImsStateCallback.REASON_NO_IMS_SERVICE_CONFIGURED) {
             // Permanently blocked for this subscription.
-            setImsStateAsUnavailable();
-            notifyImsMmTelFeatureAvailableChanged();
+            setAndNotifyImsStateAsUnavailable();
         } else if (reason == ImsStateCallback.REASON_IMS_SERVICE_DISCONNECTED) {
             // Wait for onAvailable for some times and
             // if it's not available, the IMS state will be set to unavailable.
@@ -579,12 +770,17 @@ public class ImsStateTracker {
     private void onImsRegistered(@NonNull ImsRegistrationAttributes attributes) {
         logd("onImsRegistered: " + attributes);
 
-        setImsRegistered(true);
-        setImsAccessNetworkType(
-                imsRegTechToAccessNetworkType(attributes.getRegistrationTechnology()));
-        setImsRegisteredOverCrossSim(attributes.getRegistrationTechnology()
-                == ImsRegistrationImplBase.REGISTRATION_TECH_CROSS_SIM);
-        notifyImsRegistrationStateChanged();
+        // Use non-short-circuit operators so that all states are updated.
+        final boolean changed = setImsRegistered(true)
+                | setImsAccessNetworkType(
+                        imsRegTechToAccessNetworkType(attributes.getRegistrationTechnology()))
+                | setImsRegisteredOverCrossSim(attributes.getRegistrationTechnology()
+                        == ImsRegistrationImplBase.REGISTRATION_TECH_CROSS_SIM);
+        if (changed) {
+            notifyImsRegistrationStateChanged();
+        } else {
+            mSuppressedImsStateUpdates++;
+        }
     }
 
     /**
@@ -592,11 +788,23 @@ public class ImsStateTracker {
      */
     private void onImsUnregistered(@NonNull ImsReasonInfo info) {
         logd("onImsUnregistered: " + info);
-        setImsRegistered(false);
-        setImsAccessNetworkType(AccessNetworkType.UNKNOWN);
-        setImsRegisteredOverCrossSim(false);
-        setMmTelCapabilities(new MmTelCapabilities());
-        notifyImsRegistrationStateChanged();
+        final int capabilityChanges = setMmTelCapabilities(new MmTelCapabilities());
+        // Use non-short-circuit operators so that all states are updated.
+        final boolean changed = setImsRegistered(false)
+                | setImsAccessNetworkType(AccessNetworkType.UNKNOWN)
+                | setImsRegisteredOverCrossSim(false);
+        if (changed) {
+            notifyImsRegistrationStateChanged();
+        }
+        // The reset capabilities are notified separately, because the following identical
+        // capabilities from the IMS service are not notified and a listener may be waiting for
+        // the first capabilities.
+        if (capabilityChanges != 0) {
+            notifyImsMmTelCapabilitiesChanged(capabilityChanges);
+        }
+        if (!changed && capabilityChanges == 0) {
+            mSuppressedImsStateUpdates++;
+        }
     }
 
     /**
@@ -605,8 +813,12 @@ public class ImsStateTracker {
      */
     private void onMmTelCapabilitiesChanged(@NonNull MmTelCapabilities capabilities) {
         logd("onMmTelCapabilitiesChanged: " + capabilities);
-        setMmTelCapabilities(capabilities);
-        notifyImsMmTelCapabilitiesChanged();
+        final int changes = setMmTelCapabilities(capabilities);
+        if (changes != 0) {
+            notifyImsMmTelCapabilitiesChanged(changes);
+        } else {
+            mSuppressedImsStateUpdates++;
+        }
     }
 
     /**
@@ -761,6 +973,88 @@ public class ImsStateTracker {
         }
     }
 
+    /**
+     * Returns the changes between the previous and the new {@link ServiceState}.
+     *
+     * @return A combination of {@code SERVICE_STATE_CHANGE_*} values, or 0 if both are equal.
+     */
+    @VisibleForTesting
+    public static @ServiceStateChange int getServiceStateChanges(
+            @Nullable ServiceState oldState, @Nullable ServiceState newState) {
+        if (oldState == null || newState == null) {
+            return (oldState == newState) ? 0 : SERVICE_STATE_CHANGE_ALL;
+        }
+        if (oldState.equals(newState)) return 0;
+
+        int changes = 0;
+        if (oldState.getState() != newState.getState()
+                || oldState.getDataRegistrationState() != newState.getDataRegistrationState()) {
+            changes |= SERVICE_STATE_CHANGE_STATE;
+        }
+        if (isWwanRegistrationChanged(oldState, newState, NetworkRegistrationInfo.DOMAIN_CS)
+                || isWwanRegistrationChanged(oldState, newState,
+                        NetworkRegistrationInfo.DOMAIN_PS)) {
+            changes |= SERVICE_STATE_CHANGE_WWAN_REGISTRATION;
+        }
+        // The ServiceState is not equal, assume other information has changed as well
+        // because it cannot be verified which information has changed.
+        return changes | SERVICE_STATE_CHANGE_OTHER;
+    }
+
+    private static boolean isWwanRegistrationChanged(@NonNull ServiceState oldState,
+            @NonNull ServiceState newState, @NetworkRegistrationInfo.Domain int domain) {
+        final NetworkRegistrationInfo oldInfo = oldState.getNetworkRegistrationInfo(
+                domain, AccessNetworkConstants.TRANSPORT_TYPE_WWAN);
+        final NetworkRegistrationInfo newInfo = newState.getNetworkRegistrationInfo(
+                domain, AccessNetworkConstants.TRANSPORT_TYPE_WWAN);
+        if (oldInfo == null || newInfo == null) return oldInfo != newInfo;
+
+        if (oldInfo.getAccessNetworkTechnology() != newInfo.getAccessNetworkTechnology()
+                || oldInfo.getRegistrationState() != newInfo.getRegistrationState()
+                || oldInfo.isEmergencyEnabled() != newInfo.isEmergencyEnabled()) {
+            return true;
+        }
+        final DataSpecificRegistrationInfo oldDsInfo = oldInfo.getDataSpecificInfo();
+        final DataSpecificRegistrationInfo newDsInfo = newInfo.getDataSpecificInfo();
+        return !Objects.equals(oldDsInfo == null ? null : oldDsInfo.getVopsSupportInfo(),
+                newDsInfo == null ? null : newDsInfo.getVopsSupportInfo());
+    }
+
+    /**
+     * Returns the changes between the previous and the new {@link BarringInfo}.
+     *
+     * @return A combination of {@code BARRING_CHANGE_*} values, or 0 if both are equal.
+     */
+    @VisibleForTesting
+    public static @BarringChange int getBarringInfoChanges(
+            @Nullable BarringInfo oldInfo, @Nullable BarringInfo newInfo) {
+        if (oldInfo == null || newInfo == null) {
+            return (oldInfo == newInfo) ? 0 : BARRING_CHANGE_ALL;
+        }
+        if (oldInfo.equals(newInfo)) return 0;
+
+        final BarringInfo.BarringServiceInfo oldServiceInfo =
+                oldInfo.getBarringServiceInfo(BarringInfo.BARRING_SERVICE_TYPE_EMERGENCY);
+        final BarringInfo.BarringServiceInfo newServiceInfo =
+                newInfo.getBarringServiceInfo(BarringInfo.BARRING_SERVICE_TYPE_EMERGENCY);
+        if (!Objects.equals(oldServiceInfo, newServiceInfo)) {
+            return BARRING_CHANGE_EMERGENCY | BARRING_CHANGE_OTHER;
+        }
+        return BARRING_CHANGE_OTHER;
+    }
+
+    private static int getCapabilityMask(@NonNull MmTelCapabilities capabilities) {
+        int mask = 0;
+        for (int capability : new int[] {
+                MmTelCapabilities.CAPABILITY_TYPE_VOICE,
+                MmTelCapabilities.CAPABILITY_TYPE_VIDEO,
+                MmTelCapabilities.CAPABILITY_TYPE_UT,
+                MmTelCapabilities.CAPABILITY_TYPE_SMS}) {
+            if (capabilities.isCapable(capability)) mask |= capability;
+        }
+        return mask;
+    }
+
     /** Returns a string representation of IMS states. */
     public String imsStateToString() {
         StringBuilder sb = new StringBuilder("{ ");
@@ -850,6 +1144,10 @@ public class ImsStateTracker {
         ipw.println("ServiceState: " + mServiceState);
         ipw.println("BarringInfo: " + mBarringInfo);
         ipw.println("ImsState: " + imsStateToString());
+        ipw.println("Suppressed updates: serviceState=" + mSuppressedServiceStateUpdates
+                + ", barringInfo=" + mSuppressedBarringInfoUpdates
+                + ", imsState=" + mSuppressedImsStateUpdates);
+        ipw.println("State version: " + mStateVersion);
         ipw.println("Event Log:");
         ipw.increaseIndent();
         mEventLog.dump(ipw);
@@ -32,7 +32,9 @@ import android.telephony.ServiceState;
 import android.telephony.SubscriptionManager;
 import android.telephony.TransportSelectorCallback;
 import android.telephony.ims.ImsReasonInfo;
+import android.telephony.ims.feature.MmTelFeature.MmTelCapabilities;
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.domainselection.NormalCallDomainSelectionConnection;
 
 /**
@@ -56,8 +58,10 @@ public class NormalCallDomainSelector extends DomainSelectorBase implements
 
         if (SubscriptionManager.isValidSubscriptionId(subId)) {
             logd("Subscribing to state callbacks. Subid:" + subId);
-            mImsStateTracker.addServiceStateListener(this);
-            mImsStateTracker.addImsStateListener(this);
+            mImsStateTracker.addServiceStateListener(this,
+                    ImsStateTracker.SERVICE_STATE_CHANGE_STATE);
+            mImsStateTracker.addImsStateListener(this, MmTelCapabilities.CAPABILITY_TYPE_VOICE
+                    | MmTelCapabilities.CAPABILITY_TYPE_VIDEO);
         } else {
             loge("Invalid Subscription. Subid:" + subId);
         }
@@ -68,6 +72,7 @@ public class NormalCallDomainSelector extends DomainSelectorBase implements
         mSelectionAttributes = attributes;
         mTransportSelectorCallback = callback;
         mStopDomainSelection = false;
+        recordSelectionRequested(mReselectDomain);
 
         if (callback == null) {
             loge("Invalid params: TransportSelectorCallback is null");
@@ -112,13 +117,43 @@ public class NormalCallDomainSelector extends DomainSelectorBase implements
     @Override
     public synchronized void finishSelection() {
         logd("finishSelection");
+        recordSelectionFinished();
         mStopDomainSelection = true;
-        mImsStateTracker.removeServiceStateListener(this);
-        mImsStateTracker.removeImsStateListener(this);
+        if (!isPooled()) {
+            mImsStateTracker.removeServiceStateListener(this);
+            mImsStateTracker.removeImsStateListener(this);
+        }
         mSelectionAttributes = null;
         mTransportSelectorCallback = null;
     }
 
+    @Override
+    protected synchronized boolean isIdle() {
+        return SubscriptionManager.isValidSubscriptionId(getSubId()) && mStopDomainSelection
+                && mSelectionAttributes == null && mTransportSelectorCallback == null;
+    }
+
+    @Override
+    protected synchronized void reset() {
+        super.reset();
+        mReselectDomain = false;
+    }
+
+    /**
+     * Returns {@code true} if the current domain selection is a reselection after a failure.
+     */
+    @VisibleForTesting
+    public synchronized boolean isReselectDomain() {
+        return mReselectDomain;
+    }
+
+    @Override
+    protected void destroy() {
+        mImsStateTracker.removeServiceStateListener(this);
+        mImsStateTracker.removeImsStateListener(this);
+        super.destroy();
+    }
+
     /**
      * Cancel an ongoing selection operation. It is up to the DomainSelectionService
      * to clean up all ongoing operations with the framework.
@@ -129,6 +164,7 @@ public class NormalCallDomainSelector extends DomainSelectorBase implements
         mStopDomainSelection = true;
         mReselectDomain = false;
         if (mTransportSelectorCallback != null) {
+            recordSelectionTerminated(DisconnectCause.OUTGOING_CANCELED);
             mTransportSelectorCallback.onSelectionTerminated(DisconnectCause.OUTGOING_CANCELED);
         }
         finishSelection();
@@ -168,6 +204,7 @@ public class NormalCallDomainSelector extends DomainSelectorBase implements
         mStopDomainSelection = true;
         if (mImsStateTracker.isImsRegisteredOverWlan()) {
             logd("WLAN selected");
+            recordWlanSelected();
             mTransportSelectorCallback.onWlanSelected(false);
         } else {
             if (mWwanSelectorCallback == null) {
@@ -184,9 +221,11 @@ public class NormalCallDomainSelector extends DomainSelectorBase implements
     private void notifyPsSelectedInternal() {
         if (mWwanSelectorCallback != null) {
             logd("notifyPsSelected - onWwanSelected");
+            recordWwanSelected(NetworkRegistrationInfo.DOMAIN_PS);
             mWwanSelectorCallback.onDomainSelected(NetworkRegistrationInfo.DOMAIN_PS, false);
         } else {
             loge("wwanSelectorCallback is null");
+            recordSelectionTerminated(DisconnectCause.OUTGOING_FAILURE);
             mTransportSelectorCallback.onSelectionTerminated(DisconnectCause.OUTGOING_FAILURE);
         }
     }
@@ -207,9 +246,11 @@ public class NormalCallDomainSelector extends DomainSelectorBase implements
     private void notifyCsSelectedInternal() {
         if (mWwanSelectorCallback != null) {
             logd("wwanSelectorCallback -> onDomainSelected(DOMAIN_CS)");
+            recordWwanSelected(NetworkRegistrationInfo.DOMAIN_CS);
             mWwanSelectorCallback.onDomainSelected(NetworkRegistrationInfo.DOMAIN_CS, false);
         } else {
             loge("wwanSelectorCallback is null");
+            recordSelectionTerminated(DisconnectCause.OUTGOING_FAILURE);
             mTransportSelectorCallback.onSelectionTerminated(DisconnectCause.OUTGOING_FAILURE);
         }
     }
@@ -217,6 +258,7 @@ public class NormalCallDomainSelector extends DomainSelectorBase implements
     private void notifySelectionTerminated(@DisconnectCauses int cause) {
         mStopDomainSelection = true;
         if (mTransportSelectorCallback != null) {
+            recordSelectionTerminated(cause);
             mTransportSelectorCallback.onSelectionTerminated(cause);
             finishSelection();
         }
@@ -20,11 +20,13 @@ import android.annotation.NonNull;
 import android.content.Context;
 import android.os.Looper;
 import android.os.Message;
+import android.telephony.AccessNetworkConstants;
 import android.telephony.DisconnectCause;
 import android.telephony.DomainSelectionService;
 import android.telephony.DomainSelectionService.SelectionAttributes;
 import android.telephony.NetworkRegistrationInfo;
 import android.telephony.TransportSelectorCallback;
+import android.telephony.ims.feature.MmTelFeature.MmTelCapabilities;
 
 /**
  * Implements SMS domain selector for sending MO SMS.
@@ -35,6 +37,17 @@ public class SmsDomainSelector extends DomainSelectorBase implements
 
     protected boolean mDestroyed = false;
     private boolean mDomainSelectionRequested = false;
+    private boolean mImsStateListenerAdded = false;
+
+    /**
+     * The last selected transport type and domain, which are valid as long as the state version
+     * of {@link ImsStateTracker} is same as {@link #mCachedStateVersion}.
+     * This allows the consecutive SMS messages, such as the parts of a multipart SMS, to be sent
+     * without evaluating the IMS state again.
+     */
+    private int mCachedTransportType = AccessNetworkConstants.TRANSPORT_TYPE_INVALID;
+    private @NetworkRegistrationInfo.Domain int mCachedDomain;
+    private int mCachedStateVersion;
 
     public SmsDomainSelector(Context context, int slotId, int subId, @NonNull Looper looper,
             @NonNull ImsStateTracker imsStateTracker, @NonNull DestroyListener listener) {
@@ -55,9 +68,16 @@ public class SmsDomainSelector extends DomainSelectorBase implements
         logd("destroy");
         mDestroyed = true;
         mImsStateTracker.removeImsStateListener(this);
+        mImsStateListenerAdded = false;
+        mCachedTransportType = AccessNetworkConstants.TRANSPORT_TYPE_INVALID;
         super.destroy();
     }
 
+    @Override
+    protected boolean isIdle() {
+        return !mDestroyed && !isDomainSelectionRequested() && mTransportSelectorCallback == null;
+    }
+
     @Override
     public void handleMessage(@NonNull Message msg) {
         switch (msg.what) {
@@ -88,16 +108,23 @@ public class SmsDomainSelector extends DomainSelectorBase implements
         logi("reselectDomain");
         mSelectionAttributes = attr;
         setDomainSelectionRequested(true);
+        recordSelectionRequested(true);
         obtainMessage(EVENT_SELECT_DOMAIN).sendToTarget();
     }
 
     @Override
     public void finishSelection() {
         logi("finishSelection");
+        recordSelectionFinished();
         setDomainSelectionRequested(false);
         mSelectionAttributes = null;
         mTransportSelectorCallback = null;
         mWwanSelectorCallback = null;
+        if (isPooled() && !mDestroyed) {
+            // Keep the IMS state listener for the next domain selection.
+            removeMessages(EVENT_SELECT_DOMAIN);
+            return;
+        }
         destroy();
     }
 
@@ -112,7 +139,19 @@ public class SmsDomainSelector extends DomainSelectorBase implements
         mSelectionAttributes = attr;
         mTransportSelectorCallback = callback;
         setDomainSelectionRequested(true);
-        mImsStateTracker.addImsStateListener(this);
+        recordSelectionRequested(false);
+        if (!mImsStateListenerAdded) {
+            mImsStateTracker.addImsStateListener(this, MmTelCapabilities.CAPABILITY_TYPE_SMS);
+            mImsStateListenerAdded = true;
+        }
+
+        // IMS state updates queued to the tracker are processed before the posted domain
+        // selection, so the cached selection is only used when there is none.
+        if (isCachedSelectionValid() && !mImsStateTracker.hasPendingStateUpdates()) {
+            logi("selectDomain: use the cached selection");
+            notifyCachedSelection();
+            return;
+        }
         obtainMessage(EVENT_SELECT_DOMAIN).sendToTarget();
     }
 
@@ -147,15 +186,45 @@ public class SmsDomainSelector extends DomainSelectorBase implements
 
         if (isSmsOverImsAvailable()) {
             if (mImsStateTracker.isImsRegisteredOverWlan()) {
+                cacheSelection(AccessNetworkConstants.TRANSPORT_TYPE_WLAN,
+                        NetworkRegistrationInfo.DOMAIN_PS);
                 notifyWlanSelected(false);
                 return;
             }
+            cacheSelection(AccessNetworkConstants.TRANSPORT_TYPE_WWAN,
+                    NetworkRegistrationInfo.DOMAIN_PS);
             notifyWwanSelected(NetworkRegistrationInfo.DOMAIN_PS, false);
         } else {
+            cacheSelection(AccessNetworkConstants.TRANSPORT_TYPE_WWAN,
+                    NetworkRegistrationInfo.DOMAIN_CS);
             notifyWwanSelected(NetworkRegistrationInfo.DOMAIN_CS, false);
         }
     }
 
+    /**
+     * Stores the selection made from the current states of {@link ImsStateTracker}.
+     * The emergency SMS domain selector doesn't cache its selection because it also depends on
+     * the carrier configuration that is read for each domain selection.
+     */
+    private void cacheSelection(int transportType, @NetworkRegistrationInfo.Domain int domain) {
+        mCachedTransportType = transportType;
+        mCachedDomain = domain;
+        mCachedStateVersion = mImsStateTracker.getStateVersion();
+    }
+
+    private boolean isCachedSelectionValid() {
+        return mCachedTransportType != AccessNetworkConstants.TRANSPORT_TYPE_INVALID
+                && mCachedStateVersion == mImsStateTracker.getStateVersion();
+    }
+
+    private void notifyCachedSelection() {
+        if (mCachedTransportType == AccessNetworkConstants.TRANSPORT_TYPE_WLAN) {
+            notifyWlanSelected(false);
+        } else {
+            notifyWwanSelected(mCachedDomain, false);
+        }
+    }
+
     protected void sendMessageForDomainSelection() {
         // If the event is already queued to this handler,
         // it will be removed first to avoid the duplicate operation.
@@ -178,6 +247,7 @@ public class SmsDomainSelector extends DomainSelectorBase implements
 
     protected void notifyWlanSelected(boolean useEmergencyPdn) {
         logi("DomainSelected: WLAN, E-PDN=" + useEmergencyPdn);
+        recordWlanSelected();
         mTransportSelectorCallback.onWlanSelected(useEmergencyPdn);
         setDomainSelectionRequested(false);
     }
@@ -202,8 +272,10 @@ public class SmsDomainSelector extends DomainSelectorBase implements
                 + ", E-PDN=" + useEmergencyPdn);
 
         if (mWwanSelectorCallback != null) {
+            recordWwanSelected(domain);
             mWwanSelectorCallback.onDomainSelected(domain, useEmergencyPdn);
         } else {
+            recordSelectionTerminated(DisconnectCause.LOCAL);
             mTransportSelectorCallback.onSelectionTerminated(DisconnectCause.LOCAL);
         }
     }
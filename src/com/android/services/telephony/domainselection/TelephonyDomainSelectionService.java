@@ -17,11 +17,14 @@
 package com.android.services.telephony.domainselection;
 
 import android.annotation.NonNull;
+import android.annotation.Nullable;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.DeviceConfig;
 import android.telephony.BarringInfo;
 import android.telephony.DisconnectCause;
 import android.telephony.DomainSelectionService;
@@ -31,6 +34,7 @@ import android.telephony.SubscriptionManager;
 import android.telephony.SubscriptionManager.OnSubscriptionsChangedListener;
 import android.telephony.TelephonyManager;
 import android.telephony.TransportSelectorCallback;
+import android.text.TextUtils;
 import android.util.IndentingPrintWriter;
 import android.util.LocalLog;
 import android.util.Log;
@@ -71,7 +75,9 @@ public class TelephonyDomainSelectionService extends DomainSelectionService {
                 @SelectorType int selectorType, boolean isEmergency, @NonNull Looper looper,
                 @NonNull ImsStateTracker imsStateTracker,
                 @NonNull DomainSelectorBase.DestroyListener listener,
-                @NonNull CrossSimRedialingController crossSimRedialingController);
+                @NonNull CrossSimRedialingController crossSimRedialingController,
+                @NonNull EmergencyCallPolicyCache emergencyCallPolicyCache,
+                EmergencyScanResultCache emergencyScanResultCache);
     }
 
     private static final class DefaultDomainSelectorFactory implements DomainSelectorFactory {
@@ -80,7 +86,9 @@ public class TelephonyDomainSelectionService extends DomainSelectionService {
                 @SelectorType int selectorType, boolean isEmergency, @NonNull Looper looper,
                 @NonNull ImsStateTracker imsStateTracker,
                 @NonNull DomainSelectorBase.DestroyListener listener,
-                @NonNull CrossSimRedialingController crossSimRedialingController) {
+                @NonNull CrossSimRedialingController crossSimRedialingController,
+                @NonNull EmergencyCallPolicyCache emergencyCallPolicyCache,
+                EmergencyScanResultCache emergencyScanResultCache) {
             DomainSelectorBase selector = null;
 
             logi("create-DomainSelector: slotId=" + slotId + ", subId=" + subId
@@ -91,7 +99,9 @@ public class TelephonyDomainSelectionService extends DomainSelectionService {
                 case SELECTOR_TYPE_CALLING:
                     if (isEmergency) {
                         selector = new EmergencyCallDomainSelector(context, slotId, subId, looper,
-                                imsStateTracker, listener, crossSimRedialingController);
+                                imsStateTracker, listener, crossSimRedialingController,
+                                emergencyCallPolicyCache, EmergencyCallTimeline.getInstance(),
+                                emergencyScanResultCache);
                     } else {
                         selector = new NormalCallDomainSelector(context, slotId, subId, looper,
                                 imsStateTracker, listener);
@@ -157,6 +167,7 @@ public class TelephonyDomainSelectionService extends DomainSelectionService {
                     .append("slotId=").append(mSlotId)
                     .append(", selectorType=").append(selectorTypeToString(mSelectorType))
                     .append(", isEmergency=").append(mIsEmergency)
+                    .append(", pooled=").append(mSelector.isPooled())
                     .append(", selector=").append(mSelector)
                     .append(" }").toString();
         }
@@ -185,6 +196,12 @@ public class TelephonyDomainSelectionService extends DomainSelectionService {
 
     private static final String TAG = TelephonyDomainSelectionService.class.getSimpleName();
 
+    /** DeviceConfig flag that enables preparing for an emergency call before it is dialed. */
+    private static final String KEY_ENABLE_EMERGENCY_CALL_PREWARM =
+            "enable_emergency_call_prewarm";
+    /** The minimum interval between preparations for an emergency call. */
+    private static final long PREWARM_MIN_INTERVAL_MS = 5000;
+
     // Persistent Logging
     private static final LocalLog sEventLog = new LocalLog(20);
     private final Context mContext;
@@ -195,6 +212,26 @@ public class TelephonyDomainSelectionService extends DomainSelectionService {
     private final DomainSelectorFactory mDomainSelectorFactory;
     private Handler mServiceHandler;
     private CrossSimRedialingController mCrossSimRedialingController;
+    private EmergencyCallPolicyCache mEmergencyCallPolicyCache;
+    private final EmergencyScanResultCache mEmergencyScanResultCache =
+            new EmergencyScanResultCache();
+    private final DomainSelectionMetrics mDomainSelectionMetrics = new DomainSelectionMetrics();
+    // Accessed on the service handler thread.
+    private long mLastPrewarmTimeMs = -PREWARM_MIN_INTERVAL_MS;
+    // The cached value of KEY_ENABLE_EMERGENCY_CALL_PREWARM, updated on the service handler
+    // thread and read when a domain selector is created.
+    private volatile boolean mIsEmergencyCallPrewarmEnabled;
+    private final DeviceConfig.OnPropertiesChangedListener mDeviceConfigListener =
+            properties -> {
+                if (TextUtils.equals(DeviceConfig.NAMESPACE_TELEPHONY,
+                        properties.getNamespace())) {
+                    mIsEmergencyCallPrewarmEnabled = properties.getBoolean(
+                            KEY_ENABLE_EMERGENCY_CALL_PREWARM, false);
+                }
+            };
+    // The number of domain selections that reused a pooled domain selector, guarded by
+    // mDomainSelectorContainers.
+    private int mReusedDomainSelectorCount;
 
     public TelephonyDomainSelectionService(Context context) {
         this(context, ImsStateTracker::new, new DefaultDomainSelectorFactory());
@@ -225,6 +262,8 @@ public class TelephonyDomainSelectionService extends DomainSelectionService {
         }
 
         mCrossSimRedialingController = new CrossSimRedialingController(context, getLooper());
+        mEmergencyCallPolicyCache = new EmergencyCallPolicyCache(context, getExecutor());
+        getExecutor().execute(this::registerForDeviceConfigChanges);
 
         logi("TelephonyDomainSelectionService created");
     }
@@ -268,6 +307,13 @@ public class TelephonyDomainSelectionService extends DomainSelectionService {
             mCrossSimRedialingController = null;
         }
 
+        if (mEmergencyCallPolicyCache != null) {
+            mEmergencyCallPolicyCache.destroy();
+            mEmergencyCallPolicyCache = null;
+        }
+        mEmergencyScanResultCache.clear();
+        DeviceConfig.removeOnPropertiesChangedListener(mDeviceConfigListener);
+
         if (mServiceHandler != null) {
             mServiceHandler.getLooper().quit();
             mServiceHandler = null;
@@ -288,9 +334,21 @@ public class TelephonyDomainSelectionService extends DomainSelectionService {
         final int selectorType = attr.getSelectorType();
         final boolean isEmergency = attr.isEmergency();
         ImsStateTracker ist = getImsStateTracker(slotId);
-        DomainSelectorBase selector = mDomainSelectorFactory.create(mContext, slotId, subId,
-                selectorType, isEmergency, getLooper(), ist, mDestroyListener,
-                mCrossSimRedialingController);
+        DomainSelectorBase selector =
+                getIdleDomainSelector(slotId, subId, selectorType, isEmergency);
+        if (selector == null) {
+            EmergencyScanResultCache scanResultCache =
+                    (isEmergency && isEmergencyCallPrewarmEnabled())
+                            ? mEmergencyScanResultCache : null;
+            selector = mDomainSelectorFactory.create(mContext, slotId, subId,
+                    selectorType, isEmergency, getLooper(), ist, mDestroyListener,
+                    mCrossSimRedialingController, mEmergencyCallPolicyCache, scanResultCache);
+            if (selector != null) {
+                selector.setPooled(isPoolable(selectorType, isEmergency));
+                selector.setMetrics(mDomainSelectionMetrics,
+                        (isEmergency ? "EMERGENCY_" : "") + selectorTypeToString(selectorType));
+            }
+        }
 
         if (selector != null) {
             // Ensures that ImsStateTracker is started before selecting the domain if not started
@@ -366,6 +424,66 @@ public class TelephonyDomainSelectionService extends DomainSelectionService {
         return mServiceHandler.getLooper();
     }
 
+    /**
+     * Prepares for an emergency call that is likely to be dialed soon, for example when the
+     * emergency dialer is opened. The IMS state of each slot is monitored and the emergency
+     * call policy of each subscription is loaded, so the domain selection does not need to wait
+     * for them. This is ignored unless enabled by {@link #KEY_ENABLE_EMERGENCY_CALL_PREWARM}.
+     */
+    public void prewarmEmergencyCall() {
+        getExecutor().execute(() -> {
+            if (!isEmergencyCallPrewarmEnabled()) return;
+            long nowMs = SystemClock.elapsedRealtime();
+            if (nowMs - mLastPrewarmTimeMs < PREWARM_MIN_INTERVAL_MS) return;
+            mLastPrewarmTimeMs = nowMs;
+            logi("prewarmEmergencyCall");
+
+            handleSubscriptionsChanged();
+            if (mEmergencyCallPolicyCache == null) return;
+            mEmergencyCallPolicyCache.getPolicy(SubscriptionManager.INVALID_SUBSCRIPTION_ID);
+            synchronized (mImsStateTrackers) {
+                for (int i = 0; i < mImsStateTrackers.size(); ++i) {
+                    int subId = mImsStateTrackers.valueAt(i).getSubId();
+                    if (SubscriptionManager.isValidSubscriptionId(subId)) {
+                        mEmergencyCallPolicyCache.getPolicy(subId);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Prints the metrics of the domain selections for the shell command.
+     *
+     * @param pw The writer to print the metrics to.
+     * @param reset {@code true} to clear the metrics after printing them.
+     */
+    public void dumpMetricsShell(@NonNull PrintWriter pw, boolean reset) {
+        IndentingPrintWriter ipw = new IndentingPrintWriter(pw, "  ");
+        mDomainSelectionMetrics.dump(ipw);
+        ipw.flush();
+        if (reset) {
+            logi("dumpMetricsShell: reset");
+            mDomainSelectionMetrics.reset();
+        }
+    }
+
+    /**
+     * Reads the DeviceConfig flags used by this service and keeps them up to date with
+     * {@link #mDeviceConfigListener}. Called on the service handler thread when the service is
+     * created, so the first emergency call does not depend on the emergency dialer.
+     */
+    private void registerForDeviceConfigChanges() {
+        DeviceConfig.addOnPropertiesChangedListener(DeviceConfig.NAMESPACE_TELEPHONY,
+                getExecutor(), mDeviceConfigListener);
+        mIsEmergencyCallPrewarmEnabled = DeviceConfig.getBoolean(
+                DeviceConfig.NAMESPACE_TELEPHONY, KEY_ENABLE_EMERGENCY_CALL_PREWARM, false);
+    }
+
+    private boolean isEmergencyCallPrewarmEnabled() {
+        return mIsEmergencyCallPrewarmEnabled;
+    }
+
     /**
      * Handles the subscriptions change.
      */
@@ -374,6 +492,8 @@ public class TelephonyDomainSelectionService extends DomainSelectionService {
         List<SubscriptionInfo> subsInfoList =
                 (sm != null) ? sm.getActiveSubscriptionInfoList() : null;
 
+        removeInactivePooledDomainSelectors(subsInfoList);
+
         if (subsInfoList == null || subsInfoList.isEmpty()) {
             logd("handleSubscriptionsChanged: No valid SubscriptionInfo");
             return;
@@ -391,6 +511,87 @@ public class TelephonyDomainSelectionService extends DomainSelectionService {
         }
     }
 
+    /**
+     * Removes the pooled domain selectors of the subscriptions that are no longer active, since
+     * they can't be reused. An idle domain selector is destroyed. A busy domain selector is no
+     * longer pooled, so it releases its listeners when its domain selection is finished.
+     *
+     * @param subsInfoList The active subscriptions, or {@code null} if there is none.
+     */
+    private void removeInactivePooledDomainSelectors(
+            @Nullable List<SubscriptionInfo> subsInfoList) {
+        List<DomainSelectorBase> inactiveSelectors = new ArrayList<>();
+        synchronized (mDomainSelectorContainers) {
+            for (int i = 0; i < mDomainSelectorContainers.size(); ++i) {
+                DomainSelectorBase selector = mDomainSelectorContainers.get(i).getDomainSelector();
+                if (!selector.isPooled()
+                        || isActiveSubscription(subsInfoList, selector.getSubId())) {
+                    continue;
+                }
+                selector.setPooled(false);
+                if (selector.isIdle()) {
+                    inactiveSelectors.add(selector);
+                }
+            }
+        }
+
+        // Destroyed outside of the lock, because the domain selector is removed from the list
+        // by mDestroyListener.
+        for (DomainSelectorBase selector : inactiveSelectors) {
+            logi("DomainSelector destroyed by inactive subscription: " + selector);
+            selector.destroy();
+        }
+    }
+
+    private static boolean isActiveSubscription(@Nullable List<SubscriptionInfo> subsInfoList,
+            int subId) {
+        if (subsInfoList == null) return false;
+        for (int i = 0; i < subsInfoList.size(); ++i) {
+            if (subsInfoList.get(i).getSubscriptionId() == subId) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether the domain selector of the specified type is kept after the domain
+     * selection is finished to be reused for the next one.
+     * The emergency domain selectors are always created for each emergency call or SMS,
+     * because they hold many states of the emergency service and are rarely used.
+     */
+    private static boolean isPoolable(@SelectorType int selectorType, boolean isEmergency) {
+        return !isEmergency
+                && (selectorType == SELECTOR_TYPE_CALLING || selectorType == SELECTOR_TYPE_SMS);
+    }
+
+    /**
+     * Returns the pooled domain selector for the specified slot, subscription and selector type
+     * after resetting it, if its previous domain selection has been finished.
+     */
+    private DomainSelectorBase getIdleDomainSelector(int slotId, int subId,
+            @SelectorType int selectorType, boolean isEmergency) {
+        if (!isPoolable(selectorType, isEmergency)) return null;
+        synchronized (mDomainSelectorContainers) {
+            for (int i = 0; i < mDomainSelectorContainers.size(); ++i) {
+                DomainSelectorContainer dsc = mDomainSelectorContainers.get(i);
+
+                if (dsc.getSlotId() == slotId
+                        && dsc.getSelectorType() == selectorType
+                        && dsc.isEmergency() == isEmergency) {
+                    DomainSelectorBase selector = dsc.getDomainSelector();
+                    if (selector.isPooled() && selector.getSubId() == subId
+                            && selector.isIdle()) {
+                        selector.reset();
+                        mReusedDomainSelectorCount++;
+                        logd("DomainSelector reused: " + dsc);
+                        return selector;
+                    }
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
     /**
      * Adds the {@link DomainSelectorBase} to the list of domain selector container.
      */
@@ -404,6 +605,10 @@ public class TelephonyDomainSelectionService extends DomainSelectionService {
                 if (dsc.getSlotId() == slotId
                         && dsc.getSelectorType() == selectorType
                         && dsc.isEmergency() == isEmergency) {
+                    if (dsc.getDomainSelector() == selector) {
+                        // The pooled domain selector is reused.
+                        return;
+                    }
                     mDomainSelectorContainers.remove(i);
                     DomainSelectorBase oldSelector = dsc.getDomainSelector();
                     if (oldSelector != null) {
@@ -504,6 +709,7 @@ public class TelephonyDomainSelectionService extends DomainSelectionService {
         ipw.decreaseIndent();
         ipw.increaseIndent();
         synchronized (mDomainSelectorContainers) {
+            ipw.println("Reused DomainSelectors: " + mReusedDomainSelectorCount);
             for (int i = 0; i < mDomainSelectorContainers.size(); ++i) {
                 DomainSelectorContainer dsc = mDomainSelectorContainers.get(i);
                 ipw.println("DomainSelector: " + dsc.toString());
@@ -517,6 +723,12 @@ public class TelephonyDomainSelectionService extends DomainSelectionService {
         }
         ipw.decreaseIndent();
         ipw.increaseIndent();
+        if (mEmergencyCallPolicyCache != null) {
+            mEmergencyCallPolicyCache.dump(ipw);
+        }
+        mEmergencyScanResultCache.dump(ipw);
+        EmergencyCallTimeline.getInstance().dump(ipw);
+        mDomainSelectionMetrics.dump(ipw);
         ipw.println("Event Log:");
         ipw.increaseIndent();
         sEventLog.dump(ipw);
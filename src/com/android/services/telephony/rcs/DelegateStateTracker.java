@@ -39,14 +39,27 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Manages the events sent back to the remote IMS application using the AIDL backing for the
  * {@link DelegateConnectionStateCallback} interface.
+ * <p>
+ * Registration state changes are coalesced: the first change is sent immediately and opens a
+ * window during which further changes are held back. When the window closes, only the latest
+ * state is sent, so a flapping IMS registration does not generate a burst of callbacks.
  */
 public class DelegateStateTracker implements DelegateBinderStateManager.StateCallback {
     private static final String LOG_TAG = "DelegateST";
 
+    /**
+     * The default time registration state changes are coalesced for after a change is sent to the
+     * IMS application.
+     */
+    public static final int COALESCE_WINDOW_DEFAULT_MS = 500;
+
     private final int mSubId;
     private final int mUid;
     private final ISipDelegateConnectionStateCallback mAppStateCallback;
@@ -55,6 +68,9 @@ public class DelegateStateTracker implements DelegateBinderStateManager.StateCal
     private final LocalLog mLocalLog = new LocalLog(SipTransportController.LOG_SIZE);
 
     private final RcsStats mRcsStats;
+    // Null if registration state changes are not coalesced.
+    private final ScheduledExecutorService mExecutor;
+    private final long mCoalesceWindowMs;
 
     private List<FeatureTagState> mDelegateDeniedTags;
     private DelegateRegistrationState mLastRegState;
@@ -63,6 +79,16 @@ public class DelegateStateTracker implements DelegateBinderStateManager.StateCal
     private CompatChangesFactory mCompatChangesFactory;
     private Set<String> mDelegateSupportedTags;
 
+    private boolean mIsCoalesceWindowOpen = false;
+    // Incremented each time a window is opened so a stale close can be ignored.
+    private int mCoalesceWindowId = 0;
+    private ScheduledFuture<?> mCoalesceWindowFuture;
+    // The latest registration state received while the window is open, not yet sent.
+    private DelegateRegistrationState mPendingRegState;
+    // The number of states received in the current window that will not be sent.
+    private int mWindowCollapsedCount = 0;
+    private long mTotalCollapsedCount = 0;
+
     /**
      * Interface for checking compatibility of apps
      */
@@ -100,11 +126,26 @@ public class DelegateStateTracker implements DelegateBinderStateManager.StateCal
     public DelegateStateTracker(int subId, int uid,
             ISipDelegateConnectionStateCallback appStateCallback,
             ISipDelegate localDelegateImpl, RcsStats rcsStats) {
+        this(subId, uid, appStateCallback, localDelegateImpl, rcsStats, null, 0);
+    }
+
+    /**
+     * @param executor The executor used to close the coalescing window, which must be the same
+     *         executor that events are delivered to this tracker on.
+     * @param coalesceWindowMs The time registration state changes are coalesced for after a change
+     *         is sent to the IMS application, or 0 to send every change immediately.
+     */
+    public DelegateStateTracker(int subId, int uid,
+            ISipDelegateConnectionStateCallback appStateCallback,
+            ISipDelegate localDelegateImpl, RcsStats rcsStats,
+            ScheduledExecutorService executor, long coalesceWindowMs) {
         mSubId = subId;
         mUid = uid;
         mAppStateCallback = appStateCallback;
         mLocalDelegateImpl = localDelegateImpl;
         mRcsStats = rcsStats;
+        mExecutor = executor;
+        mCoalesceWindowMs = executor != null ? coalesceWindowMs : 0;
         setCompatChangesFactory((changeId, uid1) -> CompatChanges.isChangeEnabled(changeId, uid1));
     }
 
@@ -153,11 +194,17 @@ public class DelegateStateTracker implements DelegateBinderStateManager.StateCal
     public void sipDelegateChanging(int deregisteringReason) {
         logi("SipDelegate Changing");
         mRegistrationStateOverride = deregisteringReason;
-        if (mLastRegState == null) {
+        DelegateRegistrationState latestRegState =
+                mPendingRegState != null ? mPendingRegState : mLastRegState;
+        // The IMS application must be notified of the change before the SipDelegate is replaced,
+        // so do not wait for the window to close.
+        cancelCoalesceWindow();
+        if (latestRegState == null) {
             logw("sipDelegateChanging: invalid state, onRegistrationStateChanged never called.");
             mLastRegState = new DelegateRegistrationState.Builder().build();
+            latestRegState = mLastRegState;
         }
-        onRegistrationStateChanged(mLastRegState);
+        onRegistrationStateChanged(latestRegState);
     }
 
     /**
@@ -174,6 +221,7 @@ public class DelegateStateTracker implements DelegateBinderStateManager.StateCal
     public void sipDelegateDestroyed(int reason) {
         logi("SipDelegate destroyed:" + reason);
         mRegistrationStateOverride = -1;
+        cancelCoalesceWindow();
         try {
             mAppStateCallback.onDestroyed(reason);
             mRcsStats.onSipDelegateStats(mSubId, mDelegateSupportedTags, reason);
@@ -202,10 +250,20 @@ public class DelegateStateTracker implements DelegateBinderStateManager.StateCal
             registrationState = overrideRegistrationForDelegateChange(mRegistrationStateOverride,
                     registrationState);
         }
+        if (mIsCoalesceWindowOpen) {
+            if (mPendingRegState != null) mWindowCollapsedCount++;
+            mPendingRegState = registrationState;
+            return;
+        }
         if (registrationState.equals(mLastRegState)) {
             logi("onRegistrationStateChanged: skipping notification, state is the same.");
             return;
         }
+        sendRegistrationState(registrationState);
+        openCoalesceWindow();
+    }
+
+    private void sendRegistrationState(DelegateRegistrationState registrationState) {
         mLastRegState = registrationState;
         logi("onRegistrationStateChanged: sending reg state " + registrationState);
         try {
@@ -251,12 +309,64 @@ public class DelegateStateTracker implements DelegateBinderStateManager.StateCal
     /** Write state about this tracker into the PrintWriter to be included in the dumpsys */
     public void dump(PrintWriter printWriter) {
         printWriter.println("Last reg state: " + mLastRegState);
+        printWriter.println("Pending reg state: " + mPendingRegState);
         printWriter.println("Denied tags: " + mDelegateDeniedTags);
+        printWriter.println("Coalesce window: " + mCoalesceWindowMs + "ms, collapsed states: "
+                + (mTotalCollapsedCount + mWindowCollapsedCount));
         printWriter.println();
         printWriter.println("Most recent logs: ");
         mLocalLog.dump(printWriter);
     }
 
+    private void openCoalesceWindow() {
+        if (mCoalesceWindowMs <= 0) return;
+        mIsCoalesceWindowOpen = true;
+        final int windowId = ++mCoalesceWindowId;
+        mCoalesceWindowFuture = mExecutor.schedule(() -> closeCoalesceWindow(windowId),
+                mCoalesceWindowMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Close the window and send the latest state received while it was open, if it differs from
+     * the state last sent to the IMS application.
+     */
+    private void closeCoalesceWindow(int windowId) {
+        if (!mIsCoalesceWindowOpen || windowId != mCoalesceWindowId) return;
+        mIsCoalesceWindowOpen = false;
+        mCoalesceWindowFuture = null;
+        DelegateRegistrationState pendingRegState = mPendingRegState;
+        mPendingRegState = null;
+        if (pendingRegState != null) {
+            if (pendingRegState.equals(mLastRegState)) {
+                mWindowCollapsedCount++;
+            } else {
+                sendRegistrationState(pendingRegState);
+            }
+        }
+        if (mWindowCollapsedCount > 0) {
+            logi("closeCoalesceWindow: collapsed " + mWindowCollapsedCount + " reg states");
+        }
+        mTotalCollapsedCount += mWindowCollapsedCount;
+        mWindowCollapsedCount = 0;
+    }
+
+    /**
+     * Close the window without sending the pending state, which is either superseded or no longer
+     * relevant.
+     */
+    private void cancelCoalesceWindow() {
+        if (!mIsCoalesceWindowOpen) return;
+        mIsCoalesceWindowOpen = false;
+        if (mCoalesceWindowFuture != null) {
+            mCoalesceWindowFuture.cancel(false);
+            mCoalesceWindowFuture = null;
+        }
+        if (mPendingRegState != null) mWindowCollapsedCount++;
+        mPendingRegState = null;
+        mTotalCollapsedCount += mWindowCollapsedCount;
+        mWindowCollapsedCount = 0;
+    }
+
     private DelegateRegistrationState overrideRegistrationForDelegateChange(
             int registerOverrideReason, DelegateRegistrationState state) {
         Set<String> registeredFeatures = state.getRegisteredFeatureTags();
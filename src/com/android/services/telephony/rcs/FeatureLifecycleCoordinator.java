@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony.rcs;
+
+import android.os.SystemClock;
+import android.util.ArrayMap;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Dispatches lifecycle transitions, such as the RcsFeature connecting, to all
+ * {@link RcsFeatureController.Feature}s without waiting for each Feature to finish processing the
+ * transition before notifying the next one.
+ * <p>
+ * Each Feature acknowledges a transition by completing the future it returns. The future returned
+ * by {@link #dispatch} completes when all Features have acknowledged the transition, and the time
+ * each Feature took to acknowledge the last transition is recorded for dumpsys.
+ */
+public class FeatureLifecycleCoordinator {
+    private static final String LOG_TAG = "FeatureLifecycleCoord";
+
+    /**
+     * Used to inject the current time for testing.
+     */
+    @VisibleForTesting
+    public interface ClockProxy {
+        /**
+         * @return The current elapsed realtime in milliseconds.
+         */
+        long elapsedRealtime();
+    }
+
+    /**
+     * The timing of the last transition dispatched to a Feature.
+     */
+    @VisibleForTesting
+    public static final class FeatureTiming {
+        public final String transition;
+        public final long dispatchTimeMs;
+        // -1 until the Feature has acknowledged the transition.
+        public final long latencyMs;
+
+        FeatureTiming(String transition, long dispatchTimeMs, long latencyMs) {
+            this.transition = transition;
+            this.dispatchTimeMs = dispatchTimeMs;
+            this.latencyMs = latencyMs;
+        }
+
+        @Override
+        public String toString() {
+            return transition + ": " + (latencyMs < 0 ? "pending" : latencyMs + "ms");
+        }
+    }
+
+    private final String mLogPrefix;
+    private final ClockProxy mClock;
+    // Guarded by mTimings
+    private final Map<String, FeatureTiming> mTimings = new ArrayMap<>();
+
+    public FeatureLifecycleCoordinator(String logPrefix) {
+        this(logPrefix, SystemClock::elapsedRealtime);
+    }
+
+    @VisibleForTesting
+    public FeatureLifecycleCoordinator(String logPrefix, ClockProxy clock) {
+        mLogPrefix = logPrefix;
+        mClock = clock;
+    }
+
+    /**
+     * Dispatch a lifecycle transition to all of the Features provided.
+     * @param transition The name of the transition, used for logging.
+     * @param features The Features to notify.
+     * @param notifier Notifies a Feature of the transition and returns a future that completes
+     *         when the Feature has processed it. A {@code null} future means the transition was
+     *         processed synchronously.
+     * @return A future that completes when all Features have acknowledged the transition.
+     */
+    public CompletableFuture<Void> dispatch(String transition,
+            Collection<RcsFeatureController.Feature> features,
+            Function<RcsFeatureController.Feature, CompletableFuture<Void>> notifier) {
+        long startMs = mClock.elapsedRealtime();
+        List<CompletableFuture<Void>> acks = new ArrayList<>(features.size());
+        for (RcsFeatureController.Feature f : features) {
+            String name = f.getClass().getSimpleName();
+            synchronized (mTimings) {
+                mTimings.put(name, new FeatureTiming(transition, startMs, -1));
+            }
+            CompletableFuture<Void> ack;
+            try {
+                ack = notifier.apply(f);
+            } catch (RuntimeException e) {
+                // Do not let one Feature prevent the others from being notified.
+                Log.w(LOG_TAG, mLogPrefix + transition + " failed for " + name + ": " + e);
+                ack = null;
+            }
+            if (ack == null) ack = CompletableFuture.completedFuture(null);
+            acks.add(ack.handle((result, e) -> {
+                if (e != null) {
+                    Log.w(LOG_TAG, mLogPrefix + transition + " failed for " + name + ": " + e);
+                }
+                onAcknowledged(name, transition, startMs);
+                return null;
+            }));
+        }
+        return CompletableFuture.allOf(acks.toArray(new CompletableFuture[0]))
+                .thenRun(() -> Log.d(LOG_TAG, mLogPrefix + transition + " acknowledged by "
+                        + acks.size() + " features in "
+                        + (mClock.elapsedRealtime() - startMs) + "ms"));
+    }
+
+    /**
+     * @return The timing of the last transition dispatched to the Feature with the simple class
+     * name provided, or {@code null} if no transition has been dispatched to it.
+     */
+    @VisibleForTesting
+    public FeatureTiming getTiming(String featureName) {
+        synchronized (mTimings) {
+            return mTimings.get(featureName);
+        }
+    }
+
+    private void onAcknowledged(String name, String transition, long startMs) {
+        synchronized (mTimings) {
+            FeatureTiming timing = mTimings.get(name);
+            // A newer transition may have been dispatched since.
+            if (timing == null || timing.dispatchTimeMs != startMs
+                    || !timing.transition.equals(transition)) {
+                return;
+            }
+            mTimings.put(name, new FeatureTiming(transition, startMs,
+                    mClock.elapsedRealtime() - startMs));
+        }
+    }
+
+    /**
+     * Dump the timing of the last transition dispatched to each Feature.
+     */
+    public void dump(IndentingPrintWriter pw) {
+        pw.println("Feature lifecycle timings:");
+        pw.increaseIndent();
+        synchronized (mTimings) {
+            for (Map.Entry<String, FeatureTiming> e : mTimings.entrySet()) {
+                pw.print(e.getKey());
+                pw.print(" - ");
+                pw.println(e.getValue());
+            }
+        }
+        pw.decreaseIndent();
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony.rcs;
+
+import android.util.ArraySet;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns IMS feature tags into small integer ids so that sets of feature tags can be represented
+ * as {@link FeatureTagSet}s and routing, validation and conflict detection between SipDelegates
+ * mostly become bit operations instead of repeated string comparisons.
+ * <p>
+ * Feature tags are normalized before being interned, see {@link #normalize(String)}.
+ * <p>
+ * Only the feature tags allowed by the carrier config are interned, using {@link #getId(String)}.
+ * Feature tags requested by apps and found in SIP messages are only looked up with
+ * {@link #findId(String)}, so that apps can not grow the process wide registry. A
+ * {@link FeatureTagSet} keeps the feature tags that have not been interned by name, so they still
+ * match as before.
+ * <p>
+ * The number of ids is bounded. Once {@link #MAX_TAG_COUNT} tags have been interned, new tags get
+ * {@link #OVERFLOW_ID}, which is never stored in a {@link FeatureTagSet}. Overflow tags are kept
+ * by name instead, so a denied or restricted tag is still denied after the registry is full.
+ */
+public class FeatureTagRegistry {
+    private static final String TAG = "FeatureTagRegistry";
+
+    /**
+     * The id returned by {@link #getId(String)} for feature tags that could not be interned.
+     */
+    public static final int OVERFLOW_ID = 0;
+
+    /**
+     * Returned by {@link #findId(String)} for feature tags that have not been interned.
+     */
+    public static final int UNKNOWN_ID = -1;
+
+    @VisibleForTesting
+    public static final int MAX_TAG_COUNT = 1024;
+
+    private static final FeatureTagRegistry sInstance = new FeatureTagRegistry();
+
+    /**
+     * A set of feature tags. Interned feature tags are stored as ids and all other feature tags
+     * are stored by their normalized name.
+     * <p>
+     * This class is not thread safe.
+     */
+    public static final class FeatureTagSet {
+        private final FeatureTagRegistry mRegistry;
+        private final BitSet mIds = new BitSet();
+        private final Set<String> mOtherTags = new ArraySet<>();
+
+        private FeatureTagSet(FeatureTagRegistry registry) {
+            mRegistry = registry;
+        }
+
+        /**
+         * @return {@code true} if the feature tag is contained in this set.
+         */
+        public boolean contains(String featureTag) {
+            String normalized = normalize(featureTag);
+            int id = mRegistry.findNormalizedId(normalized);
+            if (id > OVERFLOW_ID && mIds.get(id)) return true;
+            // The feature tag may have been interned after it was added to this set.
+            return !mOtherTags.isEmpty() && mOtherTags.contains(normalized);
+        }
+
+        /**
+         * @return {@code true} if any of the feature tags provided is contained in this set.
+         */
+        public boolean containsAny(Collection<String> featureTags) {
+            if (featureTags == null || isEmpty()) return false;
+            for (String tag : featureTags) {
+                if (contains(tag)) return true;
+            }
+            return false;
+        }
+
+        /**
+         * @return {@code true} if all of the feature tags in the other set are contained in this
+         * set.
+         */
+        public boolean containsAll(FeatureTagSet other) {
+            BitSet missing = (BitSet) other.mIds.clone();
+            missing.andNot(mIds);
+            for (int i = missing.nextSetBit(0); i >= 0; i = missing.nextSetBit(i + 1)) {
+                if (!mOtherTags.contains(mRegistry.getTag(i))) return false;
+            }
+            for (String tag : other.mOtherTags) {
+                if (!contains(tag)) return false;
+            }
+            return true;
+        }
+
+        /**
+         * Add all of the feature tags in the other set to this set.
+         */
+        public void addAll(FeatureTagSet other) {
+            mIds.or(other.mIds);
+            mOtherTags.addAll(other.mOtherTags);
+        }
+
+        /**
+         * @return {@code true} if this set does not contain any feature tag.
+         */
+        public boolean isEmpty() {
+            return mIds.isEmpty() && mOtherTags.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder b = new StringBuilder("[");
+            for (int i = mIds.nextSetBit(0); i >= 0; i = mIds.nextSetBit(i + 1)) {
+                if (b.length() > 1) b.append(", ");
+                b.append(mRegistry.getTag(i));
+            }
+            for (String tag : mOtherTags) {
+                if (b.length() > 1) b.append(", ");
+                b.append(tag);
+            }
+            b.append("]");
+            return b.toString();
+        }
+    }
+
+    private final ConcurrentHashMap<String, Integer> mTagToId = new ConcurrentHashMap<>();
+    // Index is the id of the feature tag, guarded by this.
+    private final ArrayList<String> mIdToTag = new ArrayList<>();
+
+    /**
+     * @return The process wide registry instance.
+     */
+    public static FeatureTagRegistry getInstance() {
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    public FeatureTagRegistry() {
+        // Reserve the overflow id.
+        mIdToTag.add("<overflow>");
+    }
+
+    /**
+     * Feature tag names are case insensitive, but quoted values are not, so only the name of the
+     * feature tag is converted to lower case.
+     * @return The feature tag after it has been trimmed and its name converted to lower case.
+     */
+    public static String normalize(String featureTag) {
+        String trimmed = featureTag.trim();
+        int valueIndex = trimmed.indexOf('=');
+        if (valueIndex < 0) return trimmed.toLowerCase(Locale.ROOT);
+        return trimmed.substring(0, valueIndex).trim().toLowerCase(Locale.ROOT) + "="
+                + trimmed.substring(valueIndex + 1).trim();
+    }
+
+    /**
+     * Intern the feature tag. This must only be used for feature tags from the carrier config,
+     * feature tags from apps and SIP messages must only be looked up with {@link #findId(String)}.
+     * @return The id associated with the feature tag, interning it if it has not been seen before,
+     * or {@link #OVERFLOW_ID} if the registry is full.
+     */
+    public int getId(String featureTag) {
+        String normalized = normalize(featureTag);
+        Integer id = mTagToId.get(normalized);
+        if (id != null) return id;
+        synchronized (this) {
+            id = mTagToId.get(normalized);
+            if (id != null) return id;
+            if (mIdToTag.size() > MAX_TAG_COUNT) {
+                Log.w(SipTransportController.LOG_TAG, TAG + ": registry full, " + featureTag
+                        + " will use the overflow id.");
+                return OVERFLOW_ID;
+            }
+            id = mIdToTag.size();
+            mIdToTag.add(normalized);
+            mTagToId.put(normalized, id);
+            return id;
+        }
+    }
+
+    /**
+     * Look up the id of a feature tag without interning it.
+     * @return The id associated with the feature tag, or {@link #UNKNOWN_ID} if it has not been
+     * interned.
+     */
+    public int findId(String featureTag) {
+        return findNormalizedId(normalize(featureTag));
+    }
+
+    /**
+     * Create a set of feature tags. The feature tags are only looked up, the registry is not
+     * modified.
+     * @return A new FeatureTagSet containing the feature tags provided.
+     */
+    public FeatureTagSet createSet(Collection<String> featureTags) {
+        FeatureTagSet result = new FeatureTagSet(this);
+        if (featureTags == null) return result;
+        for (String tag : featureTags) {
+            String normalized = normalize(tag);
+            int id = findNormalizedId(normalized);
+            if (id > OVERFLOW_ID) {
+                result.mIds.set(id);
+            } else {
+                result.mOtherTags.add(normalized);
+            }
+        }
+        return result;
+    }
+
+    private int findNormalizedId(String normalized) {
+        Integer id = mTagToId.get(normalized);
+        return id != null ? id : UNKNOWN_ID;
+    }
+
+    private synchronized String getTag(int id) {
+        return id < mIdToTag.size() ? mIdToTag.get(id) : String.valueOf(id);
+    }
+}
@@ -52,6 +52,10 @@ import java.util.function.Consumer;
  * Uses {@link TransportSipMessageValidator} to track ongoing SIP dialogs and verify outgoing
  * messages.
  * <p>
+ * Validation only inspects the start line and headers of a {@link SipMessage}. The same
+ * {@link SipMessage} instance received over binder is forwarded to the other side, so the message
+ * body is never read, copied or re-encoded while in this process.
+ * <p>
  * Note: This handles incoming binder calls, so all calls from other processes should be handled on
  * the provided Executor.
  */
@@ -77,6 +81,7 @@ public class MessageTransportWrapper implements DelegateBinderStateManager.State
                     }
                     try {
                         mSipSessionTracker.acknowledgePendingMessage(viaTransactionId);
+                        onMessageAcknowledged(viaTransactionId);
                         mSipDelegate.notifyMessageReceived(viaTransactionId);
                     } catch (RemoteException e) {
                         logw("SipDelegate not available when notifyMessageReceived was called "
@@ -105,6 +110,7 @@ public class MessageTransportWrapper implements DelegateBinderStateManager.State
                     }
                     try {
                         mSipSessionTracker.notifyPendingMessageFailed(viaTransactionId);
+                        mMetrics.onMessageAcknowledged(viaTransactionId);
                         mSipDelegate.notifyMessageReceiveError(viaTransactionId, reason);
                     } catch (RemoteException e) {
                         logw("SipDelegate not available when notifyMessageReceiveError was called "
@@ -122,6 +128,7 @@ public class MessageTransportWrapper implements DelegateBinderStateManager.State
          */
         @Override
         public void sendMessage(SipMessage sipMessage, long configVersion) {
+            long startTimestamp = mMetrics.getTimestamp();
             long token = Binder.clearCallingIdentity();
             try {
                 mExecutor.execute(() -> {
@@ -143,6 +150,8 @@ public class MessageTransportWrapper implements DelegateBinderStateManager.State
                             return;
                         }
                         mSipDelegate.sendMessage(sipMessage, configVersion);
+                        mMetrics.onOutgoingMessageDelivered(sipMessage.getViaBranchParameter(),
+                                startTimestamp);
                     } catch (RemoteException e) {
                         notifyDelegateSendError("RemoteException: " + e, sipMessage,
                                 SipDelegateManager.MESSAGE_FAILURE_REASON_DELEGATE_DEAD);
@@ -180,6 +189,7 @@ public class MessageTransportWrapper implements DelegateBinderStateManager.State
          */
         @Override
         public void onMessageReceived(SipMessage message) {
+            long startTimestamp = mMetrics.getTimestamp();
             long token = Binder.clearCallingIdentity();
             try {
                 mExecutor.execute(() -> {
@@ -191,6 +201,8 @@ public class MessageTransportWrapper implements DelegateBinderStateManager.State
                     }
                     try {
                         mAppCallback.onMessageReceived(message);
+                        mMetrics.onIncomingMessageDelivered(message.getViaBranchParameter(),
+                                startTimestamp);
                     } catch (RemoteException e) {
                         notifyAppReceiveError("RemoteException: " + e, message,
                                 SipDelegateManager.MESSAGE_FAILURE_REASON_DELEGATE_DEAD);
@@ -216,6 +228,7 @@ public class MessageTransportWrapper implements DelegateBinderStateManager.State
                     }
                     try {
                         mSipSessionTracker.acknowledgePendingMessage(viaTransactionId);
+                        onMessageAcknowledged(viaTransactionId);
                         mAppCallback.onMessageSent(viaTransactionId);
                     } catch (RemoteException e) {
                         logw("Error sending onMessageSent to SipDelegateConnection, remote not"
@@ -242,6 +255,7 @@ public class MessageTransportWrapper implements DelegateBinderStateManager.State
                     }
                     try {
                         mSipSessionTracker.notifyPendingMessageFailed(viaTransactionId);
+                        mMetrics.onMessageAcknowledged(viaTransactionId);
                         mAppCallback.onMessageSendFailure(viaTransactionId, reason);
                     } catch (RemoteException e) {
                         logw("Error sending onMessageSendFailure to SipDelegateConnection, remote"
@@ -273,6 +287,7 @@ public class MessageTransportWrapper implements DelegateBinderStateManager.State
     private final int mSubId;
     private final TransportSipMessageValidator mSipSessionTracker;
     private final LocalLog mLocalLog = new LocalLog(SipTransportController.LOG_SIZE);
+    private final SipTransportMetrics mMetrics = new SipTransportMetrics();
 
     private ISipDelegate mSipDelegate;
 
@@ -336,9 +351,20 @@ public class MessageTransportWrapper implements DelegateBinderStateManager.State
         mSipDelegate = delegate;
     }
 
+    /**
+     * @return The metrics associated with the SIP messages sent over this transport.
+     */
+    public SipTransportMetrics getMetrics() {
+        return mMetrics;
+    }
+
     /** Dump state about this tracker that should be included in the dumpsys */
     public void dump(PrintWriter printWriter) {
         IndentingPrintWriter pw = new IndentingPrintWriter(printWriter, "  ");
+        pw.println("Metrics:");
+        pw.increaseIndent();
+        mMetrics.dump(pw);
+        pw.decreaseIndent();
         pw.println("Most recent logs:");
         mLocalLog.dump(printWriter);
         pw.println();
@@ -424,6 +450,7 @@ public class MessageTransportWrapper implements DelegateBinderStateManager.State
         for (String id : openCallIds) {
             cleanupSessionInternal(id);
         }
+        mMetrics.onDialogCountChanged(mSipSessionTracker.getTrackedDialogCount());
         mSipDelegate = null;
     }
 
@@ -441,6 +468,13 @@ public class MessageTransportWrapper implements DelegateBinderStateManager.State
                     + "for call id: " + callId);
         }
         mSipSessionTracker.onSipSessionCleanup(callId);
+        mMetrics.onDialogCountChanged(mSipSessionTracker.getTrackedDialogCount());
+    }
+
+    private void onMessageAcknowledged(String viaTransactionId) {
+        mMetrics.onMessageAcknowledged(viaTransactionId);
+        // Acknowledging a message is what causes dialogs to be created or closed.
+        mMetrics.onDialogCountChanged(mSipSessionTracker.getTrackedDialogCount());
     }
 
     private ValidationResult maybeOverrideValidationForTesting(ValidationResult result) {
@@ -460,6 +494,7 @@ public class MessageTransportWrapper implements DelegateBinderStateManager.State
     }
 
     private void notifyDelegateSendError(String logReason, SipMessage message, int reasonCode) {
+        mMetrics.onOutgoingMessageRejected(reasonCode);
         String transactionId = SipMessageParsingUtils.getTransactionId(message.getHeaderSection());
         logi("Error sending SipMessage[id: " + transactionId + ", code: " + reasonCode
                 + "] -> SipDelegate for reason: " + logReason);
@@ -471,6 +506,7 @@ public class MessageTransportWrapper implements DelegateBinderStateManager.State
     }
 
     private void notifyAppReceiveError(String logReason, SipMessage message, int reasonCode) {
+        mMetrics.onIncomingMessageRejected(reasonCode);
         String transactionId = SipMessageParsingUtils.getTransactionId(message.getHeaderSection());
         logi("Error sending SipMessage[id: " + transactionId + ", code: " + reasonCode + "] -> "
                 + "SipDelegateConnection for reason: " + logReason);
@@ -41,6 +41,7 @@ import com.android.phone.ImsStateCallbackController;
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 
@@ -54,27 +55,30 @@ public class RcsFeatureController {
     /**
      * Interface used by RCS features that need to listen for when the associated service has been
      * connected.
+     * <p>
+     * Lifecycle methods should not block. They return a future that completes once the Feature
+     * has processed the transition, or {@code null} if it was processed synchronously.
      */
     public interface Feature {
         /**
          * The RcsFeature has been connected to the framework and is ready.
          */
-        void onRcsConnected(RcsFeatureManager manager);
+        CompletableFuture<Void> onRcsConnected(RcsFeatureManager manager);
 
         /**
          * The framework has lost the binding to the RcsFeature or it is in the process of changing.
          */
-        void onRcsDisconnected();
+        CompletableFuture<Void> onRcsDisconnected();
 
         /**
          * The subscription associated with the slot this controller is bound to has changed.
          */
-        void onAssociatedSubscriptionUpdated(int subId);
+        CompletableFuture<Void> onAssociatedSubscriptionUpdated(int subId);
 
         /**
          * The carrier configuration associated with the active subscription id has changed.
          */
-        void onCarrierConfigChanged();
+        CompletableFuture<Void> onCarrierConfigChanged();
 
         /**
          * Called when the feature should be destroyed.
@@ -120,6 +124,7 @@ public class RcsFeatureController {
             ImsRegistrationCallbackHelper::new;
 
     private final Map<Class<?>, Feature> mFeatures = new ArrayMap<>();
+    private final FeatureLifecycleCoordinator mLifecycleCoordinator;
     private final Context mContext;
     private final ImsRegistrationCallbackHelper mImsRcsRegistrationHelper;
     private final int mSlotId;
@@ -191,6 +196,7 @@ public class RcsFeatureController {
         mAssociatedSubId = associatedSubId;
         mImsRcsRegistrationHelper = mRegistrationHelperFactory.create(mRcsRegistrationUpdate,
                 mContext.getMainExecutor());
+        mLifecycleCoordinator = new FeatureLifecycleCoordinator(getLogPrefix().toString());
     }
 
     /**
@@ -205,6 +211,7 @@ public class RcsFeatureController {
         mRegistrationHelperFactory = f;
         mImsRcsRegistrationHelper = mRegistrationHelperFactory.create(mRcsRegistrationUpdate,
                 mContext.getMainExecutor());
+        mLifecycleCoordinator = new FeatureLifecycleCoordinator(getLogPrefix().toString());
     }
 
     /**
@@ -272,9 +279,8 @@ public class RcsFeatureController {
         mAssociatedSubId = newSubId;
         updateCapabilities();
         synchronized (mLock) {
-            for (Feature c : mFeatures.values()) {
-                c.onAssociatedSubscriptionUpdated(newSubId);
-            }
+            mLifecycleCoordinator.dispatch("onAssociatedSubscriptionUpdated",
+                    mFeatures.values(), c -> c.onAssociatedSubscriptionUpdated(newSubId));
         }
     }
 
@@ -285,9 +291,8 @@ public class RcsFeatureController {
     public void onCarrierConfigChangedForSubscription() {
         updateCapabilities();
         synchronized (mLock) {
-            for (Feature c : mFeatures.values()) {
-                c.onCarrierConfigChanged();
-            }
+            mLifecycleCoordinator.dispatch("onCarrierConfigChanged", mFeatures.values(),
+                    Feature::onCarrierConfigChanged);
         }
     }
 
@@ -452,13 +457,11 @@ public class RcsFeatureController {
         synchronized (mLock) {
             mFeatureManager = manager;
             if (mFeatureManager != null) {
-                for (Feature c : mFeatures.values()) {
-                    c.onRcsConnected(manager);
-                }
+                mLifecycleCoordinator.dispatch("onRcsConnected", mFeatures.values(),
+                        c -> c.onRcsConnected(manager));
             } else {
-                for (Feature c : mFeatures.values()) {
-                    c.onRcsDisconnected();
-                }
+                mLifecycleCoordinator.dispatch("onRcsDisconnected", mFeatures.values(),
+                        Feature::onRcsDisconnected);
             }
         }
     }
@@ -490,6 +493,7 @@ public class RcsFeatureController {
             }
             pw.decreaseIndent();
         }
+        mLifecycleCoordinator.dump(pw);
     }
 
     private void logd(String log) {
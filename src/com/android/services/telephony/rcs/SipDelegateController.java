@@ -106,7 +106,8 @@ public class SipDelegateController {
                 messageCallback);
 
         mDelegateStateTracker = new DelegateStateTracker(mSubId, mUid, stateCallback,
-                mMessageTransportWrapper.getDelegateConnection(), RcsStats.getInstance());
+                mMessageTransportWrapper.getDelegateConnection(), RcsStats.getInstance(),
+                executorService, DelegateStateTracker.COALESCE_WINDOW_DEFAULT_MS);
     }
 
     /**
@@ -136,6 +137,13 @@ public class SipDelegateController {
         return mInitialRequest;
     }
 
+    /**
+     * @return The metrics associated with the SIP messages sent over this SipDelegate.
+     */
+    public SipTransportMetrics getMetrics() {
+        return mMessageTransportWrapper.getMetrics();
+    }
+
     /**
      * @return The package name of the IMS application associated with this SipDelegateController.
      */
@@ -20,6 +20,7 @@ import android.telephony.ims.SipMessage;
 import android.text.TextUtils;
 
 import com.android.internal.telephony.SipMessageParsingUtils;
+import com.android.services.telephony.rcs.FeatureTagRegistry.FeatureTagSet;
 
 import java.time.Instant;
 import java.util.Objects;
@@ -86,6 +87,7 @@ public class SipDialog {
      *                 responses.
      * @param callId   The callId of the SIP dialog.
      * @param fromTag  The from header's tag parameter.
+     * @param featureTags The feature tags in the Accept-Contact header.
      */
     private SipDialog(String branchId, String callId, String fromTag, Set<String> featureTags) {
         mBranchId = branchId;
@@ -125,6 +127,15 @@ public class SipDialog {
         return mAcceptContactFeatureTags;
     }
 
+    /**
+     * @return {@code true} if any of the feature tags provided are contained in the
+     * "Accept-Contact" header of this dialog.
+     * @see FeatureTagRegistry
+     */
+    public boolean isAssociatedWithFeatureTags(FeatureTagSet featureTags) {
+        return featureTags.containsAny(mAcceptContactFeatureTags);
+    }
+
     /**
      * @return A new instance with branch param, call-id value, and from tag param populated.
      */
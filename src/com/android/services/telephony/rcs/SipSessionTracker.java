@@ -27,6 +27,7 @@ import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.SipMessageParsingUtils;
 import com.android.internal.telephony.metrics.RcsStats;
 import com.android.internal.util.IndentingPrintWriter;
+import com.android.services.telephony.rcs.FeatureTagRegistry.FeatureTagSet;
 
 import java.io.PrintWriter;
 import java.util.ArrayList;
@@ -165,12 +166,11 @@ public class SipSessionTracker {
      */
     public Set<String> getCallIdsAssociatedWithFeatureTag(Set<String> featureTags) {
         if (featureTags.isEmpty()) return Collections.emptySet();
+        FeatureTagSet featureTagSet = FeatureTagRegistry.getInstance().createSet(featureTags);
         Set<String> associatedIds = new ArraySet<>();
-        for (String featureTag : featureTags) {
-            for (SipDialog dialog : mTrackedDialogs) {
-                boolean isAssociated = dialog.getAcceptContactFeatureTags().stream().anyMatch(
-                        d -> d.equalsIgnoreCase(featureTag));
-                if (isAssociated) associatedIds.add(dialog.getCallId());
+        for (SipDialog dialog : mTrackedDialogs) {
+            if (dialog.isAssociatedWithFeatureTags(featureTagSet)) {
+                associatedIds.add(dialog.getCallId());
             }
         }
         return associatedIds;
@@ -210,6 +210,14 @@ public class SipSessionTracker {
         return new ArraySet<>(mTrackedDialogs);
     }
 
+    /**
+     * @return The number of tracked dialogs, including the ones that have been closed but
+     * {@link #cleanupSession(String)} has not been called.
+     */
+    public int getTrackedDialogCount() {
+        return mTrackedDialogs.size();
+    }
+
     /**
      * Clears all tracked sessions.
      */
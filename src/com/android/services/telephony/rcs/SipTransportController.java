@@ -42,6 +42,7 @@ import android.text.TextUtils;
 import android.util.ArraySet;
 import android.util.LocalLog;
 import android.util.Log;
+import android.util.Pair;
 
 import androidx.annotation.NonNull;
 
@@ -51,27 +52,31 @@ import com.android.internal.telephony.ISipDialogStateCallback;
 import com.android.internal.telephony.util.RemoteCallbackListExt;
 import com.android.internal.util.IndentingPrintWriter;
 import com.android.phone.RcsProvisioningMonitor;
+import com.android.services.telephony.rcs.FeatureTagRegistry.FeatureTagSet;
 
 import com.google.common.base.Objects;
 
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -98,6 +103,8 @@ public class SipTransportController implements RcsFeatureController.Feature,
     private static final int REEVALUATE_THROTTLE_DEFAULT_MS = 1000;
     /**See {@link TimerAdapter#getUpdateRegistrationDelayMilliseconds()}.*/
     private static final int TRIGGER_UPDATE_REGISTRATION_DELAY_DEFAULT_MS = 1000;
+    /** The maximum time to wait for the executor to take a snapshot of the metrics. */
+    private static final long METRICS_SNAPSHOT_TIMEOUT_MS = 1000;
 
     /**
      * {@link RoleManager} is final so we have to wrap the implementation for testing.
@@ -243,6 +250,41 @@ public class SipTransportController implements RcsFeatureController.Feature,
         }
     }
 
+    /**
+     * The feature tags granted to and denied from a SipDelegateController during a reevaluate.
+     */
+    private static final class FeatureTagAllocation {
+        public final Set<String> supportedTags;
+        public final Set<FeatureTagState> deniedTags;
+        // supportedTags as a set from the FeatureTagRegistry.
+        public final FeatureTagSet grantedTags;
+
+        FeatureTagAllocation(Set<String> supported, Set<FeatureTagState> denied,
+                FeatureTagSet granted) {
+            supportedTags = supported;
+            deniedTags = denied;
+            grantedTags = granted;
+        }
+
+        /**
+         * @return true if this allocation does not grant any feature tag that was not already
+         * granted by the other allocation.
+         */
+        public boolean isSubsetOf(FeatureTagAllocation other) {
+            return other.grantedTags.containsAll(grantedTags);
+        }
+    }
+
+    /**
+     * A copy of the SIP transport metrics, taken on the executor so that it can be printed from
+     * any thread.
+     */
+    private static final class MetricsSnapshot {
+        public final SipTransportMetrics total = new SipTransportMetrics();
+        // The description and metrics of each active SipDelegate, in priority order.
+        public final List<Pair<String, SipTransportMetrics>> delegates = new ArrayList<>();
+    }
+
     /**
      * This is to handle with dialogs of all available delegates that have dialogs.
      */
@@ -338,6 +380,8 @@ public class SipTransportController implements RcsFeatureController.Feature,
 
     // Cache of Binders to remote IMS applications for tracking their potential death
     private final TrackedAppBinders mActiveAppBinders = new TrackedAppBinders();
+    // Metrics of SipDelegates that have been destroyed for the current subscription.
+    private final SipTransportMetrics mDestroyedDelegateMetrics = new SipTransportMetrics();
 
     // Future scheduled for operations that require the list of SipDelegateControllers to
     // be evaluated. When the timer expires and triggers the reevaluate method, this controller
@@ -358,8 +402,14 @@ public class SipTransportController implements RcsFeatureController.Feature,
     private String mCachedSmsRolePackageName = "";
     // Callback to monitor rcs provisioning change
     private CarrierConfigManager mCarrierConfigManager;
-    // Cached allowed feature tags from carrier config
-    private ArraySet<String> mFeatureTagsAllowed = new ArraySet<>();
+    private final FeatureTagRegistry mFeatureTagRegistry = FeatureTagRegistry.getInstance();
+    // Cached allowed feature tags from carrier config, interned in the FeatureTagRegistry.
+    private FeatureTagSet mFeatureTagsAllowed = mFeatureTagRegistry.createSet(null);
+    // The feature tag allocation last applied to each SipDelegateController in the priority
+    // queue, used to order the changes of a reevaluate. Updated
+    // from the thread that completes the change, so must be thread safe.
+    private final Map<SipDelegateController, FeatureTagAllocation> mAppliedAllocations =
+            new ConcurrentHashMap<>();
 
     /**
      * Create an instance of SipTransportController.
@@ -396,23 +446,23 @@ public class SipTransportController implements RcsFeatureController.Feature,
     }
 
     @Override
-    public void onRcsConnected(RcsFeatureManager manager) {
-        mExecutorService.submit(() -> onRcsManagerChanged(manager));
+    public CompletableFuture<Void> onRcsConnected(RcsFeatureManager manager) {
+        return CompletableFuture.runAsync(() -> onRcsManagerChanged(manager), mExecutorService);
     }
 
     @Override
-    public void onRcsDisconnected() {
-        mExecutorService.submit(() -> onRcsManagerChanged(null));
+    public CompletableFuture<Void> onRcsDisconnected() {
+        return CompletableFuture.runAsync(() -> onRcsManagerChanged(null), mExecutorService);
     }
 
     @Override
-    public void onAssociatedSubscriptionUpdated(int subId) {
-        mExecutorService.submit(()-> onSubIdChanged(subId));
+    public CompletableFuture<Void> onAssociatedSubscriptionUpdated(int subId) {
+        return CompletableFuture.runAsync(() -> onSubIdChanged(subId), mExecutorService);
     }
 
     @Override
-    public void onCarrierConfigChanged() {
-        mExecutorService.submit(this::onCarrierConfigChangedInternal);
+    public CompletableFuture<Void> onCarrierConfigChanged() {
+        return CompletableFuture.runAsync(this::onCarrierConfigChangedInternal, mExecutorService);
     }
 
     @Override
@@ -775,6 +825,13 @@ public class SipTransportController implements RcsFeatureController.Feature,
         for (DestroyRequest d : mDelegatePendingDestroy) {
             logi("reevaluateDelegates: starting destroy for: " + d.controller.getPackageName());
             mActiveAppBinders.unregister(d.controller.getAppMessageCallback());
+            // The dialogs of a destroyed delegate are closed, only keep its peak.
+            SipTransportMetrics metrics = d.controller.getMetrics();
+            if (metrics != null) {
+                metrics.onDialogCountChanged(0);
+                mDestroyedDelegateMetrics.merge(metrics);
+            }
+            mAppliedAllocations.remove(d.controller);
         }
         // Destroy all pending destroy delegates first. Order doesn't matter.
         List<CompletableFuture<Void>> pendingDestroyList = mDelegatePendingDestroy.stream()
@@ -797,27 +854,17 @@ public class SipTransportController implements RcsFeatureController.Feature,
         // Wait for destroy stages to complete, then loop from oldest to most recent and associate
         // feature tags that the app has requested to the SipDelegate.
         // Each feature tag can only be associated with one SipDelegate, so as feature tags are
-        // taken, do not allow other SipDelegates to be associated with those tags as well. Each
-        // stage of the CompletableFuture chain passes the previously claimed feature tags into the
-        // next stage so that those feature tags can be denied if already claimed.
-        // Executor doesn't matter here, just composing here to transform to the next stage.
-        CompletableFuture<Set<String>> pendingChange = pendingDestroy.thenCompose((ignore) -> {
-            logi("reevaluateDelegates: destroy phase complete");
-            return CompletableFuture.completedFuture(new ArraySet<>());
-        });
+        // taken, do not allow other SipDelegates to be associated with those tags as well. The
+        // full allocation is computed first so that SipDelegates that do not acquire new feature
+        // tags do not wait for the SipDelegates that do. SipDelegateController ignores a change
+        // to the same supported feature tags, so unaffected SipDelegates and their SIP dialogs
+        // are left alone.
         final String cachedSmsRolePackage = mCachedSmsRolePackageName;
-        for (SipDelegateController c : mDelegatePriorityQueue) {
-            logi("reevaluateDelegates: pending reeval: " + c);
-            pendingChange = pendingChange.thenComposeAsync((takenTags) -> {
-                logi("reevaluateDelegates: last stage completed with result:" + takenTags);
-                if (takenTags == null) {
-                    // return early, the ImsService is no longer available. This will eventually be
-                    // destroyed.
-                    return CompletableFuture.completedFuture(null /*failed*/);
-                }
-                return changeSupportedFeatureTags(c, cachedSmsRolePackage, takenTags);
-            }, mExecutorService);
-        }
+        final List<SipDelegateController> evaluateQueue = new ArrayList<>(mDelegatePriorityQueue);
+        CompletableFuture<FeatureTagSet> pendingChange = pendingDestroy.thenComposeAsync((ignore) -> {
+            logi("reevaluateDelegates: destroy phase complete");
+            return applyFeatureTagAllocation(evaluateQueue, cachedSmsRolePackage);
+        }, mExecutorService);
 
         // Executor doesn't matter here, schedule an event to update the IMS registration.
         mEvaluateCompleteFuture = pendingChange
@@ -915,18 +962,73 @@ public class SipTransportController implements RcsFeatureController.Feature,
     }
 
     /**
-     * Check the requested roles for the specified package name and return the tags that were
-     * applied to that SipDelegateController.
+     * Compute the feature tags that should be associated with each SipDelegateController in the
+     * queue and apply the allocation to each SipDelegateController.
+     * <p>
+     * SipDelegateControllers that do not gain any feature tags are modified first and in
+     * parallel, so that the feature tags they release are no longer in use when the
+     * SipDelegateControllers that gain feature tags are modified. SipDelegateControllers that
+     * gain feature tags are then modified one at a time in priority order.
+     * @param queue The SipDelegateControllers to evaluate, from highest to lowest priority.
+     * @param smsRolePackageName The package name of the app holding the SMS role.
+     * @return Once complete, contains all of the feature tags that are associated with a
+     * SipDelegate or {@code null} if the ImsService was unavailable.
+     */
+    private CompletableFuture<FeatureTagSet> applyFeatureTagAllocation(
+            List<SipDelegateController> queue, String smsRolePackageName) {
+        FeatureTagSet takenTags = mFeatureTagRegistry.createSet(null);
+        List<Pair<SipDelegateController, FeatureTagAllocation>> releasing = new ArrayList<>();
+        List<Pair<SipDelegateController, FeatureTagAllocation>> acquiring = new ArrayList<>();
+        for (SipDelegateController c : queue) {
+            FeatureTagAllocation allocation = computeFeatureTagAllocation(c, smsRolePackageName,
+                    takenTags);
+            takenTags.addAll(allocation.grantedTags);
+            FeatureTagAllocation previous = mAppliedAllocations.get(c);
+            if (previous != null && allocation.isSubsetOf(previous)) {
+                releasing.add(new Pair<>(c, allocation));
+            } else {
+                acquiring.add(new Pair<>(c, allocation));
+            }
+        }
+        logi("applyFeatureTagAllocation: releasing=" + releasing.size() + ", acquiring="
+                + acquiring.size());
+
+        List<CompletableFuture<Boolean>> pendingReleaseList = new ArrayList<>(releasing.size());
+        for (Pair<SipDelegateController, FeatureTagAllocation> change : releasing) {
+            pendingReleaseList.add(changeSupportedFeatureTags(change.first, change.second));
+        }
+        // Executor doesn't matter here, just composing here to transform to the next stage.
+        CompletableFuture<Boolean> pendingChange = CompletableFuture.allOf(
+                pendingReleaseList.toArray(new CompletableFuture[pendingReleaseList.size()]))
+                .thenApply((ignore) -> pendingReleaseList.stream().allMatch(
+                        CompletableFuture::join));
+        for (Pair<SipDelegateController, FeatureTagAllocation> change : acquiring) {
+            pendingChange = pendingChange.thenComposeAsync((lastSuccessful) -> {
+                if (!lastSuccessful) {
+                    // return early, the ImsService is no longer available. This will eventually
+                    // be destroyed.
+                    return CompletableFuture.completedFuture(false);
+                }
+                return changeSupportedFeatureTags(change.first, change.second);
+            }, mExecutorService);
+        }
+        return pendingChange.thenApply((completedSuccessfully) ->
+                completedSuccessfully ? takenTags : null);
+    }
+
+    /**
+     * Check the requested roles for the specified package name and compute the feature tags that
+     * should be associated with that SipDelegateController.
      * @param controller Controller to attribute feature tags to.
-     * @param alreadyRequestedTags The feature tags that were already granted to other SipDelegates.
-     * @return Once complete, contains the set of feature tags that the SipDelegate now has
-     * associated with it along with the feature tags that previous SipDelegates had.
+     * @param smsRolePackageName The package name of the app holding the SMS role.
+     * @param alreadyRequestedTags The feature tags that were already granted to other
+     *         SipDelegates.
+     * @return The feature tags that should be granted to and denied from the SipDelegate.
      *
      * // TODO: we currently only track SMS role, extend to support other roles as well.
      */
-    private CompletableFuture<Set<String>> changeSupportedFeatureTags(
-            SipDelegateController controller, String smsRolePackageName,
-            Set<String> alreadyRequestedTags) {
+    private FeatureTagAllocation computeFeatureTagAllocation(SipDelegateController controller,
+            String smsRolePackageName, FeatureTagSet alreadyRequestedTags) {
         Set<String> requestedFeatureTags = controller.getInitialRequest().getFeatureTags();
         String packageName = controller.getPackageName();
         if (!smsRolePackageName.equals(packageName)) {
@@ -936,33 +1038,37 @@ public class SipTransportController implements RcsFeatureController.Feature,
                 deniedTags.add(new FeatureTagState(s,
                         SipDelegateManager.DENIED_REASON_NOT_ALLOWED));
             }
-            CompletableFuture<Boolean> pendingDeny = controller.changeSupportedFeatureTags(
-                    Collections.emptySet(), deniedTags);
-            logi("changeSupportedFeatureTags pendingDeny=" + pendingDeny);
-            // do not worry about executor used here, this stage used to interpret result + add log.
-            return pendingDeny.thenApply((completedSuccessfully) ->  {
-                logi("changeSupportedFeatureTags: deny completed: " + completedSuccessfully);
-                if (!completedSuccessfully) return null;
-                // Return back the previous list of requested tags, as we did not add any more.
-                return alreadyRequestedTags;
-            });
+            return new FeatureTagAllocation(Collections.emptySet(), deniedTags,
+                    mFeatureTagRegistry.createSet(null));
         }
 
-        ArraySet<String> previouslyGrantedTags = new ArraySet<>(alreadyRequestedTags);
         ArraySet<String> candidateFeatureTags = new ArraySet<>(requestedFeatureTags);
         Set<FeatureTagState> deniedTags =
-                updateSupportedTags(candidateFeatureTags, previouslyGrantedTags);
+                updateSupportedTags(candidateFeatureTags, alreadyRequestedTags);
+        return new FeatureTagAllocation(candidateFeatureTags, deniedTags,
+                mFeatureTagRegistry.createSet(candidateFeatureTags));
+    }
 
-        // Add newly granted tags to the already requested tags list.
-        previouslyGrantedTags.addAll(candidateFeatureTags);
+    /**
+     * Apply a new feature tag allocation to the SipDelegateController.
+     * @return Once complete, {@code true} if the change was successful or {@code false} if the
+     * ImsService was unavailable.
+     */
+    private CompletableFuture<Boolean> changeSupportedFeatureTags(
+            SipDelegateController controller, FeatureTagAllocation allocation) {
         CompletableFuture<Boolean> pendingChange = controller.changeSupportedFeatureTags(
-                candidateFeatureTags, deniedTags);
+                allocation.supportedTags, allocation.deniedTags);
         logi("changeSupportedFeatureTags pendingChange=" + pendingChange);
         // do not worry about executor used here, this stage used to interpret result + add log.
         return pendingChange.thenApply((completedSuccessfully) ->  {
             logi("changeSupportedFeatureTags: change completed: " + completedSuccessfully);
-            if (!completedSuccessfully) return null;
-            return previouslyGrantedTags;
+            if (completedSuccessfully) {
+                mAppliedAllocations.put(controller, allocation);
+            } else {
+                // Force the allocation to be applied again during the next evaluation.
+                mAppliedAllocations.remove(controller);
+            }
+            return completedSuccessfully;
         });
     }
 
@@ -976,7 +1082,7 @@ public class SipTransportController implements RcsFeatureController.Feature,
      * @return The set of denied feature tags.
      */
     private Set<FeatureTagState> updateSupportedTags(Set<String> candidateFeatureTags,
-            Set<String> previouslyGrantedTags) {
+            FeatureTagSet previouslyGrantedTags) {
         Boolean overrideRes = RcsProvisioningMonitor.getInstance()
                 .getImsFeatureValidationOverride(mSubId);
         // deny tags already used by other delegates
@@ -992,7 +1098,7 @@ public class SipTransportController implements RcsFeatureController.Feature,
                     it.remove();
                     deniedTags.add(new FeatureTagState(tag,
                             SipDelegateManager.DENIED_REASON_IN_USE_BY_ANOTHER_DELEGATE));
-                } else if (!mFeatureTagsAllowed.contains(tag.trim().toLowerCase(Locale.ROOT))) {
+                } else if (!mFeatureTagsAllowed.contains(tag)) {
                     logi(tag + " is not allowed per config.");
                     it.remove();
                     deniedTags.add(new FeatureTagState(tag,
@@ -1089,6 +1195,7 @@ public class SipTransportController implements RcsFeatureController.Feature,
         if (mSubId != newSubId) {
             // Swap subId, any pending create/destroy on old subId will be denied.
             mSubId = newSubId;
+            mDestroyedDelegateMetrics.reset();
             scheduleDestroyDelegates(
                     SipDelegateManager.SIP_DELEGATE_DESTROY_REASON_SUBSCRIPTION_TORN_DOWN);
         }
@@ -1101,15 +1208,18 @@ public class SipTransportController implements RcsFeatureController.Feature,
      */
     private void onCarrierConfigChangedInternal() {
         logi("Carrier Config changed for subId: " + mSubId);
-        mFeatureTagsAllowed.clear();
         PersistableBundle carrierConfig = mCarrierConfigManager.getConfigForSubId(mSubId);
         String[] tagConfigs = carrierConfig.getStringArray(
                 CarrierConfigManager.Ims.KEY_RCS_FEATURE_TAG_ALLOWED_STRING_ARRAY);
-        if (tagConfigs != null && tagConfigs.length > 0) {
-            for (String tag : tagConfigs) {
-                mFeatureTagsAllowed.add(tag.trim().toLowerCase(Locale.ROOT));
-            }
+        if (tagConfigs == null || tagConfigs.length == 0) {
+            mFeatureTagsAllowed = mFeatureTagRegistry.createSet(null);
+            return;
+        }
+        // Only the feature tags allowed by the carrier config are interned.
+        for (String tag : tagConfigs) {
+            mFeatureTagRegistry.getId(tag);
         }
+        mFeatureTagsAllowed = mFeatureTagRegistry.createSet(Arrays.asList(tagConfigs));
     }
 
     /**
@@ -1181,6 +1291,86 @@ public class SipTransportController implements RcsFeatureController.Feature,
         }
     }
 
+    /**
+     * Dump the SIP transport metrics for the current subscription, aggregated as well as per
+     * active SipDelegate.
+     * @param subId The subId associated with the request.
+     * @param printWriter The PrintWriter to print the metrics to.
+     * @param reset {@code true} if the metrics should be reset after they are printed.
+     * @return {@code false} if the subId is not associated with this controller.
+     */
+    public boolean dumpMetrics(int subId, PrintWriter printWriter, boolean reset) {
+        if (subId != mSubId) {
+            logw("dumpMetrics: the subId is not supported");
+            return false;
+        }
+        printMetrics(new IndentingPrintWriter(printWriter, "  "), takeMetricsSnapshot(reset),
+                true /*includeDelegates*/);
+        return true;
+    }
+
+    /**
+     * Take a snapshot of the metrics on the executor, which owns mDelegatePriorityQueue. The wait
+     * is bounded so that a busy executor can not block the caller, such as dumpsys.
+     * @return The snapshot or {@code null} if it could not be taken in time.
+     */
+    private MetricsSnapshot takeMetricsSnapshot(boolean reset) {
+        Future<MetricsSnapshot> r;
+        try {
+            r = mExecutorService.submit(() -> takeMetricsSnapshotInternal(reset));
+        } catch (RejectedExecutionException e) {
+            logw("takeMetricsSnapshot: executor unavailable");
+            return null;
+        }
+        try {
+            return r.get(METRICS_SNAPSHOT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            // Do not reset the metrics later without printing them.
+            r.cancel(false);
+            logw("takeMetricsSnapshot: not available, " + e);
+            return null;
+        }
+    }
+
+    private MetricsSnapshot takeMetricsSnapshotInternal(boolean reset) {
+        MetricsSnapshot snapshot = new MetricsSnapshot();
+        snapshot.total.merge(mDestroyedDelegateMetrics);
+        for (SipDelegateController c : mDelegatePriorityQueue) {
+            SipTransportMetrics metrics = c.getMetrics();
+            if (metrics == null) continue;
+            snapshot.total.merge(metrics);
+            snapshot.delegates.add(new Pair<>(c.getPackageName() + ", tags="
+                    + c.getInitialRequest().getFeatureTags(), metrics.copy()));
+            if (reset) metrics.reset();
+        }
+        if (reset) mDestroyedDelegateMetrics.reset();
+        return snapshot;
+    }
+
+    private void printMetrics(IndentingPrintWriter pw, MetricsSnapshot snapshot,
+            boolean includeDelegates) {
+        pw.println("SipTransportMetrics[subId=" + mSubId + "]:");
+        pw.increaseIndent();
+        if (snapshot == null) {
+            pw.println("unavailable, the transport executor is busy");
+            pw.decreaseIndent();
+            return;
+        }
+        pw.println("Total:");
+        pw.increaseIndent();
+        snapshot.total.dump(pw);
+        pw.decreaseIndent();
+        if (includeDelegates) {
+            for (Pair<String, SipTransportMetrics> delegate : snapshot.delegates) {
+                pw.println(delegate.first + ":");
+                pw.increaseIndent();
+                delegate.second.dump(pw);
+                pw.decreaseIndent();
+            }
+        }
+        pw.decreaseIndent();
+    }
+
     @Override
     public void dump(PrintWriter printWriter) {
         IndentingPrintWriter pw = new IndentingPrintWriter(printWriter, "  ");
@@ -1190,6 +1380,8 @@ public class SipTransportController implements RcsFeatureController.Feature,
         pw.increaseIndent();
         mLocalLog.dump(pw);
         pw.decreaseIndent();
+        // The metrics of each SipDelegate are printed by the SipDelegateController below.
+        printMetrics(pw, takeMetricsSnapshot(false /*reset*/), false /*includeDelegates*/);
         pw.println("SipDelegateControllers (in priority order):");
         pw.increaseIndent();
         if (mDelegatePriorityQueue.isEmpty()) {
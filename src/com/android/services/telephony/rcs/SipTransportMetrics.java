@@ -0,0 +1,383 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony.rcs;
+
+import android.os.SystemClock;
+import android.telephony.ims.SipDelegateManager;
+import android.util.ArrayMap;
+import android.util.SparseIntArray;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Collects counters and latency histograms for the SIP messages passing through a
+ * {@link MessageTransportWrapper} so that it is possible to see where RCS message latency is
+ * being spent on a device.
+ * <p>
+ * Tracks:
+ * <ul>
+ *     <li>The number of incoming and outgoing SIP messages that were delivered.</li>
+ *     <li>Validation rejects by {@link SipDelegateManager.MessageFailureReason}.</li>
+ *     <li>The time from receiving a SIP message over binder until it is delivered to the
+ *     remote.</li>
+ *     <li>The round trip time between delivering a SIP message and the remote acknowledging
+ *     it.</li>
+ *     <li>The current and peak number of tracked SIP dialogs.</li>
+ * </ul>
+ * Instances are thread safe, as they are updated on the transport executor and read from dumpsys
+ * and shell command threads.
+ */
+public class SipTransportMetrics {
+
+    /**
+     * Acks that are never received are dropped oldest-first once this many are pending so that a
+     * misbehaving remote can not grow the pending map without bound.
+     */
+    private static final int MAX_PENDING_ACKS = 100;
+
+    /**
+     * Allows the time source to be replaced for testing.
+     */
+    @VisibleForTesting
+    public interface ClockProxy {
+        /** @return the current elapsed realtime in milliseconds. */
+        long elapsedRealtime();
+    }
+
+    /**
+     * A histogram of latencies in milliseconds with fixed, roughly logarithmic buckets.
+     */
+    @VisibleForTesting
+    public static class LatencyHistogram {
+        // The upper bound (exclusive) of each bucket in milliseconds, the last bucket catches all
+        // values larger than the last bound.
+        private static final long[] BUCKET_BOUNDS_MS =
+                new long[] {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+
+        private final int[] mBucketCounts = new int[BUCKET_BOUNDS_MS.length + 1];
+        private long mCount;
+        private long mTotalMs;
+        private long mMaxMs;
+
+        void record(long latencyMs) {
+            if (latencyMs < 0) return;
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_MS.length && latencyMs >= BUCKET_BOUNDS_MS[bucket]) {
+                bucket++;
+            }
+            mBucketCounts[bucket]++;
+            mCount++;
+            mTotalMs += latencyMs;
+            mMaxMs = Math.max(mMaxMs, latencyMs);
+        }
+
+        void merge(LatencyHistogram other) {
+            for (int i = 0; i < mBucketCounts.length; i++) {
+                mBucketCounts[i] += other.mBucketCounts[i];
+            }
+            mCount += other.mCount;
+            mTotalMs += other.mTotalMs;
+            mMaxMs = Math.max(mMaxMs, other.mMaxMs);
+        }
+
+        /** @return The number of samples recorded. */
+        public long getCount() {
+            return mCount;
+        }
+
+        /**
+         * @return The upper bound in milliseconds of the bucket containing the requested
+         * percentile or the max recorded value if the percentile falls in the last bucket.
+         */
+        public long getPercentileMs(int percentile) {
+            if (mCount == 0) return 0;
+            long target = (long) Math.ceil(mCount * (percentile / 100.0));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_BOUNDS_MS.length; i++) {
+                seen += mBucketCounts[i];
+                if (seen >= target) return Math.min(BUCKET_BOUNDS_MS[i], mMaxMs);
+            }
+            return mMaxMs;
+        }
+
+        @Override
+        public String toString() {
+            if (mCount == 0) return "{count=0}";
+            return "{count=" + mCount + ", avg=" + (mTotalMs / mCount) + "ms, p50<="
+                    + getPercentileMs(50) + "ms, p90<=" + getPercentileMs(90) + "ms, p99<="
+                    + getPercentileMs(99) + "ms, max=" + mMaxMs + "ms, buckets="
+                    + Arrays.toString(mBucketCounts) + "}";
+        }
+    }
+
+    private final ClockProxy mClock;
+    private final SparseIntArray mIncomingRejects = new SparseIntArray();
+    private final SparseIntArray mOutgoingRejects = new SparseIntArray();
+    private final LatencyHistogram mIncomingLatency = new LatencyHistogram();
+    private final LatencyHistogram mOutgoingLatency = new LatencyHistogram();
+    private final LatencyHistogram mAckRoundTrip = new LatencyHistogram();
+    // Maps the transaction ID of a delivered message to the time that it was delivered.
+    private final ArrayMap<String, Long> mPendingAcks = new ArrayMap<>();
+    private long mIncomingCount;
+    private long mOutgoingCount;
+    private long mAcksDropped;
+    private int mDialogCount;
+    private int mPeakDialogCount;
+
+    public SipTransportMetrics() {
+        this(SystemClock::elapsedRealtime);
+    }
+
+    @VisibleForTesting
+    public SipTransportMetrics(ClockProxy clock) {
+        mClock = clock;
+    }
+
+    /**
+     * @return A timestamp to be passed back to this instance once processing of a SIP message
+     * has completed.
+     */
+    public long getTimestamp() {
+        return mClock.elapsedRealtime();
+    }
+
+    /**
+     * An incoming SIP message received at startTimestamp has been delivered to the IMS
+     * application.
+     */
+    public synchronized void onIncomingMessageDelivered(String transactionId,
+            long startTimestamp) {
+        long now = mClock.elapsedRealtime();
+        mIncomingCount++;
+        mIncomingLatency.record(now - startTimestamp);
+        trackPendingAck(transactionId, now);
+    }
+
+    /**
+     * An outgoing SIP message received at startTimestamp has been delivered to the SipDelegate.
+     */
+    public synchronized void onOutgoingMessageDelivered(String transactionId,
+            long startTimestamp) {
+        long now = mClock.elapsedRealtime();
+        mOutgoingCount++;
+        mOutgoingLatency.record(now - startTimestamp);
+        trackPendingAck(transactionId, now);
+    }
+
+    /**
+     * An incoming SIP message was not delivered to the IMS application.
+     * @param reason The {@link SipDelegateManager.MessageFailureReason} of the failure.
+     */
+    public synchronized void onIncomingMessageRejected(int reason) {
+        mIncomingRejects.put(reason, mIncomingRejects.get(reason) + 1);
+    }
+
+    /**
+     * An outgoing SIP message was not delivered to the SipDelegate.
+     * @param reason The {@link SipDelegateManager.MessageFailureReason} of the failure.
+     */
+    public synchronized void onOutgoingMessageRejected(int reason) {
+        mOutgoingRejects.put(reason, mOutgoingRejects.get(reason) + 1);
+    }
+
+    /**
+     * The remote has acknowledged, successfully or not, a SIP message that was previously
+     * delivered to it.
+     */
+    public synchronized void onMessageAcknowledged(String transactionId) {
+        if (transactionId == null) return;
+        Long deliveredTime = mPendingAcks.remove(transactionId);
+        if (deliveredTime == null) return;
+        mAckRoundTrip.record(mClock.elapsedRealtime() - deliveredTime);
+    }
+
+    /**
+     * The number of SIP dialogs being tracked for this transport has changed.
+     */
+    public synchronized void onDialogCountChanged(int dialogCount) {
+        mDialogCount = dialogCount;
+        mPeakDialogCount = Math.max(mPeakDialogCount, dialogCount);
+    }
+
+    /**
+     * Add the counters of another instance to this one. Used to preserve the metrics of a
+     * SipDelegate once it has been destroyed.
+     * <p>
+     * The other instance is copied under its own lock before this instance is locked, so two
+     * instances merging into each other at the same time can not deadlock.
+     */
+    public void merge(SipTransportMetrics other) {
+        if (other == null || other == this) return;
+        SipTransportMetrics snapshot = other.copy();
+        synchronized (this) {
+            mIncomingCount += snapshot.mIncomingCount;
+            mOutgoingCount += snapshot.mOutgoingCount;
+            mAcksDropped += snapshot.mAcksDropped;
+            mergeRejects(mIncomingRejects, snapshot.mIncomingRejects);
+            mergeRejects(mOutgoingRejects, snapshot.mOutgoingRejects);
+            mIncomingLatency.merge(snapshot.mIncomingLatency);
+            mOutgoingLatency.merge(snapshot.mOutgoingLatency);
+            mAckRoundTrip.merge(snapshot.mAckRoundTrip);
+            mDialogCount += snapshot.mDialogCount;
+            mPeakDialogCount = Math.max(mPeakDialogCount, snapshot.mPeakDialogCount);
+        }
+    }
+
+    /**
+     * @return A copy of this instance.
+     */
+    synchronized SipTransportMetrics copy() {
+        SipTransportMetrics copy = new SipTransportMetrics(mClock);
+        copy.mPendingAcks.putAll(mPendingAcks);
+        copy.mIncomingCount = mIncomingCount;
+        copy.mOutgoingCount = mOutgoingCount;
+        copy.mAcksDropped = mAcksDropped;
+        mergeRejects(copy.mIncomingRejects, mIncomingRejects);
+        mergeRejects(copy.mOutgoingRejects, mOutgoingRejects);
+        copy.mIncomingLatency.merge(mIncomingLatency);
+        copy.mOutgoingLatency.merge(mOutgoingLatency);
+        copy.mAckRoundTrip.merge(mAckRoundTrip);
+        copy.mDialogCount = mDialogCount;
+        copy.mPeakDialogCount = mPeakDialogCount;
+        return copy;
+    }
+
+    /**
+     * Clear all counters.
+     */
+    public synchronized void reset() {
+        mIncomingCount = 0;
+        mOutgoingCount = 0;
+        mAcksDropped = 0;
+        mIncomingRejects.clear();
+        mOutgoingRejects.clear();
+        resetHistogram(mIncomingLatency);
+        resetHistogram(mOutgoingLatency);
+        resetHistogram(mAckRoundTrip);
+        mPendingAcks.clear();
+        mPeakDialogCount = mDialogCount;
+    }
+
+    /** @return The number of incoming SIP messages delivered to the IMS application. */
+    @VisibleForTesting
+    public synchronized long getIncomingCount() {
+        return mIncomingCount;
+    }
+
+    /** @return The number of outgoing SIP messages delivered to the SipDelegate. */
+    @VisibleForTesting
+    public synchronized long getOutgoingCount() {
+        return mOutgoingCount;
+    }
+
+    /** @return The number of incoming messages rejected for the reason provided. */
+    @VisibleForTesting
+    public synchronized int getIncomingRejectCount(int reason) {
+        return mIncomingRejects.get(reason);
+    }
+
+    /** @return The number of outgoing messages rejected for the reason provided. */
+    @VisibleForTesting
+    public synchronized int getOutgoingRejectCount(int reason) {
+        return mOutgoingRejects.get(reason);
+    }
+
+    /** @return The histogram of the round trip time of acknowledgements. */
+    @VisibleForTesting
+    public synchronized LatencyHistogram getAckRoundTripHistogram() {
+        return mAckRoundTrip;
+    }
+
+    /** @return The number of dialogs currently tracked. */
+    @VisibleForTesting
+    public synchronized int getDialogCount() {
+        return mDialogCount;
+    }
+
+    /** @return The peak number of dialogs tracked at one time. */
+    @VisibleForTesting
+    public synchronized int getPeakDialogCount() {
+        return mPeakDialogCount;
+    }
+
+    /** Dump the metrics to the PrintWriter provided. */
+    public synchronized void dump(PrintWriter printWriter) {
+        IndentingPrintWriter pw = new IndentingPrintWriter(printWriter, "  ");
+        pw.println("Incoming: delivered=" + mIncomingCount + ", rejected="
+                + rejectsToString(mIncomingRejects));
+        pw.increaseIndent();
+        pw.println("latency: " + mIncomingLatency);
+        pw.decreaseIndent();
+        pw.println("Outgoing: delivered=" + mOutgoingCount + ", rejected="
+                + rejectsToString(mOutgoingRejects));
+        pw.increaseIndent();
+        pw.println("latency: " + mOutgoingLatency);
+        pw.decreaseIndent();
+        pw.println("Ack round trip: " + mAckRoundTrip + ", pending=" + mPendingAcks.size()
+                + ", dropped=" + mAcksDropped);
+        pw.println("Dialogs: current=" + mDialogCount + ", peak=" + mPeakDialogCount);
+    }
+
+    private void trackPendingAck(String transactionId, long deliveredTime) {
+        if (transactionId == null) return;
+        if (mPendingAcks.size() >= MAX_PENDING_ACKS) {
+            // Drop the oldest pending ack.
+            int oldestIndex = 0;
+            for (int i = 1; i < mPendingAcks.size(); i++) {
+                if (mPendingAcks.valueAt(i) < mPendingAcks.valueAt(oldestIndex)) {
+                    oldestIndex = i;
+                }
+            }
+            mPendingAcks.removeAt(oldestIndex);
+            mAcksDropped++;
+        }
+        mPendingAcks.put(transactionId, deliveredTime);
+    }
+
+    private static void resetHistogram(LatencyHistogram h) {
+        Arrays.fill(h.mBucketCounts, 0);
+        h.mCount = 0;
+        h.mTotalMs = 0;
+        h.mMaxMs = 0;
+    }
+
+    private static void mergeRejects(SparseIntArray into, SparseIntArray from) {
+        for (int i = 0; i < from.size(); i++) {
+            int reason = from.keyAt(i);
+            into.put(reason, into.get(reason) + from.valueAt(i));
+        }
+    }
+
+    private static String rejectsToString(SparseIntArray rejects) {
+        if (rejects.size() == 0) return "{}";
+        StringBuilder b = new StringBuilder("{");
+        for (int i = 0; i < rejects.size(); i++) {
+            if (i > 0) b.append(", ");
+            int reason = rejects.keyAt(i);
+            b.append(SipDelegateManager.MESSAGE_FAILURE_REASON_STRING_MAP.getOrDefault(reason,
+                    String.valueOf(reason)));
+            b.append("=");
+            b.append(rejects.valueAt(i));
+        }
+        b.append("}");
+        return b.toString();
+    }
+}
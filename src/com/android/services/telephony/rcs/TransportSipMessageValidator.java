@@ -153,9 +153,19 @@ public class TransportSipMessageValidator {
     private final RcsStats mRcsStats;
 
     public TransportSipMessageValidator(int subId, ScheduledExecutorService executor) {
+        this(subId, executor, RcsStats.getInstance());
+    }
+
+    /**
+     * Create the full validation pipeline using a provided RcsStats instance, which allows the
+     * complete SIP message path to be exercised without the metrics singleton.
+     */
+    @VisibleForTesting
+    public TransportSipMessageValidator(int subId, ScheduledExecutorService executor,
+            RcsStats rcsStats) {
         mSubId = subId;
         mExecutor = executor;
-        mRcsStats = RcsStats.getInstance();
+        mRcsStats = rcsStats;
         mSipSessionTracker = new SipSessionTracker(subId, mRcsStats);
         mOutgoingTransportStateValidator = new OutgoingTransportStateValidator(mSipSessionTracker);
         mIncomingTransportStateValidator = new IncomingTransportStateValidator();
@@ -418,6 +428,14 @@ public class TransportSipMessageValidator {
         mSipSessionTracker.pendingMessageFailed(transactionId);
     }
 
+    /**
+     * @return The number of SIP dialogs currently being tracked, including closed dialogs that
+     * have not been cleaned up yet.
+     */
+    public int getTrackedDialogCount() {
+        return mSipSessionTracker.getTrackedDialogCount();
+    }
+
     /** Dump state about this tracker that should be included in the dumpsys */
     public void dump(PrintWriter printWriter) {
         IndentingPrintWriter pw = new IndentingPrintWriter(printWriter, "  ");
@@ -19,8 +19,12 @@ package com.android.services.telephony.rcs;
 import android.annotation.Nullable;
 import android.content.Context;
 import android.net.Uri;
+import android.os.PersistableBundle;
+import android.os.RemoteException;
+import android.telephony.CarrierConfigManager;
 import android.telephony.SubscriptionManager;
 import android.telephony.ims.ImsException;
+import android.telephony.ims.ProvisioningManager;
 import android.telephony.ims.RcsContactUceCapability;
 import android.telephony.ims.RcsUceAdapter;
 import android.telephony.ims.RcsUceAdapter.PublishState;
@@ -29,6 +33,7 @@ import android.telephony.ims.aidl.IRcsUcePublishStateCallback;
 import android.util.IndentingPrintWriter;
 import android.util.Log;
 
+import com.android.ims.ImsConfig;
 import com.android.ims.RcsFeatureManager;
 import com.android.ims.rcs.uce.UceController;
 import com.android.internal.annotations.VisibleForTesting;
@@ -36,10 +41,13 @@ import com.android.internal.annotations.VisibleForTesting;
 import java.io.PrintWriter;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * Responsible for managing the creation and destruction of UceController. It also received the
@@ -50,61 +58,113 @@ public class UceControllerManager implements RcsFeatureController.Feature {
 
     private static final String LOG_TAG = "UceControllerManager";
 
+    /**
+     * Carrier config key for the time in milliseconds to wait for other capability requests to
+     * merge with after a new request. 0, the default, dispatches new requests immediately.
+     */
+    @VisibleForTesting
+    public static final String KEY_UCE_REQUEST_MERGE_WINDOW_MILLIS_LONG =
+            "uce_request_merge_window_millis_long";
+
+    /**
+     * Carrier config key for the minimum time in milliseconds between two capability requests
+     * sent to the network. 0, the default, does not limit the rate of requests.
+     */
+    @VisibleForTesting
+    public static final String KEY_UCE_REQUEST_MIN_INTERVAL_MILLIS_LONG =
+            "uce_request_min_interval_millis_long";
+
+    // Used when the maximum number of entries in a resource list is not provisioned.
+    private static final int DEFAULT_MAX_BATCH_SIZE = 100;
+
     private final int mSlotId;
     private final Context mContext;
     private final ExecutorService mExecutorService;
+    // Merges capability requests from multiple callers.
+    private final UceRequestScheduler mRequestScheduler;
 
     private volatile @Nullable UceController mUceController;
     private volatile @Nullable RcsFeatureManager mRcsFeatureManager;
+    private volatile int mMaxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private volatile long mMergeWindowMs = 0;
+    private volatile long mMinDispatchIntervalMs = 0;
 
     public UceControllerManager(Context context, int slotId, int subId) {
         Log.d(LOG_TAG, "create: slotId=" + slotId + ", subId=" + subId);
         mSlotId = slotId;
         mContext = context;
-        mExecutorService = Executors.newSingleThreadExecutor();
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        mExecutorService = executor;
+        mRequestScheduler = createRequestScheduler(executor);
         initUceController(subId);
+        updateSchedulerConfig();
     }
 
     /**
      * Constructor to inject dependencies for testing.
      */
     @VisibleForTesting
-    public UceControllerManager(Context context, int slotId, ExecutorService executor,
+    public UceControllerManager(Context context, int slotId, ScheduledExecutorService executor,
             UceController uceController) {
         mSlotId = slotId;
         mContext = context;
         mExecutorService = executor;
         mUceController = uceController;
+        mRequestScheduler = createRequestScheduler(executor);
+        updateSchedulerConfig();
+    }
+
+    private UceRequestScheduler createRequestScheduler(ScheduledExecutorService executor) {
+        return new UceRequestScheduler(mSlotId, executor, this::dispatchCapabilityRequest,
+                new UceRequestScheduler.Config() {
+                    @Override
+                    public int getMaxBatchSize() {
+                        return mMaxBatchSize;
+                    }
+
+                    @Override
+                    public long getMergeWindowMs() {
+                        return mMergeWindowMs;
+                    }
+
+                    @Override
+                    public long getMinDispatchIntervalMs() {
+                        return mMinDispatchIntervalMs;
+                    }
+                });
     }
 
     @Override
-    public void onRcsConnected(RcsFeatureManager manager) {
-        mExecutorService.submit(() -> {
+    public CompletableFuture<Void> onRcsConnected(RcsFeatureManager manager) {
+        return CompletableFuture.runAsync(() -> {
             mRcsFeatureManager = manager;
+            updateSchedulerConfig();
             if (mUceController != null) {
                 mUceController.onRcsConnected(manager);
             } else {
                 Log.d(LOG_TAG, "onRcsConnected: UceController is null");
             }
-        });
+        }, mExecutorService);
     }
 
     @Override
-    public void onRcsDisconnected() {
-        mExecutorService.submit(() -> {
+    public CompletableFuture<Void> onRcsDisconnected() {
+        return CompletableFuture.runAsync(() -> {
             mRcsFeatureManager = null;
+            clearPendingRequests();
             if (mUceController != null) {
                 mUceController.onRcsDisconnected();
             } else {
                 Log.d(LOG_TAG, "onRcsDisconnected: UceController is null");
             }
-        });
+        }, mExecutorService);
     }
 
     @Override
     public void onDestroy() {
         mExecutorService.submit(() -> {
             Log.d(LOG_TAG, "onDestroy");
+            clearPendingRequests();
             if (mUceController != null) {
                 mUceController.onDestroy();
             }
@@ -118,20 +178,21 @@ public class UceControllerManager implements RcsFeatureController.Feature {
      * changed.
      */
     @Override
-    public void onAssociatedSubscriptionUpdated(int newSubId) {
-        mExecutorService.submit(() -> {
+    public CompletableFuture<Void> onAssociatedSubscriptionUpdated(int newSubId) {
+        return CompletableFuture.runAsync(() -> {
             Log.i(LOG_TAG, "onAssociatedSubscriptionUpdated: slotId=" + mSlotId
                     + ", newSubId=" + newSubId);
 
             // Check and create the UceController with the new updated subscription ID.
             initUceController(newSubId);
+            updateSchedulerConfig();
 
             // The RCS should be connected when the mRcsFeatureManager is not null. Set it to the
             // new UceController instance.
             if (mUceController != null && mRcsFeatureManager != null) {
                 mUceController.onRcsConnected(mRcsFeatureManager);
             }
-        });
+        }, mExecutorService);
     }
 
     /**
@@ -139,19 +200,24 @@ public class UceControllerManager implements RcsFeatureController.Feature {
      * manager has changed.
      */
     @Override
-    public void onCarrierConfigChanged() {
-        mExecutorService.submit(() -> {
+    public CompletableFuture<Void> onCarrierConfigChanged() {
+        return CompletableFuture.runAsync(() -> {
             Log.i(LOG_TAG, "onCarrierConfigChanged");
+            updateSchedulerConfig();
             if (mUceController != null) {
                 mUceController.onCarrierConfigChanged();
             } else {
                 Log.d(LOG_TAG, "onCarrierConfigChanged: UceController is null");
             }
-        });
+        }, mExecutorService);
     }
 
     /**
      * Request the capabilities for contacts.
+     * <p>
+     * This method does not wait for the request to be processed. If the UceController becomes
+     * unavailable after the request has been accepted, the error is reported through
+     * {@link IRcsUceControllerCallback#onError}.
      *
      * @param contactNumbers A list of numbers that the capabilities are being requested for.
      * @param c A callback for when the request for capabilities completes.
@@ -159,46 +225,127 @@ public class UceControllerManager implements RcsFeatureController.Feature {
      */
     public void requestCapabilities(List<Uri> contactNumbers, IRcsUceControllerCallback c)
             throws ImsException {
-        Future future = mExecutorService.submit(() -> {
-            checkUceControllerState();
-            mUceController.requestCapabilities(contactNumbers, c);
-            return true;
-        });
-
-        try {
-            future.get();
-        } catch (ExecutionException | InterruptedException e) {
-            Log.w(LOG_TAG, "requestCapabilities: " + e);
-            Throwable cause = e.getCause();
-            if (cause instanceof ImsException) {
-                throw (ImsException) cause;
-            }
-        }
+        checkUceControllerState();
+        submitUceRequest("requestCapabilities", c,
+                () -> mRequestScheduler.addRequest(contactNumbers, c));
     }
 
     /**
      * Request the capabilities for the given contact.
+     * <p>
+     * This method does not wait for the request to be processed. If the UceController becomes
+     * unavailable after the request has been accepted, the error is reported through
+     * {@link IRcsUceControllerCallback#onError}.
+     *
      * @param contactNumber The contact of the capabilities are being requested for.
      * @param c A callback for when the request for capabilities completes.
      * @throws ImsException if the ImsService connected to this controller is currently down.
      */
     public void requestNetworkAvailability(Uri contactNumber, IRcsUceControllerCallback c)
             throws ImsException {
-        Future future = mExecutorService.submit(() -> {
-            checkUceControllerState();
-            mUceController.requestAvailability(contactNumber, c);
-            return true;
-        });
+        checkUceControllerState();
+        submitUceRequest("requestNetworkAvailability", c,
+                () -> mUceController.requestAvailability(contactNumber, c));
+    }
 
+    /**
+     * Run the UCE request on the executor without blocking the calling thread. The state of the
+     * UceController is checked again before the request runs, since it may have changed while
+     * the request was queued. The request is failed if the subscription changed in the meantime,
+     * so that it is never sent for a subscription other than the one it was accepted for.
+     */
+    private void submitUceRequest(String requestName, IRcsUceControllerCallback c,
+            Runnable request) {
+        UceController acceptedController = mUceController;
         try {
-            future.get();
-        } catch (ExecutionException | InterruptedException e) {
-            Log.w(LOG_TAG, "requestNetworkAvailability exception: " + e);
-            Throwable cause = e.getCause();
-            if (cause instanceof ImsException) {
-                throw (ImsException) cause;
+            mExecutorService.execute(() -> {
+                if (mUceController == null || mUceController != acceptedController
+                        || mUceController.isUnavailable()) {
+                    Log.w(LOG_TAG, requestName + ": UCE controller became unavailable");
+                    notifyRequestError(c, RcsUceAdapter.ERROR_NOT_AVAILABLE);
+                    return;
+                }
+                request.run();
+            });
+        } catch (RejectedExecutionException e) {
+            // The executor has been shut down because this manager is being destroyed.
+            Log.w(LOG_TAG, requestName + ": rejected, " + e);
+            notifyRequestError(c, RcsUceAdapter.ERROR_NOT_AVAILABLE);
+        }
+    }
+
+    /**
+     * Send a batch of capability requests merged by the UceRequestScheduler to the UceController.
+     * Called on the executor.
+     */
+    private void dispatchCapabilityRequest(List<Uri> contactNumbers,
+            IRcsUceControllerCallback c) {
+        if (mUceController == null || mUceController.isUnavailable()) {
+            Log.w(LOG_TAG, "dispatchCapabilityRequest: UCE controller is unavailable");
+            notifyRequestError(c, RcsUceAdapter.ERROR_NOT_AVAILABLE);
+            return;
+        }
+        mUceController.requestCapabilities(contactNumbers, c);
+    }
+
+    /**
+     * Fail all capability requests that are waiting in the UceRequestScheduler.
+     */
+    private void clearPendingRequests() {
+        mRequestScheduler.clear();
+    }
+
+    /**
+     * Update the configuration used to merge capability requests. The maximum batch size is the
+     * maximum number of entries in a resource list provisioned for the carrier, the merge window
+     * and rate limit come from the carrier config of the current subscription.
+     */
+    private void updateSchedulerConfig() {
+        updateMaxBatchSize();
+        long mergeWindowMs = 0;
+        long minIntervalMs = 0;
+        UceController controller = mUceController;
+        CarrierConfigManager configManager = mContext.getSystemService(CarrierConfigManager.class);
+        if (controller != null && configManager != null) {
+            PersistableBundle config = configManager.getConfigForSubId(controller.getSubId(),
+                    KEY_UCE_REQUEST_MERGE_WINDOW_MILLIS_LONG,
+                    KEY_UCE_REQUEST_MIN_INTERVAL_MILLIS_LONG);
+            if (config != null) {
+                mergeWindowMs = config.getLong(KEY_UCE_REQUEST_MERGE_WINDOW_MILLIS_LONG, 0);
+                minIntervalMs = config.getLong(KEY_UCE_REQUEST_MIN_INTERVAL_MILLIS_LONG, 0);
+            }
+        }
+        mMergeWindowMs = Math.max(0, mergeWindowMs);
+        mMinDispatchIntervalMs = Math.max(0, minIntervalMs);
+        Log.d(LOG_TAG, "updateSchedulerConfig: mergeWindowMs=" + mMergeWindowMs
+                + ", minIntervalMs=" + mMinDispatchIntervalMs);
+    }
+
+    /**
+     * Update the maximum batch size of capability requests using the maximum number of entries
+     * in a resource list provisioned for the carrier.
+     */
+    private void updateMaxBatchSize() {
+        RcsFeatureManager manager = mRcsFeatureManager;
+        int maxEntries = -1;
+        if (manager != null) {
+            try {
+                maxEntries = new ImsConfig(manager.getConfig()).getConfigInt(
+                        ProvisioningManager.KEY_RCS_MAX_NUM_ENTRIES_IN_RCL);
+            } catch (ImsException e) {
+                Log.w(LOG_TAG, "updateMaxBatchSize: couldn't get config, " + e);
             }
         }
+        mMaxBatchSize = maxEntries > 0 ? maxEntries : DEFAULT_MAX_BATCH_SIZE;
+        Log.d(LOG_TAG, "updateMaxBatchSize: " + mMaxBatchSize);
+    }
+
+    private void notifyRequestError(IRcsUceControllerCallback c, int errorCode) {
+        try {
+            c.onError(errorCode, 0L /*retryAfterMilliseconds*/, null /*details*/);
+        } catch (RemoteException e) {
+            Log.w(LOG_TAG, "notifyRequestError: callback is not available, " + e);
+        }
     }
 
     /**
@@ -443,7 +590,9 @@ public class UceControllerManager implements RcsFeatureController.Feature {
                 mUceController = new UceController(mContext, newSubId);
             }
         } else if (mUceController.getSubId() != newSubId) {
-            // The subscription ID is updated. Remove the old UceController instance.
+            // The subscription ID is updated. Fail the requests queued for the old subscription
+            // and remove the old UceController instance.
+            clearPendingRequests();
             mUceController.onDestroy();
             mUceController = null;
             // Create new UceController only when the subscription ID is valid.
@@ -481,6 +630,7 @@ public class UceControllerManager implements RcsFeatureController.Feature {
         } else {
             pw.println("UceController is null.");
         }
+        mRequestScheduler.dump(pw);
         pw.decreaseIndent();
     }
 }
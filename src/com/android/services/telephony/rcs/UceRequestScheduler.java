@@ -0,0 +1,559 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony.rcs;
+
+import android.net.Uri;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.telephony.ims.RcsContactUceCapability;
+import android.telephony.ims.RcsUceAdapter;
+import android.telephony.ims.SipDetails;
+import android.telephony.ims.aidl.IRcsUceControllerCallback;
+import android.util.IndentingPrintWriter;
+import android.util.LocalLog;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges capability requests from multiple callers into batches before they are sent to the
+ * UceController.
+ * <p>
+ * Requests received within {@link Config#getMergeWindowMs()} of each other are merged and contacts
+ * that are already queued or in flight are not requested again. Batches are limited to
+ * {@link Config#getMaxBatchSize()} contacts, dispatched at most once every
+ * {@link Config#getMinDispatchIntervalMs()} and held back if the network asked us to retry later.
+ * The results of each batch are fanned back out to the callbacks of the callers that requested
+ * each contact. A capability is only ever reported to the callers that requested its contact. If
+ * the UceController reports a contact URI in a different form than it was requested in, for
+ * example sip:+1555...@domain;user=phone for tel:+1555..., it is mapped back to the requested
+ * contact using the phone number. Capabilities that can not be mapped back are dropped.
+ * <p>
+ * A caller receives the capabilities of all of its contacts that were reported, then fails with the
+ * first error if any of the batches its contacts were sent in failed.
+ * <p>
+ * All state is only accessed on the provided executor, except for the counters used by
+ * {@link #dump(PrintWriter)}.
+ */
+public class UceRequestScheduler {
+    private static final String LOG_TAG = "UceRequestScheduler";
+    private static final int LOG_SIZE = 20;
+
+    /**
+     * Sends a batch of contacts to the UceController.
+     */
+    public interface RequestDispatcher {
+        /**
+         * Request the capabilities of the contacts, the result must be reported using the callback.
+         */
+        void dispatch(List<Uri> contactNumbers, IRcsUceControllerCallback callback);
+    }
+
+    /**
+     * The configuration used to batch requests.
+     */
+    public interface Config {
+        /** @return The maximum number of contacts in one request. */
+        int getMaxBatchSize();
+        /**
+         * @return The time to wait for other requests to merge with after a new request, 0 to
+         * dispatch new requests immediately.
+         */
+        long getMergeWindowMs();
+        /** @return The minimum time between two batches being dispatched, 0 for no limit. */
+        long getMinDispatchIntervalMs();
+    }
+
+    /**
+     * Proxy interface for the clock so it can be replaced for testing.
+     */
+    @VisibleForTesting
+    public interface ClockProxy {
+        /** @return the elapsed realtime in milliseconds. */
+        long getElapsedRealtimeMs();
+    }
+
+    /**
+     * A request from a single caller, which may span multiple batches.
+     */
+    private static final class CallerRequest {
+        public final IRcsUceControllerCallback callback;
+        // Contacts that have not completed yet.
+        public final Set<Uri> pending;
+        public SipDetails lastDetails;
+        public boolean isFinished = false;
+        // The first error reported for a batch containing one of the contacts of this request.
+        public boolean hasError = false;
+        public int errorCode;
+        public long retryAfterMillis;
+        public SipDetails errorDetails;
+
+        CallerRequest(IRcsUceControllerCallback c, Set<Uri> contacts) {
+            callback = c;
+            pending = contacts;
+        }
+    }
+
+    /**
+     * A batch of contacts that has been sent to the UceController.
+     */
+    private final class Batch extends IRcsUceControllerCallback.Stub {
+        public final List<Uri> contacts;
+        // Maps the key of each contact, see getContactKey, to the contact as it was requested.
+        public final Map<String, Uri> contactsByKey = new HashMap<>();
+        // Capabilities received so far, used for callers that join while the batch is in flight.
+        public final Map<Uri, RcsContactUceCapability> received = new HashMap<>();
+
+        Batch(List<Uri> c) {
+            contacts = c;
+            for (Uri contact : c) {
+                String key = getContactKey(contact);
+                if (key != null) contactsByKey.putIfAbsent(key, contact);
+            }
+        }
+
+        /**
+         * @return The contact in this batch that the URI reported by the UceController refers
+         * to, or {@code null} if it does not match any of the contacts in this batch.
+         */
+        public Uri getRequestedContact(Uri reported) {
+            if (reported == null) return null;
+            if (contacts.contains(reported)) return reported;
+            String key = getContactKey(reported);
+            return key != null ? contactsByKey.get(key) : null;
+        }
+
+        @Override
+        public void onCapabilitiesReceived(List<RcsContactUceCapability> contactCapabilities) {
+            runOnExecutor("onCapabilitiesReceived",
+                    () -> onBatchCapabilitiesReceived(this, contactCapabilities));
+        }
+
+        @Override
+        public void onComplete(SipDetails details) {
+            runOnExecutor("onComplete", () -> onBatchComplete(this, details));
+        }
+
+        @Override
+        public void onError(int errorCode, long retryAfterMilliseconds, SipDetails details) {
+            runOnExecutor("onError", () -> onBatchError(this, errorCode, retryAfterMilliseconds,
+                    details));
+        }
+
+        private void runOnExecutor(String name, Runnable r) {
+            try {
+                mExecutor.execute(r);
+            } catch (RejectedExecutionException e) {
+                // The executor has been shut down, the callers of this batch were already failed
+                // by clear.
+                logw("Batch#" + name + ": executor is shut down, ignoring");
+            }
+        }
+    }
+
+    private final int mSlotId;
+    private final ScheduledExecutorService mExecutor;
+    private final RequestDispatcher mDispatcher;
+    private final Config mConfig;
+    private final ClockProxy mClock;
+    private final LocalLog mLocalLog = new LocalLog(LOG_SIZE);
+
+    // Contacts waiting to be dispatched, in the order they were requested.
+    private final LinkedHashSet<Uri> mQueuedContacts = new LinkedHashSet<>();
+    private final Map<Uri, Batch> mInFlightContacts = new HashMap<>();
+    // The callers waiting for the result of each queued or in flight contact.
+    private final Map<Uri, List<CallerRequest>> mWaitingCallers = new HashMap<>();
+    private ScheduledFuture<?> mPendingFlush;
+    private long mLastDispatchTimeMs = -1;
+    // Do not dispatch before this time, set when the network asks us to retry later.
+    private long mRetryAfterTimeMs = 0;
+    // Counters are volatile, as they are also read by dump.
+    private volatile int mMergedRequestCount = 0;
+    private volatile int mDispatchedBatchCount = 0;
+    private volatile int mDroppedCapabilityCount = 0;
+    private volatile int mQueuedCount = 0;
+    private volatile int mInFlightCount = 0;
+
+    public UceRequestScheduler(int slotId, ScheduledExecutorService executor,
+            RequestDispatcher dispatcher, Config config) {
+        this(slotId, executor, dispatcher, config, SystemClock::elapsedRealtime);
+    }
+
+    @VisibleForTesting
+    public UceRequestScheduler(int slotId, ScheduledExecutorService executor,
+            RequestDispatcher dispatcher, Config config, ClockProxy clock) {
+        mSlotId = slotId;
+        mExecutor = executor;
+        mDispatcher = dispatcher;
+        mConfig = config;
+        mClock = clock;
+    }
+
+    /**
+     * Queue a request for the capabilities of the given contacts. The result will be reported
+     * using the callback provided once all of the contacts have been processed.
+     */
+    public void requestCapabilities(List<Uri> contactNumbers, IRcsUceControllerCallback c) {
+        mExecutor.execute(() -> addRequest(contactNumbers, c));
+    }
+
+    /**
+     * Same as {@link #requestCapabilities(List, IRcsUceControllerCallback)}, for callers that are
+     * already running on the executor.
+     * <p>
+     * Must be called on the executor.
+     */
+    public void addRequest(List<Uri> contactNumbers, IRcsUceControllerCallback c) {
+        CallerRequest request = new CallerRequest(c, new LinkedHashSet<>(contactNumbers));
+        if (request.pending.isEmpty()) {
+            notifyComplete(request);
+            return;
+        }
+        int mergedCount = 0;
+        for (Uri contact : request.pending) {
+            List<CallerRequest> waiting = mWaitingCallers.get(contact);
+            if (waiting == null) {
+                waiting = new ArrayList<>(1);
+                mWaitingCallers.put(contact, waiting);
+                mQueuedContacts.add(contact);
+            } else {
+                mergedCount++;
+            }
+            waiting.add(request);
+        }
+        mMergedRequestCount += mergedCount;
+        // Contacts that are already in flight may have received their capabilities already.
+        for (Uri contact : new ArrayList<>(request.pending)) {
+            Batch batch = mInFlightContacts.get(contact);
+            RcsContactUceCapability capability = batch != null ? batch.received.get(contact)
+                    : null;
+            if (capability != null) {
+                notifyCapabilities(request, List.of(capability));
+            }
+        }
+        long mergeWindowMs = mConfig.getMergeWindowMs();
+        if (mergeWindowMs <= 0 && !isFlushPending()
+                && getEarliestDispatchTimeMs() <= mClock.getElapsedRealtimeMs()) {
+            // Merging is disabled and the rate limit allows it, do not wait for the executor.
+            flush();
+        } else if (mQueuedContacts.size() >= mConfig.getMaxBatchSize()) {
+            scheduleFlush(0);
+        } else {
+            scheduleFlush(mergeWindowMs);
+        }
+        updateCounts();
+    }
+
+    /**
+     * Fail all queued and in flight requests, used when the UceController is no longer available.
+     * <p>
+     * Must be called on the executor.
+     */
+    public void clear() {
+        logi("clear: failing " + mWaitingCallers.size() + " contacts");
+        if (mPendingFlush != null) {
+            mPendingFlush.cancel(false);
+            mPendingFlush = null;
+        }
+        List<Uri> contacts = new ArrayList<>(mWaitingCallers.keySet());
+        for (Uri contact : contacts) {
+            failContact(contact, RcsUceAdapter.ERROR_NOT_AVAILABLE, 0L, null);
+        }
+        mQueuedContacts.clear();
+        mInFlightContacts.clear();
+        updateCounts();
+    }
+
+    /**
+     * Create a key for the contact that is the same for all of the URI forms the UceController
+     * may use for the same phone number: the tel URI and the sip/sips URI with the number as the
+     * user part. Other URIs are compared as is.
+     * @return The key of the contact, or {@code null} if the contact is {@code null}.
+     */
+    @VisibleForTesting
+    public static String getContactKey(Uri contact) {
+        if (contact == null) return null;
+        String scheme = contact.getScheme();
+        String part = contact.getSchemeSpecificPart();
+        if (scheme == null || part == null) return contact.toString();
+        String number = null;
+        switch (scheme.toLowerCase(Locale.ROOT)) {
+            case "tel":
+                number = part;
+                break;
+            case "sip":
+            case "sips": {
+                int hostIndex = part.indexOf('@');
+                if (hostIndex > 0) number = part.substring(0, hostIndex);
+                break;
+            }
+        }
+        if (number != null) {
+            int paramIndex = number.indexOf(';');
+            if (paramIndex >= 0) number = number.substring(0, paramIndex);
+            // Remove the visual separators allowed in a phone number.
+            number = number.replaceAll("[-.()\\s]", "");
+            if (number.matches("\\+?[0-9]+")) return "number:" + number;
+        }
+        return contact.toString();
+    }
+
+    private boolean isFlushPending() {
+        return mPendingFlush != null && !mPendingFlush.isDone();
+    }
+
+    /**
+     * @return The earliest time the next batch can be dispatched, taking the minimum dispatch
+     * interval and the time the network asked us to retry after into account.
+     */
+    private long getEarliestDispatchTimeMs() {
+        return Math.max(mRetryAfterTimeMs, mLastDispatchTimeMs < 0 ? 0
+                : mLastDispatchTimeMs + mConfig.getMinDispatchIntervalMs());
+    }
+
+    private void scheduleFlush(long delayMs) {
+        if (mQueuedContacts.isEmpty()) return;
+        long now = mClock.getElapsedRealtimeMs();
+        long delay = Math.max(delayMs, getEarliestDispatchTimeMs() - now);
+        if (isFlushPending()) {
+            // A flush is already pending, only bring it forward if needed.
+            if (mPendingFlush.getDelay(TimeUnit.MILLISECONDS) <= delay) return;
+            mPendingFlush.cancel(false);
+        }
+        mPendingFlush = mExecutor.schedule(this::flush, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        mPendingFlush = null;
+        if (mQueuedContacts.isEmpty()) return;
+        if (mClock.getElapsedRealtimeMs() < mRetryAfterTimeMs) {
+            // The network asked us to retry later after this flush was scheduled.
+            scheduleFlush(0);
+            return;
+        }
+        int batchSize = Math.max(1, mConfig.getMaxBatchSize());
+        List<Uri> contacts = new ArrayList<>(Math.min(batchSize, mQueuedContacts.size()));
+        Iterator<Uri> it = mQueuedContacts.iterator();
+        while (it.hasNext() && contacts.size() < batchSize) {
+            contacts.add(it.next());
+            it.remove();
+        }
+        Batch batch = new Batch(contacts);
+        for (Uri contact : contacts) {
+            mInFlightContacts.put(contact, batch);
+        }
+        mLastDispatchTimeMs = mClock.getElapsedRealtimeMs();
+        mDispatchedBatchCount++;
+        logi("flush: dispatching " + contacts.size() + " contacts, " + mQueuedContacts.size()
+                + " remaining");
+        updateCounts();
+        mDispatcher.dispatch(contacts, batch);
+        // Send the remaining contacts as soon as the rate limit allows.
+        scheduleFlush(0);
+    }
+
+    private void onBatchCapabilitiesReceived(Batch batch,
+            List<RcsContactUceCapability> capabilities) {
+        Map<CallerRequest, List<RcsContactUceCapability>> results = new HashMap<>();
+        for (RcsContactUceCapability capability : capabilities) {
+            Uri contact = batch.getRequestedContact(capability.getContactUri());
+            List<CallerRequest> waiting = contact != null ? mWaitingCallers.get(contact) : null;
+            if (waiting == null) {
+                // Never report a capability to callers that did not request the contact.
+                logw("onBatchCapabilitiesReceived: dropping capability for a contact that "
+                        + "was not requested in this batch");
+                mDroppedCapabilityCount++;
+                continue;
+            }
+            batch.received.put(contact, capability);
+            for (CallerRequest request : waiting) {
+                results.computeIfAbsent(request, r -> new ArrayList<>()).add(capability);
+            }
+        }
+        for (Map.Entry<CallerRequest, List<RcsContactUceCapability>> e : results.entrySet()) {
+            notifyCapabilities(e.getKey(), e.getValue());
+        }
+    }
+
+    private void onBatchComplete(Batch batch, SipDetails details) {
+        for (Uri contact : batch.contacts) {
+            if (mInFlightContacts.get(contact) != batch) continue;
+            mInFlightContacts.remove(contact);
+            List<CallerRequest> waiting = mWaitingCallers.remove(contact);
+            if (waiting == null) continue;
+            for (CallerRequest request : waiting) {
+                request.pending.remove(contact);
+                request.lastDetails = details;
+                if (request.pending.isEmpty()) {
+                    finishRequest(request);
+                }
+            }
+        }
+        updateCounts();
+    }
+
+    /**
+     * The batch failed. The callers waiting on the contacts of the batch are failed once all of
+     * their contacts have been processed, so they still receive the capabilities reported by the
+     * other batches their contacts were sent in.
+     */
+    private void onBatchError(Batch batch, int errorCode, long retryAfterMillis,
+            SipDetails details) {
+        logi("onBatchError: code=" + errorCode + ", retryAfterMs=" + retryAfterMillis);
+        if (retryAfterMillis > 0) {
+            mRetryAfterTimeMs = mClock.getElapsedRealtimeMs() + retryAfterMillis;
+        }
+        for (Uri contact : batch.contacts) {
+            if (mInFlightContacts.get(contact) != batch) continue;
+            mInFlightContacts.remove(contact);
+            List<CallerRequest> waiting = mWaitingCallers.remove(contact);
+            if (waiting == null) continue;
+            for (CallerRequest request : waiting) {
+                request.pending.remove(contact);
+                if (!request.hasError) {
+                    request.hasError = true;
+                    request.errorCode = errorCode;
+                    request.retryAfterMillis = retryAfterMillis;
+                    request.errorDetails = details;
+                }
+                if (request.pending.isEmpty()) {
+                    finishRequest(request);
+                }
+            }
+        }
+        updateCounts();
+    }
+
+    /**
+     * All of the contacts of the request have been processed, report the result to the caller.
+     */
+    private void finishRequest(CallerRequest request) {
+        if (request.hasError) {
+            notifyError(request, request.errorCode, request.retryAfterMillis,
+                    request.errorDetails);
+        } else {
+            notifyComplete(request);
+        }
+    }
+
+    /**
+     * Fail all callers waiting on the contact. A failed caller will not receive any further
+     * results, so it is removed from all other contacts it is waiting on as well.
+     */
+    private void failContact(Uri contact, int errorCode, long retryAfterMillis,
+            SipDetails details) {
+        mInFlightContacts.remove(contact);
+        List<CallerRequest> waiting = mWaitingCallers.remove(contact);
+        if (waiting == null) return;
+        for (CallerRequest request : waiting) {
+            if (request.isFinished) continue;
+            for (Uri other : request.pending) {
+                List<CallerRequest> otherWaiting = mWaitingCallers.get(other);
+                if (otherWaiting == null) continue;
+                otherWaiting.remove(request);
+                if (otherWaiting.isEmpty() && mQueuedContacts.remove(other)) {
+                    // Nobody else is waiting for this contact, no need to request it.
+                    mWaitingCallers.remove(other);
+                }
+            }
+            notifyError(request, errorCode, retryAfterMillis, details);
+        }
+    }
+
+    private void notifyCapabilities(CallerRequest request,
+            List<RcsContactUceCapability> capabilities) {
+        if (request.isFinished) return;
+        try {
+            request.callback.onCapabilitiesReceived(capabilities);
+        } catch (RemoteException e) {
+            logw("notifyCapabilities: callback is not available, " + e);
+        }
+    }
+
+    private void notifyError(CallerRequest request, int errorCode, long retryAfterMillis,
+            SipDetails details) {
+        if (request.isFinished) return;
+        request.isFinished = true;
+        try {
+            request.callback.onError(errorCode, retryAfterMillis, details);
+        } catch (RemoteException e) {
+            logw("notifyError: callback is not available, " + e);
+        }
+    }
+
+    private void notifyComplete(CallerRequest request) {
+        if (request.isFinished) return;
+        request.isFinished = true;
+        try {
+            request.callback.onComplete(request.lastDetails);
+        } catch (RemoteException e) {
+            logw("notifyComplete: callback is not available, " + e);
+        }
+    }
+
+    /**
+     * Update the counters read by dump, must be called on the executor after the queued or in
+     * flight contacts have changed.
+     */
+    private void updateCounts() {
+        mQueuedCount = mQueuedContacts.size();
+        mInFlightCount = mInFlightContacts.size();
+    }
+
+    /**
+     * Dump this instance into a readable format for dumpsys usage.
+     * <p>
+     * Only reads the counters that are safe to access from any thread.
+     */
+    public void dump(PrintWriter printWriter) {
+        IndentingPrintWriter pw = new IndentingPrintWriter(printWriter, "  ");
+        pw.println("UceRequestScheduler:");
+        pw.increaseIndent();
+        pw.println("queued=" + mQueuedCount + ", inFlight=" + mInFlightCount
+                + ", batchesDispatched=" + mDispatchedBatchCount + ", contactsMerged="
+                + mMergedRequestCount + ", capabilitiesDropped=" + mDroppedCapabilityCount);
+        pw.println("Most recent logs:");
+        pw.increaseIndent();
+        mLocalLog.dump(pw);
+        pw.decreaseIndent();
+        pw.decreaseIndent();
+    }
+
+    private void logi(String log) {
+        Log.i(LOG_TAG, "[" + mSlotId + "] " + log);
+        mLocalLog.log("[I] " + log);
+    }
+
+    private void logw(String log) {
+        Log.w(LOG_TAG, "[" + mSlotId + "] " + log);
+        mLocalLog.log("[W] " + log);
+    }
+}
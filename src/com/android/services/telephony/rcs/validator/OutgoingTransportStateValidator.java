@@ -23,12 +23,13 @@ import android.util.ArrayMap;
 import android.util.Log;
 
 import com.android.internal.telephony.SipMessageParsingUtils;
+import com.android.services.telephony.rcs.FeatureTagRegistry;
+import com.android.services.telephony.rcs.FeatureTagRegistry.FeatureTagSet;
 import com.android.services.telephony.rcs.SipDialog;
 import com.android.services.telephony.rcs.SipSessionTracker;
 import com.android.services.telephony.rcs.SipTransportController;
 
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Locale;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -63,11 +64,13 @@ public class OutgoingTransportStateValidator implements SipMessageValidator {
     }
 
     private final SipSessionTracker mSipSessionTracker;
+    private final FeatureTagRegistry mFeatureTagRegistry = FeatureTagRegistry.getInstance();
     private int mState = STATE_CLOSED;
     private int mReason = SipDelegateManager.MESSAGE_FAILURE_REASON_DELEGATE_CLOSED;
-    private Set<String> mAllowedTags = Collections.emptySet();
-    private Set<String> mDeniedTags = Collections.emptySet();
-    private Set<String> mRestrictedFeatureTags;
+    // The FeatureTagRegistry also takes care of reducing matching errors due to upper/lower case.
+    private FeatureTagSet mAllowedTags = mFeatureTagRegistry.createSet(null);
+    private FeatureTagSet mDeniedTags = mFeatureTagRegistry.createSet(null);
+    private FeatureTagSet mRestrictedFeatureTags;
 
     public OutgoingTransportStateValidator(SipSessionTracker sessionTracker) {
         mSipSessionTracker = sessionTracker;
@@ -80,11 +83,8 @@ public class OutgoingTransportStateValidator implements SipMessageValidator {
     public void open(Set<String> allowedFeatureTags, Set<String> deniedFeatureTags) {
         mState = STATE_OPEN;
         mReason = -1;
-        // This is for validation, so try to reduce matching errors due to upper/lower case.
-        mAllowedTags = allowedFeatureTags.stream().map(String::trim).map(String::toLowerCase)
-                .collect(Collectors.toSet());
-        mDeniedTags = deniedFeatureTags.stream().map(String::trim).map(String::toLowerCase)
-                .collect(Collectors.toSet());
+        mAllowedTags = mFeatureTagRegistry.createSet(allowedFeatureTags);
+        mDeniedTags = mFeatureTagRegistry.createSet(deniedFeatureTags);
         mRestrictedFeatureTags = null;
     }
 
@@ -95,9 +95,7 @@ public class OutgoingTransportStateValidator implements SipMessageValidator {
      *                              not have new dialogs associated with them.
      */
     public void restrictFeatureTags(Set<String> restrictedFeatureTags) {
-        // This is for validation, so try to reduce matching errors due to upper/lower case.
-        mRestrictedFeatureTags = restrictedFeatureTags.stream().map(String::trim)
-                .map(String::toLowerCase).collect(Collectors.toSet());
+        mRestrictedFeatureTags = mFeatureTagRegistry.createSet(restrictedFeatureTags);
     }
 
     /**
@@ -117,7 +115,7 @@ public class OutgoingTransportStateValidator implements SipMessageValidator {
     public void close(int reason) {
         mState = STATE_CLOSED;
         mReason = reason;
-        mAllowedTags = Collections.emptySet();
+        mAllowedTags = mFeatureTagRegistry.createSet(null);
     }
 
     @Override
@@ -146,8 +144,8 @@ public class OutgoingTransportStateValidator implements SipMessageValidator {
         return "Outgoing Transport State: " + ENUM_TO_STRING_MAP.getOrDefault(mState,
                 String.valueOf(mState)) + ", reason: "
                 + SipDelegateManager.MESSAGE_FAILURE_REASON_STRING_MAP.getOrDefault(mReason,
-                String.valueOf(mReason)) + ", allowed tags: " + mAllowedTags + ", restricted tags: "
-                + mRestrictedFeatureTags + ", denied tags: " + mDeniedTags;
+                String.valueOf(mReason)) + ", allowed tags: " + mAllowedTags
+                + ", restricted tags: " + mRestrictedFeatureTags + ", denied tags: " + mDeniedTags;
     }
 
     private ValidationResult verifyOpenMessage(SipMessage m) {
@@ -184,29 +182,20 @@ public class OutgoingTransportStateValidator implements SipMessageValidator {
     private ValidationResult validateMessageFeatureTag(SipMessage m) {
         Set<String> featureTags = SipMessageParsingUtils.getAcceptContactFeatureTags(
                 m.getHeaderSection());
-        // Get rid of potential formatting issues first.
-        featureTags = featureTags.stream().map(String::toLowerCase).map(String::trim)
-                .collect(Collectors.toSet());
-        long acceptedFeatureTagCount = featureTags.stream()
-                .filter(f -> mAllowedTags.contains(f)).count();
-        long deniedFeatureTagCount = featureTags.stream()
-                .filter(f -> mDeniedTags.contains(f)).count();
-        long restrictedFeatureTagCount = featureTags.stream()
-                .filter(f -> mRestrictedFeatureTags.contains(f)).count();
         // we should not have any feature tags that are denied/restricted and there should be at
         // least one accepted tag
-        if (deniedFeatureTagCount > 0) {
+        if (mDeniedTags.containsAny(featureTags)) {
             return new ValidationResult(
                     SipDelegateManager.MESSAGE_FAILURE_REASON_INVALID_FEATURE_TAG,
                     "contains denied tags in Accept-Contact: " + featureTags);
         }
-        if (restrictedFeatureTagCount > 0) {
+        if (mRestrictedFeatureTags.containsAny(featureTags)) {
             return new ValidationResult(
                     SipDelegateManager.MESSAGE_FAILURE_REASON_INVALID_FEATURE_TAG,
                     "contains restricted tags in Accept-Contact: " + featureTags);
         }
 
-        if (acceptedFeatureTagCount == 0) {
+        if (!mAllowedTags.containsAny(featureTags)) {
             return new ValidationResult(
                     SipDelegateManager.MESSAGE_FAILURE_REASON_INVALID_FEATURE_TAG,
                     "No Accept-Contact feature tags are in accepted feature tag list: "
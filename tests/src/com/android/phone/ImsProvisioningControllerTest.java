@@ -36,6 +36,8 @@ import static android.telephony.ims.stub.ImsRegistrationImplBase.REGISTRATION_TE
 import static android.telephony.ims.stub.ImsRegistrationImplBase.REGISTRATION_TECH_NR;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyInt;
@@ -59,6 +61,7 @@ import android.os.Looper;
 import android.os.PersistableBundle;
 import android.telephony.CarrierConfigManager;
 import android.telephony.SubscriptionManager;
+import android.telephony.TelephonyManager;
 import android.telephony.TelephonyRegistryManager;
 import android.telephony.ims.ProvisioningManager;
 import android.telephony.ims.aidl.IFeatureProvisioningCallback;
@@ -87,6 +90,9 @@ import org.mockito.MockitoAnnotations;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Unit tests for ImsProvisioningContorller
  */
@@ -169,6 +175,7 @@ public class ImsProvisioningControllerTest {
     IBinder mIbinder1;
 
     private SubscriptionManager.OnSubscriptionsChangedListener mSubChangedListener;
+    private CarrierConfigManager.CarrierConfigChangeListener mCarrierConfigChangeListener;
 
     private Handler mHandler;
     private HandlerThread mHandlerThread;
@@ -236,6 +243,10 @@ public class ImsProvisioningControllerTest {
                 .thenReturn(mPersistableBundle0);
         when(mCarrierConfigManager.getConfigForSubId(eq(mSubId1)))
                 .thenReturn(mPersistableBundle1);
+        doAnswer(invocation -> {
+            mCarrierConfigChangeListener = invocation.getArgument(1);
+            return null;
+        }).when(mCarrierConfigManager).registerCarrierConfigChangeListener(any(), any());
 
         when(mPhone.getSystemServiceName(eq(SubscriptionManager.class)))
                 .thenReturn(Context.TELEPHONY_SUBSCRIPTION_SERVICE);
@@ -315,6 +326,38 @@ public class ImsProvisioningControllerTest {
         }
     }
 
+    @Test
+    @SmallTest
+    public void isProvisioningRequired_answeredFromMatrix() throws Exception {
+        createImsProvisioningController();
+
+        setCarrierConfig(mSubId0, CarrierConfigManager.Ims.KEY_CAPABILITY_TYPE_VOICE_INT_ARRAY,
+                REGISTRATION_TECH_LTE);
+        clearInvocations(mCarrierConfigManager);
+
+        assertTrue(mTestImsProvisioningController.isImsProvisioningRequiredForCapability(
+                mSubId0, CAPABILITY_TYPE_VOICE, REGISTRATION_TECH_LTE));
+        assertFalse(mTestImsProvisioningController.isImsProvisioningRequiredForCapability(
+                mSubId0, CAPABILITY_TYPE_VOICE, REGISTRATION_TECH_IWLAN));
+        assertFalse(mTestImsProvisioningController.isImsProvisioningRequiredForCapability(
+                mSubId0, CAPABILITY_TYPE_VIDEO, REGISTRATION_TECH_LTE));
+        // The carrier config is only read once to build the matrix.
+        verify(mCarrierConfigManager, times(1)).getConfigForSubId(eq(mSubId0));
+
+        // The matrix is rebuilt when the carrier config changes.
+        setDeprecatedCarrierConfig(
+                CarrierConfigManager.KEY_CARRIER_VOLTE_PROVISIONING_REQUIRED_BOOL, true);
+        assertTrue(mTestImsProvisioningController.isImsProvisioningRequiredForCapability(
+                mSubId0, CAPABILITY_TYPE_VIDEO, REGISTRATION_TECH_LTE));
+        verify(mCarrierConfigManager, times(2)).getConfigForSubId(eq(mSubId0));
+
+        // A carrier config change of another subscription does not rebuild the matrix.
+        notifyCarrierConfigChanged(mSubId1);
+        assertTrue(mTestImsProvisioningController.isImsProvisioningRequiredForCapability(
+                mSubId0, CAPABILITY_TYPE_VIDEO, REGISTRATION_TECH_LTE));
+        verify(mCarrierConfigManager, times(2)).getConfigForSubId(eq(mSubId0));
+    }
+
     @Test
     @SmallTest
     public void connectionReady_MmTelFeatureListener() throws Exception {
@@ -845,8 +888,7 @@ public class ImsProvisioningControllerTest {
         verify(mImsConfig, times(1)).getConfigInt(eq(KEY_EAB_PROVISIONING_STATUS));
 
         // verify whether ImsProvisioningLoader is called or not
-        verify(mImsProvisioningLoader, times(RADIO_TECHS.length)).setProvisioningStatus(
-                eq(mSubId0), eq(FEATURE_RCS), eq(capability), anyInt(), eq(provisioned));
+        verifyRcsProvisioningStatusesForAllTech(capability, provisioned);
 
         verifyNoMoreInteractions(mImsConfig);
         verifyNoMoreInteractions(mImsProvisioningLoader);
@@ -931,6 +973,119 @@ public class ImsProvisioningControllerTest {
         verifyNoMoreInteractions(mImsProvisioningLoader);
     }
 
+    @Test
+    @SmallTest
+    public void setProvisioningStatusForCapabilities_batched() throws Exception {
+        createImsProvisioningController();
+
+        mMmTelConnectorListener0.getValue().connectionReady(mImsManager, mSubId0);
+        processAllMessages();
+
+        // register callbacks
+        mTestImsProvisioningController.addFeatureProvisioningChangedCallback(
+                mSubId0, mIFeatureProvisioningCallback0);
+
+        clearInvocations(mIFeatureProvisioningCallback0);
+        clearInvocations(mImsConfig);
+        clearInvocations(mImsProvisioningLoader);
+
+        // provisioning required capability
+        // voice, all tech
+        setCarrierConfig(mSubId0, CarrierConfigManager.Ims.KEY_CAPABILITY_TYPE_VOICE_INT_ARRAY,
+                RADIO_TECHS);
+        // every status is changed
+        when(mImsProvisioningLoader.setProvisioningStatuses(eq(mSubId0), any()))
+                .thenAnswer(invocation -> invocation.getArgument(1));
+
+        List<ImsProvisioningLoader.ProvisioningStatus> statuses = new ArrayList<>();
+        for (int tech : RADIO_TECHS) {
+            statuses.add(new ImsProvisioningLoader.ProvisioningStatus(
+                    FEATURE_MMTEL, CAPABILITY_TYPE_VOICE, tech, true));
+        }
+        // not required, ignored
+        statuses.add(new ImsProvisioningLoader.ProvisioningStatus(
+                FEATURE_MMTEL, CAPABILITY_TYPE_VIDEO, REGISTRATION_TECH_LTE, true));
+        mTestImsProvisioningController.setProvisioningStatusForCapabilities(mSubId0, statuses);
+        processAllMessages();
+
+        // verify all of the statuses are written at once
+        verify(mImsProvisioningLoader, times(1)).setProvisioningStatuses(eq(mSubId0),
+                eq(statuses.subList(0, RADIO_TECHS.length)));
+
+        // verify whether Callback is called for each change
+        for (int tech : RADIO_TECHS) {
+            verify(mIFeatureProvisioningCallback0, times(1))
+                    .onFeatureProvisioningChanged(eq(CAPABILITY_TYPE_VOICE), eq(tech), eq(true));
+        }
+
+        // verify only the keys matching a changed capability are set to ImsConfig, once each
+        verify(mImsConfig, times(1)).setConfig(
+                eq(KEY_VOLTE_PROVISIONING_STATUS), eq(PROVISIONING_VALUE_ENABLED));
+        verify(mImsConfig, times(1)).setConfig(
+                eq(KEY_VOICE_OVER_WIFI_ENABLED_OVERRIDE), eq(PROVISIONING_VALUE_ENABLED));
+
+        verifyNoMoreInteractions(mIFeatureProvisioningCallback0);
+        verifyNoMoreInteractions(mImsConfig);
+        verifyNoMoreInteractions(mImsProvisioningLoader);
+    }
+
+    @Test
+    @SmallTest
+    public void setProvisioningStatusForCapabilities_batchedRcs() throws Exception {
+        createImsProvisioningController();
+
+        mMmTelConnectorListener0.getValue().connectionReady(mImsManager, mSubId0);
+        mRcsConnectorListener0.getValue().connectionReady(mRcsFeatureManager, mSubId0);
+        processAllMessages();
+
+        // register callbacks
+        mTestImsProvisioningController.addFeatureProvisioningChangedCallback(
+                mSubId0, mIFeatureProvisioningCallback0);
+
+        clearInvocations(mIFeatureProvisioningCallback0);
+        clearInvocations(mImsConfig);
+        clearInvocations(mImsProvisioningLoader);
+
+        // provisioning required capability
+        // presence, all tech
+        setCarrierConfig(mSubId0,
+                CarrierConfigManager.Ims.KEY_CAPABILITY_TYPE_PRESENCE_UCE_INT_ARRAY, RADIO_TECHS);
+
+        // provisioning Status, only NR is already provisioned
+        mRcsProvisioningStorage = new int[][] {
+                {CAPABILITY_TYPE_PRESENCE_UCE, REGISTRATION_TECH_LTE, 0},
+                {CAPABILITY_TYPE_PRESENCE_UCE, REGISTRATION_TECH_IWLAN, 0},
+                {CAPABILITY_TYPE_PRESENCE_UCE, REGISTRATION_TECH_CROSS_SIM, 0},
+                {CAPABILITY_TYPE_PRESENCE_UCE, REGISTRATION_TECH_NR, 1}
+        };
+
+        List<ImsProvisioningLoader.ProvisioningStatus> statuses = new ArrayList<>();
+        for (int tech : RADIO_TECHS) {
+            statuses.add(new ImsProvisioningLoader.ProvisioningStatus(
+                    FEATURE_RCS, CAPABILITY_TYPE_PRESENCE_UCE, tech, true));
+        }
+        mTestImsProvisioningController.setProvisioningStatusForCapabilities(mSubId0, statuses);
+        processAllMessages();
+
+        // verify all of the statuses are written at once
+        verifyRcsProvisioningStatusesForAllTech(CAPABILITY_TYPE_PRESENCE_UCE, true);
+
+        // verify whether Callback is called only for the changed techs
+        for (int tech : new int[] {REGISTRATION_TECH_LTE, REGISTRATION_TECH_IWLAN,
+                REGISTRATION_TECH_CROSS_SIM}) {
+            verify(mIFeatureProvisioningCallback0, times(1)).onRcsFeatureProvisioningChanged(
+                    eq(CAPABILITY_TYPE_PRESENCE_UCE), eq(tech), eq(true));
+        }
+
+        // verify EAB provisioning status is set once to both the Rcs and MmTel ImsService
+        verify(mImsConfig, times(2)).setConfig(
+                eq(KEY_EAB_PROVISIONING_STATUS), eq(PROVISIONING_VALUE_ENABLED));
+
+        verifyNoMoreInteractions(mIFeatureProvisioningCallback0);
+        verifyNoMoreInteractions(mImsConfig);
+        verifyNoMoreInteractions(mImsProvisioningLoader);
+    }
+
     @Test
     @SmallTest
     public void setImsProvisioningRequiredForCapability_withVideo() throws Exception {
@@ -1228,8 +1383,7 @@ public class ImsProvisioningControllerTest {
         assertEquals(ImsConfig.OperationStatusConstants.SUCCESS, result);
 
         // check to save, for all techs 4 times
-        verify(mImsProvisioningLoader, times(RADIO_TECHS.length)).setProvisioningStatus(
-                eq(mSubId0), eq(FEATURE_RCS), eq(capa), anyInt(), eq(true));
+        verifyRcsProvisioningStatusesForAllTech(capa, true);
 
         verify(mIFeatureProvisioningCallback0, times(RADIO_TECHS.length))
                 .onRcsFeatureProvisioningChanged(eq(capa), anyInt(), eq(true));
@@ -1496,8 +1650,7 @@ public class ImsProvisioningControllerTest {
         verify(mImsConfig, times(1)).getConfigInt(eq(key));
 
         // verify whether ImsProvisioningLoader is called or not
-        verify(mImsProvisioningLoader, times(RADIO_TECHS.length)).setProvisioningStatus(
-                eq(mSubId0), eq(FEATURE_RCS), eq(capa), anyInt(), eq(true));
+        verifyRcsProvisioningStatusesForAllTech(capa, true);
 
         // verify whether callback is called or not
         verify(mIFeatureProvisioningCallback0, times(RADIO_TECHS.length))
@@ -1660,8 +1813,7 @@ public class ImsProvisioningControllerTest {
                 eq(KEY_EAB_PROVISIONING_STATUS));
 
         // verify whether ImsProvisioningLoader is called or not
-        verify(mImsProvisioningLoader, times(RADIO_TECHS.length)).setProvisioningStatus(
-                eq(mSubId0), eq(FEATURE_RCS), eq(capa), anyInt(), eq(true));
+        verifyRcsProvisioningStatusesForAllTech(capa, true);
 
         verifyNoMoreInteractions(mImsConfig);
         verifyNoMoreInteractions(mImsProvisioningLoader);
@@ -1674,8 +1826,7 @@ public class ImsProvisioningControllerTest {
         processAllMessages();
 
         // verify whether ImsProvisioningLoader is called or not
-        verify(mImsProvisioningLoader, times(RADIO_TECHS.length)).setProvisioningStatus(
-                eq(mSubId0), eq(FEATURE_RCS), eq(capa), anyInt(), eq(false));
+        verifyRcsProvisioningStatusesForAllTech(capa, false);
 
         // even if ImsConfig is not available in RcsFeatureListener, ImsConfig in
         // MmTelFeatureListener will be called.
@@ -1718,8 +1869,7 @@ public class ImsProvisioningControllerTest {
                 eq(KEY_EAB_PROVISIONING_STATUS));
 
         // verify whether ImsProvisioningLoader is called or not
-        verify(mImsProvisioningLoader, times(RADIO_TECHS.length)).setProvisioningStatus(
-                eq(mSubId0), eq(FEATURE_RCS), eq(capa), anyInt(), eq(true));
+        verifyRcsProvisioningStatusesForAllTech(capa, true);
 
         verifyNoMoreInteractions(mImsConfig);
         verifyNoMoreInteractions(mImsProvisioningLoader);
@@ -1835,9 +1985,7 @@ public class ImsProvisioningControllerTest {
         processAllMessages();
 
         // verify # of read data times from storage : # of MmTel storage length
-        verify(mImsProvisioningLoader, times(RADIO_TECHS.length))
-                .setProvisioningStatus(eq(mSubId0), eq(FEATURE_RCS),
-                        eq(CAPABILITY_TYPE_PRESENCE_UCE), anyInt(), eq(false));
+        verifyRcsProvisioningStatusesForAllTech(CAPABILITY_TYPE_PRESENCE_UCE, false);
 
         verify(mIFeatureProvisioningCallback0, times(RADIO_TECHS.length))
                 .onRcsFeatureProvisioningChanged(eq(CAPABILITY_TYPE_PRESENCE_UCE), anyInt(),
@@ -1915,6 +2063,23 @@ public class ImsProvisioningControllerTest {
                     return setRcsProvisionedValue(i, j, k);
                 });
 
+        when(mImsProvisioningLoader.setProvisioningStatuses(anyInt(), any()))
+                .thenAnswer(invocation -> {
+                    List<ImsProvisioningLoader.ProvisioningStatus> statuses =
+                            invocation.getArgument(1);
+                    List<ImsProvisioningLoader.ProvisioningStatus> changed = new ArrayList<>();
+                    for (ImsProvisioningLoader.ProvisioningStatus status : statuses) {
+                        int k = status.mIsProvisioned ? 1 : 0;
+                        boolean isChanged = status.mImsFeature == FEATURE_MMTEL
+                                ? setProvisionedValue(status.mCapability, status.mTech, k)
+                                : setRcsProvisionedValue(status.mCapability, status.mTech, k);
+                        if (isChanged) {
+                            changed.add(status);
+                        }
+                    }
+                    return changed;
+                });
+
         when(mIFeatureProvisioningCallback0.asBinder()).thenReturn(mIbinder0);
         when(mIFeatureProvisioningCallback1.asBinder()).thenReturn(mIbinder1);
 
@@ -2015,10 +2180,20 @@ public class ImsProvisioningControllerTest {
         }
 
         requiredBundle.putIntArray(capabilityKey, techs);
+        notifyCarrierConfigChanged(subId);
     }
 
     private void setDeprecatedCarrierConfig(String key, boolean value) {
         mPersistableBundle0.putBoolean(key, value);
+        notifyCarrierConfigChanged(mSubId0);
+    }
+
+    private void notifyCarrierConfigChanged(int subId) {
+        // The listener is only registered once the controller has been created.
+        if (mCarrierConfigChangeListener != null) {
+            mCarrierConfigChangeListener.onCarrierConfigChanged(subId == mSubId1 ? 1 : 0, subId,
+                    TelephonyManager.UNKNOWN_CARRIER_ID, TelephonyManager.UNKNOWN_CARRIER_ID);
+        }
     }
 
     private int getProvisionedValue(int i, int j) {
@@ -2067,6 +2242,23 @@ public class ImsProvisioningControllerTest {
         return retVal;
     }
 
+    private void verifyRcsProvisioningStatusesForAllTech(int capability, boolean isProvisioned) {
+        ArgumentCaptor<List<ImsProvisioningLoader.ProvisioningStatus>> captor =
+                ArgumentCaptor.forClass(List.class);
+        verify(mImsProvisioningLoader, times(1)).setProvisioningStatuses(
+                eq(mSubId0), captor.capture());
+
+        List<ImsProvisioningLoader.ProvisioningStatus> statuses = captor.getValue();
+        assertEquals(RADIO_TECHS.length, statuses.size());
+        for (int i = 0; i < RADIO_TECHS.length; i++) {
+            ImsProvisioningLoader.ProvisioningStatus status = statuses.get(i);
+            assertEquals(FEATURE_RCS, status.mImsFeature);
+            assertEquals(capability, status.mCapability);
+            assertEquals(RADIO_TECHS[i], status.mTech);
+            assertEquals(isProvisioned, status.mIsProvisioned);
+        }
+    }
+
     private int getImsConfigValue(int i) {
         for (int[] data : mImsConfigStorage) {
             if (data[0] == i) {
@@ -43,6 +43,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Unit Test for ImsProvisioningLoader.
@@ -170,6 +172,54 @@ public class ImsProvisioningLoaderTest {
         assertEquals(getXmlContents(SUB_ID_2), getInt(!prevValue), curValue);
     }
 
+    @Test
+    @SmallTest
+    public void testSetProvisioningStatuses() {
+        // Set MMTEL LTE VOICE to STATUS_PROVISIONED
+        String[] info =
+                new String[]{IMS_FEATURE_MMTEL + "," + TECH_LTE + "," + CAPA_VOICE + "," + getInt(
+                        true)};
+        mImsProvisioningLoader.setProvisioningToXml(SUB_ID_1, new PersistableBundle(), info);
+
+        ImsProvisioningLoader.ProvisioningStatus unchanged =
+                new ImsProvisioningLoader.ProvisioningStatus(
+                        IMS_FEATURE_MMTEL, CAPA_VOICE, TECH_LTE, true);
+        ImsProvisioningLoader.ProvisioningStatus video =
+                new ImsProvisioningLoader.ProvisioningStatus(
+                        IMS_FEATURE_MMTEL, CAPA_VIDEO, TECH_LTE, true);
+        ImsProvisioningLoader.ProvisioningStatus presence =
+                new ImsProvisioningLoader.ProvisioningStatus(
+                        IMS_FEATURE_RCS, CAPA_PRESENCE, TECH_IWLAN, false);
+        List<ImsProvisioningLoader.ProvisioningStatus> changed =
+                mImsProvisioningLoader.setProvisioningStatuses(SUB_ID_1,
+                        Arrays.asList(unchanged, video, presence));
+
+        // Only the statuses that differ from the stored ones are returned
+        assertEquals(getXmlContents(SUB_ID_1), Arrays.asList(video, presence), changed);
+        assertEquals(getXmlContents(SUB_ID_1), getInt(true),
+                mImsProvisioningLoader.getProvisioningStatus(SUB_ID_1, IMS_FEATURE_MMTEL,
+                        CAPA_VOICE, TECH_LTE));
+        assertEquals(getXmlContents(SUB_ID_1), getInt(true),
+                mImsProvisioningLoader.getProvisioningStatus(SUB_ID_1, IMS_FEATURE_MMTEL,
+                        CAPA_VIDEO, TECH_LTE));
+        assertEquals(getXmlContents(SUB_ID_1), getInt(false),
+                mImsProvisioningLoader.getProvisioningStatus(SUB_ID_1, IMS_FEATURE_RCS,
+                        CAPA_PRESENCE, TECH_IWLAN));
+
+        // The statuses are saved to the xml, check they are loaded by a new loader
+        ImsProvisioningLoader loader = new ImsProvisioningLoader(mContext);
+        assertEquals(getXmlContents(SUB_ID_1), getInt(true),
+                loader.getProvisioningStatus(SUB_ID_1, IMS_FEATURE_MMTEL, CAPA_VIDEO, TECH_LTE));
+        assertEquals(getXmlContents(SUB_ID_1), getInt(false),
+                loader.getProvisioningStatus(SUB_ID_1, IMS_FEATURE_RCS, CAPA_PRESENCE,
+                        TECH_IWLAN));
+
+        // If set to the same provisioning statuses, nothing is changed
+        changed = mImsProvisioningLoader.setProvisioningStatuses(SUB_ID_1,
+                Arrays.asList(unchanged, video, presence));
+        assertEquals(getXmlContents(SUB_ID_1), 0, changed.size());
+    }
+
     @Test
     @SmallTest
     public void testGetProvisioningStatus_UtProvisioningStatusIsExistInPref() {
@@ -27,6 +27,7 @@ import static com.android.ims.FeatureConnector.UNAVAILABLE_REASON_DISCONNECTED;
 import static com.android.ims.FeatureConnector.UNAVAILABLE_REASON_IMS_UNSUPPORTED;
 import static com.android.ims.FeatureConnector.UNAVAILABLE_REASON_NOT_READY;
 
+import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertNull;
@@ -37,6 +38,7 @@ import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -71,6 +73,8 @@ import org.mockito.MockitoAnnotations;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.concurrent.Executor;
 
 /**
@@ -128,6 +132,46 @@ public class ImsStateCallbackControllerTest extends TelephonyTestBase {
         }
     };
 
+    /**
+     * A fan-out executor that holds the tasks until the test runs them.
+     */
+    private static class QueuedExecutor implements Executor {
+        private final ArrayList<Runnable> mTasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable r) {
+            mTasks.add(r);
+        }
+
+        int size() {
+            return mTasks.size();
+        }
+
+        void runAll() {
+            while (!mTasks.isEmpty()) {
+                mTasks.remove(0).run();
+            }
+        }
+    }
+
+    /**
+     * Records the states delivered to a client, {@link #AVAILABLE} for onAvailable.
+     */
+    private static class RecordingCallback extends IImsStateCallback.Stub {
+        static final int AVAILABLE = -1;
+        final ArrayList<Integer> mStates = new ArrayList<>();
+
+        @Override
+        public void onAvailable() {
+            mStates.add(AVAILABLE);
+        }
+
+        @Override
+        public void onUnavailable(int reason) {
+            mStates.add(reason);
+        }
+    }
+
     @Before
     public void setUp() throws Exception {
         MockitoAnnotations.initMocks(this);
@@ -208,6 +252,129 @@ public class ImsStateCallbackControllerTest extends TelephonyTestBase {
         assertFalse(mImsStateCallbackController.isRegistered(mCallback0));
     }
 
+    @Test
+    @SmallTest
+    public void testDeadCallbackRemoved() throws Exception {
+        createController(1);
+
+        mImsStateCallbackController
+                .registerImsStateCallback(SLOT_0_SUB_ID, FEATURE_MMTEL, mCallback0, "callback0");
+        processAllMessages();
+        assertTrue(mImsStateCallbackController.isRegistered(mCallback0));
+
+        // The callback is removed as soon as the client dies, without a delivery failing.
+        ArgumentCaptor<IBinder.DeathRecipient> recipient =
+                ArgumentCaptor.forClass(IBinder.DeathRecipient.class);
+        verify(mBinder0).linkToDeath(recipient.capture(), anyInt());
+        recipient.getValue().binderDied();
+        processAllMessages();
+        assertFalse(mImsStateCallbackController.isRegistered(mCallback0));
+    }
+
+    @Test
+    @SmallTest
+    public void testCallbacksFannedOutPerClient() throws Exception {
+        QueuedExecutor executor = new QueuedExecutor();
+        createController(1, executor);
+
+        mImsStateCallbackController
+                .registerImsStateCallback(SLOT_0_SUB_ID, FEATURE_MMTEL, mCallback0, "callback0");
+        mImsStateCallbackController
+                .registerImsStateCallback(SLOT_0_SUB_ID, FEATURE_MMTEL, mCallback1, "callback1");
+        processAllMessages();
+
+        // Nothing is delivered on the handler, each client has its own delivery task.
+        verify(mCallback0, never()).onUnavailable(anyInt());
+        verify(mCallback1, never()).onUnavailable(anyInt());
+        assertEquals(2, executor.size());
+
+        executor.runAll();
+        verify(mCallback0).onUnavailable(REASON_IMS_SERVICE_DISCONNECTED);
+        verify(mCallback1).onUnavailable(REASON_IMS_SERVICE_DISCONNECTED);
+    }
+
+    @Test
+    @SmallTest
+    public void testCallbacksDeliveredInOrderPerClient() throws Exception {
+        QueuedExecutor executor = new QueuedExecutor();
+        createController(1, executor);
+
+        RecordingCallback callback = new RecordingCallback();
+        mImsStateCallbackController
+                .registerImsStateCallback(SLOT_0_SUB_ID, FEATURE_MMTEL, callback, "callback");
+        processAllMessages();
+        mMmTelConnectorListenerSlot0.getValue().connectionReady(null, SLOT_0_SUB_ID);
+        processAllMessages();
+        mMmTelConnectorListenerSlot0.getValue()
+                .connectionUnavailable(UNAVAILABLE_REASON_NOT_READY);
+        processAllMessages();
+
+        // The deliveries to one client are serialized in a single task.
+        assertEquals(1, executor.size());
+        executor.runAll();
+        assertEquals(Arrays.asList(REASON_IMS_SERVICE_DISCONNECTED, RecordingCallback.AVAILABLE,
+                REASON_IMS_SERVICE_NOT_READY), callback.mStates);
+    }
+
+    @Test
+    @SmallTest
+    public void testStuckClientReceivesLatestState() throws Exception {
+        QueuedExecutor executor = new QueuedExecutor();
+        createController(1, executor);
+
+        RecordingCallback callback = new RecordingCallback();
+        mImsStateCallbackController
+                .registerImsStateCallback(SLOT_0_SUB_ID, FEATURE_MMTEL, callback, "callback");
+        processAllMessages();
+
+        // The client does not receive any of these state changes before more than the
+        // maximum number of pending deliveries has piled up.
+        for (int i = 0; i < 40; i++) {
+            mMmTelConnectorListenerSlot0.getValue().connectionReady(null, SLOT_0_SUB_ID);
+            processAllMessages();
+            mMmTelConnectorListenerSlot0.getValue()
+                    .connectionUnavailable(UNAVAILABLE_REASON_NOT_READY);
+            processAllMessages();
+        }
+        executor.runAll();
+
+        // The client is kept and ends up with the latest state.
+        assertTrue(mImsStateCallbackController.isRegistered(callback));
+        // Without dropping the undelivered states, 81 callbacks would have been delivered.
+        assertTrue(callback.mStates.size() <= 32);
+        assertEquals(REASON_IMS_SERVICE_NOT_READY,
+                (int) callback.mStates.get(callback.mStates.size() - 1));
+
+        // Later state changes are still delivered.
+        callback.mStates.clear();
+        mMmTelConnectorListenerSlot0.getValue().connectionReady(null, SLOT_0_SUB_ID);
+        processAllMessages();
+        executor.runAll();
+        assertEquals(Arrays.asList(RecordingCallback.AVAILABLE), callback.mStates);
+    }
+
+    @Test
+    @SmallTest
+    public void testDeadClientPrunedWithPendingDeliveries() throws Exception {
+        QueuedExecutor executor = new QueuedExecutor();
+        createController(1, executor);
+
+        mImsStateCallbackController
+                .registerImsStateCallback(SLOT_0_SUB_ID, FEATURE_MMTEL, mCallback0, "callback0");
+        processAllMessages();
+        ArgumentCaptor<IBinder.DeathRecipient> recipient =
+                ArgumentCaptor.forClass(IBinder.DeathRecipient.class);
+        verify(mBinder0).linkToDeath(recipient.capture(), anyInt());
+
+        // The client dies before its pending callback is delivered.
+        recipient.getValue().binderDied();
+        processAllMessages();
+        executor.runAll();
+
+        assertFalse(mImsStateCallbackController.isRegistered(mCallback0));
+        verify(mCallback0, never()).onUnavailable(anyInt());
+    }
+
     @Test
     @SmallTest
     public void testMmTelConnectionUnavailable() throws Exception {
@@ -907,7 +1074,33 @@ public class ImsStateCallbackControllerTest extends TelephonyTestBase {
         assertNull(imsManager);
     }
 
+    @Test
+    @SmallTest
+    public void testImsManagerEvictedOnSubscriptionSwap() throws Exception {
+        createController(1);
+
+        mMmTelConnectorListenerSlot0.getValue()
+                .connectionReady(mMmTelFeatureManager, SLOT_0_SUB_ID);
+        processAllMessages();
+        assertNotNull(mImsStateCallbackController.getImsManager(SLOT_0_SUB_ID));
+
+        // Another subscription becomes active on the same slot.
+        when(mPhoneSlot0.getSubId()).thenReturn(SLOT_1_SUB_ID);
+        mImsStateCallbackController.onSubChanged();
+        processAllMessages();
+        assertNull(mImsStateCallbackController.getImsManager(SLOT_0_SUB_ID));
+        assertNull(mImsStateCallbackController.getImsManager(SLOT_1_SUB_ID));
+    }
+
     private void createController(int slotCount) throws Exception {
+        createController(slotCount, null);
+    }
+
+    /**
+     * @param fanoutExecutor The executor used to deliver callbacks to clients, or {@code null} to
+     *        deliver them synchronously on the handler.
+     */
+    private void createController(int slotCount, Executor fanoutExecutor) throws Exception {
         if (Looper.myLooper() == null) {
             Looper.prepare();
         }
@@ -926,9 +1119,16 @@ public class ImsStateCallbackControllerTest extends TelephonyTestBase {
                 .create(any(), eq(1), mRcsConnectorListenerSlot1.capture(), any(), any()))
                 .thenReturn(mRcsFeatureConnectorSlot1);
 
-        mImsStateCallbackController =
-                new ImsStateCallbackController(mPhone, mHandlerThread.getLooper(),
-                        slotCount, mMmTelFeatureFactory, mRcsFeatureFactory, mImsResolver);
+        if (fanoutExecutor == null) {
+            mImsStateCallbackController =
+                    new ImsStateCallbackController(mPhone, mHandlerThread.getLooper(),
+                            slotCount, mMmTelFeatureFactory, mRcsFeatureFactory, mImsResolver);
+        } else {
+            mImsStateCallbackController =
+                    new ImsStateCallbackController(mPhone, mHandlerThread.getLooper(),
+                            slotCount, mMmTelFeatureFactory, mRcsFeatureFactory, mImsResolver,
+                            fanoutExecutor);
+        }
 
         replaceInstance(ImsStateCallbackController.class,
                 "mPhoneFactoryProxy", mImsStateCallbackController, mPhoneFactoryProxy);
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.telephony.ims.RcsConfig;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+import java.util.Set;
+
+@RunWith(AndroidJUnit4.class)
+public class RcsConfigIndexTest {
+    private static final String CONFIG_NESTED = "<?xml version=\"1.0\"?>\n"
+            + "<wap-provisioningdoc version=\"1.1\">\n"
+            + "\t<characteristic type=\"APPLICATION\">\n"
+            + "\t\t<parm name=\"AppID\" value=\"urn:oma:mo:ext-3gpp-ims:1.0\"/>\n"
+            + "\t\t<characteristic type=\"SERVICES\">\n"
+            + "\t\t\t<parm name=\"ChatAuth\" value=\"1\"/>\n"
+            + "\t\t\t<characteristic type=\"Ext\">\n"
+            + "\t\t\t\t<characteristic type=\"DataOff\">\n"
+            + "\t\t\t\t\t<parm name=\"rcsMessagingDataOff\" value=\"1\"/>\n"
+            + "\t\t\t\t</characteristic>\n"
+            + "\t\t\t</characteristic>\n"
+            + "\t\t\t<characteristic type=\"Ext\">\n"
+            + "\t\t\t\t<parm name=\"rcsMessagingDataOff\" value=\"1\"/>\n"
+            + "\t\t\t</characteristic>\n"
+            + "\t\t</characteristic>\n"
+            + "\t</characteristic>\n"
+            + "</wap-provisioningdoc>\n";
+
+    private static final String CONFIG_DUPLICATE_PARMS = "<?xml version=\"1.0\"?>\n"
+            + "<wap-provisioningdoc version=\"1.1\">\n"
+            + "\t<characteristic type=\"APPLICATION\">\n"
+            + "\t\t<parm name=\"AppID\" value=\"ap2001\"/>\n"
+            + "\t\t<parm name=\"AppID\" value=\"ap2002\"/>\n"
+            + "\t</characteristic>\n"
+            + "</wap-provisioningdoc>\n";
+
+    private static final String PATH_NESTED_DATA_OFF =
+            "APPLICATION[0]/SERVICES[0]/Ext[0]/DataOff[0]/rcsMessagingDataOff[0]";
+    private static final String PATH_SIBLING_DATA_OFF =
+            "APPLICATION[0]/SERVICES[0]/Ext[1]/rcsMessagingDataOff[0]";
+
+    @Test
+    @SmallTest
+    public void testReformattedConfigEffectivelyEqual() {
+        RcsConfigIndex index = RcsConfigIndex.create(CONFIG_NESTED.getBytes(), false);
+        RcsConfigIndex reformatted = RcsConfigIndex.create(
+                CONFIG_NESTED.replace("\t", "  ").getBytes(), false);
+
+        assertTrue(index.isEffectivelyEqual(reformatted));
+        assertEquals(Collections.emptySet(), index.getChangedParms(reformatted));
+    }
+
+    @Test
+    @SmallTest
+    public void testNestedCharacteristicChangeReportsPath() {
+        RcsConfigIndex index = RcsConfigIndex.create(CONFIG_NESTED.getBytes(), false);
+        String changedConfig = CONFIG_NESTED.replaceFirst(
+                "\"rcsMessagingDataOff\" value=\"1\"", "\"rcsMessagingDataOff\" value=\"0\"");
+        RcsConfigIndex changed = RcsConfigIndex.create(changedConfig.getBytes(), false);
+
+        assertFalse(index.isEffectivelyEqual(changed));
+        assertEquals(Set.of(PATH_NESTED_DATA_OFF), index.getChangedParms(changed));
+    }
+
+    @Test
+    @SmallTest
+    public void testSiblingCharacteristicsIndexedSeparately() {
+        RcsConfigIndex index = RcsConfigIndex.create(CONFIG_NESTED.getBytes(), false);
+        // Only change the parm in the second "Ext" characteristic.
+        int secondExt = CONFIG_NESTED.lastIndexOf("value=\"1\"");
+        String changedConfig = CONFIG_NESTED.substring(0, secondExt) + "value=\"0\""
+                + CONFIG_NESTED.substring(secondExt + "value=\"1\"".length());
+        RcsConfigIndex changed = RcsConfigIndex.create(changedConfig.getBytes(), false);
+
+        assertEquals(Set.of(PATH_SIBLING_DATA_OFF), index.getChangedParms(changed));
+    }
+
+    @Test
+    @SmallTest
+    public void testDuplicateParmsIndexedByPosition() {
+        RcsConfigIndex index = RcsConfigIndex.create(CONFIG_DUPLICATE_PARMS.getBytes(), false);
+        RcsConfigIndex changed = RcsConfigIndex.create(
+                CONFIG_DUPLICATE_PARMS.replace("ap2002", "ap2003").getBytes(), false);
+        RcsConfigIndex swapped = RcsConfigIndex.create(CONFIG_DUPLICATE_PARMS
+                .replace("ap2001", "tmp").replace("ap2002", "ap2001").replace("tmp", "ap2002")
+                .getBytes(), false);
+
+        assertEquals(Set.of("APPLICATION[0]/AppID[1]"), index.getChangedParms(changed));
+        // Duplicate parms are not merged, so swapping their order is a change to both.
+        assertEquals(Set.of("APPLICATION[0]/AppID[0]", "APPLICATION[0]/AppID[1]"),
+                index.getChangedParms(swapped));
+    }
+
+    @Test
+    @SmallTest
+    public void testRemovedParmReported() {
+        RcsConfigIndex index = RcsConfigIndex.create(CONFIG_DUPLICATE_PARMS.getBytes(), false);
+        RcsConfigIndex removed = RcsConfigIndex.create(CONFIG_DUPLICATE_PARMS
+                .replace("\t\t<parm name=\"AppID\" value=\"ap2002\"/>\n", "").getBytes(), false);
+
+        assertEquals(Set.of("APPLICATION[0]/AppID[1]"), index.getChangedParms(removed));
+        assertEquals(Set.of("APPLICATION[0]/AppID[1]"), removed.getChangedParms(index));
+    }
+
+    @Test
+    @SmallTest
+    public void testGzipConfigMatchesUncompressed() {
+        RcsConfigIndex compressed = RcsConfigIndex.create(
+                RcsConfig.compressGzip(CONFIG_NESTED.getBytes()), true);
+        RcsConfigIndex uncompressed = RcsConfigIndex.create(CONFIG_NESTED.getBytes(), false);
+
+        assertNotNull(compressed);
+        assertArrayEquals(CONFIG_NESTED.getBytes(), compressed.getData());
+        assertTrue(compressed.isEffectivelyEqual(uncompressed));
+    }
+
+    @Test
+    @SmallTest
+    public void testInvalidGzipConfig() {
+        assertNull(RcsConfigIndex.create(CONFIG_NESTED.getBytes(), true));
+        assertNull(RcsConfigIndex.create(null, false));
+    }
+
+    @Test
+    @SmallTest
+    public void testUnparsableConfigComparedByBytes() {
+        byte[] data = "not a config".getBytes();
+        RcsConfigIndex index = RcsConfigIndex.create(data, false);
+
+        assertTrue(index.isEffectivelyEqual(RcsConfigIndex.create(data.clone(), false)));
+        assertFalse(index.isEffectivelyEqual(
+                RcsConfigIndex.create("not a config either".getBytes(), false)));
+        assertEquals(Collections.emptySet(), index.getChangedParms(
+                RcsConfigIndex.create(CONFIG_NESTED.getBytes(), false)));
+    }
+}
@@ -463,6 +463,57 @@ public class RcsProvisioningMonitorTest {
         assertTrue(Arrays.equals(CONFIG_DEFAULT.getBytes(), argumentBytes.getValue()));
     }
 
+    @Test
+    @SmallTest
+    public void testUpdateConfigEffectivelyUnchanged() throws Exception {
+        createMonitor(1);
+        // notified once when the monitor is initialized with the config stored in the db.
+        verify(mIImsConfig, times(1)).notifyRcsAutoConfigurationReceived(any(), anyBoolean());
+
+        // Same values with different formatting should not be notified or stored again.
+        String reformatted = CONFIG_DEFAULT.replace("\t", "  ");
+        mRcsProvisioningMonitor.updateConfig(FAKE_SUB_ID_BASE,
+                RcsConfig.compressGzip(reformatted.getBytes()), true);
+        processAllMessages();
+        verify(mIImsConfig, times(1)).notifyRcsAutoConfigurationReceived(any(), anyBoolean());
+        assertNull(mProvider.getContentValues());
+
+        mRcsProvisioningMonitor.updateConfig(FAKE_SUB_ID_BASE,
+                CONFIG_SINGLE_REGISTRATION_DISABLED.getBytes(), false);
+        processAllMessages();
+        verify(mIImsConfig, times(2)).notifyRcsAutoConfigurationReceived(any(), anyBoolean());
+        assertTrue(Arrays.equals(CONFIG_SINGLE_REGISTRATION_DISABLED.getBytes(),
+                mRcsProvisioningMonitor.getConfig(FAKE_SUB_ID_BASE)));
+    }
+
+    @Test
+    @SmallTest
+    public void testConfigStoredOnWriter() throws Exception {
+        List<Runnable> pendingWrites = new ArrayList<>();
+        createMonitor(1, pendingWrites::add);
+
+        mRcsProvisioningMonitor.updateConfig(FAKE_SUB_ID_BASE,
+                CONFIG_SINGLE_REGISTRATION_DISABLED.getBytes(), false);
+        processAllMessages();
+        // Readers see the new config before it has been stored.
+        assertEquals(1, pendingWrites.size());
+        assertNull(mProvider.getContentValues());
+        assertTrue(Arrays.equals(CONFIG_SINGLE_REGISTRATION_DISABLED.getBytes(),
+                mRcsProvisioningMonitor.getConfig(FAKE_SUB_ID_BASE)));
+
+        mRcsProvisioningMonitor.updateConfig(FAKE_SUB_ID_BASE, CONFIG_DEFAULT.getBytes(), false);
+        processAllMessages();
+        assertEquals(2, pendingWrites.size());
+
+        // Only the latest config is stored.
+        pendingWrites.get(1).run();
+        assertTrue(Arrays.equals(RcsConfig.compressGzip(CONFIG_DEFAULT.getBytes()),
+                (byte[]) mProvider.getContentValues().get(SimInfo.COLUMN_RCS_CONFIG)));
+        mProvider.update(null, null, null, null);
+        pendingWrites.get(0).run();
+        assertNull(mProvider.getContentValues());
+    }
+
     @Test
     @SmallTest
     public void testRequestReconfig() throws Exception {
@@ -839,6 +890,11 @@ public class RcsProvisioningMonitorTest {
     }
 
     private void createMonitor(int subCount) throws Exception {
+        // Store configs synchronously so they can be verified after processing the messages.
+        createMonitor(subCount, Runnable::run);
+    }
+
+    private void createMonitor(int subCount, Executor configWriter) throws Exception {
         if (Looper.myLooper() == null) {
             Looper.prepare();
         }
@@ -847,7 +903,7 @@ public class RcsProvisioningMonitorTest {
                 .thenReturn(mFeatureConnector);
         when(mFeatureManager.getConfig()).thenReturn(mIImsConfig);
         mRcsProvisioningMonitor = new RcsProvisioningMonitor(mPhone, mHandlerThread.getLooper(),
-                mRoleManager, mFeatureFactory, mRcsStats);
+                mRoleManager, mFeatureFactory, mRcsStats, configWriter);
         mHandler = mRcsProvisioningMonitor.getHandler();
         try {
             mLooper = new TestableLooper(mHandler.getLooper());
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony.domainselection;
+
+import static android.telephony.NetworkRegistrationInfo.DOMAIN_CS;
+import static android.telephony.NetworkRegistrationInfo.DOMAIN_PS;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+import android.telephony.DisconnectCause;
+import android.util.IndentingPrintWriter;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.StringWriter;
+
+/**
+ * Unit tests for DomainSelectionMetrics.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DomainSelectionMetricsTest {
+    private static final String TYPE_CALLING = "CALLING";
+    private static final String TYPE_EMERGENCY_CALLING = "EMERGENCY_CALLING";
+
+    private long mTimeMs = 1000;
+    private DomainSelectionMetrics mMetrics;
+
+    @Before
+    public void setUp() throws Exception {
+        mMetrics = new DomainSelectionMetrics(() -> mTimeMs);
+    }
+
+    @Test
+    @SmallTest
+    public void testSelectionAndReselection() {
+        DomainSelectionMetrics.Session session = mMetrics.startSession(TYPE_EMERGENCY_CALLING);
+        session.onRequested(false);
+        session.onScanRequested();
+        session.onScanRequested();
+        mTimeMs += 1500;
+        session.onWwanSelected(DOMAIN_PS);
+        session.onRequested(true);
+        mTimeMs += 50;
+        session.onWlanSelected();
+        session.onFinished();
+
+        DomainSelectionMetrics.TypeMetrics metrics =
+                mMetrics.getTypeMetrics(TYPE_EMERGENCY_CALLING);
+        assertEquals(1, metrics.mSelections);
+        assertEquals(1, metrics.mReselections);
+        assertEquals(1, metrics.mWwanPsSelected);
+        assertEquals(1, metrics.mWlanSelected);
+        assertEquals(2, metrics.mLatency.getCount());
+        // 50ms and 1500ms
+        assertEquals(1, metrics.mLatency.getBucketCount(0));
+        assertEquals(1, metrics.mLatency.getBucketCount(4));
+        // 2 scans
+        assertEquals(1, metrics.mScanCount.getCount());
+        assertEquals(1, metrics.mScanCount.getBucketCount(2));
+    }
+
+    @Test
+    @SmallTest
+    public void testSelectionWithoutRequestNotCounted() {
+        DomainSelectionMetrics.Session session = mMetrics.startSession(TYPE_CALLING);
+        session.onRequested(false);
+        session.onWwanSelected(DOMAIN_CS);
+        session.onWwanSelected(DOMAIN_CS);
+
+        DomainSelectionMetrics.TypeMetrics metrics = mMetrics.getTypeMetrics(TYPE_CALLING);
+        assertEquals(1, metrics.mWwanCsSelected);
+        assertEquals(1, metrics.mLatency.getCount());
+    }
+
+    @Test
+    @SmallTest
+    public void testTerminationFinishesSession() {
+        DomainSelectionMetrics.Session session = mMetrics.startSession(TYPE_CALLING);
+        session.onRequested(false);
+        session.onTerminated(DisconnectCause.OUTGOING_FAILURE);
+        session.onTerminated(DisconnectCause.OUTGOING_FAILURE);
+        session.onFinished();
+
+        DomainSelectionMetrics.TypeMetrics metrics = mMetrics.getTypeMetrics(TYPE_CALLING);
+        assertEquals(1, metrics.mTerminations.get(DisconnectCause.OUTGOING_FAILURE));
+        assertEquals(1, metrics.mScanCount.getCount());
+        assertTrue(dump().contains("OUTGOING_FAILURE=1"));
+    }
+
+    @Test
+    @SmallTest
+    public void testReset() {
+        DomainSelectionMetrics.Session session = mMetrics.startSession(TYPE_CALLING);
+        session.onRequested(false);
+        session.onWlanSelected();
+
+        mMetrics.reset();
+
+        assertFalse(dump().contains(TYPE_CALLING));
+    }
+
+    private String dump() {
+        StringWriter sw = new StringWriter();
+        IndentingPrintWriter ipw = new IndentingPrintWriter(sw, "  ");
+        mMetrics.dump(ipw);
+        ipw.flush();
+        return sw.toString();
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony.domainselection;
+
+import static android.telephony.AccessNetworkConstants.TRANSPORT_TYPE_WWAN;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_SCAN_TIMER_SEC_INT;
+import static android.telephony.NetworkRegistrationInfo.DOMAIN_CS;
+import static android.telephony.NetworkRegistrationInfo.DOMAIN_PS;
+
+import static junit.framework.Assert.assertEquals;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.os.Handler;
+import android.os.IPowerManager;
+import android.os.IThermalService;
+import android.os.Looper;
+import android.os.PersistableBundle;
+import android.os.PowerManager;
+import android.telephony.CarrierConfigManager;
+import android.telephony.TelephonyManager;
+import android.telephony.ims.ImsManager;
+import android.telephony.ims.ImsMmTelManager;
+import android.telephony.ims.ProvisioningManager;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.TestContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.List;
+
+/**
+ * Replays recorded event sequences into the domain selectors with DomainSelectionReplayer.
+ */
+public class DomainSelectionReplayTest {
+    private static final int SLOT_0 = 0;
+    private static final int SLOT_0_SUB_ID = 1;
+
+    @Mock private CarrierConfigManager mCarrierConfigManager;
+    @Mock private ConnectivityManager mConnectivityManager;
+    @Mock private TelephonyManager mTelephonyManager;
+    @Mock private ImsMmTelManager mMmTelManager;
+    @Mock private ProvisioningManager mProvisioningManager;
+    @Mock private DomainSelectorBase.DestroyListener mDestroyListener;
+
+    private Context mContext;
+    private PowerManager mPowerManager;
+    private PersistableBundle mCarrierConfig;
+    private DomainSelectionReplayer mReplayer;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        mContext = new TestContext() {
+            @Override
+            public String getSystemServiceName(Class<?> serviceClass) {
+                if (serviceClass == ImsManager.class) {
+                    return Context.TELEPHONY_IMS_SERVICE;
+                } else if (serviceClass == TelephonyManager.class) {
+                    return Context.TELEPHONY_SERVICE;
+                } else if (serviceClass == CarrierConfigManager.class) {
+                    return Context.CARRIER_CONFIG_SERVICE;
+                } else if (serviceClass == PowerManager.class) {
+                    return Context.POWER_SERVICE;
+                } else if (serviceClass == ConnectivityManager.class) {
+                    return Context.CONNECTIVITY_SERVICE;
+                }
+                return super.getSystemServiceName(serviceClass);
+            }
+
+            @Override
+            public Object getSystemService(String name) {
+                switch (name) {
+                    case (Context.POWER_SERVICE) : {
+                        return mPowerManager;
+                    }
+                    case (Context.CONNECTIVITY_SERVICE) : {
+                        return mConnectivityManager;
+                    }
+                }
+                return super.getSystemService(name);
+            }
+
+            @Override
+            public String getOpPackageName() {
+                return "";
+            }
+        };
+
+        if (Looper.myLooper() == null) {
+            Looper.prepare();
+        }
+
+        mTelephonyManager = mContext.getSystemService(TelephonyManager.class);
+        when(mTelephonyManager.createForSubscriptionId(anyInt()))
+                .thenReturn(mTelephonyManager);
+        when(mTelephonyManager.getNetworkCountryIso()).thenReturn("");
+        doReturn(2).when(mTelephonyManager).getActiveModemCount();
+        doReturn(TelephonyManager.SIM_STATE_READY)
+                .when(mTelephonyManager).getSimState(anyInt());
+
+        mCarrierConfig = CarrierConfigManager.getDefaultConfig();
+        mCarrierConfigManager = mContext.getSystemService(CarrierConfigManager.class);
+        doReturn(mCarrierConfig).when(mCarrierConfigManager).getConfigForSubId(anyInt());
+        doReturn(mCarrierConfig).when(mCarrierConfigManager).getConfigForSubId(anyInt(), any());
+
+        mPowerManager = new PowerManager(mContext, mock(IPowerManager.class),
+                mock(IThermalService.class), new Handler(Looper.myLooper()));
+
+        ImsManager imsManager = mContext.getSystemService(ImsManager.class);
+        when(imsManager.getImsMmTelManager(anyInt())).thenReturn(mMmTelManager);
+        when(mMmTelManager.isAdvancedCallingSettingEnabled()).thenReturn(true);
+        doReturn(mProvisioningManager).when(imsManager).getProvisioningManager(anyInt());
+        doReturn(null).when(mProvisioningManager).getProvisioningStringValue(anyInt());
+
+        mReplayer = new DomainSelectionReplayer(mContext, SLOT_0, SLOT_0_SUB_ID);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (mReplayer != null) {
+            mReplayer.destroy();
+            mReplayer = null;
+        }
+    }
+
+    @Test
+    @SmallTest
+    public void testEmergencyOutOfServiceScanFindsLte() {
+        List<DomainSelectionReplayer.Event> events = DomainSelectionReplayer.Event.parseAll(
+                "0 barring barred=false\n"
+                + "0 ims available=true registered=false\n"
+                + "0 mmtel voice=false\n"
+                + "0 select emergency=true rat=UNKNOWN regState=UNKNOWN\n"
+                + "1500 scan rat=EUTRAN regState=HOME domain=PS vops=true emcBearer=true\n"
+                + "3000 idle\n");
+
+        DomainSelectionReplayer.Report report =
+                mReplayer.replay(this::createEmergencyCallDomainSelector, events);
+
+        assertEquals(TRANSPORT_TYPE_WWAN, report.transportType);
+        assertEquals(DOMAIN_PS, report.domain);
+        assertEquals(1, report.scanCount);
+        assertEquals(1500, report.timeToSelectionMs);
+    }
+
+    @Test
+    @SmallTest
+    public void testEmergencyScanWithoutResultRetried() {
+        mCarrierConfig.putInt(KEY_EMERGENCY_SCAN_TIMER_SEC_INT, 5);
+        List<DomainSelectionReplayer.Event> events = DomainSelectionReplayer.Event.parseAll(
+                "0 barring barred=false\n"
+                + "0 ims available=true registered=false\n"
+                + "0 mmtel voice=false\n"
+                + "0 select emergency=true rat=UNKNOWN regState=UNKNOWN\n"
+                + "2000 scan rat=UNKNOWN regState=UNKNOWN domain=0\n"
+                + "4000 scan rat=UTRAN regState=HOME domain=CS\n"
+                + "6000 idle\n");
+
+        DomainSelectionReplayer.Report report =
+                mReplayer.replay(this::createEmergencyCallDomainSelector, events);
+
+        assertEquals(DOMAIN_CS, report.domain);
+        assertEquals(2, report.scanCount);
+        assertEquals(4000, report.timeToSelectionMs);
+    }
+
+    @Test
+    @SmallTest
+    public void testNormalCallImsRegisteredSelectPs() {
+        // The selection waits for the MMTEL capabilities of the IMS registration.
+        List<DomainSelectionReplayer.Event> events = List.of(
+                DomainSelectionReplayer.Event.serviceState(0, "IN_SERVICE"),
+                DomainSelectionReplayer.Event.ims(0, true, true, false),
+                DomainSelectionReplayer.Event.select(100, false),
+                DomainSelectionReplayer.Event.mmTel(300, true, false, false),
+                DomainSelectionReplayer.Event.idle(1000));
+
+        DomainSelectionReplayer.Report report = mReplayer.replay(
+                (looper, imsStateTracker, csrController) -> new NormalCallDomainSelector(
+                        mContext, SLOT_0, SLOT_0_SUB_ID, looper, imsStateTracker,
+                        mDestroyListener),
+                events);
+
+        assertEquals(DOMAIN_PS, report.domain);
+        assertEquals(0, report.scanCount);
+        assertEquals(200, report.timeToSelectionMs);
+    }
+
+    @Test
+    @SmallTest
+    public void testSmsImsNotRegisteredSelectCs() {
+        List<DomainSelectionReplayer.Event> events = List.of(
+                DomainSelectionReplayer.Event.ims(0, true, false, false),
+                DomainSelectionReplayer.Event.select(100, false).with("type", "sms"),
+                DomainSelectionReplayer.Event.idle(500));
+
+        DomainSelectionReplayer.Report report = mReplayer.replay(
+                (looper, imsStateTracker, csrController) -> new SmsDomainSelector(
+                        mContext, SLOT_0, SLOT_0_SUB_ID, looper, imsStateTracker,
+                        mDestroyListener),
+                events);
+
+        assertEquals(DOMAIN_CS, report.domain);
+        assertEquals(0, report.timeToSelectionMs);
+    }
+
+    private DomainSelectorBase createEmergencyCallDomainSelector(Looper looper,
+            ImsStateTracker imsStateTracker, CrossSimRedialingController csrController) {
+        return new EmergencyCallDomainSelector(mContext, SLOT_0, SLOT_0_SUB_ID, looper,
+                imsStateTracker, mDestroyListener, csrController);
+    }
+}
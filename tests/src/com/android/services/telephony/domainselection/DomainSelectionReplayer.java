@@ -0,0 +1,633 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony.domainselection;
+
+import static android.telephony.AccessNetworkConstants.TRANSPORT_TYPE_INVALID;
+import static android.telephony.AccessNetworkConstants.TRANSPORT_TYPE_WLAN;
+import static android.telephony.AccessNetworkConstants.TRANSPORT_TYPE_WWAN;
+import static android.telephony.BarringInfo.BARRING_SERVICE_TYPE_EMERGENCY;
+import static android.telephony.BarringInfo.BarringServiceInfo.BARRING_TYPE_UNCONDITIONAL;
+import static android.telephony.DomainSelectionService.SELECTOR_TYPE_CALLING;
+import static android.telephony.DomainSelectionService.SELECTOR_TYPE_SMS;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import android.annotation.NonNull;
+import android.content.Context;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.telephony.AccessNetworkConstants.AccessNetworkType;
+import android.telephony.BarringInfo;
+import android.telephony.CellIdentityLte;
+import android.telephony.DomainSelectionService;
+import android.telephony.DomainSelectionService.SelectionAttributes;
+import android.telephony.EmergencyRegResult;
+import android.telephony.NetworkRegistrationInfo;
+import android.telephony.ServiceState;
+import android.telephony.TransportSelectorCallback;
+import android.telephony.WwanSelectorCallback;
+import android.telephony.ims.ImsManager;
+import android.telephony.ims.ImsMmTelManager;
+import android.telephony.ims.ImsReasonInfo;
+import android.telephony.ims.ImsRegistrationAttributes;
+import android.telephony.ims.ImsStateCallback;
+import android.telephony.ims.RegistrationManager;
+import android.telephony.ims.feature.MmTelFeature.MmTelCapabilities;
+import android.telephony.ims.stub.ImsRegistrationImplBase;
+import android.testing.TestableLooper;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Replays a recorded sequence of service state, barring, IMS and scan result events into a
+ * domain selector and reports the selected domain, the number of emergency network scans and
+ * the time to the selection.
+ * <p>
+ * The events reach the domain selector through a real {@link ImsStateTracker}, so the
+ * listener registration and the interest filtering of the tracker apply as on a device. The
+ * IMS events are delivered to the callbacks the tracker registers with the
+ * {@link ImsMmTelManager}.
+ * <p>
+ * Time is simulated on a {@link TestableLooper}, so the timers of the domain selector and the
+ * {@link CrossSimRedialingController} expire as they would on a device, without waiting and
+ * without live networks.
+ * <p>
+ * A recording has one event per line, {@code <timeMs> <event> [<key>=<value> ...]}, for example:
+ * <pre>
+ * 0 barring barred=false
+ * 0 ims available=true registered=false
+ * 0 mmtel voice=false
+ * 0 select emergency=true rat=UNKNOWN regState=UNKNOWN
+ * 1500 scan rat=EUTRAN regState=HOME domain=PS vops=true emcBearer=true
+ * 30000 idle
+ * </pre>
+ */
+public class DomainSelectionReplayer {
+    private static final String TAG = "DomainSelectionReplayer";
+
+    /** The granularity of the simulated time. */
+    public static final long TICK_MS = 100;
+
+    private static final String DEFAULT_CALL_ID = "TC@replay";
+    private static final String DEFAULT_NUMBER = "911";
+
+    static final int EVENT_SERVICE_STATE = 1;
+    static final int EVENT_BARRING = 2;
+    static final int EVENT_IMS = 3;
+    static final int EVENT_MMTEL = 4;
+    static final int EVENT_SELECT = 5;
+    static final int EVENT_RESELECT = 6;
+    static final int EVENT_SCAN_RESULT = 7;
+    static final int EVENT_IDLE = 8;
+
+    /** Creates the domain selector the events are replayed into. */
+    public interface SelectorFactory {
+        /**
+         * @return The domain selector for the slot and subscription of the replayer.
+         */
+        DomainSelectorBase create(@NonNull Looper looper,
+                @NonNull ImsStateTracker imsStateTracker,
+                @NonNull CrossSimRedialingController crossSimRedialingController);
+    }
+
+    /** An event of a recording. */
+    public static final class Event {
+        final long mTimeMs;
+        final int mType;
+        final List<String> mKeys = new ArrayList<>();
+        final List<String> mValues = new ArrayList<>();
+
+        Event(long timeMs, int type) {
+            mTimeMs = timeMs;
+            mType = type;
+        }
+
+        Event with(String key, Object value) {
+            mKeys.add(key);
+            mValues.add(String.valueOf(value));
+            return this;
+        }
+
+        String get(String key, String defaultValue) {
+            int index = mKeys.indexOf(key);
+            return (index < 0) ? defaultValue : mValues.get(index);
+        }
+
+        boolean getBoolean(String key) {
+            return Boolean.parseBoolean(get(key, "false"));
+        }
+
+        /** @return The service state event. */
+        public static Event serviceState(long timeMs, String state) {
+            return new Event(timeMs, EVENT_SERVICE_STATE).with("state", state);
+        }
+
+        /** @return The barring info event. */
+        public static Event barring(long timeMs, boolean barred) {
+            return new Event(timeMs, EVENT_BARRING).with("barred", barred);
+        }
+
+        /** @return The IMS availability and registration event. */
+        public static Event ims(long timeMs, boolean available, boolean registered,
+                boolean overWlan) {
+            return new Event(timeMs, EVENT_IMS).with("available", available)
+                    .with("registered", registered).with("wlan", overWlan);
+        }
+
+        /** @return The MMTEL capabilities event. */
+        public static Event mmTel(long timeMs, boolean voice, boolean video, boolean sms) {
+            return new Event(timeMs, EVENT_MMTEL).with("voice", voice)
+                    .with("video", video).with("sms", sms);
+        }
+
+        /** @return The event requesting a domain selection. */
+        public static Event select(long timeMs, boolean emergency) {
+            return new Event(timeMs, EVENT_SELECT).with("emergency", emergency);
+        }
+
+        /** @return The event requesting a domain reselection after a call failure. */
+        public static Event reselect(long timeMs, int csCause) {
+            return new Event(timeMs, EVENT_RESELECT).with("csCause", csCause);
+        }
+
+        /** @return The emergency network scan result event. */
+        public static Event scanResult(long timeMs, String rat, String regState,
+                String domain) {
+            return new Event(timeMs, EVENT_SCAN_RESULT).with("rat", rat)
+                    .with("regState", regState).with("domain", domain)
+                    .with("vops", true).with("emcBearer", true);
+        }
+
+        /** @return The event that only lets the time pass. */
+        public static Event idle(long timeMs) {
+            return new Event(timeMs, EVENT_IDLE);
+        }
+
+        /**
+         * Parses an event of a recording.
+         *
+         * @param line The recorded event.
+         * @return The event, or {@code null} if the line is empty or a comment.
+         */
+        public static Event parse(String line) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) return null;
+
+            String[] tokens = line.split("\\s+");
+            if (tokens.length < 2) {
+                throw new IllegalArgumentException("Invalid event: " + line);
+            }
+            Event event = new Event(Long.parseLong(tokens[0]), eventFromString(tokens[1]));
+            for (int i = 2; i < tokens.length; i++) {
+                int separator = tokens[i].indexOf('=');
+                if (separator <= 0) {
+                    throw new IllegalArgumentException("Invalid argument: " + tokens[i]);
+                }
+                event.with(tokens[i].substring(0, separator),
+                        tokens[i].substring(separator + 1));
+            }
+            return event;
+        }
+
+        /**
+         * Parses a recording.
+         *
+         * @param recording The recorded events, one per line.
+         * @return The events.
+         */
+        public static List<Event> parseAll(String recording) {
+            List<Event> events = new ArrayList<>();
+            for (String line : recording.split("\n")) {
+                Event event = parse(line);
+                if (event != null) events.add(event);
+            }
+            return events;
+        }
+
+        private static int eventFromString(String type) {
+            switch (type) {
+                case "service_state": return EVENT_SERVICE_STATE;
+                case "barring": return EVENT_BARRING;
+                case "ims": return EVENT_IMS;
+                case "mmtel": return EVENT_MMTEL;
+                case "select": return EVENT_SELECT;
+                case "reselect": return EVENT_RESELECT;
+                case "scan": return EVENT_SCAN_RESULT;
+                case "idle": return EVENT_IDLE;
+                default: throw new IllegalArgumentException("Unknown event: " + type);
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder().append(mTimeMs).append(' ').append(mType);
+            for (int i = 0; i < mKeys.size(); i++) {
+                sb.append(' ').append(mKeys.get(i)).append('=').append(mValues.get(i));
+            }
+            return sb.toString();
+        }
+    }
+
+    /** The outcome of a replay. */
+    public static final class Report {
+        /** The transport type of the last selection. */
+        public int transportType = TRANSPORT_TYPE_INVALID;
+        /** The domain of the last selection over WWAN. */
+        public int domain = NetworkRegistrationInfo.DOMAIN_UNKNOWN;
+        /** The cause of the termination, or -1 if the selection was not terminated. */
+        public int terminationCause = -1;
+        /** The number of emergency network scans requested. */
+        public int scanCount = 0;
+        /** The time from the first selection request to the first selection, or -1. */
+        public long timeToSelectionMs = -1;
+        /** The selections in order, for example {@code WWAN/PS@1500ms}. */
+        public final List<String> selections = new ArrayList<>();
+
+        private long mSelectRequestTimeMs = -1;
+
+        private void onSelected(String selection, long nowMs) {
+            selections.add(selection + "@" + nowMs + "ms");
+            if (timeToSelectionMs < 0 && mSelectRequestTimeMs >= 0) {
+                timeToSelectionMs = nowMs - mSelectRequestTimeMs;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Report{selections=" + selections + ", scans=" + scanCount
+                    + ", timeToSelection=" + timeToSelectionMs + "ms"
+                    + ", terminationCause=" + terminationCause + "}";
+        }
+    }
+
+    private final Context mContext;
+    private final int mSlotId;
+    private final int mSubId;
+    private final HandlerThread mHandlerThread;
+    private final TestableLooper mLooper;
+    private final CrossSimRedialingController mCrossSimRedialingController;
+
+    /** The callbacks the ImsStateTracker registered, or null if not registered. */
+    private ImsStateCallback mImsStateCallback;
+    private Executor mImsStateExecutor;
+    private RegistrationManager.RegistrationCallback mRegistrationCallback;
+    private Executor mRegistrationExecutor;
+    private ImsMmTelManager.CapabilityCallback mCapabilityCallback;
+    private Executor mCapabilityExecutor;
+
+    private long mNowMs;
+    private Consumer<EmergencyRegResult> mPendingScanConsumer;
+
+    /**
+     * Creates a replayer. The context shall provide the system services the domain selectors
+     * use, for example the CarrierConfigManager returning the carrier configuration to replay
+     * the events with. The ImsManager of the context shall return a mock ImsMmTelManager for the
+     * subscription, whose callback registration is stubbed to deliver the recorded IMS events.
+     */
+    public DomainSelectionReplayer(@NonNull Context context, int slotId, int subId)
+            throws Exception {
+        mContext = context;
+        mSlotId = slotId;
+        mSubId = subId;
+        mHandlerThread = new HandlerThread(TAG);
+        mHandlerThread.start();
+        mLooper = new TestableLooper(mHandlerThread.getLooper());
+        mCrossSimRedialingController = new CrossSimRedialingController(context,
+                mHandlerThread.getLooper(), (slot, number) -> true);
+        setUpMmTelManager(context.getSystemService(ImsManager.class).getImsMmTelManager(subId));
+    }
+
+    /** Releases the resources of this replayer. */
+    public void destroy() {
+        mCrossSimRedialingController.destroy();
+        mLooper.destroy();
+        mHandlerThread.quit();
+    }
+
+    /**
+     * Replays the events into a new domain selector.
+     *
+     * @param factory Creates the domain selector.
+     * @param events The events ordered by time.
+     * @return The outcome of the replay.
+     */
+    public @NonNull Report replay(@NonNull SelectorFactory factory, @NonNull List<Event> events) {
+        Report report = new Report();
+        mNowMs = 0;
+        mPendingScanConsumer = null;
+
+        ImsStateTracker imsStateTracker = new ImsStateTracker(mContext, mSlotId,
+                mHandlerThread.getLooper());
+        imsStateTracker.start(mSubId);
+        processAllMessages();
+
+        WwanSelectorCallback wwanCallback = createWwanSelectorCallback(report);
+        TransportSelectorCallback transportCallback =
+                createTransportSelectorCallback(report, wwanCallback);
+        DomainSelectorBase selector = factory.create(mHandlerThread.getLooper(),
+                imsStateTracker, mCrossSimRedialingController);
+
+        for (Event event : events) {
+            advanceTo(event.mTimeMs);
+            logd("replay " + event);
+            apply(selector, imsStateTracker, transportCallback, event, report);
+            processAllMessages();
+        }
+
+        selector.destroy();
+        imsStateTracker.destroy();
+        mCrossSimRedialingController.stopTimer();
+        processAllMessages();
+        logd("replay " + report);
+        return report;
+    }
+
+    private void apply(DomainSelectorBase selector, ImsStateTracker imsStateTracker,
+            TransportSelectorCallback transportCallback, Event event, Report report) {
+        switch (event.mType) {
+            case EVENT_SERVICE_STATE: {
+                ServiceState ss = new ServiceState();
+                ss.setStateOutOfService();
+                ss.setState(serviceStateFromString(event.get("state", "IN_SERVICE")));
+                imsStateTracker.updateServiceState(ss);
+                break;
+            }
+            case EVENT_BARRING: {
+                SparseArray<BarringInfo.BarringServiceInfo> serviceInfos = new SparseArray<>();
+                if (event.getBoolean("barred")) {
+                    serviceInfos.put(BARRING_SERVICE_TYPE_EMERGENCY,
+                            new BarringInfo.BarringServiceInfo(
+                                    BARRING_TYPE_UNCONDITIONAL, false, 0, 0));
+                }
+                imsStateTracker.updateBarringInfo(
+                        new BarringInfo(new CellIdentityLte(), serviceInfos));
+                break;
+            }
+            case EVENT_IMS:
+                applyImsEvent(event);
+                break;
+            case EVENT_MMTEL: {
+                if (mCapabilityCallback == null) {
+                    logd("replay MMTEL capabilities not listened, ignore " + event);
+                    break;
+                }
+                MmTelCapabilities capabilities = new MmTelCapabilities();
+                if (event.getBoolean("voice")) {
+                    capabilities.addCapabilities(MmTelCapabilities.CAPABILITY_TYPE_VOICE);
+                }
+                if (event.getBoolean("video")) {
+                    capabilities.addCapabilities(MmTelCapabilities.CAPABILITY_TYPE_VIDEO);
+                }
+                if (event.getBoolean("sms")) {
+                    capabilities.addCapabilities(MmTelCapabilities.CAPABILITY_TYPE_SMS);
+                }
+                ImsMmTelManager.CapabilityCallback callback = mCapabilityCallback;
+                mCapabilityExecutor.execute(
+                        () -> callback.onCapabilitiesStatusChanged(capabilities));
+                break;
+            }
+            case EVENT_SELECT:
+                if (report.mSelectRequestTimeMs < 0) report.mSelectRequestTimeMs = mNowMs;
+                selector.selectDomain(getSelectionAttributes(event), transportCallback);
+                break;
+            case EVENT_RESELECT:
+                selector.reselectDomain(getSelectionAttributes(event));
+                break;
+            case EVENT_SCAN_RESULT:
+                if (mPendingScanConsumer == null) {
+                    logd("replay no scan requested, ignore " + event);
+                    break;
+                }
+                Consumer<EmergencyRegResult> consumer = mPendingScanConsumer;
+                mPendingScanConsumer = null;
+                consumer.accept(getEmergencyRegResult(event));
+                break;
+            case EVENT_IDLE:
+            default:
+                break;
+        }
+    }
+
+    private void applyImsEvent(Event event) {
+        if (mImsStateCallback == null) {
+            logd("replay IMS state not listened, ignore " + event);
+            return;
+        }
+        ImsStateCallback stateCallback = mImsStateCallback;
+        if (event.getBoolean("available")) {
+            mImsStateExecutor.execute(stateCallback::onAvailable);
+        } else {
+            int reason = Integer.parseInt(event.get("reason",
+                    String.valueOf(ImsStateCallback.REASON_NO_IMS_SERVICE_CONFIGURED)));
+            mImsStateExecutor.execute(() -> stateCallback.onUnavailable(reason));
+        }
+        // The ImsStateTracker registers for the IMS registration state once MmTelFeature is
+        // available.
+        processAllMessages();
+
+        if (mRegistrationCallback == null) {
+            logd("replay IMS registration not listened, ignore " + event);
+            return;
+        }
+        RegistrationManager.RegistrationCallback registrationCallback = mRegistrationCallback;
+        if (event.getBoolean("registered")) {
+            ImsRegistrationAttributes attributes = new ImsRegistrationAttributes.Builder(
+                    event.getBoolean("wlan") ? ImsRegistrationImplBase.REGISTRATION_TECH_IWLAN
+                            : ImsRegistrationImplBase.REGISTRATION_TECH_LTE).build();
+            mRegistrationExecutor.execute(() -> registrationCallback.onRegistered(attributes));
+        } else {
+            mRegistrationExecutor.execute(
+                    () -> registrationCallback.onUnregistered(new ImsReasonInfo()));
+        }
+    }
+
+    private SelectionAttributes getSelectionAttributes(Event event) {
+        boolean emergency = event.getBoolean("emergency");
+        int selectorType = TextUtils.equals(event.get("type", "calling"), "sms")
+                ? SELECTOR_TYPE_SMS : SELECTOR_TYPE_CALLING;
+        SelectionAttributes.Builder builder =
+                new SelectionAttributes.Builder(mSlotId, mSubId, selectorType)
+                        .setCallId(event.get("callId", DEFAULT_CALL_ID))
+                        .setNumber(event.get("number", DEFAULT_NUMBER))
+                        .setEmergency(emergency)
+                        .setVideoCall(event.getBoolean("video"))
+                        .setCsDisconnectCause(Integer.parseInt(event.get("csCause", "0")));
+        if (emergency) {
+            builder.setEmergencyRegResult(getEmergencyRegResult(event));
+        }
+        return builder.build();
+    }
+
+    private WwanSelectorCallback createWwanSelectorCallback(Report report) {
+        WwanSelectorCallback callback = mock(WwanSelectorCallback.class);
+        doAnswer(invocation -> {
+            report.scanCount++;
+            mPendingScanConsumer = (Consumer<EmergencyRegResult>) invocation.getArguments()[3];
+            return null;
+        }).when(callback).onRequestEmergencyNetworkScan(any(), anyInt(), any(), any());
+        doAnswer(invocation -> {
+            report.transportType = TRANSPORT_TYPE_WWAN;
+            report.domain = (int) invocation.getArguments()[0];
+            report.onSelected("WWAN/" + DomainSelectionService.getDomainName(report.domain),
+                    mNowMs);
+            return null;
+        }).when(callback).onDomainSelected(anyInt(), anyBoolean());
+        return callback;
+    }
+
+    private TransportSelectorCallback createTransportSelectorCallback(Report report,
+            WwanSelectorCallback wwanCallback) {
+        TransportSelectorCallback callback = mock(TransportSelectorCallback.class);
+        doAnswer(invocation -> {
+            ((Consumer<WwanSelectorCallback>) invocation.getArguments()[0]).accept(wwanCallback);
+            return null;
+        }).when(callback).onWwanSelected(any());
+        doAnswer(invocation -> {
+            report.transportType = TRANSPORT_TYPE_WLAN;
+            report.onSelected("WLAN", mNowMs);
+            return null;
+        }).when(callback).onWlanSelected(anyBoolean());
+        doAnswer(invocation -> {
+            report.terminationCause = (int) invocation.getArguments()[0];
+            report.onSelected("TERMINATED(" + report.terminationCause + ")", mNowMs);
+            return null;
+        }).when(callback).onSelectionTerminated(anyInt());
+        return callback;
+    }
+
+    /**
+     * Tracks the callbacks the ImsStateTracker registers with the ImsMmTelManager, so the
+     * recorded IMS events are only delivered while the tracker listens to them.
+     */
+    private void setUpMmTelManager(ImsMmTelManager mmTelManager) throws Exception {
+        doAnswer(invocation -> {
+            mImsStateExecutor = (Executor) invocation.getArguments()[0];
+            mImsStateCallback = (ImsStateCallback) invocation.getArguments()[1];
+            return null;
+        }).when(mmTelManager).registerImsStateCallback(any(), any());
+        doAnswer(invocation -> {
+            if (invocation.getArguments()[0] == mImsStateCallback) mImsStateCallback = null;
+            return null;
+        }).when(mmTelManager).unregisterImsStateCallback(any());
+        doAnswer(invocation -> {
+            mRegistrationExecutor = (Executor) invocation.getArguments()[0];
+            mRegistrationCallback =
+                    (RegistrationManager.RegistrationCallback) invocation.getArguments()[1];
+            return null;
+        }).when(mmTelManager).registerImsRegistrationCallback(any(Executor.class),
+                any(RegistrationManager.RegistrationCallback.class));
+        doAnswer(invocation -> {
+            if (invocation.getArguments()[0] == mRegistrationCallback) {
+                mRegistrationCallback = null;
+            }
+            return null;
+        }).when(mmTelManager).unregisterImsRegistrationCallback(
+                any(RegistrationManager.RegistrationCallback.class));
+        doAnswer(invocation -> {
+            mCapabilityExecutor = (Executor) invocation.getArguments()[0];
+            mCapabilityCallback =
+                    (ImsMmTelManager.CapabilityCallback) invocation.getArguments()[1];
+            return null;
+        }).when(mmTelManager).registerMmTelCapabilityCallback(any(), any());
+        doAnswer(invocation -> {
+            if (invocation.getArguments()[0] == mCapabilityCallback) mCapabilityCallback = null;
+            return null;
+        }).when(mmTelManager).unregisterMmTelCapabilityCallback(any());
+    }
+
+    /** Lets the simulated time pass, running the messages as they become due. */
+    private void advanceTo(long timeMs) {
+        while (mNowMs < timeMs) {
+            long stepMs = Math.min(TICK_MS, timeMs - mNowMs);
+            mNowMs += stepMs;
+            mLooper.moveTimeForward(stepMs);
+            processAllMessages();
+        }
+    }
+
+    private void processAllMessages() {
+        while (!mLooper.getLooper().getQueue().isIdle()) {
+            mLooper.processAllMessages();
+        }
+    }
+
+    private static EmergencyRegResult getEmergencyRegResult(Event event) {
+        return new EmergencyRegResult(
+                accessNetworkTypeFromString(event.get("rat", "UNKNOWN")),
+                regStateFromString(event.get("regState", "UNKNOWN")),
+                domainFromString(event.get("domain", "0")),
+                event.getBoolean("vops"), event.getBoolean("emcBearer"),
+                Integer.parseInt(event.get("emc", "0")), Integer.parseInt(event.get("emf", "0")),
+                event.get("mcc", ""), event.get("mnc", ""), event.get("iso", ""));
+    }
+
+    private static int accessNetworkTypeFromString(String rat) {
+        switch (rat) {
+            case "GERAN": return AccessNetworkType.GERAN;
+            case "UTRAN": return AccessNetworkType.UTRAN;
+            case "EUTRAN": return AccessNetworkType.EUTRAN;
+            case "CDMA2000": return AccessNetworkType.CDMA2000;
+            case "IWLAN": return AccessNetworkType.IWLAN;
+            case "NGRAN": return AccessNetworkType.NGRAN;
+            case "UNKNOWN": return AccessNetworkType.UNKNOWN;
+            default: return Integer.parseInt(rat);
+        }
+    }
+
+    private static int regStateFromString(String regState) {
+        switch (regState) {
+            case "HOME": return NetworkRegistrationInfo.REGISTRATION_STATE_HOME;
+            case "ROAMING": return NetworkRegistrationInfo.REGISTRATION_STATE_ROAMING;
+            case "DENIED": return NetworkRegistrationInfo.REGISTRATION_STATE_DENIED;
+            case "UNKNOWN": return NetworkRegistrationInfo.REGISTRATION_STATE_UNKNOWN;
+            default: return Integer.parseInt(regState);
+        }
+    }
+
+    private static int domainFromString(String domain) {
+        switch (domain) {
+            case "CS": return NetworkRegistrationInfo.DOMAIN_CS;
+            case "PS": return NetworkRegistrationInfo.DOMAIN_PS;
+            case "CS|PS": return NetworkRegistrationInfo.DOMAIN_CS_PS;
+            default: return Integer.parseInt(domain);
+        }
+    }
+
+    private static int serviceStateFromString(String state) {
+        switch (state) {
+            case "IN_SERVICE": return ServiceState.STATE_IN_SERVICE;
+            case "OUT_OF_SERVICE": return ServiceState.STATE_OUT_OF_SERVICE;
+            case "EMERGENCY_ONLY": return ServiceState.STATE_EMERGENCY_ONLY;
+            case "POWER_OFF": return ServiceState.STATE_POWER_OFF;
+            default: return Integer.parseInt(state);
+        }
+    }
+
+    private static void logd(String s) {
+        Log.d(TAG, s);
+    }
+}
@@ -59,12 +59,15 @@ import static com.android.services.telephony.domainselection.EmergencyCallDomain
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
 import static junit.framework.Assert.assertTrue;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atMost;
+import static org.mockito.Mockito.clearInvocations;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
@@ -111,6 +114,7 @@ import com.android.TestContext;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.invocation.InvocationOnMock;
@@ -899,6 +903,25 @@ public class EmergencyCallDomainSelectorTest {
         verifyScanPsPreferred();
     }
 
+    @Test
+    public void testRoamingStateQueriedOncePerEvent() throws Exception {
+        createSelector(SLOT_0_SUB_ID);
+        unsolBarringInfoChanged(false);
+
+        EmergencyRegResult regResult = getEmergencyRegResult(
+                UNKNOWN, REGISTRATION_STATE_UNKNOWN, 0, false, false, 0, 0, "", "");
+        SelectionAttributes attr = getSelectionAttributes(SLOT_0, SLOT_0_SUB_ID, regResult);
+        mDomainSelector.selectDomain(attr, mTransportSelectorCallback);
+        processAllMessages();
+
+        bindImsServiceUnregistered();
+
+        verifyScanPsPreferred();
+        // Starting the selection, receiving the MMTEL capabilities and evaluating the initial
+        // state each query the roaming state once.
+        verify(mTelephonyManager, atMost(3)).getSimCountryIso();
+    }
+
     @Test
     public void testVoLteOnEpsImsNotRegisteredSelectPs() throws Exception {
         PersistableBundle bundle = getDefaultPersistableBundle();
@@ -1898,6 +1921,122 @@ public class EmergencyCallDomainSelectorTest {
         assertTrue(networks.contains(GERAN));
     }
 
+    @Test
+    public void testFirstScanStartsWithCachedNetwork() throws Exception {
+        EmergencyScanResultCache scanResultCache = new EmergencyScanResultCache();
+        scanResultCache.put(SLOT_0, getEmergencyRegResult(UTRAN, REGISTRATION_STATE_HOME,
+                NetworkRegistrationInfo.DOMAIN_CS, true, true, 0, 0, "", ""));
+        createSelectorWithScanResultCache(scanResultCache);
+
+        // The modem is still on the access network the cached scan has found.
+        EmergencyRegResult regResult = getEmergencyRegResult(UTRAN, REGISTRATION_STATE_UNKNOWN,
+                0, false, false, 0, 0, "", "");
+        SelectionAttributes attr = getSelectionAttributes(SLOT_0, SLOT_0_SUB_ID, regResult);
+        mDomainSelector.selectDomain(attr, mTransportSelectorCallback);
+        processAllMessages();
+
+        bindImsServiceUnregistered();
+        processAllMessages();
+
+        // The scan is still requested, starting with the cached access network.
+        ArgumentCaptor<List<Integer>> networksCaptor = ArgumentCaptor.forClass(List.class);
+        verify(mWwanSelectorCallback, times(1)).onRequestEmergencyNetworkScan(
+                networksCaptor.capture(), anyInt(), any(), any());
+        assertEquals(UTRAN, (int) networksCaptor.getValue().get(0));
+        assertNotNull(mResultConsumer);
+        assertNull(scanResultCache.take(SLOT_0));
+    }
+
+    @Test
+    public void testCachedNetworkIgnoredWhenAccessNetworkChanged() throws Exception {
+        EmergencyScanResultCache scanResultCache = new EmergencyScanResultCache();
+        scanResultCache.put(SLOT_0, getEmergencyRegResult(UTRAN, REGISTRATION_STATE_HOME,
+                NetworkRegistrationInfo.DOMAIN_CS, true, true, 0, 0, "", ""));
+        createSelectorWithScanResultCache(scanResultCache);
+
+        // The modem has moved to another access network since the cached scan.
+        EmergencyRegResult regResult = getEmergencyRegResult(EUTRAN, REGISTRATION_STATE_UNKNOWN,
+                0, false, false, 0, 0, "", "");
+        SelectionAttributes attr = getSelectionAttributes(SLOT_0, SLOT_0_SUB_ID, regResult);
+        mDomainSelector.selectDomain(attr, mTransportSelectorCallback);
+        processAllMessages();
+
+        bindImsServiceUnregistered();
+        processAllMessages();
+
+        ArgumentCaptor<List<Integer>> networksCaptor = ArgumentCaptor.forClass(List.class);
+        verify(mWwanSelectorCallback, times(1)).onRequestEmergencyNetworkScan(
+                networksCaptor.capture(), anyInt(), any(), any());
+        verifyPsPreferredScanList(networksCaptor.getValue());
+    }
+
+    @Test
+    public void testCachedScanResultDiscardedWhenAttemptFails() throws Exception {
+        EmergencyScanResultCache scanResultCache = new EmergencyScanResultCache();
+        mResultConsumer = null;
+        mDomainSelector = new EmergencyCallDomainSelector(
+                mContext, SLOT_0, SLOT_0_SUB_ID, mHandlerThread.getLooper(),
+                mImsStateTracker, mDestroyListener, mCsrdCtrl, null,
+                EmergencyCallTimeline.getInstance(), scanResultCache);
+        replaceInstance(DomainSelectorBase.class,
+                "mWwanSelectorCallback", mDomainSelector, mWwanSelectorCallback);
+        unsolBarringInfoChanged(true);
+
+        EmergencyRegResult regResult = getEmergencyRegResult(EUTRAN, REGISTRATION_STATE_UNKNOWN,
+                0, false, false, 0, 0, "", "");
+        SelectionAttributes attr = getSelectionAttributes(SLOT_0, SLOT_0_SUB_ID, regResult);
+        mDomainSelector.selectDomain(attr, mTransportSelectorCallback);
+        processAllMessages();
+
+        bindImsServiceUnregistered();
+        processAllMessages();
+
+        // The scan result is cached and PS is dialed.
+        assertNotNull(mResultConsumer);
+        mResultConsumer.accept(getEmergencyRegResult(EUTRAN, REGISTRATION_STATE_HOME,
+                NetworkRegistrationInfo.DOMAIN_PS, true, true, 0, 0, "", ""));
+        verifyPsDialed();
+
+        // The attempt based on the scan result fails.
+        mDomainSelector.reselectDomain(attr);
+        processAllMessages();
+        mDomainSelector.finishSelection();
+        processAllMessages();
+
+        clearInvocations(mWwanSelectorCallback);
+        mResultConsumer = null;
+        mDomainSelector = new EmergencyCallDomainSelector(
+                mContext, SLOT_0, SLOT_0_SUB_ID, mHandlerThread.getLooper(),
+                mImsStateTracker, mDestroyListener, mCsrdCtrl, null,
+                EmergencyCallTimeline.getInstance(), scanResultCache);
+        replaceInstance(DomainSelectorBase.class,
+                "mWwanSelectorCallback", mDomainSelector, mWwanSelectorCallback);
+        unsolBarringInfoChanged(true);
+
+        mDomainSelector.selectDomain(attr, mTransportSelectorCallback);
+        processAllMessages();
+
+        bindImsServiceUnregistered();
+        processAllMessages();
+
+        // The failed scan result is not used, a real scan is requested.
+        verify(mWwanSelectorCallback, times(1)).onRequestEmergencyNetworkScan(
+                any(), anyInt(), any(), any());
+        assertNotNull(mResultConsumer);
+    }
+
+    private void createSelectorWithScanResultCache(EmergencyScanResultCache scanResultCache)
+            throws Exception {
+        mResultConsumer = null;
+        mDomainSelector = new EmergencyCallDomainSelector(
+                mContext, SLOT_0, SLOT_0_SUB_ID, mHandlerThread.getLooper(),
+                mImsStateTracker, mDestroyListener, mCsrdCtrl, null,
+                EmergencyCallTimeline.getInstance(), scanResultCache);
+        replaceInstance(DomainSelectorBase.class,
+                "mWwanSelectorCallback", mDomainSelector, mWwanSelectorCallback);
+        unsolBarringInfoChanged(true);
+    }
+
     private void setupForHandleScanResult() throws Exception {
         mResultConsumer = null;
         createSelector(SLOT_0_SUB_ID);
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony.domainselection;
+
+import static android.telephony.AccessNetworkConstants.AccessNetworkType.CDMA2000;
+import static android.telephony.AccessNetworkConstants.AccessNetworkType.EUTRAN;
+import static android.telephony.AccessNetworkConstants.AccessNetworkType.GERAN;
+import static android.telephony.AccessNetworkConstants.AccessNetworkType.NGRAN;
+import static android.telephony.AccessNetworkConstants.AccessNetworkType.UTRAN;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_CDMA_PREFERRED_NUMBERS_STRING_ARRAY;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_OVER_CS_SUPPORTED_ACCESS_NETWORK_TYPES_INT_ARRAY;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_OVER_IMS_SUPPORTED_3GPP_NETWORK_TYPES_INT_ARRAY;
+import static android.telephony.CarrierConfigManager.ImsEmergency.KEY_EMERGENCY_SCAN_TIMER_SEC_INT;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.content.Context;
+import android.os.PersistableBundle;
+import android.telephony.CarrierConfigManager;
+import android.telephony.SubscriptionManager;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.TestContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Arrays;
+
+/**
+ * Unit tests for EmergencyCallPolicyCache.
+ */
+@RunWith(AndroidJUnit4.class)
+public class EmergencyCallPolicyCacheTest {
+    private static final int SUB_1 = 1;
+
+    private Context mContext;
+    private CarrierConfigManager mCarrierConfigManager;
+    private EmergencyCallPolicyCache mPolicyCache;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = new TestContext();
+        mCarrierConfigManager = mContext.getSystemService(CarrierConfigManager.class);
+        doReturn(getConfig(10)).when(mCarrierConfigManager).getConfigForSubId(anyInt());
+        mPolicyCache = new EmergencyCallPolicyCache(mContext, Runnable::run);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (mPolicyCache != null) {
+            mPolicyCache.destroy();
+            mPolicyCache = null;
+        }
+    }
+
+    @Test
+    @SmallTest
+    public void testPolicyLoadedOnce() {
+        EmergencyCallPolicy policy = mPolicyCache.getPolicy(SUB_1);
+
+        assertSame(policy, mPolicyCache.getPolicy(SUB_1));
+        verify(mCarrierConfigManager, times(1)).getConfigForSubId(SUB_1);
+        assertEquals(10000, policy.mScanTimeout);
+        assertEquals(Arrays.asList(EUTRAN), policy.getImsNetworkTypes(false));
+    }
+
+    @Test
+    @SmallTest
+    public void testPolicyReloadedOnCarrierConfigChange() {
+        ArgumentCaptor<CarrierConfigManager.CarrierConfigChangeListener> listenerCaptor =
+                ArgumentCaptor.forClass(CarrierConfigManager.CarrierConfigChangeListener.class);
+        verify(mCarrierConfigManager).registerCarrierConfigChangeListener(any(),
+                listenerCaptor.capture());
+        mPolicyCache.getPolicy(SUB_1);
+
+        doReturn(getConfig(20)).when(mCarrierConfigManager).getConfigForSubId(anyInt());
+        listenerCaptor.getValue().onCarrierConfigChanged(0, SUB_1, 0, 0);
+
+        // The policy is decoded when the carrier config changes, not when it is used.
+        verify(mCarrierConfigManager, times(2)).getConfigForSubId(SUB_1);
+        assertEquals(20000, mPolicyCache.getPolicy(SUB_1).mScanTimeout);
+        verify(mCarrierConfigManager, times(2)).getConfigForSubId(SUB_1);
+    }
+
+    @Test
+    @SmallTest
+    public void testCsNetworkTypesWithCdmaPreferredNumbers() {
+        PersistableBundle config = getConfig(10);
+        config.putIntArray(KEY_EMERGENCY_OVER_CS_SUPPORTED_ACCESS_NETWORK_TYPES_INT_ARRAY,
+                new int[] { UTRAN, CDMA2000, GERAN });
+        config.putStringArray(KEY_EMERGENCY_CDMA_PREFERRED_NUMBERS_STRING_ARRAY,
+                new String[] { "911" });
+        EmergencyCallPolicy policy = new EmergencyCallPolicy(SUB_1, config);
+
+        assertEquals(Arrays.asList(CDMA2000), policy.getCsNetworkTypes(false, "911"));
+        assertEquals(Arrays.asList(UTRAN, GERAN), policy.getCsNetworkTypes(false, "112"));
+    }
+
+    @Test
+    @SmallTest
+    public void testNoSubscriptionPolicy() {
+        EmergencyCallPolicy policy = new EmergencyCallPolicy(
+                SubscriptionManager.INVALID_SUBSCRIPTION_ID, null);
+
+        assertEquals(Arrays.asList(EUTRAN, NGRAN), policy.getImsNetworkTypes(false));
+        assertEquals(Arrays.asList(EUTRAN, NGRAN), policy.getImsNetworkTypes(true));
+    }
+
+    private static PersistableBundle getConfig(int scanTimerSec) {
+        PersistableBundle bundle = new PersistableBundle();
+        bundle.putIntArray(KEY_EMERGENCY_OVER_IMS_SUPPORTED_3GPP_NETWORK_TYPES_INT_ARRAY,
+                new int[] { EUTRAN });
+        bundle.putInt(KEY_EMERGENCY_SCAN_TIMER_SEC_INT, scanTimerSec);
+        return bundle;
+    }
+}
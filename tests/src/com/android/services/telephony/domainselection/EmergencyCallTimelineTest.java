@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony.domainselection;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+import android.util.IndentingPrintWriter;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.StringWriter;
+
+/**
+ * Unit tests for EmergencyCallTimeline.
+ */
+@RunWith(AndroidJUnit4.class)
+public class EmergencyCallTimelineTest {
+    private static final String CALL_ID = "TC@1";
+
+    private long mTimeMs = 1000;
+    private EmergencyCallTimeline mTimeline;
+
+    @Before
+    public void setUp() throws Exception {
+        mTimeline = new EmergencyCallTimeline(new EmergencyCallTimeline.Clock() {
+            @Override
+            public long elapsedRealtime() {
+                return mTimeMs;
+            }
+
+            @Override
+            public long currentTimeMillis() {
+                return mTimeMs;
+            }
+        });
+    }
+
+    @Test
+    @SmallTest
+    public void testPhaseDurations() {
+        mTimeline.record(CALL_ID, EmergencyCallTimeline.EVENT_DIAL);
+        mTimeMs += 300;
+        mTimeline.record(CALL_ID, EmergencyCallTimeline.EVENT_EMERGENCY_MODE_READY);
+        mTimeMs += 20;
+        mTimeline.record(CALL_ID, EmergencyCallTimeline.EVENT_SELECTION_STARTED);
+        mTimeMs += 1500;
+        mTimeline.record(CALL_ID, EmergencyCallTimeline.EVENT_DOMAIN_SELECTED, "PS on EUTRAN");
+
+        assertEquals(300, mTimeline.getTimeSinceDial(CALL_ID,
+                EmergencyCallTimeline.EVENT_EMERGENCY_MODE_READY));
+        assertEquals(1820, mTimeline.getTimeSinceDial(CALL_ID,
+                EmergencyCallTimeline.EVENT_DOMAIN_SELECTED));
+        assertEquals(-1, mTimeline.getTimeSinceDial(CALL_ID,
+                EmergencyCallTimeline.EVENT_SCAN_REQUESTED));
+
+        String dump = dump();
+        assertTrue(dump.contains("+320ms (20ms) SELECTION_STARTED"));
+        assertTrue(dump.contains("+1820ms (1500ms) DOMAIN_SELECTED PS on EUTRAN"));
+    }
+
+    @Test
+    @SmallTest
+    public void testOldestCallDropped() {
+        for (int i = 0; i <= EmergencyCallTimeline.MAX_CALLS; i++) {
+            mTimeline.record("TC@" + i, EmergencyCallTimeline.EVENT_DIAL);
+        }
+
+        assertEquals(-1, mTimeline.getTimeSinceDial("TC@0", EmergencyCallTimeline.EVENT_DIAL));
+        assertEquals(0, mTimeline.getTimeSinceDial("TC@1", EmergencyCallTimeline.EVENT_DIAL));
+    }
+
+    @Test
+    @SmallTest
+    public void testEventsPerCallLimited() {
+        mTimeline.record(CALL_ID, EmergencyCallTimeline.EVENT_DIAL);
+        for (int i = 0; i < EmergencyCallTimeline.MAX_EVENTS_PER_CALL; i++) {
+            mTimeline.record(CALL_ID, EmergencyCallTimeline.EVENT_SCAN_RESULT);
+        }
+
+        assertTrue(dump().contains("1 events dropped"));
+    }
+
+    @Test
+    @SmallTest
+    public void testEmptyCallIdIgnored() {
+        mTimeline.record(null, EmergencyCallTimeline.EVENT_DIAL);
+        mTimeline.record("", EmergencyCallTimeline.EVENT_DIAL);
+
+        assertFalse(dump().contains("callId="));
+    }
+
+    private String dump() {
+        StringWriter sw = new StringWriter();
+        IndentingPrintWriter ipw = new IndentingPrintWriter(sw, "  ");
+        mTimeline.dump(ipw);
+        ipw.flush();
+        return sw.toString();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony.domainselection;
+
+import static android.telephony.AccessNetworkConstants.AccessNetworkType.EUTRAN;
+import static android.telephony.AccessNetworkConstants.AccessNetworkType.UNKNOWN;
+import static android.telephony.NetworkRegistrationInfo.DOMAIN_PS;
+import static android.telephony.NetworkRegistrationInfo.REGISTRATION_STATE_HOME;
+import static android.telephony.NetworkRegistrationInfo.REGISTRATION_STATE_UNKNOWN;
+
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+
+import android.telephony.EmergencyRegResult;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Unit tests for EmergencyScanResultCache.
+ */
+@RunWith(AndroidJUnit4.class)
+public class EmergencyScanResultCacheTest {
+    private static final int SLOT_0 = 0;
+    private static final int SLOT_1 = 1;
+    private static final long FRESHNESS_MS = 1000;
+
+    private long mTimeMs = 1000;
+    private EmergencyScanResultCache mCache;
+
+    @Before
+    public void setUp() throws Exception {
+        mCache = new EmergencyScanResultCache(() -> mTimeMs, FRESHNESS_MS);
+    }
+
+    @Test
+    @SmallTest
+    public void testTakeFreshResultOnce() {
+        EmergencyRegResult result = getResult(EUTRAN);
+        mCache.put(SLOT_0, result);
+
+        mTimeMs += FRESHNESS_MS;
+        assertNull(mCache.take(SLOT_1));
+        assertSame(result, mCache.take(SLOT_0));
+        assertNull(mCache.take(SLOT_0));
+    }
+
+    @Test
+    @SmallTest
+    public void testExpiredResultDiscarded() {
+        mCache.put(SLOT_0, getResult(EUTRAN));
+
+        mTimeMs += FRESHNESS_MS + 1;
+        assertNull(mCache.take(SLOT_0));
+    }
+
+    @Test
+    @SmallTest
+    public void testRemovedResultNotTaken() {
+        mCache.put(SLOT_0, getResult(EUTRAN));
+        mCache.put(SLOT_1, getResult(EUTRAN));
+
+        mCache.remove(SLOT_0);
+        assertNull(mCache.take(SLOT_0));
+        assertNotNull(mCache.take(SLOT_1));
+    }
+
+    @Test
+    @SmallTest
+    public void testNoNetworkFoundNotCached() {
+        mCache.put(SLOT_0, getResult(UNKNOWN));
+
+        assertNull(mCache.take(SLOT_0));
+    }
+
+    private static EmergencyRegResult getResult(int accessNetwork) {
+        return new EmergencyRegResult(accessNetwork,
+                (accessNetwork == UNKNOWN) ? REGISTRATION_STATE_UNKNOWN : REGISTRATION_STATE_HOME,
+                (accessNetwork == UNKNOWN) ? 0 : DOMAIN_PS, true, true, 0, 0, "", "", "");
+    }
+}
@@ -121,13 +121,15 @@ public class EmergencySmsDomainSelectorTest {
 
         ArgumentCaptor<ImsStateTracker.ServiceStateListener> serviceStateListenerCaptor =
                 ArgumentCaptor.forClass(ImsStateTracker.ServiceStateListener.class);
-        verify(mImsStateTracker).addServiceStateListener(serviceStateListenerCaptor.capture());
+        verify(mImsStateTracker).addServiceStateListener(serviceStateListenerCaptor.capture(),
+                eq(ImsStateTracker.SERVICE_STATE_CHANGE_WWAN_REGISTRATION));
         mServiceStateListener = serviceStateListenerCaptor.getValue();
         assertNotNull(mServiceStateListener);
 
         ArgumentCaptor<ImsStateTracker.BarringInfoListener> barringInfoListenerCaptor =
                 ArgumentCaptor.forClass(ImsStateTracker.BarringInfoListener.class);
-        verify(mImsStateTracker).addBarringInfoListener(barringInfoListenerCaptor.capture());
+        verify(mImsStateTracker).addBarringInfoListener(barringInfoListenerCaptor.capture(),
+                eq(ImsStateTracker.BARRING_CHANGE_EMERGENCY));
         mBarringInfoListener = barringInfoListenerCaptor.getValue();
         assertNotNull(mBarringInfoListener);
     }
@@ -803,7 +805,8 @@ public class EmergencySmsDomainSelectorTest {
                 }
             });
             return null;
-        }).when(mImsStateTracker).addImsStateListener(any(ImsStateTracker.ImsStateListener.class));
+        }).when(mImsStateTracker).addImsStateListener(
+                any(ImsStateTracker.ImsStateListener.class), anyInt());
     }
 
     private void processAllMessages() {
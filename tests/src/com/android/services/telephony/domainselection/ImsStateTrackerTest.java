@@ -18,10 +18,12 @@ package com.android.services.telephony.domainselection;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.same;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -35,6 +37,7 @@ import android.os.HandlerThread;
 import android.os.Looper;
 import android.telephony.AccessNetworkConstants.AccessNetworkType;
 import android.telephony.BarringInfo;
+import android.telephony.CellIdentityLte;
 import android.telephony.ServiceState;
 import android.telephony.SubscriptionManager;
 import android.telephony.ims.ImsException;
@@ -47,6 +50,7 @@ import android.telephony.ims.RegistrationManager;
 import android.telephony.ims.feature.MmTelFeature.MmTelCapabilities;
 import android.telephony.ims.stub.ImsRegistrationImplBase;
 import android.test.suitebuilder.annotation.SmallTest;
+import android.util.SparseArray;
 
 import androidx.test.runner.AndroidJUnit4;
 
@@ -315,6 +319,71 @@ public class ImsStateTrackerTest {
         verify(mBarringInfoListener, never()).onBarringInfoUpdated(eq(mBarringInfo));
     }
 
+    @Test
+    @SmallTest
+    public void testServiceStateListenerNotifiedOfInterestedChanges() {
+        ImsStateTracker.ServiceStateListener stateListener =
+                Mockito.mock(ImsStateTracker.ServiceStateListener.class);
+        mImsStateTracker.addServiceStateListener(mServiceStateListener);
+        mImsStateTracker.addServiceStateListener(stateListener,
+                ImsStateTracker.SERVICE_STATE_CHANGE_STATE);
+
+        ServiceState ss = new ServiceState();
+        ss.setState(ServiceState.STATE_IN_SERVICE);
+        mImsStateTracker.updateServiceState(ss);
+        verify(mServiceStateListener).onServiceStateUpdated(same(ss));
+        verify(stateListener).onServiceStateUpdated(same(ss));
+
+        // The identical ServiceState is not notified.
+        ServiceState sameSs = new ServiceState(ss);
+        mImsStateTracker.updateServiceState(sameSs);
+        verify(mServiceStateListener, never()).onServiceStateUpdated(same(sameSs));
+
+        // Only the listener interested in any change is notified of the operator change.
+        ServiceState operatorSs = new ServiceState(ss);
+        operatorSs.setOperatorName("long", "short", "00101");
+        mImsStateTracker.updateServiceState(operatorSs);
+        verify(mServiceStateListener).onServiceStateUpdated(same(operatorSs));
+        verify(stateListener, never()).onServiceStateUpdated(same(operatorSs));
+
+        ServiceState oosSs = new ServiceState(operatorSs);
+        oosSs.setState(ServiceState.STATE_OUT_OF_SERVICE);
+        mImsStateTracker.updateServiceState(oosSs);
+        verify(mServiceStateListener).onServiceStateUpdated(same(oosSs));
+        verify(stateListener).onServiceStateUpdated(same(oosSs));
+    }
+
+    @Test
+    @SmallTest
+    public void testBarringInfoListenerNotifiedOfEmergencyBarringChanges() {
+        ImsStateTracker.BarringInfoListener emergencyListener =
+                Mockito.mock(ImsStateTracker.BarringInfoListener.class);
+        mImsStateTracker.addBarringInfoListener(emergencyListener,
+                ImsStateTracker.BARRING_CHANGE_EMERGENCY);
+
+        BarringInfo barringInfo = new BarringInfo(new CellIdentityLte(), new SparseArray<>());
+        mImsStateTracker.updateBarringInfo(barringInfo);
+        // The identical BarringInfo is not notified.
+        mImsStateTracker.updateBarringInfo(
+                new BarringInfo(new CellIdentityLte(), new SparseArray<>()));
+        verify(emergencyListener).onBarringInfoUpdated(any());
+
+        // The barring of other services is not notified.
+        SparseArray<BarringInfo.BarringServiceInfo> serviceInfos = new SparseArray<>();
+        serviceInfos.put(BarringInfo.BARRING_SERVICE_TYPE_MO_DATA,
+                new BarringInfo.BarringServiceInfo(
+                        BarringInfo.BarringServiceInfo.BARRING_TYPE_UNCONDITIONAL, false, 0, 0));
+        mImsStateTracker.updateBarringInfo(new BarringInfo(new CellIdentityLte(), serviceInfos));
+        verify(emergencyListener).onBarringInfoUpdated(any());
+
+        serviceInfos.put(BarringInfo.BARRING_SERVICE_TYPE_EMERGENCY,
+                new BarringInfo.BarringServiceInfo(
+                        BarringInfo.BarringServiceInfo.BARRING_TYPE_UNCONDITIONAL, false, 0, 0));
+        BarringInfo barredInfo = new BarringInfo(new CellIdentityLte(), serviceInfos);
+        mImsStateTracker.updateBarringInfo(barredInfo);
+        verify(emergencyListener).onBarringInfoUpdated(same(barredInfo));
+    }
+
     @Test
     @SmallTest
     public void testNotifyImsStateCallbackOnAvailable() throws ImsException {
@@ -590,6 +659,79 @@ public class ImsStateTrackerTest {
         assertEquals(AccessNetworkType.UNKNOWN, mImsStateTracker.getImsAccessNetworkType());
 
         verify(mImsStateListener, times(2)).onImsRegistrationStateChanged();
+        // The reset MMTEL capability is notified, too.
+        verify(mImsStateListener).onImsMmTelCapabilitiesChanged();
+    }
+
+    @Test
+    @SmallTest
+    public void testVoiceListenersReceiveCapabilitiesAfterUnregistered() throws ImsException {
+        ImsMmTelManager.CapabilityCallback callback = setUpMmTelCapabilityCallback();
+        ArgumentCaptor<RegistrationManager.RegistrationCallback> registrationCaptor =
+                ArgumentCaptor.forClass(RegistrationManager.RegistrationCallback.class);
+        verify(mMmTelManager).registerImsRegistrationCallback(
+                any(Executor.class), registrationCaptor.capture());
+
+        // A voice listener, like an emergency call domain selector, waits for the capabilities.
+        ImsStateTracker.ImsStateListener voiceListener =
+                Mockito.mock(ImsStateTracker.ImsStateListener.class);
+        mImsStateTracker.addImsStateListener(voiceListener,
+                MmTelCapabilities.CAPABILITY_TYPE_VOICE);
+        waitForHandlerAction(mImsStateTracker.getHandler(), TIMEOUT_MS);
+        verify(voiceListener, never()).onImsMmTelCapabilitiesChanged();
+
+        registrationCaptor.getValue().onUnregistered(
+                new ImsReasonInfo(ImsReasonInfo.CODE_REGISTRATION_ERROR, 0, null));
+        verify(voiceListener).onImsMmTelCapabilitiesChanged();
+
+        // The identical capabilities reported by the IMS service are not notified again.
+        callback.onCapabilitiesStatusChanged(new MmTelCapabilities());
+        verify(voiceListener).onImsMmTelCapabilitiesChanged();
+
+        // A voice listener added later, like a new emergency call domain selector, receives the
+        // current capabilities.
+        ImsStateTracker.ImsStateListener newVoiceListener =
+                Mockito.mock(ImsStateTracker.ImsStateListener.class);
+        mImsStateTracker.addImsStateListener(newVoiceListener,
+                MmTelCapabilities.CAPABILITY_TYPE_VOICE);
+        waitForHandlerAction(mImsStateTracker.getHandler(), TIMEOUT_MS);
+
+        verify(newVoiceListener).onImsRegistrationStateChanged();
+        verify(newVoiceListener).onImsMmTelCapabilitiesChanged();
+        assertTrue(mImsStateTracker.isImsStateReady());
+        assertFalse(mImsStateTracker.isImsVoiceCapable());
+    }
+
+    @Test
+    @SmallTest
+    public void testNotifyImsRegistrationCallbackOnSameRegistration() throws ImsException {
+        RegistrationManager.RegistrationCallback callback = setUpImsRegistrationCallback();
+        callback.onRegistered(new ImsRegistrationAttributes.Builder(
+                ImsRegistrationImplBase.REGISTRATION_TECH_LTE).build());
+        callback.onRegistered(new ImsRegistrationAttributes.Builder(
+                ImsRegistrationImplBase.REGISTRATION_TECH_LTE).build());
+
+        assertTrue(mImsStateTracker.isImsRegistered());
+        verify(mImsStateListener).onImsRegistrationStateChanged();
+    }
+
+    @Test
+    @SmallTest
+    public void testStateVersionChangedOnlyWhenImsStateChanged() throws ImsException {
+        RegistrationManager.RegistrationCallback callback = setUpImsRegistrationCallback();
+        callback.onRegistered(new ImsRegistrationAttributes.Builder(
+                ImsRegistrationImplBase.REGISTRATION_TECH_LTE).build());
+        int version = mImsStateTracker.getStateVersion();
+
+        callback.onRegistered(new ImsRegistrationAttributes.Builder(
+                ImsRegistrationImplBase.REGISTRATION_TECH_LTE).build());
+
+        assertEquals(version, mImsStateTracker.getStateVersion());
+
+        callback.onRegistered(new ImsRegistrationAttributes.Builder(
+                ImsRegistrationImplBase.REGISTRATION_TECH_IWLAN).build());
+
+        assertNotEquals(version, mImsStateTracker.getStateVersion());
     }
 
     @Test
@@ -628,6 +770,34 @@ public class ImsStateTrackerTest {
         verify(mImsStateListener, times(2)).onImsMmTelCapabilitiesChanged();
     }
 
+    @Test
+    @SmallTest
+    public void testMmTelCapabilitiesListenerNotifiedOfInterestedChanges() throws ImsException {
+        ImsMmTelManager.CapabilityCallback callback = setUpMmTelCapabilityCallback();
+        ImsStateTracker.ImsStateListener smsListener =
+                Mockito.mock(ImsStateTracker.ImsStateListener.class);
+        mImsStateTracker.addImsStateListener(smsListener,
+                MmTelCapabilities.CAPABILITY_TYPE_SMS);
+        waitForHandlerAction(mImsStateTracker.getHandler(), TIMEOUT_MS);
+
+        // The first capabilities are notified to all listeners.
+        callback.onCapabilitiesStatusChanged(
+                new MmTelCapabilities(MmTelCapabilities.CAPABILITY_TYPE_VOICE));
+        verify(smsListener).onImsMmTelCapabilitiesChanged();
+
+        callback.onCapabilitiesStatusChanged(new MmTelCapabilities(
+                MmTelCapabilities.CAPABILITY_TYPE_VOICE
+                | MmTelCapabilities.CAPABILITY_TYPE_VIDEO));
+        verify(smsListener).onImsMmTelCapabilitiesChanged();
+
+        callback.onCapabilitiesStatusChanged(new MmTelCapabilities(
+                MmTelCapabilities.CAPABILITY_TYPE_VOICE
+                | MmTelCapabilities.CAPABILITY_TYPE_VIDEO
+                | MmTelCapabilities.CAPABILITY_TYPE_SMS));
+        verify(smsListener, times(2)).onImsMmTelCapabilitiesChanged();
+        verify(mImsStateListener, times(3)).onImsMmTelCapabilitiesChanged();
+    }
+
     @Test
     @SmallTest
     public void testAddImsStateListenerWhenImsStateReady() throws ImsException {
@@ -20,11 +20,15 @@ import static android.telephony.DomainSelectionService.SELECTOR_TYPE_CALLING;
 import static android.telephony.DomainSelectionService.SELECTOR_TYPE_UT;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 
 import android.annotation.NonNull;
 import android.content.Context;
@@ -411,6 +415,52 @@ public class NormalCallDomainSelectorTest {
                 .verifyOnDomainSelected(NetworkRegistrationInfo.DOMAIN_PS));
     }
 
+    @Test
+    public void testPooledSelectorKeepsListenersAfterFinishSelection() {
+        mNormalCallDomainSelector.setPooled(true);
+
+        mNormalCallDomainSelector.finishSelection();
+
+        verify(mMockImsStateTracker, never()).removeServiceStateListener(any());
+        verify(mMockImsStateTracker, never()).removeImsStateListener(any());
+        assertTrue(mNormalCallDomainSelector.isIdle());
+    }
+
+    @Test
+    public void testPooledSelectorRemovesListenersOnDestroy() {
+        mNormalCallDomainSelector.setPooled(true);
+        mNormalCallDomainSelector.finishSelection();
+
+        mNormalCallDomainSelector.destroy();
+
+        verify(mMockImsStateTracker).removeServiceStateListener(eq(mNormalCallDomainSelector));
+        verify(mMockImsStateTracker).removeImsStateListener(eq(mNormalCallDomainSelector));
+        verify(mMockDestroyListener).onDomainSelectorDestroyed(eq(mNormalCallDomainSelector));
+    }
+
+    @Test
+    public void testResetClearsReselectDomain() {
+        mNormalCallDomainSelector.setPooled(true);
+        MockTransportSelectorCallback transportSelectorCallback =
+                new MockTransportSelectorCallback();
+        // The selection is terminated at once for the unsupported selector type.
+        DomainSelectionService.SelectionAttributes attributes =
+                new DomainSelectionService.SelectionAttributes.Builder(
+                        SLOT_ID, SUB_ID_1, SELECTOR_TYPE_UT)
+                        .setCallId(TEST_CALLID)
+                        .setEmergency(false)
+                        .build();
+        mNormalCallDomainSelector.selectDomain(attributes, transportSelectorCallback);
+        mNormalCallDomainSelector.reselectDomain(attributes);
+        assertTrue(mNormalCallDomainSelector.isReselectDomain());
+
+        mNormalCallDomainSelector.finishSelection();
+        assertTrue(mNormalCallDomainSelector.isIdle());
+        mNormalCallDomainSelector.reset();
+
+        assertFalse(mNormalCallDomainSelector.isReselectDomain());
+    }
+
     static class MockTransportSelectorCallback implements TransportSelectorCallback,
             WwanSelectorCallback {
         public boolean mCreated;
@@ -25,6 +25,7 @@ import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -218,6 +219,92 @@ public class SmsDomainSelectorTest {
         verify(mDomainSelectorDestroyListener).onDomainSelectorDestroyed(eq(mDomainSelector));
     }
 
+    @Test
+    @SmallTest
+    public void testFinishSelectionWhenPooled() {
+        setUpImsStateTracker(AccessNetworkType.EUTRAN);
+        mDomainSelector.setPooled(true);
+
+        mDomainSelector.selectDomain(mSelectionAttributes, mTransportSelectorCallback);
+        mDomainSelector.finishSelection();
+
+        assertFalse(mDomainSelector.isDomainSelectionRequested());
+        verify(mDomainSelectorDestroyListener, never())
+                .onDomainSelectorDestroyed(eq(mDomainSelector));
+        verify(mImsStateTracker, never()).removeImsStateListener(eq(mDomainSelector));
+        assertTrue(mDomainSelector.isIdle());
+
+        mDomainSelector.selectDomain(mSelectionAttributes, mTransportSelectorCallback);
+
+        verify(mImsStateTracker).addImsStateListener(eq(mDomainSelector), anyInt());
+    }
+
+    @Test
+    @SmallTest
+    public void testSelectDomainUsesCachedSelectionWhenImsStateNotChanged() {
+        selectDomain(AccessNetworkType.EUTRAN);
+        mDomainSelector.setPooled(true);
+        mDomainSelector.finishSelection();
+
+        mDomainSelector.selectDomain(mSelectionAttributes, mTransportSelectorCallback);
+
+        // The cached selection is notified without processing the message queue.
+        verify(mWwanSelectorCallback, times(2)).onDomainSelected(
+                eq(NetworkRegistrationInfo.DOMAIN_PS), eq(false));
+        assertFalse(mDomainSelector.isDomainSelectionRequested());
+    }
+
+    @Test
+    @SmallTest
+    public void testSelectDomainIgnoresCachedSelectionWhenImsStateUpdatePending() {
+        selectDomain(AccessNetworkType.EUTRAN);
+        mDomainSelector.setPooled(true);
+        mDomainSelector.finishSelection();
+
+        // A deregistration is queued to the tracker but not processed yet.
+        when(mImsStateTracker.hasPendingStateUpdates()).thenReturn(true);
+        mDomainSelector.post(() -> {
+            setUpImsStateTracker(AccessNetworkType.UNKNOWN);
+            when(mImsStateTracker.getStateVersion()).thenReturn(1);
+            when(mImsStateTracker.hasPendingStateUpdates()).thenReturn(false);
+            mDomainSelector.onImsRegistrationStateChanged();
+        });
+        mDomainSelector.selectDomain(mSelectionAttributes, mTransportSelectorCallback);
+
+        // The cached selection is not notified before the queued update is processed.
+        assertTrue(mDomainSelector.isDomainSelectionRequested());
+        verify(mWwanSelectorCallback).onDomainSelected(eq(NetworkRegistrationInfo.DOMAIN_PS),
+                eq(false));
+
+        processAllMessages();
+
+        verify(mWwanSelectorCallback).onDomainSelected(eq(NetworkRegistrationInfo.DOMAIN_CS),
+                eq(false));
+        verify(mWwanSelectorCallback).onDomainSelected(eq(NetworkRegistrationInfo.DOMAIN_PS),
+                eq(false));
+        assertFalse(mDomainSelector.isDomainSelectionRequested());
+    }
+
+    @Test
+    @SmallTest
+    public void testSelectDomainIgnoresCachedSelectionWhenImsStateChanged() {
+        selectDomain(AccessNetworkType.EUTRAN);
+        mDomainSelector.setPooled(true);
+        mDomainSelector.finishSelection();
+
+        setUpImsStateTracker(AccessNetworkType.UNKNOWN);
+        when(mImsStateTracker.getStateVersion()).thenReturn(1);
+        mDomainSelector.selectDomain(mSelectionAttributes, mTransportSelectorCallback);
+
+        assertTrue(mDomainSelector.isDomainSelectionRequested());
+
+        processAllMessages();
+
+        verify(mWwanSelectorCallback).onDomainSelected(eq(NetworkRegistrationInfo.DOMAIN_CS),
+                eq(false));
+        assertFalse(mDomainSelector.isDomainSelectionRequested());
+    }
+
     @Test
     @SmallTest
     public void testReselectDomain() {
@@ -431,7 +518,8 @@ public class SmsDomainSelectorTest {
                 }
             });
             return null;
-        }).when(mImsStateTracker).addImsStateListener(any(ImsStateTracker.ImsStateListener.class));
+        }).when(mImsStateTracker).addImsStateListener(
+                any(ImsStateTracker.ImsStateListener.class), anyInt());
     }
 
     private void processAllMessages() {
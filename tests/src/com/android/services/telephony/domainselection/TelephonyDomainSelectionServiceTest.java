@@ -16,11 +16,14 @@
 
 package com.android.services.telephony.domainselection;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -78,7 +81,10 @@ public class TelephonyDomainSelectionServiceTest {
                         @SelectorType int selectorType, boolean isEmergency,
                         @NonNull Looper looper, @NonNull ImsStateTracker imsStateTracker,
                         @NonNull DomainSelectorBase.DestroyListener listener,
-                        @NonNull CrossSimRedialingController crossSimRedialingController) {
+                        @NonNull CrossSimRedialingController crossSimRedialingController,
+                        @NonNull EmergencyCallPolicyCache emergencyCallPolicyCache,
+                        EmergencyScanResultCache emergencyScanResultCache) {
+                    mDomainSelectorCreateCount++;
                     switch (selectorType) {
                         case DomainSelectionService.SELECTOR_TYPE_CALLING: // fallthrough
                         case DomainSelectionService.SELECTOR_TYPE_SMS: // fallthrough
@@ -117,6 +123,7 @@ public class TelephonyDomainSelectionServiceTest {
     private OnSubscriptionsChangedListener mOnSubscriptionsChangedListener;
     private DomainSelectorBase.DestroyListener mDomainSelectorDestroyListener;
     private TelephonyDomainSelectionService mDomainSelectionService;
+    private int mDomainSelectorCreateCount;
 
     @Before
     public void setUp() throws Exception {
@@ -278,6 +285,104 @@ public class TelephonyDomainSelectionServiceTest {
         verify(mDomainSelectorBase2).selectDomain(eq(attr2), eq(mSelectorCallback2));
     }
 
+    @Test
+    @SmallTest
+    public void testOnDomainSelectionReusesIdlePooledDomainSelector() {
+        SelectionAttributes attr1 = new SelectionAttributes.Builder(
+                SLOT_0, SUB_1, DomainSelectionService.SELECTOR_TYPE_SMS)
+                .setEmergency(false)
+                .build();
+        mServiceHandler.post(() -> {
+            mDomainSelectionService.onDomainSelection(attr1, mSelectorCallback1);
+        });
+        processAllMessages();
+
+        verify(mDomainSelectorBase1).setPooled(eq(true));
+        doReturn(true).when(mDomainSelectorBase1).isPooled();
+        doReturn(SUB_1).when(mDomainSelectorBase1).getSubId();
+        doReturn(true).when(mDomainSelectorBase1).isIdle();
+
+        SelectionAttributes attr2 = new SelectionAttributes.Builder(
+                SLOT_0, SUB_1, DomainSelectionService.SELECTOR_TYPE_SMS)
+                .setEmergency(false)
+                .build();
+        mServiceHandler.post(() -> {
+            mDomainSelectionService.onDomainSelection(attr2, mSelectorCallback2);
+        });
+        processAllMessages();
+
+        assertEquals(1, mDomainSelectorCreateCount);
+        verify(mDomainSelectorBase1).reset();
+        verify(mDomainSelectorBase1, never()).destroy();
+        verify(mSelectorCallback2).onCreated(eq(mDomainSelectorBase1));
+        verify(mDomainSelectorBase1).selectDomain(eq(attr2), eq(mSelectorCallback2));
+    }
+
+    @Test
+    @SmallTest
+    public void testOnDomainSelectionDoesNotReuseBusyPooledDomainSelector() {
+        SelectionAttributes attr1 = new SelectionAttributes.Builder(
+                SLOT_0, SUB_1, DomainSelectionService.SELECTOR_TYPE_SMS)
+                .setEmergency(false)
+                .build();
+        mServiceHandler.post(() -> {
+            mDomainSelectionService.onDomainSelection(attr1, mSelectorCallback1);
+            mDomainSelectionService.onDomainSelection(attr1, mSelectorCallback2);
+        });
+        processAllMessages();
+
+        // The mocked domain selector is not idle, so a new one is created.
+        assertEquals(2, mDomainSelectorCreateCount);
+        verify(mDomainSelectorBase1, never()).reset();
+        verify(mDomainSelectorBase1, times(2)).setPooled(eq(true));
+    }
+
+    @Test
+    @SmallTest
+    public void testHandleSubscriptionsChangedDestroysIdlePooledDomainSelector() {
+        setUpPooledDomainSelector(true);
+
+        SubscriptionInfo subsInfo = Mockito.mock(SubscriptionInfo.class);
+        when(mSubscriptionManager.getActiveSubscriptionInfoList()).thenReturn(List.of(subsInfo));
+        when(subsInfo.getSubscriptionId()).thenReturn(SUB_2);
+        when(subsInfo.getSimSlotIndex()).thenReturn(SLOT_0);
+
+        mOnSubscriptionsChangedListener.onSubscriptionsChanged();
+
+        verify(mDomainSelectorBase1).setPooled(eq(false));
+        verify(mDomainSelectorBase1).destroy();
+    }
+
+    @Test
+    @SmallTest
+    public void testHandleSubscriptionsChangedReleasesBusyPooledDomainSelector() {
+        setUpPooledDomainSelector(false);
+
+        when(mSubscriptionManager.getActiveSubscriptionInfoList()).thenReturn(null);
+
+        mOnSubscriptionsChangedListener.onSubscriptionsChanged();
+
+        // The busy domain selector is not reused, it's released when the selection finishes.
+        verify(mDomainSelectorBase1).setPooled(eq(false));
+        verify(mDomainSelectorBase1, never()).destroy();
+    }
+
+    @Test
+    @SmallTest
+    public void testHandleSubscriptionsChangedKeepsActivePooledDomainSelector() {
+        setUpPooledDomainSelector(true);
+
+        SubscriptionInfo subsInfo = Mockito.mock(SubscriptionInfo.class);
+        when(mSubscriptionManager.getActiveSubscriptionInfoList()).thenReturn(List.of(subsInfo));
+        when(subsInfo.getSubscriptionId()).thenReturn(SUB_1);
+        when(subsInfo.getSimSlotIndex()).thenReturn(SLOT_0);
+
+        mOnSubscriptionsChangedListener.onSubscriptionsChanged();
+
+        verify(mDomainSelectorBase1, never()).setPooled(eq(false));
+        verify(mDomainSelectorBase1, never()).destroy();
+    }
+
     @Test
     @SmallTest
     public void testOnServiceStateUpdated() {
@@ -358,6 +463,22 @@ public class TelephonyDomainSelectionServiceTest {
         verify(mImsStateTracker).start(eq(SUB_1));
     }
 
+    private void setUpPooledDomainSelector(boolean idle) {
+        SelectionAttributes attr = new SelectionAttributes.Builder(
+                SLOT_0, SUB_1, DomainSelectionService.SELECTOR_TYPE_SMS)
+                .setEmergency(false)
+                .build();
+        mServiceHandler.post(() -> {
+            mDomainSelectionService.onDomainSelection(attr, mSelectorCallback1);
+        });
+        processAllMessages();
+
+        verify(mDomainSelectorBase1).setPooled(eq(true));
+        doReturn(true).when(mDomainSelectorBase1).isPooled();
+        doReturn(SUB_1).when(mDomainSelectorBase1).getSubId();
+        doReturn(idle).when(mDomainSelectorBase1).isIdle();
+    }
+
     private void processAllMessages() {
         while (!mTestableLooper.getLooper().getQueue().isIdle()) {
             mTestableLooper.processAllMessages();
@@ -41,6 +41,7 @@ import androidx.test.ext.junit.runners.AndroidJUnit4;
 import androidx.test.filters.SmallTest;
 
 import com.android.TelephonyTestBase;
+import com.android.TestExecutorService;
 import com.android.internal.telephony.metrics.RcsStats;
 
 import org.junit.After;
@@ -112,6 +113,55 @@ public class DelegateStateTrackerTest extends TelephonyTestBase {
         verify(mAppCallback, never()).onDestroyed(anyInt());
     }
 
+    /**
+     * Registration state changes received while the coalescing window is open should be collapsed
+     * so that only the latest state is sent when the window closes, and nothing is sent if the
+     * state returned to the one last sent.
+     */
+    @SmallTest
+    @Test
+    public void testRegistrationStateChangesCoalesced() throws Exception {
+        TestExecutorService executor = new TestExecutorService(true /*waitToComplete*/);
+        DelegateStateTracker stateTracker = new DelegateStateTracker(TEST_SUB_ID,
+                Binder.getCallingUid(), mAppCallback, mSipDelegate, mRcsStats, executor,
+                DelegateStateTracker.COALESCE_WINDOW_DEFAULT_MS);
+        stateTracker.sipDelegateConnected(getSupportedTags(), getMmTelDeniedTag());
+        List<FeatureTagState> deniedTags = new ArrayList<>(getMmTelDeniedTag());
+
+        DelegateRegistrationState registered = new DelegateRegistrationState.Builder()
+                .addRegisteredFeatureTag(ImsSignallingUtils.ONE_TO_ONE_CHAT_TAG)
+                .build();
+        DelegateRegistrationState deregistered = new DelegateRegistrationState.Builder()
+                .addDeregisteredFeatureTag(ImsSignallingUtils.ONE_TO_ONE_CHAT_TAG,
+                        DelegateRegistrationState.DEREGISTERED_REASON_NOT_REGISTERED)
+                .build();
+        DelegateRegistrationState registeredGroupChat = new DelegateRegistrationState.Builder()
+                .addRegisteredFeatureTag(ImsSignallingUtils.ONE_TO_ONE_CHAT_TAG)
+                .addRegisteredFeatureTag(ImsSignallingUtils.GROUP_CHAT_TAG)
+                .build();
+
+        // The first change is sent immediately, the following changes are held back.
+        stateTracker.onRegistrationStateChanged(registered);
+        stateTracker.onRegistrationStateChanged(deregistered);
+        stateTracker.onRegistrationStateChanged(registeredGroupChat);
+        verify(mAppCallback).onFeatureTagStatusChanged(eq(registered), eq(deniedTags));
+        verify(mAppCallback, times(1)).onFeatureTagStatusChanged(any(), any());
+
+        // Only the latest state is sent when the window closes.
+        executor.executePending();
+        verify(mAppCallback).onFeatureTagStatusChanged(eq(registeredGroupChat), eq(deniedTags));
+        verify(mAppCallback, never()).onFeatureTagStatusChanged(eq(deregistered), any());
+
+        // The registration flaps and returns to the state last sent.
+        stateTracker.onRegistrationStateChanged(registered);
+        stateTracker.onRegistrationStateChanged(deregistered);
+        stateTracker.onRegistrationStateChanged(registered);
+        executor.executePending();
+        verify(mAppCallback, times(2)).onFeatureTagStatusChanged(eq(registered), eq(deniedTags));
+        verify(mAppCallback, never()).onFeatureTagStatusChanged(eq(deregistered), any());
+        verify(mAppCallback, times(3)).onFeatureTagStatusChanged(any(), any());
+    }
+
     /**
      * onDestroyed should be called when sipDelegateDestroyed is called.
      */
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony.rcs;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+@RunWith(AndroidJUnit4.class)
+public class FeatureLifecycleCoordinatorTest {
+
+    private long mTimeMs = 1000;
+
+    @SmallTest
+    @Test
+    public void testDispatchWaitsForAllFeatures() {
+        FeatureLifecycleCoordinator coordinator =
+                new FeatureLifecycleCoordinator("[0] ", () -> mTimeMs);
+        RcsFeatureController.Feature slowFeature = mock(UceControllerManager.class);
+        RcsFeatureController.Feature fastFeature = mock(SipTransportController.class);
+        CompletableFuture<Void> slowAck = new CompletableFuture<>();
+        doReturn(slowAck).when(slowFeature).onCarrierConfigChanged();
+        doReturn(CompletableFuture.completedFuture(null)).when(fastFeature)
+                .onCarrierConfigChanged();
+
+        CompletableFuture<Void> result = coordinator.dispatch("onCarrierConfigChanged",
+                Arrays.asList(slowFeature, fastFeature),
+                RcsFeatureController.Feature::onCarrierConfigChanged);
+        // Both features are notified without waiting for the slow feature.
+        verify(slowFeature).onCarrierConfigChanged();
+        verify(fastFeature).onCarrierConfigChanged();
+        assertFalse(result.isDone());
+        assertEquals(0, coordinator.getTiming(
+                fastFeature.getClass().getSimpleName()).latencyMs);
+        assertEquals(-1, coordinator.getTiming(
+                slowFeature.getClass().getSimpleName()).latencyMs);
+
+        mTimeMs += 25;
+        slowAck.complete(null);
+        assertTrue(result.isDone());
+        assertEquals(25, coordinator.getTiming(
+                slowFeature.getClass().getSimpleName()).latencyMs);
+    }
+
+    @SmallTest
+    @Test
+    public void testDispatchFailingFeature() {
+        FeatureLifecycleCoordinator coordinator =
+                new FeatureLifecycleCoordinator("[0] ", () -> mTimeMs);
+        RcsFeatureController.Feature failingFeature = mock(UceControllerManager.class);
+        RcsFeatureController.Feature feature = mock(SipTransportController.class);
+        doThrow(new IllegalStateException()).when(failingFeature).onRcsDisconnected();
+        CompletableFuture<Void> failedAck = new CompletableFuture<>();
+        failedAck.completeExceptionally(new IllegalStateException());
+        doReturn(failedAck).when(feature).onRcsDisconnected();
+
+        CompletableFuture<Void> result = coordinator.dispatch("onRcsDisconnected",
+                Arrays.asList(failingFeature, feature),
+                RcsFeatureController.Feature::onRcsDisconnected);
+        // A failure is still an acknowledgement and does not prevent other features from being
+        // notified.
+        verify(feature).onRcsDisconnected();
+        assertTrue(result.isDone());
+        assertFalse(result.isCompletedExceptionally());
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony.rcs;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.services.telephony.rcs.FeatureTagRegistry.FeatureTagSet;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+@RunWith(AndroidJUnit4.class)
+public class FeatureTagRegistryTest {
+
+    private static final String CHAT_TAG =
+            "+g.3gpp.icsi-ref=\"urn%3Aurn-7%3A3gpp-service.ims.icsi.oma.cpm.session\"";
+    private static final String FT_TAG =
+            "+g.3gpp.iari-ref=\"urn%3Aurn-7%3A3gpp-application.ims.iari.rcs.fthttp\"";
+
+    @SmallTest
+    @Test
+    public void testNormalizedIds() {
+        FeatureTagRegistry registry = new FeatureTagRegistry();
+        int id = registry.getId(CHAT_TAG);
+        assertTrue(id != FeatureTagRegistry.OVERFLOW_ID);
+        assertEquals(id, registry.getId("  +G.3GPP.ICSI-REF="
+                + CHAT_TAG.substring(CHAT_TAG.indexOf('=') + 1) + " "));
+        assertTrue(id != registry.getId(FT_TAG));
+
+        FeatureTagSet allowed = registry.createSet(Arrays.asList(CHAT_TAG));
+        assertTrue(allowed.contains(CHAT_TAG));
+        assertFalse(allowed.contains(FT_TAG));
+        assertTrue(allowed.containsAny(Arrays.asList(FT_TAG, CHAT_TAG)));
+    }
+
+    @SmallTest
+    @Test
+    public void testQuotedValueIsCaseSensitive() {
+        FeatureTagRegistry registry = new FeatureTagRegistry();
+        registry.getId(CHAT_TAG);
+
+        FeatureTagSet allowed = registry.createSet(Arrays.asList(CHAT_TAG));
+        assertFalse(allowed.contains(CHAT_TAG.toUpperCase()));
+        assertEquals(FeatureTagRegistry.UNKNOWN_ID, registry.findId(CHAT_TAG.toUpperCase()));
+    }
+
+    @SmallTest
+    @Test
+    public void testOverflowTagsMatchByName() {
+        FeatureTagRegistry registry = new FeatureTagRegistry();
+        for (int i = 0; i < FeatureTagRegistry.MAX_TAG_COUNT; i++) {
+            registry.getId("+tag" + i);
+        }
+        String overflowTag = "+overflow";
+        assertEquals(FeatureTagRegistry.OVERFLOW_ID, registry.getId(overflowTag));
+        // Previously interned tags still resolve to their own id.
+        assertTrue(registry.getId("+tag0") != FeatureTagRegistry.OVERFLOW_ID);
+
+        // A denied tag that overflowed must still be denied.
+        FeatureTagSet denied = registry.createSet(Arrays.asList(overflowTag));
+        assertTrue(denied.contains(overflowTag));
+        assertTrue(denied.containsAny(Arrays.asList("+tag0", overflowTag)));
+        // Overflow tags do not match each other.
+        assertFalse(denied.contains("+other"));
+    }
+
+    @SmallTest
+    @Test
+    public void testCreateSetDoesNotIntern() {
+        FeatureTagRegistry registry = new FeatureTagRegistry();
+        for (int i = 0; i < FeatureTagRegistry.MAX_TAG_COUNT + 1; i++) {
+            FeatureTagSet appTags = registry.createSet(Arrays.asList("+tag" + i));
+            assertTrue(appTags.contains("+tag" + i));
+            assertEquals(FeatureTagRegistry.UNKNOWN_ID, registry.findId("+tag" + i));
+        }
+        // Tags requested by apps and found in SIP messages did not fill the registry.
+        assertTrue(registry.getId(FT_TAG) != FeatureTagRegistry.OVERFLOW_ID);
+    }
+
+    @SmallTest
+    @Test
+    public void testSetMatchesTagsInternedLater() {
+        FeatureTagRegistry registry = new FeatureTagRegistry();
+        FeatureTagSet granted = registry.createSet(Arrays.asList(CHAT_TAG, FT_TAG));
+        registry.getId(CHAT_TAG);
+
+        assertTrue(granted.contains(CHAT_TAG));
+        FeatureTagSet chat = registry.createSet(Arrays.asList(CHAT_TAG));
+        assertTrue(granted.containsAll(chat));
+        assertFalse(chat.containsAll(granted));
+
+        FeatureTagSet taken = registry.createSet(null);
+        assertTrue(taken.isEmpty());
+        taken.addAll(chat);
+        assertTrue(taken.contains(CHAT_TAG));
+        assertFalse(taken.contains(FT_TAG));
+    }
+}
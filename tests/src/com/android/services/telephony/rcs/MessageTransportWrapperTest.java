@@ -17,6 +17,7 @@
 package com.android.services.telephony.rcs;
 
 import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertSame;
 import static junit.framework.Assert.assertTrue;
 
 import static org.mockito.ArgumentMatchers.any;
@@ -51,6 +52,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 
@@ -284,6 +286,34 @@ public class MessageTransportWrapperTest extends TelephonyTestBase {
                 SipDelegateManager.MESSAGE_FAILURE_REASON_DELEGATE_DEAD);
     }
 
+    @SmallTest
+    @Test
+    public void testLargeBodyPassedThroughUnmodified() throws Exception {
+        // 256KB file transfer descriptor, which should never be inspected or copied.
+        byte[] body = new byte[256 * 1024];
+        SipMessage largeMessage = new SipMessage(
+                "MESSAGE sip:callee@ex.domain.com SIP/2.0",
+                "Via: SIP/2.0/UDP ex.place.com;branch=z9hG4bK776asdhds",
+                body);
+        MessageTransportWrapper tracker = createTestMessageTransportWrapper();
+        tracker.openTransport(mISipDelegate, Collections.emptySet(), Collections.emptySet());
+        doReturn(ValidationResult.SUCCESS)
+                .when(mTransportSipSessionValidator)
+                .verifyOutgoingMessage(largeMessage, 1 /*version*/);
+        doReturn(ValidationResult.SUCCESS)
+                .when(mTransportSipSessionValidator).verifyIncomingMessage(largeMessage);
+
+        tracker.getDelegateConnection().sendMessage(largeMessage, 1 /*version*/);
+        ArgumentCaptor<SipMessage> outgoingCaptor = ArgumentCaptor.forClass(SipMessage.class);
+        verify(mISipDelegate).sendMessage(outgoingCaptor.capture(), eq(1L));
+        assertSame(largeMessage, outgoingCaptor.getValue());
+
+        tracker.getMessageCallback().onMessageReceived(largeMessage);
+        ArgumentCaptor<SipMessage> incomingCaptor = ArgumentCaptor.forClass(SipMessage.class);
+        verify(mDelegateMessageCallback).onMessageReceived(incomingCaptor.capture());
+        assertSame(largeMessage, incomingCaptor.getValue());
+    }
+
     @SmallTest
     @Test
     public void testDelegateOnMessageSent() throws Exception {
@@ -256,6 +256,26 @@ public class SipDelegateControllerTest extends TelephonyTestBase {
         verify(mMockDelegateStateTracker).sipDelegateConnected(newFts, Collections.emptySet());
     }
 
+    @SmallTest
+    @Test
+    public void testChangeSupportedFeaturesUnchanged() throws Exception {
+        DelegateRequest request = getBaseDelegateRequest();
+        SipDelegateController controller = getTestDelegateController(request,
+                Collections.emptySet());
+        createSipDelegate(request, controller);
+
+        // SipTransportController relies on a change to the same supported feature tags being
+        // ignored, so that the SipDelegate and its SIP dialogs are left alone.
+        CompletableFuture<Boolean> pendingChange = controller.changeSupportedFeatureTags(
+                new ArraySet<>(request.getFeatureTags()), Collections.emptySet());
+        assertTrue(pendingChange.isDone());
+        assertTrue(pendingChange.get());
+        verify(mMockMessageTracker, never()).closeGracefully(anyInt(), anyInt(), any());
+        verify(mMockDelegateStateTracker, never()).sipDelegateChanging(anyInt());
+        verify(mMockBinderConnection, never()).destroy(anyInt(), any());
+        verifyConnectionCreated(1);
+    }
+
     private void createSipDelegate(DelegateRequest request, SipDelegateController controller)
             throws Exception {
         doReturn(true).when(mMockBinderConnection).create(eq(mMockMessageCallback), any());
@@ -0,0 +1,373 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony.rcs;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+import android.net.InetAddresses;
+import android.os.Debug;
+import android.telephony.ims.DelegateRegistrationState;
+import android.telephony.ims.SipDelegateConfiguration;
+import android.telephony.ims.SipMessage;
+import android.telephony.ims.aidl.ISipDelegate;
+import android.telephony.ims.aidl.ISipDelegateMessageCallback;
+import android.util.ArraySet;
+import android.util.Log;
+
+import androidx.test.filters.LargeTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.TelephonyTestBase;
+import com.android.TestExecutorService;
+import com.android.internal.telephony.metrics.RcsStats;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Replays a recorded mix of RCS SIP traffic (INVITE sessions, pager mode MESSAGEs, SUBSCRIBE/
+ * NOTIFY and BYE) through {@link MessageTransportWrapper}, {@link TransportSipMessageValidator}
+ * and {@link SipSessionTracker} using fake binders and reports the sustained throughput,
+ * allocations per message and latency percentiles of the SIP transport path.
+ * <p>
+ * The results are reported to logcat under {@link #LOG_TAG} so that they can be compared across
+ * builds to catch regressions in the RCS message path.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SipTransportBenchmarkTest extends TelephonyTestBase {
+    private static final String LOG_TAG = "SipTransportBenchmark";
+    private static final int TEST_SUB_ID = 1;
+    private static final int TEST_CONFIG_VERSION = 1;
+    private static final int WARMUP_ROUNDS = 50;
+    private static final int MEASURED_ROUNDS = 500;
+
+    private static final String LOCAL_CONTACT = "<sip:+15555550100@ims.example.com>";
+    private static final String REMOTE_CONTACT = "<sip:+15555550199@ims.example.com>";
+    private static final String REMOTE_URI = "sip:+15555550199@ims.example.com";
+    private static final String ALLOWED_TAG = ImsSignallingUtils.ONE_TO_ONE_CHAT_TAG;
+
+    // Typical headers sent by an IMS client on top of the dialog identifying headers. These bring
+    // the header section sizes up to what is seen in recorded carrier traffic.
+    private static final String COMMON_HEADERS =
+            "Max-Forwards: 70\n"
+            + "Route: <sip:pcscf1.ims.example.com:5060;lr>\n"
+            + "Route: <sip:scscf.ims.example.com;lr>\n"
+            + "P-Preferred-Identity: " + LOCAL_CONTACT + "\n"
+            + "P-Access-Network-Info: 3GPP-E-UTRAN-FDD;utran-cell-id-3gpp=3102600000a1b2c01\n"
+            + "User-Agent: IM-client/OMA1.0 Example-RCS/12.0\n"
+            + "Allow: INVITE, ACK, CANCEL, BYE, MESSAGE, NOTIFY, OPTIONS, UPDATE, REFER\n"
+            + "Supported: timer, replaces, 100rel\n"
+            + "Contact: " + LOCAL_CONTACT + ";" + ALLOWED_TAG + ";"
+            + ImsSignallingUtils.GROUP_CHAT_TAG + ";" + ImsSignallingUtils.FILE_TRANSFER_HTTP_TAG
+            + "\n";
+
+    @Mock
+    private RcsStats mRcsStats;
+
+    private final TestExecutorService mExecutor = new TestExecutorService();
+    private final FakeSipDelegate mFakeSipDelegate = new FakeSipDelegate();
+    private final FakeAppMessageCallback mFakeAppCallback = new FakeAppMessageCallback();
+
+    /**
+     * ImsService side SipDelegate that records the number of messages it received.
+     */
+    private static class FakeSipDelegate extends ISipDelegate.Stub {
+        public int sentCount;
+        public int errorCount;
+
+        @Override
+        public void sendMessage(SipMessage sipMessage, long configVersion) {
+            sentCount++;
+        }
+
+        @Override
+        public void notifyMessageReceived(String viaTransactionId) {
+        }
+
+        @Override
+        public void notifyMessageReceiveError(String viaTransactionId, int reason) {
+            errorCount++;
+        }
+
+        @Override
+        public void cleanupSession(String callId) {
+        }
+    }
+
+    /**
+     * IMS application side callback that records the number of messages it received.
+     */
+    private static class FakeAppMessageCallback extends ISipDelegateMessageCallback.Stub {
+        public int receivedCount;
+        public int failureCount;
+
+        @Override
+        public void onMessageReceived(SipMessage message) {
+            receivedCount++;
+        }
+
+        @Override
+        public void onMessageSent(String viaTransactionId) {
+        }
+
+        @Override
+        public void onMessageSendFailure(String viaTransactionId, int reason) {
+            failureCount++;
+        }
+    }
+
+    /**
+     * A single recorded SIP message and the acknowledgement of that message from the remote.
+     */
+    private static class ReplayStep {
+        public final boolean isOutgoing;
+        public final SipMessage message;
+
+        ReplayStep(boolean outgoing, SipMessage m) {
+            isOutgoing = outgoing;
+            message = m;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    @LargeTest
+    @Test
+    public void testMixedTrafficThroughput() throws Exception {
+        MessageTransportWrapper wrapper = createOpenTransport();
+        List<ReplayStep> warmup = generateTraffic(0, WARMUP_ROUNDS);
+        List<ReplayStep> measured = generateTraffic(WARMUP_ROUNDS, MEASURED_ROUNDS);
+
+        replay(wrapper, warmup, null);
+        int sentBefore = mFakeSipDelegate.sentCount;
+        int receivedBefore = mFakeAppCallback.receivedCount;
+
+        long[] latenciesNs = new long[measured.size()];
+        long allocCount = countAllocations(() -> replay(wrapper, measured, latenciesNs));
+        long totalNs = Arrays.stream(latenciesNs).sum();
+        Arrays.sort(latenciesNs);
+
+        int messageCount = measured.size();
+        long expectedOutgoing = measured.stream().filter(s -> s.isOutgoing).count();
+        assertEquals(0, mFakeAppCallback.failureCount);
+        assertEquals(0, mFakeSipDelegate.errorCount);
+        assertEquals(expectedOutgoing, mFakeSipDelegate.sentCount - sentBefore);
+        assertEquals(messageCount - expectedOutgoing,
+                mFakeAppCallback.receivedCount - receivedBefore);
+        assertTrue(totalNs > 0);
+
+        Log.i(LOG_TAG, "messages=" + messageCount
+                + ", messages/sec=" + (messageCount * 1_000_000_000L / totalNs)
+                + ", allocs/message=" + (allocCount < 0 ? "n/a" : (allocCount / messageCount))
+                + ", p50(us)=" + percentileUs(latenciesNs, 50)
+                + ", p90(us)=" + percentileUs(latenciesNs, 90)
+                + ", p99(us)=" + percentileUs(latenciesNs, 99)
+                + ", max(us)=" + (latenciesNs[messageCount - 1] / 1000));
+    }
+
+    private MessageTransportWrapper createOpenTransport() {
+        TransportSipMessageValidator validator = new TransportSipMessageValidator(TEST_SUB_ID,
+                mExecutor, mRcsStats);
+        MessageTransportWrapper wrapper = new MessageTransportWrapper(TEST_SUB_ID, mExecutor,
+                mFakeAppCallback, validator);
+        Set<String> allowedTags = new ArraySet<>(Collections.singleton(ALLOWED_TAG));
+        wrapper.openTransport(mFakeSipDelegate, allowedTags, Collections.emptySet());
+        wrapper.onRegistrationStateChanged(new DelegateRegistrationState.Builder()
+                .addRegisteredFeatureTags(allowedTags).build());
+        InetSocketAddress localAddr = new InetSocketAddress(
+                InetAddresses.parseNumericAddress("1.1.1.1"), 80);
+        InetSocketAddress serverAddr = new InetSocketAddress(
+                InetAddresses.parseNumericAddress("2.2.2.2"), 81);
+        wrapper.onConfigurationChanged(new SipDelegateConfiguration.Builder(TEST_CONFIG_VERSION,
+                SipDelegateConfiguration.SIP_TRANSPORT_TCP, localAddr, serverAddr).build());
+        return wrapper;
+    }
+
+    /**
+     * Replay the steps through the transport, recording the time taken to deliver and acknowledge
+     * each message if latenciesNs is non-null.
+     */
+    private void replay(MessageTransportWrapper wrapper, List<ReplayStep> steps,
+            long[] latenciesNs) {
+        ISipDelegate appToService = wrapper.getDelegateConnection();
+        ISipDelegateMessageCallback serviceToApp = wrapper.getMessageCallback();
+        try {
+            for (int i = 0; i < steps.size(); i++) {
+                ReplayStep step = steps.get(i);
+                String branch = step.message.getViaBranchParameter();
+                long start = System.nanoTime();
+                if (step.isOutgoing) {
+                    appToService.sendMessage(step.message, TEST_CONFIG_VERSION);
+                    serviceToApp.onMessageSent(branch);
+                } else {
+                    serviceToApp.onMessageReceived(step.message);
+                    appToService.notifyMessageReceived(branch);
+                }
+                if (isByeResponse(step)) {
+                    appToService.cleanupSession(step.message.getCallIdParameter());
+                }
+                if (latenciesNs != null) {
+                    latenciesNs[i] = System.nanoTime() - start;
+                }
+            }
+        } catch (Exception e) {
+            throw new AssertionError("unexpected exception during replay", e);
+        }
+    }
+
+    /**
+     * Generate the recorded traffic mix for the requested number of rounds. Each round contains:
+     * an outgoing chat INVITE session closed by a BYE, four outgoing and four incoming pager mode
+     * MESSAGEs with CPIM bodies, one file transfer descriptor MESSAGE and one conference
+     * SUBSCRIBE/NOTIFY exchange.
+     */
+    private List<ReplayStep> generateTraffic(int startRound, int rounds) {
+        ArrayList<ReplayStep> steps = new ArrayList<>();
+        for (int r = startRound; r < startRound + rounds; r++) {
+            String id = "r" + r;
+            // INVITE session
+            String callId = "invite-" + id + "@client.example.com";
+            String fromTag = "ft" + id;
+            String toTag = "tt" + id;
+            String acceptContact = "Accept-Contact: *;" + ALLOWED_TAG + "\n";
+            steps.add(new ReplayStep(true, request("INVITE", id + "i", callId, fromTag, null, 1,
+                    acceptContact + "Content-Type: application/sdp\n", generateBody(300))));
+            steps.add(new ReplayStep(false, response(180, "Ringing", "INVITE", id + "i", callId,
+                    fromTag, toTag, 1)));
+            steps.add(new ReplayStep(false, response(200, "OK", "INVITE", id + "i", callId,
+                    fromTag, toTag, 1)));
+            steps.add(new ReplayStep(true, request("ACK", id + "a", callId, fromTag, toTag, 1,
+                    "", new byte[0])));
+            steps.add(new ReplayStep(true, request("BYE", id + "b", callId, fromTag, toTag, 2,
+                    "", new byte[0])));
+            steps.add(new ReplayStep(false, response(200, "OK", "BYE", id + "b", callId,
+                    fromTag, toTag, 2)));
+            // Pager mode MESSAGEs
+            for (int m = 0; m < 4; m++) {
+                String msgCallId = "msg-out-" + id + "-" + m;
+                steps.add(new ReplayStep(true, request("MESSAGE", id + "mo" + m, msgCallId,
+                        "mf" + m, null, 1, "Content-Type: message/cpim\n", generateBody(512))));
+                steps.add(new ReplayStep(false, response(200, "OK", "MESSAGE", id + "mo" + m,
+                        msgCallId, "mf" + m, "mt" + m, 1)));
+                msgCallId = "msg-in-" + id + "-" + m;
+                steps.add(new ReplayStep(false, request("MESSAGE", id + "mi" + m, msgCallId,
+                        "mf" + m, null, 1, "Content-Type: message/cpim\n", generateBody(512))));
+                steps.add(new ReplayStep(true, response(200, "OK", "MESSAGE", id + "mi" + m,
+                        msgCallId, "mf" + m, "mt" + m, 1)));
+            }
+            // File transfer descriptor
+            String ftCallId = "ft-" + id;
+            steps.add(new ReplayStep(true, request("MESSAGE", id + "f", ftCallId, "ff", null, 1,
+                    "Content-Type: message/cpim\n", generateBody(2048))));
+            steps.add(new ReplayStep(false, response(200, "OK", "MESSAGE", id + "f", ftCallId,
+                    "ff", "ftt", 1)));
+            // Conference event package
+            String subCallId = "sub-" + id;
+            steps.add(new ReplayStep(true, request("SUBSCRIBE", id + "s", subCallId, "sf", null,
+                    1, "Event: conference\nExpires: 3600\n", new byte[0])));
+            steps.add(new ReplayStep(false, response(200, "OK", "SUBSCRIBE", id + "s",
+                    subCallId, "sf", "st", 1)));
+            steps.add(new ReplayStep(false, request("NOTIFY", id + "n", subCallId, "st", "sf", 1,
+                    "Event: conference\nContent-Type: application/conference-info+xml\n",
+                    generateBody(1024))));
+            steps.add(new ReplayStep(true, response(200, "OK", "NOTIFY", id + "n", subCallId,
+                    "st", "sf", 1)));
+        }
+        return steps;
+    }
+
+    private static SipMessage request(String method, String branch, String callId,
+            String fromTag, String toTag, int cseq, String extraHeaders, byte[] body) {
+        String header = "Via: SIP/2.0/TCP " + SipMessageUtils.BASE_ADDRESS
+                + ":5060;branch=z9hG4bK" + branch + "\n"
+                + "From: " + LOCAL_CONTACT + ";tag=" + fromTag + "\n"
+                + "To: " + REMOTE_CONTACT + (toTag != null ? ";tag=" + toTag : "") + "\n"
+                + "Call-ID: " + callId + "\n"
+                + "CSeq: " + cseq + " " + method + "\n"
+                + COMMON_HEADERS
+                + extraHeaders
+                + "Content-Length: " + body.length;
+        return new SipMessage(method + " " + REMOTE_URI + " SIP/2.0", header, body);
+    }
+
+    private static SipMessage response(int code, String reason, String method, String branch,
+            String callId, String fromTag, String toTag, int cseq) {
+        String header = "Via: SIP/2.0/TCP " + SipMessageUtils.BASE_ADDRESS
+                + ":5060;branch=z9hG4bK" + branch + "\n"
+                + "From: " + LOCAL_CONTACT + ";tag=" + fromTag + "\n"
+                + "To: " + REMOTE_CONTACT + ";tag=" + toTag + "\n"
+                + "Call-ID: " + callId + "\n"
+                + "CSeq: " + cseq + " " + method + "\n"
+                + "Content-Length: 0";
+        return new SipMessage("SIP/2.0 " + code + " " + reason, header, new byte[0]);
+    }
+
+    private static byte[] generateBody(int size) {
+        StringBuilder b = new StringBuilder(size);
+        while (b.length() < size) {
+            b.append("Lorem ipsum dolor sit amet, consectetur adipiscing elit. ");
+        }
+        return b.substring(0, size).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static boolean isByeResponse(ReplayStep step) {
+        return !step.isOutgoing && step.message.getStartLine().startsWith("SIP/2.0 200")
+                && step.message.getHeaderSection().contains("CSeq: 2 BYE");
+    }
+
+    private static long percentileUs(long[] sortedNs, int percentile) {
+        int index = Math.min(sortedNs.length - 1, (sortedNs.length * percentile) / 100);
+        return sortedNs[index] / 1000;
+    }
+
+    /**
+     * @return The number of objects allocated on this thread while running the Runnable or -1 if
+     * allocation counting is not supported by this runtime.
+     */
+    @SuppressWarnings("deprecation")
+    private static long countAllocations(Runnable r) {
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        try {
+            r.run();
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        int count = Debug.getThreadAllocCount();
+        return count > 0 ? count : -1;
+    }
+}
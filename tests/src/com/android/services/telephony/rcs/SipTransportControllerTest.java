@@ -28,6 +28,7 @@ import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -63,8 +64,11 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Set;
@@ -458,6 +462,119 @@ public class SipTransportControllerTest extends TelephonyTestBase {
         verifyDelegateRegistrationChangedEvent(2 /*times*/, THROTTLE_MS);
     }
 
+    @SmallTest
+    @Test
+    public void testUnchangedAllocationNotBlockedByAcquire() throws Exception {
+        SipTransportController controller = setupLiveTransportController();
+
+        DelegateRequest firstDelegateRequest = getBaseDelegateRequest();
+        SipDelegateControllerContainer c1 = injectMockDelegateController(TEST_PACKAGE_NAME,
+                firstDelegateRequest);
+        createDelegateAndVerify(controller, c1, firstDelegateRequest.getFeatureTags(),
+                Collections.emptySet());
+
+        // A delegate for a package that is not the default SMS app does not take any tags from
+        // the first delegate. The first delegate gets the same feature tags again, which
+        // SipDelegateController ignores, without waiting for the new delegate to be created.
+        DelegateRequest secondDelegateRequest = getBaseDelegateRequest();
+        Set<FeatureTagState> secondDeniedTags = getDeniedTagsForReason(
+                secondDelegateRequest.getFeatureTags(),
+                SipDelegateManager.DENIED_REASON_NOT_ALLOWED);
+        SipDelegateControllerContainer c2 = injectMockDelegateController(TEST_PACKAGE_NAME_2,
+                secondDelegateRequest);
+        CompletableFuture<Boolean> pendingC2Change = createDelegate(controller, c2,
+                Collections.emptySet(), secondDeniedTags);
+        assertTrue(waitForExecutorAction(mExecutorService, TIMEOUT_MS));
+        verify(c1.delegateController, times(2)).changeSupportedFeatureTags(
+                firstDelegateRequest.getFeatureTags(), Collections.emptySet());
+        assertFalse(pendingC2Change.isDone());
+        InOrder inOrder = inOrder(c1.delegateController, c2.delegateController);
+        inOrder.verify(c1.delegateController, times(2)).changeSupportedFeatureTags(
+                firstDelegateRequest.getFeatureTags(), Collections.emptySet());
+        inOrder.verify(c2.delegateController).changeSupportedFeatureTags(
+                Collections.emptySet(), secondDeniedTags);
+        completePendingChange(pendingC2Change, true);
+        assertTrue(waitForExecutorAction(mExecutorService, TIMEOUT_MS));
+    }
+
+    @SmallTest
+    @Test
+    public void testReleaseAppliedBeforeAcquireWhenTagsMove() throws Exception {
+        SipTransportController controller = setupLiveTransportController();
+
+        DelegateRequest firstDelegateRequest = getBaseDelegateRequest();
+        SipDelegateControllerContainer c1 = injectMockDelegateController(TEST_PACKAGE_NAME,
+                firstDelegateRequest);
+        createDelegateAndVerify(controller, c1, firstDelegateRequest.getFeatureTags(),
+                Collections.emptySet());
+        DelegateRequest secondDelegateRequest = getBaseDelegateRequest();
+        SipDelegateControllerContainer c2 = injectMockDelegateController(TEST_PACKAGE_NAME_2,
+                secondDelegateRequest);
+        createDelegateAndVerify(controller, c2, Collections.emptySet(),
+                getDeniedTagsForReason(secondDelegateRequest.getFeatureTags(),
+                        SipDelegateManager.DENIED_REASON_NOT_ALLOWED));
+
+        // Moving the SMS role moves all feature tags from the first delegate to the second.
+        Set<FeatureTagState> firstDeniedTags = getDeniedTagsForReason(
+                firstDelegateRequest.getFeatureTags(),
+                SipDelegateManager.DENIED_REASON_NOT_ALLOWED);
+        CompletableFuture<Boolean> pendingC1Change = setChangeSupportedFeatureTagsFuture(
+                c1.delegateController, Collections.emptySet(), firstDeniedTags);
+        CompletableFuture<Boolean> pendingC2Change = setChangeSupportedFeatureTagsFuture(
+                c2.delegateController, secondDelegateRequest.getFeatureTags(),
+                Collections.emptySet());
+        setSmsRoleAndEvaluate(controller, TEST_PACKAGE_NAME_2);
+        waitForExecutorAction(mExecutorService, TIMEOUT_MS);
+        verify(c1.delegateController).changeSupportedFeatureTags(Collections.emptySet(),
+                firstDeniedTags);
+        // The tags must be released by the first delegate before the second acquires them.
+        verify(c2.delegateController, never()).changeSupportedFeatureTags(
+                secondDelegateRequest.getFeatureTags(), Collections.emptySet());
+        completePendingChange(pendingC1Change, true);
+        waitForExecutorAction(mExecutorService, TIMEOUT_MS);
+        InOrder inOrder = inOrder(c1.delegateController, c2.delegateController);
+        inOrder.verify(c1.delegateController).changeSupportedFeatureTags(Collections.emptySet(),
+                firstDeniedTags);
+        inOrder.verify(c2.delegateController).changeSupportedFeatureTags(
+                secondDelegateRequest.getFeatureTags(), Collections.emptySet());
+        completePendingChange(pendingC2Change, true);
+        waitForExecutorAction(mExecutorService, TIMEOUT_MS);
+    }
+
+    @SmallTest
+    @Test
+    public void testFailedChangeRetriedOnNextReevaluate() throws Exception {
+        SipTransportController controller = setupLiveTransportController();
+
+        DelegateRequest firstDelegateRequest = getBaseDelegateRequest();
+        SipDelegateControllerContainer c1 = injectMockDelegateController(TEST_PACKAGE_NAME,
+                firstDelegateRequest);
+        CompletableFuture<Boolean> pendingC1Change = createDelegate(controller, c1,
+                firstDelegateRequest.getFeatureTags(), Collections.emptySet());
+        assertTrue(waitForExecutorAction(mExecutorService, TIMEOUT_MS));
+        verify(c1.delegateController).changeSupportedFeatureTags(
+                firstDelegateRequest.getFeatureTags(), Collections.emptySet());
+        // The ImsService was not able to apply the change.
+        completePendingChange(pendingC1Change, false);
+        assertTrue(waitForExecutorAction(mExecutorService, TIMEOUT_MS));
+
+        // The allocation of the first delegate has not changed, but it was never applied, so it
+        // should be applied again during the next reevaluation.
+        CompletableFuture<Boolean> retryC1Change = setChangeSupportedFeatureTagsFuture(
+                c1.delegateController, firstDelegateRequest.getFeatureTags(),
+                Collections.emptySet());
+        completePendingChange(retryC1Change, true);
+        DelegateRequest secondDelegateRequest = getBaseDelegateRequest();
+        SipDelegateControllerContainer c2 = injectMockDelegateController(TEST_PACKAGE_NAME_2,
+                secondDelegateRequest);
+        createDelegateAndVerify(controller, c2, Collections.emptySet(),
+                getDeniedTagsForReason(secondDelegateRequest.getFeatureTags(),
+                        SipDelegateManager.DENIED_REASON_NOT_ALLOWED), 1);
+
+        verify(c1.delegateController, times(2)).changeSupportedFeatureTags(
+                firstDelegateRequest.getFeatureTags(), Collections.emptySet());
+    }
+
     @SmallTest
     @Test
     public void createTwoAndDestroyOlder() throws Exception {
@@ -972,6 +1089,38 @@ public class SipTransportControllerTest extends TelephonyTestBase {
         verify(mImsRegistration).triggerSipDelegateDeregistration();
     }
 
+    @SmallTest
+    @Test
+    public void testDumpDoesNotBlockOnBusyExecutor() throws Exception {
+        mExecutorService = Executors.newSingleThreadScheduledExecutor();
+        SipTransportController controller = createController(mExecutorService);
+        CountDownLatch busy = new CountDownLatch(1);
+        mExecutorService.execute(() -> {
+            try {
+                busy.await(TIMEOUT_MS * 20, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // ignore
+            }
+        });
+
+        StringWriter out = new StringWriter();
+        controller.dump(new PrintWriter(out));
+        busy.countDown();
+
+        assertTrue(out.toString().contains("unavailable"));
+    }
+
+    @SmallTest
+    @Test
+    public void testDumpMetrics() throws Exception {
+        SipTransportController controller = createController(new TestExecutorService());
+
+        StringWriter out = new StringWriter();
+        assertTrue(controller.dumpMetrics(TEST_SUB_ID, new PrintWriter(out), false));
+        assertTrue(out.toString().contains("Total:"));
+        assertFalse(controller.dumpMetrics(TEST_SUB_ID + 1, new PrintWriter(out), false));
+    }
+
     private SipTransportController createController(ScheduledExecutorService e) {
         return createControllerAndThrottle(e, 0 /*throttleMs*/, 0 /*regDelayMs*/);
     }
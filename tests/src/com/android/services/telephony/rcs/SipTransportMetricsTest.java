@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony.rcs;
+
+import static junit.framework.Assert.assertEquals;
+
+import android.telephony.ims.SipDelegateManager;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class SipTransportMetricsTest {
+
+    private long mTimeMs = 1000;
+
+    @SmallTest
+    @Test
+    public void testMessageCountsAndLatency() {
+        SipTransportMetrics metrics = new SipTransportMetrics(() -> mTimeMs);
+        long start = metrics.getTimestamp();
+        mTimeMs += 3;
+        metrics.onOutgoingMessageDelivered("branch1", start);
+        metrics.onIncomingMessageDelivered("branch2", start);
+        assertEquals(1, metrics.getOutgoingCount());
+        assertEquals(1, metrics.getIncomingCount());
+
+        // Ack round trip is measured from the time the message was delivered.
+        mTimeMs += 40;
+        metrics.onMessageAcknowledged("branch1");
+        // Unknown or duplicate acks are ignored.
+        metrics.onMessageAcknowledged("branch1");
+        metrics.onMessageAcknowledged("unknown");
+        SipTransportMetrics.LatencyHistogram ackRtt = metrics.getAckRoundTripHistogram();
+        assertEquals(1, ackRtt.getCount());
+        assertEquals(40, ackRtt.getPercentileMs(99));
+    }
+
+    @SmallTest
+    @Test
+    public void testRejectsAndDialogs() {
+        SipTransportMetrics metrics = new SipTransportMetrics(() -> mTimeMs);
+        metrics.onOutgoingMessageRejected(
+                SipDelegateManager.MESSAGE_FAILURE_REASON_STALE_IMS_CONFIGURATION);
+        metrics.onOutgoingMessageRejected(
+                SipDelegateManager.MESSAGE_FAILURE_REASON_STALE_IMS_CONFIGURATION);
+        metrics.onIncomingMessageRejected(
+                SipDelegateManager.MESSAGE_FAILURE_REASON_DELEGATE_DEAD);
+        metrics.onDialogCountChanged(3);
+        metrics.onDialogCountChanged(1);
+        assertEquals(2, metrics.getOutgoingRejectCount(
+                SipDelegateManager.MESSAGE_FAILURE_REASON_STALE_IMS_CONFIGURATION));
+        assertEquals(1, metrics.getIncomingRejectCount(
+                SipDelegateManager.MESSAGE_FAILURE_REASON_DELEGATE_DEAD));
+        assertEquals(3, metrics.getPeakDialogCount());
+
+        metrics.reset();
+        assertEquals(0, metrics.getOutgoingRejectCount(
+                SipDelegateManager.MESSAGE_FAILURE_REASON_STALE_IMS_CONFIGURATION));
+        // Peak is reset to the current dialog count.
+        assertEquals(1, metrics.getPeakDialogCount());
+    }
+
+    @SmallTest
+    @Test
+    public void testMerge() {
+        SipTransportMetrics total = new SipTransportMetrics(() -> mTimeMs);
+        SipTransportMetrics delegate = new SipTransportMetrics(() -> mTimeMs);
+        delegate.onOutgoingMessageDelivered("branch1", mTimeMs);
+        delegate.onOutgoingMessageRejected(
+                SipDelegateManager.MESSAGE_FAILURE_REASON_INVALID_FEATURE_TAG);
+        delegate.onDialogCountChanged(4);
+        delegate.onDialogCountChanged(2);
+        total.onOutgoingMessageDelivered("branch2", mTimeMs);
+        total.onDialogCountChanged(1);
+        total.merge(delegate);
+        total.merge(null);
+        assertEquals(2, total.getOutgoingCount());
+        assertEquals(1, total.getOutgoingRejectCount(
+                SipDelegateManager.MESSAGE_FAILURE_REASON_INVALID_FEATURE_TAG));
+        assertEquals(3, total.getDialogCount());
+        assertEquals(4, total.getPeakDialogCount());
+        // The merged instance is not modified.
+        assertEquals(2, delegate.getDialogCount());
+        assertEquals(1, delegate.getOutgoingCount());
+    }
+}
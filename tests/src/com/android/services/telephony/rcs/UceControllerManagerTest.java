@@ -19,6 +19,7 @@ package com.android.services.telephony.rcs;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.never;
@@ -26,6 +27,7 @@ import static org.mockito.Mockito.verify;
 
 import android.net.Uri;
 import android.telephony.ims.ImsException;
+import android.telephony.ims.RcsUceAdapter;
 import android.telephony.ims.aidl.IRcsUceControllerCallback;
 import android.telephony.ims.aidl.IRcsUcePublishStateCallback;
 
@@ -40,12 +42,12 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
 
 @RunWith(AndroidJUnit4.class)
 public class UceControllerManagerTest extends TelephonyTestBase {
@@ -53,7 +55,7 @@ public class UceControllerManagerTest extends TelephonyTestBase {
     @Mock private UceController mUceController;
     @Mock private RcsFeatureManager mRcsFeatureManager;
 
-    private final ExecutorService mExecutorService = new TestExecutorService();
+    private TestExecutorService mExecutorService = new TestExecutorService();
 
     private int mSlotId = 1;
     private int mSubId = 1;
@@ -156,12 +158,88 @@ public class UceControllerManagerTest extends TelephonyTestBase {
 
             uceCtrlManager.requestCapabilities(contacts, callback);
 
-            verify(mUceController).requestCapabilities(contacts, callback);
+            // The request is sent through the request scheduler, which reports the result of the
+            // batch back to the caller.
+            ArgumentCaptor<IRcsUceControllerCallback> captor =
+                    ArgumentCaptor.forClass(IRcsUceControllerCallback.class);
+            verify(mUceController).requestCapabilities(eq(contacts), captor.capture());
+            captor.getValue().onComplete(null);
+            verify(callback).onComplete(any());
         } catch (ImsException e) {
             fail();
         }
     }
 
+    @Test
+    public void testSubscriptionChangeFailsInFlightRequests() throws Exception {
+        UceControllerManager uceCtrlManager = getUceControllerManager();
+        doReturn(false).when(mUceController).isUnavailable();
+        List<Uri> contacts = Arrays.asList(Uri.fromParts("sip", "00000", null));
+        IRcsUceControllerCallback callback = Mockito.mock(IRcsUceControllerCallback.class);
+        uceCtrlManager.requestCapabilities(contacts, callback);
+        ArgumentCaptor<IRcsUceControllerCallback> captor =
+                ArgumentCaptor.forClass(IRcsUceControllerCallback.class);
+        verify(mUceController).requestCapabilities(eq(contacts), captor.capture());
+
+        uceCtrlManager.onAssociatedSubscriptionUpdated(mSubId + 1);
+        verify(callback).onError(eq(RcsUceAdapter.ERROR_NOT_AVAILABLE), eq(0L), any());
+
+        // A late result from the UceController of the old subscription is not reported.
+        captor.getValue().onComplete(null);
+        verify(callback, never()).onComplete(any());
+    }
+
+    @Test
+    public void testRequestAcceptedBeforeSubscriptionChangeNotSentToNewSubscription()
+            throws Exception {
+        mExecutorService = new TestExecutorService(true /*waitToComplete*/);
+        UceControllerManager uceCtrlManager = getUceControllerManager();
+        doReturn(false).when(mUceController).isUnavailable();
+
+        // The subscription changes after the request was accepted for the old subscription, but
+        // before it was processed.
+        uceCtrlManager.onAssociatedSubscriptionUpdated(mSubId + 1);
+        List<Uri> contacts = Arrays.asList(Uri.fromParts("sip", "00000", null));
+        IRcsUceControllerCallback callback = Mockito.mock(IRcsUceControllerCallback.class);
+        uceCtrlManager.requestCapabilities(contacts, callback);
+        mExecutorService.executePending();
+
+        verify(mUceController, never()).requestCapabilities(any(), any());
+        verify(callback).onError(eq(RcsUceAdapter.ERROR_NOT_AVAILABLE), eq(0L), any());
+    }
+
+    @Test
+    public void testDestroyFailsInFlightRequests() throws Exception {
+        UceControllerManager uceCtrlManager = getUceControllerManager();
+        doReturn(false).when(mUceController).isUnavailable();
+        List<Uri> contacts = Arrays.asList(Uri.fromParts("sip", "00000", null));
+        IRcsUceControllerCallback callback = Mockito.mock(IRcsUceControllerCallback.class);
+        uceCtrlManager.requestCapabilities(contacts, callback);
+        ArgumentCaptor<IRcsUceControllerCallback> captor =
+                ArgumentCaptor.forClass(IRcsUceControllerCallback.class);
+        verify(mUceController).requestCapabilities(eq(contacts), captor.capture());
+
+        uceCtrlManager.onDestroy();
+
+        verify(callback).onError(eq(RcsUceAdapter.ERROR_NOT_AVAILABLE), eq(0L), any());
+        captor.getValue().onComplete(null);
+        verify(callback, never()).onComplete(any());
+    }
+
+    @Test
+    public void testRequestCapabilitiesUnavailableAfterAccepted() throws Exception {
+        UceControllerManager uceCtrlManager = getUceControllerManager();
+        // Available when the request is accepted, unavailable once it is processed.
+        doReturn(false).doReturn(true).when(mUceController).isUnavailable();
+
+        List<Uri> contacts = Arrays.asList(Uri.fromParts("sip", "00000", null));
+        IRcsUceControllerCallback callback = Mockito.mock(IRcsUceControllerCallback.class);
+        uceCtrlManager.requestCapabilities(contacts, callback);
+
+        verify(mUceController, never()).requestCapabilities(contacts, callback);
+        verify(callback).onError(eq(RcsUceAdapter.ERROR_NOT_AVAILABLE), eq(0L), any());
+    }
+
     @Test
     public void testRequestNetworkAvailability() throws Exception {
         UceControllerManager uceCtrlManager = getUceControllerManager();
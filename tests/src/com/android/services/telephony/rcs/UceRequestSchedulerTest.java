@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony.rcs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import android.net.Uri;
+import android.telephony.ims.RcsContactUceCapability;
+import android.telephony.ims.RcsUceAdapter;
+import android.telephony.ims.aidl.IRcsUceControllerCallback;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.TelephonyTestBase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(AndroidJUnit4.class)
+public class UceRequestSchedulerTest extends TelephonyTestBase {
+
+    private static final Uri CONTACT_1 = Uri.fromParts("tel", "+16505550101", null);
+    private static final Uri CONTACT_2 = Uri.fromParts("tel", "+16505550102", null);
+    private static final Uri CONTACT_3 = Uri.fromParts("tel", "+16505550103", null);
+
+    private static class Dispatched {
+        public final List<Uri> contacts;
+        public final IRcsUceControllerCallback callback;
+
+        Dispatched(List<Uri> contacts, IRcsUceControllerCallback callback) {
+            this.contacts = contacts;
+            this.callback = callback;
+        }
+    }
+
+    @Mock private ScheduledExecutorService mExecutor;
+    @Mock private IRcsUceControllerCallback mCallback1;
+    @Mock private IRcsUceControllerCallback mCallback2;
+
+    private final List<Runnable> mScheduled = new ArrayList<>();
+    private final List<Dispatched> mDispatched = new ArrayList<>();
+    private int mMaxBatchSize = 10;
+    private long mMergeWindowMs = 100;
+    private long mMinDispatchIntervalMs = 0;
+    private long mTimeMs = 1000;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        // Run tasks immediately, but hold back scheduled tasks until the test runs them.
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(0)).run();
+            return null;
+        }).when(mExecutor).execute(any());
+        doAnswer(invocation -> {
+            mScheduled.add(invocation.getArgument(0));
+            return mock(ScheduledFuture.class);
+        }).when(mExecutor).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+    }
+
+    @SmallTest
+    @Test
+    public void testRequestsMergedAndDeduplicated() throws Exception {
+        UceRequestScheduler scheduler = createScheduler();
+        scheduler.requestCapabilities(Arrays.asList(CONTACT_1, CONTACT_2), mCallback1);
+        scheduler.requestCapabilities(Arrays.asList(CONTACT_2, CONTACT_3), mCallback2);
+        assertEquals(0, mDispatched.size());
+
+        runScheduled();
+        assertEquals(1, mDispatched.size());
+        assertEquals(Arrays.asList(CONTACT_1, CONTACT_2, CONTACT_3),
+                mDispatched.get(0).contacts);
+
+        RcsContactUceCapability capability2 = createCapability(CONTACT_2);
+        IRcsUceControllerCallback batchCallback = mDispatched.get(0).callback;
+        batchCallback.onCapabilitiesReceived(Collections.singletonList(capability2));
+        // Both callers requested CONTACT_2.
+        verify(mCallback1).onCapabilitiesReceived(Collections.singletonList(capability2));
+        verify(mCallback2).onCapabilitiesReceived(Collections.singletonList(capability2));
+
+        batchCallback.onComplete(null);
+        verify(mCallback1).onComplete(any());
+        verify(mCallback2).onComplete(any());
+    }
+
+    @SmallTest
+    @Test
+    public void testLargeRequestSplitIntoBatches() throws Exception {
+        mMaxBatchSize = 2;
+        UceRequestScheduler scheduler = createScheduler();
+        scheduler.requestCapabilities(Arrays.asList(CONTACT_1, CONTACT_2, CONTACT_3),
+                mCallback1);
+
+        runScheduled();
+        assertEquals(1, mDispatched.size());
+        assertEquals(Arrays.asList(CONTACT_1, CONTACT_2), mDispatched.get(0).contacts);
+        runScheduled();
+        assertEquals(2, mDispatched.size());
+        assertEquals(Collections.singletonList(CONTACT_3), mDispatched.get(1).contacts);
+
+        // The caller is only complete once all batches are complete.
+        mDispatched.get(0).callback.onComplete(null);
+        verify(mCallback1, never()).onComplete(any());
+        mDispatched.get(1).callback.onComplete(null);
+        verify(mCallback1).onComplete(any());
+    }
+
+    @SmallTest
+    @Test
+    public void testErrorFailsCallerOnceAllBatchesFailed() throws Exception {
+        mMaxBatchSize = 1;
+        UceRequestScheduler scheduler = createScheduler();
+        scheduler.requestCapabilities(Arrays.asList(CONTACT_1, CONTACT_2), mCallback1);
+        runScheduled();
+        assertEquals(1, mDispatched.size());
+
+        mDispatched.get(0).callback.onError(RcsUceAdapter.ERROR_SERVER_UNAVAILABLE, 5000L, null);
+        // CONTACT_2 has not been requested yet.
+        verify(mCallback1, never()).onError(anyInt(), anyLong(), any());
+
+        // CONTACT_2 is held back until the retry after time has passed.
+        runScheduled();
+        assertEquals(1, mDispatched.size());
+        mTimeMs += 5000;
+        runScheduled();
+        assertEquals(2, mDispatched.size());
+        assertEquals(Collections.singletonList(CONTACT_2), mDispatched.get(1).contacts);
+
+        mDispatched.get(1).callback.onError(RcsUceAdapter.ERROR_REQUEST_TIMEOUT, 0L, null);
+        // The first error is reported, only once.
+        verify(mCallback1).onError(eq(RcsUceAdapter.ERROR_SERVER_UNAVAILABLE), eq(5000L), any());
+        verify(mCallback1).onError(anyInt(), anyLong(), any());
+        verify(mCallback1, never()).onComplete(any());
+    }
+
+    @SmallTest
+    @Test
+    public void testErrorInOneBatchFailsCaller() throws Exception {
+        mMaxBatchSize = 1;
+        UceRequestScheduler scheduler = createScheduler();
+        scheduler.requestCapabilities(Arrays.asList(CONTACT_1, CONTACT_2), mCallback1);
+        runScheduled();
+        runScheduled();
+        assertEquals(2, mDispatched.size());
+
+        RcsContactUceCapability capability1 = createCapability(CONTACT_1);
+        mDispatched.get(0).callback.onCapabilitiesReceived(
+                Collections.singletonList(capability1));
+        mDispatched.get(0).callback.onComplete(null);
+        mDispatched.get(1).callback.onError(RcsUceAdapter.ERROR_SERVER_UNAVAILABLE, 0L, null);
+
+        // The capabilities of the completed batch are still reported before the error.
+        verify(mCallback1).onCapabilitiesReceived(Collections.singletonList(capability1));
+        verify(mCallback1).onError(eq(RcsUceAdapter.ERROR_SERVER_UNAVAILABLE), eq(0L), any());
+        verify(mCallback1, never()).onComplete(any());
+    }
+
+    @SmallTest
+    @Test
+    public void testErrorOnlyReportedToCallersOfFailedBatch() throws Exception {
+        mMaxBatchSize = 1;
+        UceRequestScheduler scheduler = createScheduler();
+        scheduler.requestCapabilities(Collections.singletonList(CONTACT_1), mCallback1);
+        scheduler.requestCapabilities(Collections.singletonList(CONTACT_2), mCallback2);
+        runScheduled();
+        runScheduled();
+        assertEquals(2, mDispatched.size());
+
+        mDispatched.get(0).callback.onComplete(null);
+        mDispatched.get(1).callback.onError(RcsUceAdapter.ERROR_REQUEST_TIMEOUT, 0L, null);
+
+        verify(mCallback1).onComplete(any());
+        verify(mCallback1, never()).onError(anyInt(), anyLong(), any());
+        verify(mCallback2).onError(eq(RcsUceAdapter.ERROR_REQUEST_TIMEOUT), eq(0L), any());
+        verify(mCallback2, never()).onComplete(any());
+    }
+
+    @SmallTest
+    @Test
+    public void testZeroMergeWindowDispatchesImmediately() throws Exception {
+        mMergeWindowMs = 0;
+        UceRequestScheduler scheduler = createScheduler();
+        scheduler.requestCapabilities(Collections.singletonList(CONTACT_1), mCallback1);
+        assertEquals(1, mDispatched.size());
+        scheduler.requestCapabilities(Collections.singletonList(CONTACT_2), mCallback2);
+        assertEquals(2, mDispatched.size());
+        assertEquals(Collections.singletonList(CONTACT_2), mDispatched.get(1).contacts);
+    }
+
+    @SmallTest
+    @Test
+    public void testZeroMergeWindowStillRateLimited() throws Exception {
+        mMergeWindowMs = 0;
+        mMinDispatchIntervalMs = 100;
+        UceRequestScheduler scheduler = createScheduler();
+        scheduler.requestCapabilities(Collections.singletonList(CONTACT_1), mCallback1);
+        assertEquals(1, mDispatched.size());
+
+        // Too soon after the last batch, wait for the rate limit.
+        scheduler.requestCapabilities(Collections.singletonList(CONTACT_2), mCallback2);
+        assertEquals(1, mDispatched.size());
+        mTimeMs += 100;
+        runScheduled();
+        assertEquals(2, mDispatched.size());
+    }
+
+    @SmallTest
+    @Test
+    public void testBatchResultAfterShutdownIgnored() throws Exception {
+        UceRequestScheduler scheduler = createScheduler();
+        scheduler.requestCapabilities(Collections.singletonList(CONTACT_1), mCallback1);
+        runScheduled();
+        assertEquals(1, mDispatched.size());
+        scheduler.clear();
+        verify(mCallback1).onError(eq(RcsUceAdapter.ERROR_NOT_AVAILABLE), eq(0L), any());
+
+        // The executor is shut down when the manager is destroyed.
+        doThrow(new RejectedExecutionException()).when(mExecutor).execute(any());
+        IRcsUceControllerCallback batchCallback = mDispatched.get(0).callback;
+        batchCallback.onCapabilitiesReceived(Collections.singletonList(
+                createCapability(CONTACT_1)));
+        batchCallback.onComplete(null);
+        batchCallback.onError(RcsUceAdapter.ERROR_GENERIC_FAILURE, 0L, null);
+
+        verify(mCallback1, never()).onCapabilitiesReceived(any());
+        verify(mCallback1, never()).onComplete(any());
+        verify(mCallback1).onError(anyInt(), anyLong(), any());
+    }
+
+    @SmallTest
+    @Test
+    public void testRewrittenContactOnlyReportedToRequestingCaller() throws Exception {
+        UceRequestScheduler scheduler = createScheduler();
+        scheduler.requestCapabilities(Collections.singletonList(CONTACT_1), mCallback1);
+        scheduler.requestCapabilities(Collections.singletonList(CONTACT_2), mCallback2);
+        runScheduled();
+        assertEquals(1, mDispatched.size());
+        IRcsUceControllerCallback batchCallback = mDispatched.get(0).callback;
+
+        // The UceController reports CONTACT_2 as a SIP URI.
+        RcsContactUceCapability sipCapability2 = createCapability(
+                Uri.parse("sip:+1-650-555-0102@test.domain;user=phone"));
+        batchCallback.onCapabilitiesReceived(Collections.singletonList(sipCapability2));
+        verify(mCallback2).onCapabilitiesReceived(Collections.singletonList(sipCapability2));
+        verify(mCallback1, never()).onCapabilitiesReceived(any());
+
+        // A contact that was not requested is not reported to anyone.
+        batchCallback.onCapabilitiesReceived(Collections.singletonList(
+                createCapability(CONTACT_3)));
+        verify(mCallback1, never()).onCapabilitiesReceived(any());
+        verify(mCallback2).onCapabilitiesReceived(any());
+
+        batchCallback.onComplete(null);
+        verify(mCallback1).onComplete(any());
+        verify(mCallback2).onComplete(any());
+    }
+
+    @SmallTest
+    @Test
+    public void testContactKey() {
+        String key = UceRequestScheduler.getContactKey(CONTACT_1);
+        assertEquals(key, UceRequestScheduler.getContactKey(
+                Uri.parse("sip:+16505550101@test.domain;user=phone")));
+        assertEquals(key, UceRequestScheduler.getContactKey(Uri.parse("tel:+1-650-555-0101")));
+        assertNotEquals(key, UceRequestScheduler.getContactKey(CONTACT_2));
+        assertNotEquals(key, UceRequestScheduler.getContactKey(Uri.parse("tel:16505550101")));
+        assertNotEquals(UceRequestScheduler.getContactKey(Uri.parse("sip:alice@test.domain")),
+                UceRequestScheduler.getContactKey(Uri.parse("sip:bob@test.domain")));
+    }
+
+    @SmallTest
+    @Test
+    public void testClearFailsPendingRequests() throws Exception {
+        UceRequestScheduler scheduler = createScheduler();
+        scheduler.requestCapabilities(Collections.singletonList(CONTACT_1), mCallback1);
+        scheduler.clear();
+        verify(mCallback1).onError(eq(RcsUceAdapter.ERROR_NOT_AVAILABLE), eq(0L), any());
+        runScheduled();
+        assertEquals(0, mDispatched.size());
+    }
+
+    private void runScheduled() {
+        List<Runnable> scheduled = new ArrayList<>(mScheduled);
+        mScheduled.clear();
+        for (Runnable r : scheduled) {
+            r.run();
+        }
+    }
+
+    private RcsContactUceCapability createCapability(Uri contact) {
+        return new RcsContactUceCapability.OptionsBuilder(contact).build();
+    }
+
+    private UceRequestScheduler createScheduler() {
+        return new UceRequestScheduler(0 /*slotId*/, mExecutor,
+                (contacts, callback) -> mDispatched.add(new Dispatched(contacts, callback)),
+                new UceRequestScheduler.Config() {
+                    @Override
+                    public int getMaxBatchSize() {
+                        return mMaxBatchSize;
+                    }
+
+                    @Override
+                    public long getMergeWindowMs() {
+                        return mMergeWindowMs;
+                    }
+
+                    @Override
+                    public long getMinDispatchIntervalMs() {
+                        return mMinDispatchIntervalMs;
+                    }
+                }, () -> mTimeMs);
+    }
+}
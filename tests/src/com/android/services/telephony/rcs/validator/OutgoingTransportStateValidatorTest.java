@@ -143,6 +143,22 @@ public class OutgoingTransportStateValidatorTest  extends TelephonyTestBase {
                 result.restrictedReason);
     }
 
+    @Test
+    public void testDeniedFeatureTagNotInterned() {
+        SipMessage testMessage = generateSipRequestForCallId("callId1");
+        OutgoingTransportStateValidator validator =
+                new OutgoingTransportStateValidator(mMockSessionTracker);
+
+        // The denied tag was requested by an app and is not in the FeatureTagRegistry, it must
+        // still be matched by name, ignoring the case of the name.
+        validator.open(Collections.singleton("+other"), Collections.singleton(" +TAG "));
+        validator.restrictFeatureTags(Collections.emptySet());
+        ValidationResult result = validator.validate(testMessage);
+        assertFalse(result.isValidated);
+        assertEquals(SipDelegateManager.MESSAGE_FAILURE_REASON_INVALID_FEATURE_TAG,
+                result.restrictedReason);
+    }
+
     @Test
     public void testRestrictedFeatureTag() {
         SipMessage testMessage = generateSipRequestForCallId("callId1");